@@ -0,0 +1,135 @@
+package com.tiger.analytics.benchmark;
+
+import io.micrometer.core.instrument.Gauge;
+import io.micrometer.core.instrument.MeterRegistry;
+import java.io.IOException;
+import java.net.URI;
+import java.net.http.HttpClient;
+import java.net.http.HttpRequest;
+import java.net.http.HttpResponse;
+import java.nio.file.Path;
+import java.util.Arrays;
+import java.util.concurrent.ThreadLocalRandom;
+import java.util.concurrent.TimeUnit;
+import java.util.concurrent.atomic.AtomicInteger;
+import java.util.concurrent.atomic.LongAdder;
+import org.openjdk.jmh.annotations.Benchmark;
+import org.openjdk.jmh.annotations.BenchmarkMode;
+import org.openjdk.jmh.annotations.Fork;
+import org.openjdk.jmh.annotations.Level;
+import org.openjdk.jmh.annotations.Measurement;
+import org.openjdk.jmh.annotations.Mode;
+import org.openjdk.jmh.annotations.OutputTimeUnit;
+import org.openjdk.jmh.annotations.Param;
+import org.openjdk.jmh.annotations.Scope;
+import org.openjdk.jmh.annotations.Setup;
+import org.openjdk.jmh.annotations.State;
+import org.openjdk.jmh.annotations.TearDown;
+import org.openjdk.jmh.annotations.Threads;
+import org.openjdk.jmh.annotations.Warmup;
+import org.springframework.context.ConfigurableApplicationContext;
+
+/**
+ * Local load test of admission control: ten times more clients than the catalog serves at
+ * full throughput (about 16 on a small machine, run with -t 16 for the unloaded baseline)
+ * send page reads or updates without pause, with admission control on and off. JMH reports
+ * the throughput of all responses, rejections included; after each iteration the benchmark
+ * prints the percentiles of the admitted requests alone and how many were rejected, which is
+ * where the difference shows: with admission control the p99 of admitted requests stays near
+ * the unloaded one, without it every request queues behind all others.
+ */
+@State(Scope.Benchmark)
+@Warmup(iterations = 3, time = 10)
+@Measurement(iterations = 3, time = 10)
+@Fork(value = 1, jvmArgs = {"-Xmx2g"})
+@Threads(160)
+public class AdmissionControlBenchmark {
+
+  private static final int MAX_SAMPLES = 1 << 22;
+
+  @Param({"true", "false"})
+  boolean admission;
+
+  @Param({"100000"})
+  int rows;
+
+  private ConfigurableApplicationContext context;
+  private HttpClient httpClient;
+  private String baseUrl;
+  private final long[] latencies = new long[MAX_SAMPLES];
+  private final AtomicInteger samples = new AtomicInteger();
+  private final LongAdder rejected = new LongAdder();
+
+  @Setup(Level.Trial)
+  public void setUp() throws IOException {
+    Path catalog = CatalogGenerator.generate(rows);
+    context = CatalogContext.start(catalog, "--admission.enabled=" + admission);
+    baseUrl = "http://localhost:" + context.getEnvironment().getProperty("local.server.port") + "/products";
+    httpClient = HttpClient.newBuilder().version(HttpClient.Version.HTTP_1_1).build();
+  }
+
+  @TearDown(Level.Iteration)
+  public void report() {
+    int count = Math.min(samples.getAndSet(0), MAX_SAMPLES);
+    long[] sorted = Arrays.copyOf(latencies, count);
+    Arrays.sort(sorted);
+    System.out.printf("%nadmitted %d, rejected %d, admitted p50 %.2f ms, p99 %.2f ms, p99.9 %.2f ms, limits read %s write %s%n", count, rejected.sumThenReset(),
+        percentile(sorted, 0.5), percentile(sorted, 0.99), percentile(sorted, 0.999), limit("read"), limit("write"));
+  }
+
+  private String limit(String budget) {
+    Gauge limit = context.getBean(MeterRegistry.class).find("admission.limit").tag("budget", budget).gauge();
+    return admission ? String.valueOf((int) limit.value()) : "none";
+  }
+
+  @TearDown(Level.Trial)
+  public void tearDown() {
+    context.close();
+  }
+
+  @Benchmark
+  @BenchmarkMode(Mode.Throughput)
+  @OutputTimeUnit(TimeUnit.MILLISECONDS)
+  public int update() throws Exception {
+    int index = 1 + ThreadLocalRandom.current().nextInt(rows);
+    String body = "{\"storeId\":\"PSID-" + (index % 500) + "\",\"sku\":\"" + CatalogGenerator.sku(index) + "\",\"productName\":\"Product " + index
+        + "\",\"price\":" + (ThreadLocalRandom.current().nextInt(100000) / 100d) + ",\"date\":\"08/06/22\"}";
+    return send(HttpRequest.newBuilder(URI.create(baseUrl + "/update"))
+        .header("Content-Type", "application/json")
+        .PUT(HttpRequest.BodyPublishers.ofString(body))
+        .build());
+  }
+
+  @Benchmark
+  @BenchmarkMode(Mode.Throughput)
+  @OutputTimeUnit(TimeUnit.MILLISECONDS)
+  public int readPage() throws Exception {
+    int storeId = ThreadLocalRandom.current().nextInt(500);
+    return send(HttpRequest.newBuilder(URI.create(baseUrl + "/view?storeId=PSID-" + storeId + "&size=20")).GET().build());
+  }
+
+  private int send(HttpRequest request) throws Exception {
+    long start = System.nanoTime();
+    HttpResponse<Void> response = httpClient.send(request, HttpResponse.BodyHandlers.discarding());
+    int status = response.statusCode();
+    if (status == 429 || status == 503) {
+      rejected.increment();
+      // back off as asked, spread over up to twice the time so clients do not return at once
+      long retryAfterMillis = TimeUnit.SECONDS.toMillis(response.headers().firstValueAsLong("Retry-After").orElse(1));
+      Thread.sleep(retryAfterMillis + ThreadLocalRandom.current().nextLong(retryAfterMillis + 1));
+    } else {
+      int sample = samples.getAndIncrement();
+      if (sample < MAX_SAMPLES) {
+        latencies[sample] = System.nanoTime() - start;
+      }
+    }
+    return status;
+  }
+
+  private static double percentile(long[] sorted, double quantile) {
+    if (sorted.length == 0) {
+      return Double.NaN;
+    }
+    return sorted[(int) Math.min(sorted.length - 1, Math.ceil(quantile * sorted.length) - 1)] / 1e6;
+  }
+}
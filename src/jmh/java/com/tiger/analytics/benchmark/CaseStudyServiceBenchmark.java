@@ -0,0 +1,155 @@
+package com.tiger.analytics.benchmark;
+
+import com.tiger.analytics.controller.CaseStudyController;
+import com.tiger.analytics.model.ProductBatch;
+import com.tiger.analytics.model.ProductStats;
+import com.tiger.analytics.model.StoreProduct;
+import com.tiger.analytics.repository.ProductCatalog;
+import com.tiger.analytics.service.CaseStudyService;
+import java.io.IOException;
+import java.io.OutputStream;
+import java.nio.file.Path;
+import java.util.ArrayList;
+import java.util.List;
+import java.util.concurrent.ThreadLocalRandom;
+import java.util.concurrent.TimeUnit;
+import java.util.concurrent.atomic.AtomicInteger;
+import org.openjdk.jmh.annotations.Benchmark;
+import org.openjdk.jmh.annotations.BenchmarkMode;
+import org.openjdk.jmh.annotations.Fork;
+import org.openjdk.jmh.annotations.Level;
+import org.openjdk.jmh.annotations.Measurement;
+import org.openjdk.jmh.annotations.Mode;
+import org.openjdk.jmh.annotations.OutputTimeUnit;
+import org.openjdk.jmh.annotations.Param;
+import org.openjdk.jmh.annotations.Scope;
+import org.openjdk.jmh.annotations.Setup;
+import org.openjdk.jmh.annotations.State;
+import org.openjdk.jmh.annotations.TearDown;
+import org.openjdk.jmh.annotations.Warmup;
+import org.openjdk.jmh.infra.Blackhole;
+import org.springframework.context.ConfigurableApplicationContext;
+import org.springframework.http.HttpHeaders;
+import org.springframework.http.ResponseEntity;
+import org.springframework.web.servlet.mvc.method.annotation.StreamingResponseBody;
+
+/**
+ * Read and write paths of CaseStudyService against generated catalogs. Lookups report
+ * throughput, writes report latency distributions since every write waits for a log sync.
+ */
+@State(Scope.Benchmark)
+@Warmup(iterations = 3, time = 2)
+@Measurement(iterations = 5, time = 2)
+@Fork(1)
+public class CaseStudyServiceBenchmark {
+
+  @Param({"1000", "100000", "1000000"})
+  int rows;
+
+  private ConfigurableApplicationContext context;
+  private ProductCatalog productCatalog;
+  private CaseStudyService caseStudyService;
+  private CaseStudyController caseStudyController;
+  private final AtomicInteger created = new AtomicInteger();
+
+  @Setup(Level.Trial)
+  public void setUp() throws IOException {
+    Path catalog = CatalogGenerator.generate(rows);
+    context = CatalogContext.start(catalog);
+    productCatalog = context.getBean(ProductCatalog.class);
+    caseStudyService = context.getBean(CaseStudyService.class);
+    caseStudyController = context.getBean(CaseStudyController.class);
+  }
+
+  @TearDown(Level.Trial)
+  public void tearDown() {
+    context.close();
+  }
+
+  @Benchmark
+  @BenchmarkMode(Mode.Throughput)
+  @OutputTimeUnit(TimeUnit.MICROSECONDS)
+  public StoreProduct lookupSku() throws Exception {
+    return productCatalog.findBySku(CatalogGenerator.sku(1 + ThreadLocalRandom.current().nextInt(rows)));
+  }
+
+  /**
+   * A checkout sized batch of 100 skus, a tenth of them unknown
+   */
+  @Benchmark
+  @BenchmarkMode(Mode.Throughput)
+  @OutputTimeUnit(TimeUnit.MILLISECONDS)
+  public ProductBatch lookupBatch() throws Exception {
+    List<String> skus = new ArrayList<>(100);
+    for (int i = 0; i < 100; i++) {
+      int index = 1 + ThreadLocalRandom.current().nextInt(rows);
+      skus.add(i % 10 == 0 ? CatalogGenerator.sku(rows + index) : CatalogGenerator.sku(index));
+    }
+    return caseStudyService.getProducts(skus);
+  }
+
+  @Benchmark
+  @BenchmarkMode(Mode.SampleTime)
+  @OutputTimeUnit(TimeUnit.MICROSECONDS)
+  public void updateProduct() throws Exception {
+    int index = 1 + ThreadLocalRandom.current().nextInt(rows);
+    caseStudyService.updateProduct(product(CatalogGenerator.sku(index), index));
+  }
+
+  @Benchmark
+  @BenchmarkMode(Mode.SampleTime)
+  @OutputTimeUnit(TimeUnit.MICROSECONDS)
+  public void createProduct() throws Exception {
+    int index = rows + created.incrementAndGet();
+    caseStudyService.createProduct(product(CatalogGenerator.sku(index), index));
+  }
+
+  @Benchmark
+  @BenchmarkMode(Mode.SampleTime)
+  @OutputTimeUnit(TimeUnit.MICROSECONDS)
+  public ProductStats productStats() throws Exception {
+    return caseStudyService.getProductStats(null);
+  }
+
+  @Benchmark
+  @BenchmarkMode(Mode.AverageTime)
+  @OutputTimeUnit(TimeUnit.MILLISECONDS)
+  public void viewSerialization(Blackhole blackhole) throws IOException {
+    ResponseEntity<StreamingResponseBody> response = caseStudyController.getProducts(null, null, null, null, null, null, null, new HttpHeaders());
+    response.getBody().writeTo(new BlackholeOutputStream(blackhole));
+  }
+
+  private static StoreProduct product(String sku, int index) {
+    StoreProduct storeProduct = new StoreProduct();
+    storeProduct.setStoreId("PSID-" + (index % 500));
+    storeProduct.setSku(sku);
+    storeProduct.setProductName("Product " + index);
+    storeProduct.setPrice(ThreadLocalRandom.current().nextInt(100000) / 100d);
+    storeProduct.setDate("08/06/22");
+    storeProduct.setDescription("<p>Benchmark description " + index + "</p>");
+    storeProduct.setImageUrl("https://burst.shopifycdn.com/photos/product-" + index + "_925x.jpg");
+    return storeProduct;
+  }
+
+  /**
+   * Counts bytes instead of buffering them, so serialization cost is measured without the
+   * allocation of a response buffer
+   */
+  private static final class BlackholeOutputStream extends OutputStream {
+    private final Blackhole blackhole;
+
+    private BlackholeOutputStream(Blackhole blackhole) {
+      this.blackhole = blackhole;
+    }
+
+    @Override
+    public void write(int b) {
+      blackhole.consume(b);
+    }
+
+    @Override
+    public void write(byte[] bytes, int offset, int length) {
+      blackhole.consume(length);
+    }
+  }
+}
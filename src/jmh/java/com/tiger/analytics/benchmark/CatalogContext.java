@@ -0,0 +1,27 @@
+package com.tiger.analytics.benchmark;
+
+import com.tiger.analytics.App;
+import java.nio.file.Path;
+import org.springframework.boot.builder.SpringApplicationBuilder;
+import org.springframework.context.ConfigurableApplicationContext;
+
+/**
+ * Boots the application on a random port against a generated catalog, so benchmarks
+ * exercise the same beans and configuration as production.
+ */
+final class CatalogContext {
+
+  private CatalogContext() {
+  }
+
+  static ConfigurableApplicationContext start(Path catalog, String... args) {
+    String[] arguments = new String[args.length + 3];
+    arguments[0] = "--catalog.file=" + catalog;
+    arguments[1] = "--server.port=0";
+    arguments[2] = "--logging.level.root=WARN";
+    System.arraycopy(args, 0, arguments, 3, args.length);
+    return new SpringApplicationBuilder(App.class)
+        .logStartupInfo(false)
+        .run(arguments);
+  }
+}
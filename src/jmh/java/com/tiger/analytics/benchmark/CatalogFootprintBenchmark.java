@@ -0,0 +1,100 @@
+package com.tiger.analytics.benchmark;
+
+import com.tiger.analytics.repository.ProductCatalog;
+import java.io.IOException;
+import java.lang.management.ManagementFactory;
+import java.lang.management.MemoryMXBean;
+import java.nio.file.Path;
+import java.util.concurrent.TimeUnit;
+import org.openjdk.jmh.annotations.AuxCounters;
+import org.openjdk.jmh.annotations.Benchmark;
+import org.openjdk.jmh.annotations.BenchmarkMode;
+import org.openjdk.jmh.annotations.Fork;
+import org.openjdk.jmh.annotations.Level;
+import org.openjdk.jmh.annotations.Measurement;
+import org.openjdk.jmh.annotations.Mode;
+import org.openjdk.jmh.annotations.OutputTimeUnit;
+import org.openjdk.jmh.annotations.Param;
+import org.openjdk.jmh.annotations.Scope;
+import org.openjdk.jmh.annotations.Setup;
+import org.openjdk.jmh.annotations.State;
+import org.openjdk.jmh.annotations.TearDown;
+import org.openjdk.jmh.annotations.Warmup;
+import org.springframework.beans.factory.config.AutowireCapableBeanFactory;
+import org.springframework.context.ConfigurableApplicationContext;
+
+/**
+ * Retained heap per product for each catalog storage, reported as the bytesPerProduct
+ * secondary result. Heap use is sampled after a full collection before and after a catalog
+ * is loaded, so the figure covers rows, indexes and dictionaries. Event counters add up
+ * across iterations, hence a single measured iteration.
+ */
+@State(Scope.Benchmark)
+@BenchmarkMode(Mode.SingleShotTime)
+@OutputTimeUnit(TimeUnit.MILLISECONDS)
+@Warmup(iterations = 1)
+@Measurement(iterations = 1)
+@Fork(value = 1, jvmArgsAppend = {"-Xmx4g", "-XX:+UseParallelGC"})
+public class CatalogFootprintBenchmark {
+
+  @Param({"100000", "1000000"})
+  int rows;
+
+  @Param({"heap", "columnar", "mapped"})
+  String storage;
+
+  private ConfigurableApplicationContext context;
+  private AutowireCapableBeanFactory beanFactory;
+  private ProductCatalog productCatalog;
+
+  /**
+   * Per invocation footprint, reset before every load
+   */
+  @State(Scope.Thread)
+  @AuxCounters(AuxCounters.Type.EVENTS)
+  public static class Footprint {
+    public double bytesPerProduct;
+
+    @Setup(Level.Invocation)
+    public void reset() {
+      bytesPerProduct = 0;
+    }
+  }
+
+  @Setup(Level.Trial)
+  public void setUp() throws IOException {
+    Path catalog = CatalogGenerator.generate(rows);
+    context = CatalogContext.start(catalog, "--catalog.storage=" + storage);
+    beanFactory = context.getAutowireCapableBeanFactory();
+  }
+
+  @TearDown(Level.Invocation)
+  public void release() {
+    if (productCatalog != null) {
+      beanFactory.destroyBean(productCatalog);
+      productCatalog = null;
+    }
+  }
+
+  @TearDown(Level.Trial)
+  public void tearDown() {
+    context.close();
+  }
+
+  @Benchmark
+  public int load(Footprint footprint) throws Exception {
+    long before = usedHeap();
+    productCatalog = beanFactory.createBean(ProductCatalog.class);
+    int size = productCatalog.size();
+    footprint.bytesPerProduct = (double) (usedHeap() - before) / size;
+    return size;
+  }
+
+  private static long usedHeap() {
+    MemoryMXBean memory = ManagementFactory.getMemoryMXBean();
+    for (int i = 0; i < 3; i++) {
+      memory.gc();
+    }
+    return memory.getHeapMemoryUsage().getUsed();
+  }
+}
@@ -0,0 +1,64 @@
+package com.tiger.analytics.benchmark;
+
+import java.io.BufferedWriter;
+import java.io.IOException;
+import java.nio.charset.StandardCharsets;
+import java.nio.file.Files;
+import java.nio.file.Path;
+import java.util.Random;
+
+/**
+ * Generates synthetic ProductList.csv files shaped like the real catalog: a few hundred
+ * stores, a handful of dates, html descriptions and image urls.
+ */
+public final class CatalogGenerator {
+
+  private static final int STORES = 500;
+  private static final String[] DATES = {"08/06/22", "09/06/22", "10/06/2022", "11/06/22"};
+
+  private CatalogGenerator() {
+  }
+
+  /**
+   * Write a catalog with the given number of products into a fresh temporary directory
+   * @param rows
+   * @return path of the generated csv
+   * @throws IOException
+   */
+  public static Path generate(int rows) throws IOException {
+    return generate(rows, STORES);
+  }
+
+  /**
+   * Write a catalog with the given number of products spread over a number of stores into a
+   * fresh temporary directory. The sample ProductList.csv has about ten stores.
+   * @param rows
+   * @param stores
+   * @return path of the generated csv
+   * @throws IOException
+   */
+  public static Path generate(int rows, int stores) throws IOException {
+    Path directory = Files.createTempDirectory("catalog-" + rows + "-");
+    Path catalog = directory.resolve("ProductList.csv");
+    Random random = new Random(rows);
+    try (BufferedWriter writer = Files.newBufferedWriter(catalog, StandardCharsets.UTF_8)) {
+      writer.write("\"productIndex\",\"storeId\",\"sku\",\"productName\",\"price\",\"date\",\"description\",\"imageUrl\"\n");
+      for (int i = 1; i <= rows; i++) {
+        writer.write('"' + String.valueOf(i) + "\",\"PSID-" + random.nextInt(stores) + "\",\"" + sku(i)
+            + "\",\"Product " + i + "\",\"" + (random.nextInt(100000) / 100d) + "\",\"" + DATES[random.nextInt(DATES.length)]
+            + "\",\"<p>Synthetic description for product " + i + " with some filler text</p>\",\"https://burst.shopifycdn.com/photos/product-"
+            + i + "_925x.jpg\"\n");
+      }
+    }
+    return catalog;
+  }
+
+  /**
+   * Sku of the generated product with the given index
+   * @param index
+   * @return sku
+   */
+  public static String sku(int index) {
+    return "PR" + (1000000 + index);
+  }
+}
@@ -0,0 +1,67 @@
+package com.tiger.analytics.benchmark;
+
+import com.tiger.analytics.repository.ProductCatalog;
+import java.io.IOException;
+import java.nio.file.Path;
+import java.util.concurrent.TimeUnit;
+import org.openjdk.jmh.annotations.Benchmark;
+import org.openjdk.jmh.annotations.BenchmarkMode;
+import org.openjdk.jmh.annotations.Fork;
+import org.openjdk.jmh.annotations.Level;
+import org.openjdk.jmh.annotations.Measurement;
+import org.openjdk.jmh.annotations.Mode;
+import org.openjdk.jmh.annotations.OutputTimeUnit;
+import org.openjdk.jmh.annotations.Param;
+import org.openjdk.jmh.annotations.Scope;
+import org.openjdk.jmh.annotations.Setup;
+import org.openjdk.jmh.annotations.State;
+import org.openjdk.jmh.annotations.TearDown;
+import org.openjdk.jmh.annotations.Warmup;
+import org.springframework.beans.factory.config.AutowireCapableBeanFactory;
+import org.springframework.context.ConfigurableApplicationContext;
+
+/**
+ * Cold parse and index of ProductList.csv, measured as single shots since a 1M row catalog
+ * takes seconds to load.
+ */
+@State(Scope.Benchmark)
+@BenchmarkMode(Mode.SingleShotTime)
+@OutputTimeUnit(TimeUnit.MILLISECONDS)
+@Warmup(iterations = 2)
+@Measurement(iterations = 5)
+@Fork(1)
+public class CatalogLoadBenchmark {
+
+  @Param({"1000", "100000", "1000000"})
+  int rows;
+
+  private ConfigurableApplicationContext context;
+  private AutowireCapableBeanFactory beanFactory;
+  private ProductCatalog productCatalog;
+
+  @Setup(Level.Trial)
+  public void setUp() throws IOException {
+    Path catalog = CatalogGenerator.generate(rows);
+    context = CatalogContext.start(catalog);
+    beanFactory = context.getAutowireCapableBeanFactory();
+  }
+
+  @TearDown(Level.Invocation)
+  public void release() {
+    if (productCatalog != null) {
+      beanFactory.destroyBean(productCatalog);
+      productCatalog = null;
+    }
+  }
+
+  @TearDown(Level.Trial)
+  public void tearDown() {
+    context.close();
+  }
+
+  @Benchmark
+  public int parse() throws Exception {
+    productCatalog = beanFactory.createBean(ProductCatalog.class);
+    return productCatalog.size();
+  }
+}
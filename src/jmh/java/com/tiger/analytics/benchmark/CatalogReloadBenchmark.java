@@ -0,0 +1,107 @@
+package com.tiger.analytics.benchmark;
+
+import com.tiger.analytics.repository.ProductCatalog;
+import java.io.IOException;
+import java.nio.charset.StandardCharsets;
+import java.nio.file.Files;
+import java.nio.file.Path;
+import java.nio.file.StandardCopyOption;
+import java.util.Random;
+import java.util.concurrent.TimeUnit;
+import org.openjdk.jmh.annotations.Benchmark;
+import org.openjdk.jmh.annotations.BenchmarkMode;
+import org.openjdk.jmh.annotations.Fork;
+import org.openjdk.jmh.annotations.Level;
+import org.openjdk.jmh.annotations.Measurement;
+import org.openjdk.jmh.annotations.Mode;
+import org.openjdk.jmh.annotations.OutputTimeUnit;
+import org.openjdk.jmh.annotations.Param;
+import org.openjdk.jmh.annotations.Scope;
+import org.openjdk.jmh.annotations.Setup;
+import org.openjdk.jmh.annotations.State;
+import org.openjdk.jmh.annotations.TearDown;
+import org.openjdk.jmh.annotations.Warmup;
+import org.springframework.context.ConfigurableApplicationContext;
+
+/**
+ * Time from an upstream job replacing ProductList.csv with a version that differs in a few
+ * products until the catalog serves them, with the settle time of the watcher set to zero.
+ * Each shot renames a prepared copy of the file over the catalog, so writing the file is
+ * not measured.
+ */
+@State(Scope.Benchmark)
+@BenchmarkMode(Mode.SingleShotTime)
+@OutputTimeUnit(TimeUnit.MILLISECONDS)
+@Warmup(iterations = 3)
+@Measurement(iterations = 10)
+@Fork(1)
+public class CatalogReloadBenchmark {
+
+  @Param({"100000", "1000000"})
+  int rows;
+
+  @Param({"10"})
+  int changes;
+
+  private ConfigurableApplicationContext context;
+  private ProductCatalog productCatalog;
+  private Path catalog;
+  private Path edited;
+  private byte[] contents;
+  private int[] nameOffsets;
+  private final Random random = new Random(42);
+
+  @Setup(Level.Trial)
+  public void setUp() throws IOException {
+    catalog = CatalogGenerator.generate(rows);
+    edited = catalog.resolveSibling("ProductList.csv.edited");
+    contents = Files.readAllBytes(catalog);
+    nameOffsets = new int[rows];
+    byte[] name = ",\"Product ".getBytes(StandardCharsets.US_ASCII);
+    int row = 0;
+    for (int i = 0; i <= contents.length - name.length && row < rows; i++) {
+      if (regionMatches(contents, i, name)) {
+        nameOffsets[row++] = i + 2;
+      }
+    }
+    context = CatalogContext.start(catalog, "--catalog.watch.settle-millis=0", "--catalog.compaction-threshold-bytes=1073741824");
+    productCatalog = context.getBean(ProductCatalog.class);
+  }
+
+  /**
+   * Rename the product of random rows between "Product" and "Qroduct", which keeps the file
+   * size and the position of every other record
+   */
+  @Setup(Level.Invocation)
+  public void edit() throws IOException {
+    for (int i = 0; i < changes; i++) {
+      int at = nameOffsets[random.nextInt(rows)];
+      contents[at] = (byte) (contents[at] == 'P' ? 'Q' : 'P');
+    }
+    Files.write(edited, contents);
+  }
+
+  @TearDown(Level.Trial)
+  public void tearDown() {
+    context.close();
+  }
+
+  @Benchmark
+  public long reload() throws Exception {
+    long version = productCatalog.getVersion().getVersion();
+    Files.move(edited, catalog, StandardCopyOption.ATOMIC_MOVE);
+    while (productCatalog.getVersion().getVersion() == version) {
+      Thread.sleep(1);
+    }
+    return productCatalog.getVersion().getVersion();
+  }
+
+  private static boolean regionMatches(byte[] bytes, int offset, byte[] pattern) {
+    for (int j = 0; j < pattern.length; j++) {
+      if (bytes[offset + j] != pattern[j]) {
+        return false;
+      }
+    }
+    return true;
+  }
+}
@@ -0,0 +1,92 @@
+package com.tiger.analytics.benchmark;
+
+import com.tiger.analytics.security.ExecutionConfiguration;
+import java.io.IOException;
+import java.net.URI;
+import java.net.http.HttpClient;
+import java.net.http.HttpRequest;
+import java.net.http.HttpResponse;
+import java.nio.file.Path;
+import java.util.concurrent.ThreadLocalRandom;
+import java.util.concurrent.TimeUnit;
+import org.openjdk.jmh.annotations.Benchmark;
+import org.openjdk.jmh.annotations.BenchmarkMode;
+import org.openjdk.jmh.annotations.Fork;
+import org.openjdk.jmh.annotations.Level;
+import org.openjdk.jmh.annotations.Measurement;
+import org.openjdk.jmh.annotations.Mode;
+import org.openjdk.jmh.annotations.OutputTimeUnit;
+import org.openjdk.jmh.annotations.Param;
+import org.openjdk.jmh.annotations.Scope;
+import org.openjdk.jmh.annotations.Setup;
+import org.openjdk.jmh.annotations.State;
+import org.openjdk.jmh.annotations.TearDown;
+import org.openjdk.jmh.annotations.Threads;
+import org.openjdk.jmh.annotations.Warmup;
+import org.springframework.context.ConfigurableApplicationContext;
+
+/**
+ * Load test comparing execution.mode=platform and virtual over HTTP. More client threads than
+ * Tomcat's 200 platform threads send updates, which wait for a log sync, and page reads, so
+ * the platform pool saturates while virtual threads keep accepting. Reports throughput and
+ * the latency distribution of both; change the concurrency with -t.
+ *
+ * Virtual threads need the benchmark to run on JDK 21 or later; on an older JDK the virtual
+ * mode falls back to platform threads and the benchmark says so.
+ */
+@State(Scope.Benchmark)
+@Warmup(iterations = 2, time = 5)
+@Measurement(iterations = 3, time = 10)
+@Fork(value = 1, jvmArgs = {"-Xmx2g"})
+@Threads(512)
+public class ExecutionModeBenchmark {
+
+  @Param({"platform", "virtual"})
+  String mode;
+
+  @Param({"100000"})
+  int rows;
+
+  private ConfigurableApplicationContext context;
+  private HttpClient httpClient;
+  private String baseUrl;
+
+  @Setup(Level.Trial)
+  public void setUp() throws IOException {
+    Path catalog = CatalogGenerator.generate(rows);
+    context = CatalogContext.start(catalog, "--execution.mode=" + mode);
+    if (ExecutionConfiguration.VIRTUAL.equals(mode) && !context.getBean(ExecutionConfiguration.class).isVirtual()) {
+      System.out.println("Virtual threads are not available on Java " + System.getProperty("java.version") + ", measuring platform threads");
+    }
+    baseUrl = "http://localhost:" + context.getEnvironment().getProperty("local.server.port") + "/products";
+    httpClient = HttpClient.newBuilder().version(HttpClient.Version.HTTP_1_1).build();
+  }
+
+  @TearDown(Level.Trial)
+  public void tearDown() {
+    context.close();
+  }
+
+  @Benchmark
+  @BenchmarkMode({Mode.Throughput, Mode.SampleTime})
+  @OutputTimeUnit(TimeUnit.MILLISECONDS)
+  public int update() throws Exception {
+    int index = 1 + ThreadLocalRandom.current().nextInt(rows);
+    String body = "{\"storeId\":\"PSID-" + (index % 500) + "\",\"sku\":\"" + CatalogGenerator.sku(index) + "\",\"productName\":\"Product " + index
+        + "\",\"price\":" + (ThreadLocalRandom.current().nextInt(100000) / 100d) + ",\"date\":\"08/06/22\"}";
+    HttpRequest request = HttpRequest.newBuilder(URI.create(baseUrl + "/update"))
+        .header("Content-Type", "application/json")
+        .PUT(HttpRequest.BodyPublishers.ofString(body))
+        .build();
+    return httpClient.send(request, HttpResponse.BodyHandlers.discarding()).statusCode();
+  }
+
+  @Benchmark
+  @BenchmarkMode({Mode.Throughput, Mode.SampleTime})
+  @OutputTimeUnit(TimeUnit.MILLISECONDS)
+  public int readPage() throws Exception {
+    int storeId = ThreadLocalRandom.current().nextInt(500);
+    HttpRequest request = HttpRequest.newBuilder(URI.create(baseUrl + "/view?storeId=PSID-" + storeId + "&size=20")).GET().build();
+    return httpClient.send(request, HttpResponse.BodyHandlers.discarding()).statusCode();
+  }
+}
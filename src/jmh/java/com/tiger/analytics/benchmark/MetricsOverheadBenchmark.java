@@ -0,0 +1,84 @@
+package com.tiger.analytics.benchmark;
+
+import com.tiger.analytics.model.ProductQuery;
+import com.tiger.analytics.model.StoreProduct;
+import com.tiger.analytics.repository.ProductCatalog;
+import java.io.IOException;
+import java.nio.file.Path;
+import java.util.ArrayList;
+import java.util.List;
+import java.util.concurrent.TimeUnit;
+import org.openjdk.jmh.annotations.Benchmark;
+import org.openjdk.jmh.annotations.BenchmarkMode;
+import org.openjdk.jmh.annotations.Fork;
+import org.openjdk.jmh.annotations.Level;
+import org.openjdk.jmh.annotations.Measurement;
+import org.openjdk.jmh.annotations.Mode;
+import org.openjdk.jmh.annotations.OutputTimeUnit;
+import org.openjdk.jmh.annotations.Param;
+import org.openjdk.jmh.annotations.Scope;
+import org.openjdk.jmh.annotations.Setup;
+import org.openjdk.jmh.annotations.State;
+import org.openjdk.jmh.annotations.TearDown;
+import org.openjdk.jmh.annotations.Warmup;
+import org.springframework.context.ConfigurableApplicationContext;
+
+/**
+ * Cost of the catalog meters on the cheapest timed operations, with the meters on and off
+ * through management.metrics.enable.catalog. Run with -prof gc to compare the allocation
+ * per operation, which must not grow with the meters on.
+ */
+@State(Scope.Benchmark)
+@Warmup(iterations = 3, time = 2)
+@Measurement(iterations = 5, time = 2)
+@Fork(1)
+public class MetricsOverheadBenchmark {
+
+  private static final int SKUS = 1024;
+
+  @Param({"true", "false"})
+  boolean metrics;
+
+  @Param({"100000"})
+  int rows;
+
+  private ConfigurableApplicationContext context;
+  private ProductCatalog productCatalog;
+  private final String[] skus = new String[SKUS];
+  private final ProductQuery query = new ProductQuery();
+  private final List<StoreProduct> page = new ArrayList<>();
+  private int next;
+
+  @Setup(Level.Trial)
+  public void setUp() throws IOException {
+    Path catalog = CatalogGenerator.generate(rows);
+    context = CatalogContext.start(catalog, "--management.metrics.enable.catalog=" + metrics);
+    productCatalog = context.getBean(ProductCatalog.class);
+    // skus are built up front so that only the lookup allocates
+    for (int i = 0; i < SKUS; i++) {
+      skus[i] = CatalogGenerator.sku(1 + (int) ((long) i * rows / SKUS));
+    }
+    query.setStoreId("PSID-7");
+  }
+
+  @TearDown(Level.Trial)
+  public void tearDown() {
+    context.close();
+  }
+
+  @Benchmark
+  @BenchmarkMode(Mode.AverageTime)
+  @OutputTimeUnit(TimeUnit.NANOSECONDS)
+  public StoreProduct lookupSku() throws Exception {
+    next = (next + 1) & (SKUS - 1);
+    return productCatalog.findBySku(skus[next]);
+  }
+
+  @Benchmark
+  @BenchmarkMode(Mode.AverageTime)
+  @OutputTimeUnit(TimeUnit.NANOSECONDS)
+  public int scanPage() throws Exception {
+    page.clear();
+    return productCatalog.scan(query, 0, 20, page);
+  }
+}
@@ -0,0 +1,89 @@
+package com.tiger.analytics.benchmark;
+
+import com.tiger.analytics.model.ProductSearchResult;
+import com.tiger.analytics.model.StoreProduct;
+import com.tiger.analytics.service.CaseStudyService;
+import java.io.IOException;
+import java.nio.file.Path;
+import java.util.concurrent.ThreadLocalRandom;
+import java.util.concurrent.TimeUnit;
+import org.openjdk.jmh.annotations.Benchmark;
+import org.openjdk.jmh.annotations.BenchmarkMode;
+import org.openjdk.jmh.annotations.Fork;
+import org.openjdk.jmh.annotations.Level;
+import org.openjdk.jmh.annotations.Measurement;
+import org.openjdk.jmh.annotations.Mode;
+import org.openjdk.jmh.annotations.OutputTimeUnit;
+import org.openjdk.jmh.annotations.Param;
+import org.openjdk.jmh.annotations.Scope;
+import org.openjdk.jmh.annotations.Setup;
+import org.openjdk.jmh.annotations.State;
+import org.openjdk.jmh.annotations.TearDown;
+import org.openjdk.jmh.annotations.Warmup;
+import org.springframework.context.ConfigurableApplicationContext;
+
+/**
+ * Latency distribution of /products/search queries against generated catalogs, from a
+ * single product match to queries matching every product, and of updates that reindex a
+ * product.
+ */
+@State(Scope.Benchmark)
+@Warmup(iterations = 3, time = 2)
+@Measurement(iterations = 5, time = 2)
+@Fork(value = 1, jvmArgs = {"-Xmx4g"})
+public class ProductSearchBenchmark {
+
+  @Param({"1000000"})
+  int rows;
+
+  private ConfigurableApplicationContext context;
+  private CaseStudyService caseStudyService;
+
+  @Setup(Level.Trial)
+  public void setUp() throws IOException {
+    Path catalog = CatalogGenerator.generate(rows);
+    context = CatalogContext.start(catalog);
+    caseStudyService = context.getBean(CaseStudyService.class);
+  }
+
+  @TearDown(Level.Trial)
+  public void tearDown() {
+    context.close();
+  }
+
+  /**
+   * Queries of the search benchmark only, so updates are not repeated per query
+   */
+  @State(Scope.Benchmark)
+  public static class Query {
+
+    /**
+     * A product number, an exact word, a typo, a prefix being typed and two words matching
+     * every product
+     */
+    @Param({"product 4711", "synthetic", "sythetic", "fill", "filler text"})
+    String text;
+  }
+
+  @Benchmark
+  @BenchmarkMode(Mode.SampleTime)
+  @OutputTimeUnit(TimeUnit.MICROSECONDS)
+  public ProductSearchResult search(Query query) throws Exception {
+    return caseStudyService.searchProducts(query.text, 20);
+  }
+
+  @Benchmark
+  @BenchmarkMode(Mode.SampleTime)
+  @OutputTimeUnit(TimeUnit.MICROSECONDS)
+  public void reindexOnUpdate() throws Exception {
+    int index = 1 + ThreadLocalRandom.current().nextInt(rows);
+    StoreProduct storeProduct = new StoreProduct();
+    storeProduct.setStoreId("PSID-" + (index % 500));
+    storeProduct.setSku(CatalogGenerator.sku(index));
+    storeProduct.setProductName("Product " + index + " " + Long.toString(ThreadLocalRandom.current().nextLong(), 36));
+    storeProduct.setPrice(ThreadLocalRandom.current().nextInt(100000) / 100d);
+    storeProduct.setDate("08/06/22");
+    storeProduct.setDescription("<p>Synthetic description for product " + index + " with some filler text</p>");
+    caseStudyService.updateProduct(storeProduct);
+  }
+}
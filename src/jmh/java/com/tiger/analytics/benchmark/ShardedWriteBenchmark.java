@@ -0,0 +1,74 @@
+package com.tiger.analytics.benchmark;
+
+import com.tiger.analytics.model.StoreProduct;
+import com.tiger.analytics.service.CaseStudyService;
+import java.io.IOException;
+import java.nio.file.Path;
+import java.util.concurrent.ThreadLocalRandom;
+import java.util.concurrent.TimeUnit;
+import org.openjdk.jmh.annotations.Benchmark;
+import org.openjdk.jmh.annotations.BenchmarkMode;
+import org.openjdk.jmh.annotations.Fork;
+import org.openjdk.jmh.annotations.Level;
+import org.openjdk.jmh.annotations.Measurement;
+import org.openjdk.jmh.annotations.Mode;
+import org.openjdk.jmh.annotations.OutputTimeUnit;
+import org.openjdk.jmh.annotations.Param;
+import org.openjdk.jmh.annotations.Scope;
+import org.openjdk.jmh.annotations.Setup;
+import org.openjdk.jmh.annotations.State;
+import org.openjdk.jmh.annotations.TearDown;
+import org.openjdk.jmh.annotations.Threads;
+import org.openjdk.jmh.annotations.Warmup;
+import org.springframework.context.ConfigurableApplicationContext;
+
+/**
+ * Concurrent updates of random products with the catalog files in one or more shards. Each
+ * shard syncs its own change log, so with more shards concurrent writers share fewer syncs
+ * but more syncs run at the same time.
+ */
+@State(Scope.Benchmark)
+@Warmup(iterations = 3, time = 2)
+@Measurement(iterations = 5, time = 2)
+@Fork(1)
+@Threads(32)
+public class ShardedWriteBenchmark {
+
+  @Param({"1", "4", "16"})
+  int shards;
+
+  @Param({"100000"})
+  int rows;
+
+  private ConfigurableApplicationContext context;
+  private CaseStudyService caseStudyService;
+
+  @Setup(Level.Trial)
+  public void setUp() throws IOException {
+    Path catalog = CatalogGenerator.generate(rows);
+    // the generated catalog is split into shards on start
+    context = CatalogContext.start(catalog, "--catalog.shards=" + shards);
+    caseStudyService = context.getBean(CaseStudyService.class);
+  }
+
+  @TearDown(Level.Trial)
+  public void tearDown() {
+    context.close();
+  }
+
+  @Benchmark
+  @BenchmarkMode({Mode.Throughput, Mode.SampleTime})
+  @OutputTimeUnit(TimeUnit.MILLISECONDS)
+  public void updateProduct() throws Exception {
+    int index = 1 + ThreadLocalRandom.current().nextInt(rows);
+    StoreProduct storeProduct = new StoreProduct();
+    storeProduct.setStoreId("PSID-" + (index % 500));
+    storeProduct.setSku(CatalogGenerator.sku(index));
+    storeProduct.setProductName("Product " + index);
+    storeProduct.setPrice(ThreadLocalRandom.current().nextInt(100000) / 100d);
+    storeProduct.setDate("08/06/22");
+    storeProduct.setDescription("<p>Benchmark description " + index + "</p>");
+    storeProduct.setImageUrl("https://burst.shopifycdn.com/photos/product-" + index + "_925x.jpg");
+    caseStudyService.updateProduct(storeProduct);
+  }
+}
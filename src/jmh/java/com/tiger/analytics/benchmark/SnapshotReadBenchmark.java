@@ -0,0 +1,131 @@
+package com.tiger.analytics.benchmark;
+
+import com.tiger.analytics.model.CatalogVersion;
+import com.tiger.analytics.model.ProductQuery;
+import com.tiger.analytics.model.StoreProduct;
+import com.tiger.analytics.repository.ProductCatalog;
+import java.nio.file.Path;
+import java.util.ArrayList;
+import java.util.List;
+import java.util.concurrent.ThreadLocalRandom;
+import java.util.concurrent.TimeUnit;
+import java.util.concurrent.locks.LockSupport;
+import org.openjdk.jmh.annotations.Benchmark;
+import org.openjdk.jmh.annotations.BenchmarkMode;
+import org.openjdk.jmh.annotations.Fork;
+import org.openjdk.jmh.annotations.Group;
+import org.openjdk.jmh.annotations.GroupThreads;
+import org.openjdk.jmh.annotations.Level;
+import org.openjdk.jmh.annotations.Measurement;
+import org.openjdk.jmh.annotations.Mode;
+import org.openjdk.jmh.annotations.OutputTimeUnit;
+import org.openjdk.jmh.annotations.Param;
+import org.openjdk.jmh.annotations.Scope;
+import org.openjdk.jmh.annotations.Setup;
+import org.openjdk.jmh.annotations.State;
+import org.openjdk.jmh.annotations.TearDown;
+import org.openjdk.jmh.annotations.Warmup;
+import org.springframework.context.ConfigurableApplicationContext;
+
+/**
+ * Reads of the catalog while a writer either idles or upserts batches of products as fast as
+ * it can. A read is a page of the catalog, a search, the statistics of a store or the last
+ * changes. None of them take a lock, they go by the view, index and rollups the last commit
+ * published, so a batch being applied never holds them up; with readers locked out while a
+ * batch is applied their throughput drops with every batch.
+ *
+ * What writes still cost readers is processor time and allocation: with fewer cores than
+ * reader and writer threads the writer's time slices and its garbage collections come out
+ * of the readers' throughput.
+ */
+@State(Scope.Group)
+@Warmup(iterations = 3, time = 2)
+@Measurement(iterations = 5, time = 2)
+@Fork(1)
+public class SnapshotReadBenchmark {
+
+  private static final int PAGE_SIZE = 50;
+
+  @Param({"idle", "heavy"})
+  String writes;
+
+  @Param({"page", "search", "stats", "changes"})
+  String read;
+
+  @Param({"1000"})
+  int batchSize;
+
+  @Param({"100000"})
+  int rows;
+
+  private ConfigurableApplicationContext context;
+  private ProductCatalog productCatalog;
+  private final ProductQuery query = new ProductQuery();
+
+  @Setup(Level.Trial)
+  public void setUp() throws Exception {
+    Path catalog = CatalogGenerator.generate(rows);
+    context = CatalogContext.start(catalog);
+    productCatalog = context.getBean(ProductCatalog.class);
+    // changes to read back while the writer idles
+    productCatalog.saveAll(batch(), true);
+  }
+
+  @TearDown(Level.Trial)
+  public void tearDown() {
+    context.close();
+  }
+
+  @Benchmark
+  @Group("readWrite")
+  @GroupThreads(3)
+  @BenchmarkMode({Mode.Throughput, Mode.SampleTime})
+  @OutputTimeUnit(TimeUnit.MICROSECONDS)
+  public Object read() throws Exception {
+    int index = 1 + ThreadLocalRandom.current().nextInt(rows - PAGE_SIZE);
+    switch (read) {
+      case "search":
+        return productCatalog.search("Product " + index, 10);
+      case "stats":
+        return productCatalog.stats("PSID-" + index % 500);
+      case "changes":
+        CatalogVersion current = productCatalog.view().getVersion();
+        CatalogVersion since = new CatalogVersion(current.getEpoch(), Math.max(0, current.getVersion() - PAGE_SIZE), 0);
+        return productCatalog.changesSince(since, PAGE_SIZE);
+      default:
+        List<StoreProduct> page = new ArrayList<>(PAGE_SIZE);
+        productCatalog.scan(query, index - 1, PAGE_SIZE, page);
+        return page;
+    }
+  }
+
+  @Benchmark
+  @Group("readWrite")
+  @GroupThreads(1)
+  @BenchmarkMode({Mode.Throughput, Mode.SampleTime})
+  @OutputTimeUnit(TimeUnit.MICROSECONDS)
+  public int writeBatch() throws Exception {
+    if ("idle".equals(writes)) {
+      LockSupport.parkNanos(TimeUnit.MILLISECONDS.toNanos(1));
+      return 0;
+    }
+    return productCatalog.saveAll(batch(), true).size();
+  }
+
+  private List<StoreProduct> batch() {
+    List<StoreProduct> batch = new ArrayList<>(batchSize);
+    int first = ThreadLocalRandom.current().nextInt(rows - batchSize);
+    for (int index = first + 1; index <= first + batchSize; index++) {
+      StoreProduct storeProduct = new StoreProduct();
+      storeProduct.setStoreId("PSID-" + (index % 500));
+      storeProduct.setSku(CatalogGenerator.sku(index));
+      storeProduct.setProductName("Product " + index);
+      storeProduct.setPrice(ThreadLocalRandom.current().nextInt(100000) / 100d);
+      storeProduct.setDate("08/06/22");
+      storeProduct.setDescription("<p>Benchmark description " + index + "</p>");
+      storeProduct.setImageUrl("https://burst.shopifycdn.com/photos/product-" + index + "_925x.jpg");
+      batch.add(storeProduct);
+    }
+    return batch;
+  }
+}
@@ -0,0 +1,154 @@
+package com.tiger.analytics.benchmark;
+
+import com.tiger.analytics.repository.CatalogSnapshotTool;
+import java.io.IOException;
+import java.net.ServerSocket;
+import java.net.URI;
+import java.net.http.HttpClient;
+import java.net.http.HttpRequest;
+import java.net.http.HttpResponse;
+import java.nio.file.Files;
+import java.nio.file.Path;
+import java.nio.file.Paths;
+import java.time.Duration;
+import java.util.ArrayList;
+import java.util.List;
+import java.util.concurrent.TimeUnit;
+import org.openjdk.jmh.annotations.Benchmark;
+import org.openjdk.jmh.annotations.BenchmarkMode;
+import org.openjdk.jmh.annotations.Fork;
+import org.openjdk.jmh.annotations.Level;
+import org.openjdk.jmh.annotations.Measurement;
+import org.openjdk.jmh.annotations.Mode;
+import org.openjdk.jmh.annotations.OutputTimeUnit;
+import org.openjdk.jmh.annotations.Param;
+import org.openjdk.jmh.annotations.Scope;
+import org.openjdk.jmh.annotations.Setup;
+import org.openjdk.jmh.annotations.State;
+import org.openjdk.jmh.annotations.TearDown;
+import org.openjdk.jmh.annotations.Warmup;
+
+/**
+ * Time from launching the application to the first successful /products/view, measured on a
+ * fresh JVM per shot. Every mode starts from a binary snapshot of the catalog:
+ * <pre>
+ * rebuild     no index file, the sku, store and search indexes are built on start
+ * index       indexes read from ProductList.csv.idx
+ * fast-start  index plus the fast-start profile with lazy beans and store rollups
+ * cds         fast-start from the plain jar with the class data sharing archive
+ * cds-c1      cds compiled by C1 only, with the initial heap sized for the catalog
+ * </pre>
+ * Needs the packaged application, mvn package, and for cds mvn -P cds package.
+ */
+@State(Scope.Benchmark)
+@BenchmarkMode(Mode.SingleShotTime)
+@OutputTimeUnit(TimeUnit.MILLISECONDS)
+@Warmup(iterations = 1)
+@Measurement(iterations = 3)
+@Fork(1)
+public class StartupBenchmark {
+
+  private static final Path JAR = Paths.get("target/TigerAnalytics-CaseStudy-1.0-SNAPSHOT.jar");
+  private static final Path CDS_JAR = Paths.get("target/cds/TigerAnalytics-CaseStudy-1.0-SNAPSHOT-cds.jar");
+  private static final Path CDS_ARCHIVE = Paths.get("target/cds/app.jsa");
+  private static final long TIMEOUT_MILLIS = TimeUnit.MINUTES.toMillis(5);
+  private static final String INITIAL_HEAP = "-Xms1g";
+
+  @Param({"rebuild", "index", "fast-start", "cds", "cds-c1"})
+  String mode;
+
+  @Param({"1000000"})
+  int rows;
+
+  private Path catalog;
+  private HttpClient httpClient;
+  private Process process;
+
+  @Setup(Level.Trial)
+  public void setUp() throws IOException {
+    Path jar = mode.startsWith("cds") ? CDS_JAR : JAR;
+    if (!Files.exists(jar) || mode.startsWith("cds") && !Files.exists(CDS_ARCHIVE)) {
+      throw new IllegalStateException(jar + " not found, run mvn " + (mode.startsWith("cds") ? "-P cds " : "") + "package first");
+    }
+    catalog = CatalogGenerator.generate(rows);
+    CatalogSnapshotTool.main(new String[]{"import", catalog.toString(), catalog + ".snap"});
+    if (!"rebuild".equals(mode)) {
+      CatalogSnapshotTool.main(new String[]{"index", catalog.toString(), "1"});
+    }
+    httpClient = HttpClient.newBuilder().connectTimeout(Duration.ofSeconds(1)).build();
+  }
+
+  @Setup(Level.Invocation)
+  public void removeIndex() throws IOException {
+    if ("rebuild".equals(mode)) {
+      Files.deleteIfExists(indexFile());
+    }
+  }
+
+  @TearDown(Level.Invocation)
+  public void stop() throws InterruptedException {
+    if (process != null) {
+      process.destroy();
+      if (!process.waitFor(30, TimeUnit.SECONDS)) {
+        process.destroyForcibly().waitFor();
+      }
+      process = null;
+    }
+  }
+
+  @Benchmark
+  public int firstView() throws Exception {
+    int port = freePort();
+    process = new ProcessBuilder(command(port))
+        .redirectErrorStream(true)
+        .redirectOutput(catalog.resolveSibling("startup.log").toFile())
+        .start();
+    HttpRequest request = HttpRequest.newBuilder(URI.create("http://localhost:" + port + "/products/view?size=20")).GET().build();
+    long deadline = System.currentTimeMillis() + TIMEOUT_MILLIS;
+    while (System.currentTimeMillis() < deadline) {
+      if (!process.isAlive()) {
+        throw new IllegalStateException("Application exited with " + process.exitValue() + ", see " + catalog.resolveSibling("startup.log"));
+      }
+      try {
+        HttpResponse<Void> response = httpClient.send(request, HttpResponse.BodyHandlers.discarding());
+        if (response.statusCode() == 200) {
+          return response.statusCode();
+        }
+      } catch (IOException notListeningYet) {
+        // Tomcat is not started yet
+      }
+      Thread.sleep(10);
+    }
+    throw new IllegalStateException("No successful /products/view within " + TIMEOUT_MILLIS + " ms");
+  }
+
+  private List<String> command(int port) {
+    List<String> command = new ArrayList<>();
+    command.add(Paths.get(System.getProperty("java.home"), "bin", "java").toString());
+    if (mode.startsWith("cds")) {
+      command.add("-XX:SharedArchiveFile=" + CDS_ARCHIVE.toAbsolutePath());
+    }
+    if ("cds-c1".equals(mode)) {
+      command.add("-XX:TieredStopAtLevel=1");
+      command.add(INITIAL_HEAP);
+    }
+    command.add("-jar");
+    command.add((mode.startsWith("cds") ? CDS_JAR : JAR).toAbsolutePath().toString());
+    command.add("--server.port=" + port);
+    command.add("--catalog.file=" + catalog);
+    if ("fast-start".equals(mode) || mode.startsWith("cds")) {
+      command.add("--spring.profiles.active=fast-start");
+    }
+    return command;
+  }
+
+  private Path indexFile() {
+    return catalog.resolveSibling(catalog.getFileName() + ".idx");
+  }
+
+  private static int freePort() throws IOException {
+    try (ServerSocket serverSocket = new ServerSocket(0)) {
+      return serverSocket.getLocalPort();
+    }
+  }
+}
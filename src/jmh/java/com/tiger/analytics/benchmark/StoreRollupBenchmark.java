@@ -0,0 +1,91 @@
+package com.tiger.analytics.benchmark;
+
+import com.tiger.analytics.model.ProductStats;
+import com.tiger.analytics.model.StoreProduct;
+import com.tiger.analytics.repository.ProductCatalog;
+import com.tiger.analytics.repository.ProductCatalog.SaveOutcome;
+import java.io.IOException;
+import java.nio.file.Path;
+import java.util.ArrayList;
+import java.util.List;
+import java.util.concurrent.ThreadLocalRandom;
+import java.util.concurrent.TimeUnit;
+import org.openjdk.jmh.annotations.Benchmark;
+import org.openjdk.jmh.annotations.BenchmarkMode;
+import org.openjdk.jmh.annotations.Fork;
+import org.openjdk.jmh.annotations.Level;
+import org.openjdk.jmh.annotations.Measurement;
+import org.openjdk.jmh.annotations.Mode;
+import org.openjdk.jmh.annotations.OutputTimeUnit;
+import org.openjdk.jmh.annotations.Param;
+import org.openjdk.jmh.annotations.Scope;
+import org.openjdk.jmh.annotations.Setup;
+import org.openjdk.jmh.annotations.State;
+import org.openjdk.jmh.annotations.TearDown;
+import org.openjdk.jmh.annotations.Warmup;
+import org.springframework.context.ConfigurableApplicationContext;
+
+/**
+ * Cost of keeping the store rollups current, which happens under the catalog commit lock for
+ * every changed row. With few stores every store holds a large share of the catalog, as in
+ * the sample ProductList.csv with about ten stores, so this is where a rollup whose update
+ * cost grows with the store size shows. Reports bulk upserts of 10000 existing products and
+ * reads of the statistics of all stores.
+ */
+@State(Scope.Benchmark)
+@Warmup(iterations = 3, time = 2)
+@Measurement(iterations = 5, time = 2)
+@Fork(value = 1, jvmArgs = {"-Xmx3g"})
+public class StoreRollupBenchmark {
+
+  private static final int BATCH = 10000;
+
+  @Param({"1000000"})
+  int rows;
+
+  @Param({"10", "500"})
+  int stores;
+
+  private ConfigurableApplicationContext context;
+  private ProductCatalog productCatalog;
+
+  @Setup(Level.Trial)
+  public void setUp() throws IOException {
+    Path catalog = CatalogGenerator.generate(rows, stores);
+    context = CatalogContext.start(catalog);
+    productCatalog = context.getBean(ProductCatalog.class);
+  }
+
+  @TearDown(Level.Trial)
+  public void tearDown() {
+    context.close();
+  }
+
+  @Benchmark
+  @BenchmarkMode(Mode.AverageTime)
+  @OutputTimeUnit(TimeUnit.MILLISECONDS)
+  public List<SaveOutcome> bulkUpsert() throws Exception {
+    List<StoreProduct> products = new ArrayList<>(BATCH);
+    for (int i = 0; i < BATCH; i++) {
+      int index = 1 + ThreadLocalRandom.current().nextInt(rows);
+      StoreProduct storeProduct = new StoreProduct();
+      storeProduct.setStoreId("PSID-" + ThreadLocalRandom.current().nextInt(stores));
+      storeProduct.setSku(CatalogGenerator.sku(index));
+      storeProduct.setProductName("Product " + index);
+      storeProduct.setPrice(ThreadLocalRandom.current().nextInt(100000) / 100d);
+      storeProduct.setDate("08/06/22");
+      // the text of the generated product, so the search index has nothing to change
+      storeProduct.setDescription("<p>Synthetic description for product " + index + " with some filler text</p>");
+      storeProduct.setImageUrl("https://burst.shopifycdn.com/photos/product-" + index + "_925x.jpg");
+      products.add(storeProduct);
+    }
+    return productCatalog.saveAll(products, true);
+  }
+
+  @Benchmark
+  @BenchmarkMode(Mode.AverageTime)
+  @OutputTimeUnit(TimeUnit.MICROSECONDS)
+  public ProductStats stats() throws Exception {
+    return productCatalog.stats(null);
+  }
+}
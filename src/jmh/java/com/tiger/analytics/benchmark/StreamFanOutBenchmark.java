@@ -0,0 +1,200 @@
+package com.tiger.analytics.benchmark;
+
+import com.tiger.analytics.model.StoreProduct;
+import com.tiger.analytics.service.CaseStudyService;
+import java.io.IOException;
+import java.net.InetSocketAddress;
+import java.net.Socket;
+import java.net.URI;
+import java.net.http.HttpClient;
+import java.net.http.HttpRequest;
+import java.net.http.HttpResponse;
+import java.nio.charset.StandardCharsets;
+import java.nio.file.Path;
+import java.util.ArrayList;
+import java.util.List;
+import java.util.concurrent.CompletableFuture;
+import java.util.concurrent.Flow;
+import java.util.concurrent.ThreadLocalRandom;
+import java.util.concurrent.TimeUnit;
+import java.util.concurrent.TimeoutException;
+import java.util.concurrent.atomic.AtomicInteger;
+import java.util.concurrent.atomic.AtomicLong;
+import java.util.concurrent.locks.LockSupport;
+import org.openjdk.jmh.annotations.Benchmark;
+import org.openjdk.jmh.annotations.BenchmarkMode;
+import org.openjdk.jmh.annotations.Fork;
+import org.openjdk.jmh.annotations.Level;
+import org.openjdk.jmh.annotations.Measurement;
+import org.openjdk.jmh.annotations.Mode;
+import org.openjdk.jmh.annotations.OutputTimeUnit;
+import org.openjdk.jmh.annotations.Param;
+import org.openjdk.jmh.annotations.Scope;
+import org.openjdk.jmh.annotations.Setup;
+import org.openjdk.jmh.annotations.State;
+import org.openjdk.jmh.annotations.TearDown;
+import org.openjdk.jmh.annotations.Warmup;
+import org.springframework.context.ConfigurableApplicationContext;
+
+/**
+ * Load test of /products/stream: many local subscribers hold an event stream open while
+ * products are updated, and each operation lasts from the update until every subscriber has
+ * received its event. Reports the fan-out latency distribution per subscriber count.
+ *
+ * With stalled subscribers, that many more connections subscribe and never read; larger
+ * updates first fill their socket buffers. Every other subscriber must still receive every
+ * event, which the trial checks at its end.
+ */
+@State(Scope.Benchmark)
+@Warmup(iterations = 2, time = 5)
+@Measurement(iterations = 3, time = 5)
+@Fork(value = 1, jvmArgs = {"-Xmx2g"})
+public class StreamFanOutBenchmark {
+
+  private static final long DELIVERY_TIMEOUT_NANOS = TimeUnit.SECONDS.toNanos(10);
+  private static final int STALLING_UPDATES = 64;
+  private static final int STALLING_DESCRIPTION_LENGTH = 65536;
+
+  @Param({"100", "1000", "2000"})
+  int subscribers;
+
+  @Param({"0", "4"})
+  int stalled;
+
+  @Param({"1000"})
+  int rows;
+
+  private ConfigurableApplicationContext context;
+  private CaseStudyService caseStudyService;
+  private HttpClient httpClient;
+  private final List<CompletableFuture<?>> streams = new ArrayList<>();
+  private final List<Socket> stalledStreams = new ArrayList<>();
+  private final AtomicLong updates = new AtomicLong();
+  private final AtomicInteger connected = new AtomicInteger();
+  private final AtomicLong received = new AtomicLong();
+  private final AtomicLong resyncs = new AtomicLong();
+
+  @Setup(Level.Trial)
+  public void setUp() throws Exception {
+    Path catalog = CatalogGenerator.generate(rows);
+    // a heartbeat per second so that idle streams are exercised as well
+    context = CatalogContext.start(catalog, "--catalog.stream.heartbeat-millis=1000", "--server.tomcat.max-connections=" + (subscribers + 100));
+    caseStudyService = context.getBean(CaseStudyService.class);
+    String port = context.getEnvironment().getProperty("local.server.port");
+    httpClient = HttpClient.newBuilder().version(HttpClient.Version.HTTP_1_1).build();
+    HttpRequest request = HttpRequest.newBuilder(URI.create("http://localhost:" + port + "/products/stream")).GET().build();
+    for (int subscriber = 0; subscriber < subscribers; subscriber++) {
+      streams.add(httpClient.sendAsync(request, HttpResponse.BodyHandlers.fromLineSubscriber(new EventCounter())));
+    }
+    await(() -> connected.get() >= subscribers, DELIVERY_TIMEOUT_NANOS);
+    if (stalled > 0) {
+      stall(Integer.parseInt(port));
+    }
+  }
+
+  /**
+   * Subscribe connections that never read, then send updates until their socket buffers are full
+   * @param port
+   * @throws Exception
+   */
+  private void stall(int port) throws Exception {
+    for (int subscriber = 0; subscriber < stalled; subscriber++) {
+      Socket socket = new Socket();
+      socket.setReceiveBufferSize(4096);
+      socket.connect(new InetSocketAddress("localhost", port));
+      socket.getOutputStream().write("GET /products/stream HTTP/1.1\r\nHost: localhost\r\n\r\n".getBytes(StandardCharsets.US_ASCII));
+      stalledStreams.add(socket);
+    }
+    String description = "<p>" + "x".repeat(STALLING_DESCRIPTION_LENGTH) + "</p>";
+    for (int update = 0; update < STALLING_UPDATES; update++) {
+      StoreProduct storeProduct = product(CatalogGenerator.sku(1), 1);
+      storeProduct.setDescription(description);
+      caseStudyService.updateProduct(storeProduct);
+      updates.incrementAndGet();
+    }
+    long expected = updates.get() * subscribers;
+    await(() -> received.get() + resyncs.get() >= expected, DELIVERY_TIMEOUT_NANOS * 6);
+  }
+
+  @TearDown(Level.Trial)
+  public void tearDown() throws IOException {
+    streams.forEach(stream -> stream.cancel(true));
+    for (Socket socket : stalledStreams) {
+      socket.close();
+    }
+    context.close();
+    if (resyncs.get() > 0) {
+      System.out.println("Subscribers asked to resync: " + resyncs.get());
+    }
+    if (stalled > 0 && received.get() != updates.get() * subscribers) {
+      throw new IllegalStateException("Subscribers received " + received.get() + " events beside " + stalled
+          + " stalled ones, expected " + updates.get() * subscribers);
+    }
+  }
+
+  @Benchmark
+  @BenchmarkMode(Mode.SampleTime)
+  @OutputTimeUnit(TimeUnit.MILLISECONDS)
+  public void fanOut() throws Exception {
+    long expected = received.get() + subscribers;
+    int index = 1 + ThreadLocalRandom.current().nextInt(rows);
+    caseStudyService.updateProduct(product(CatalogGenerator.sku(index), index));
+    updates.incrementAndGet();
+    await(() -> received.get() + resyncs.get() >= expected, DELIVERY_TIMEOUT_NANOS);
+  }
+
+  private interface Condition {
+    boolean met();
+  }
+
+  private static void await(Condition condition, long timeoutNanos) throws TimeoutException {
+    long deadline = System.nanoTime() + timeoutNanos;
+    while (!condition.met()) {
+      if (System.nanoTime() > deadline) {
+        throw new TimeoutException("Events not delivered within " + TimeUnit.NANOSECONDS.toSeconds(timeoutNanos) + "s");
+      }
+      LockSupport.parkNanos(10_000);
+    }
+  }
+
+  private static StoreProduct product(String sku, int index) {
+    StoreProduct storeProduct = new StoreProduct();
+    storeProduct.setStoreId("PSID-" + (index % 500));
+    storeProduct.setSku(sku);
+    storeProduct.setProductName("Product " + index);
+    storeProduct.setPrice(ThreadLocalRandom.current().nextInt(100000) / 100d);
+    storeProduct.setDate("08/06/22");
+    storeProduct.setDescription("<p>Benchmark description " + index + "</p>");
+    storeProduct.setImageUrl("https://burst.shopifycdn.com/photos/product-" + index + "_925x.jpg");
+    return storeProduct;
+  }
+
+  /**
+   * Counts change events by their id line, and resync events
+   */
+  private final class EventCounter implements Flow.Subscriber<String> {
+
+    @Override
+    public void onSubscribe(Flow.Subscription subscription) {
+      connected.incrementAndGet();
+      subscription.request(Long.MAX_VALUE);
+    }
+
+    @Override
+    public void onNext(String line) {
+      if (line.startsWith("id:")) {
+        received.incrementAndGet();
+      } else if (line.startsWith("event:resync")) {
+        resyncs.incrementAndGet();
+      }
+    }
+
+    @Override
+    public void onError(Throwable throwable) {
+    }
+
+    @Override
+    public void onComplete() {
+    }
+  }
+}
@@ -0,0 +1,102 @@
+package com.tiger.analytics.benchmark;
+
+import com.tiger.analytics.controller.CaseStudyController;
+import java.io.IOException;
+import java.io.OutputStream;
+import java.nio.file.Path;
+import java.util.concurrent.TimeUnit;
+import org.openjdk.jmh.annotations.AuxCounters;
+import org.openjdk.jmh.annotations.Benchmark;
+import org.openjdk.jmh.annotations.BenchmarkMode;
+import org.openjdk.jmh.annotations.Fork;
+import org.openjdk.jmh.annotations.Level;
+import org.openjdk.jmh.annotations.Measurement;
+import org.openjdk.jmh.annotations.Mode;
+import org.openjdk.jmh.annotations.OutputTimeUnit;
+import org.openjdk.jmh.annotations.Param;
+import org.openjdk.jmh.annotations.Scope;
+import org.openjdk.jmh.annotations.Setup;
+import org.openjdk.jmh.annotations.State;
+import org.openjdk.jmh.annotations.TearDown;
+import org.openjdk.jmh.annotations.Warmup;
+import org.springframework.context.ConfigurableApplicationContext;
+import org.springframework.http.HttpHeaders;
+import org.springframework.http.MediaType;
+import org.springframework.http.ResponseEntity;
+import org.springframework.web.servlet.mvc.method.annotation.StreamingResponseBody;
+
+/**
+ * Full product view in each wire format, with and without gzip. The score is the time to
+ * serialize (and compress) the catalog; wireBytes is the size of the response body. The view
+ * cache is turned off so every invocation writes the catalog.
+ */
+@State(Scope.Benchmark)
+@Warmup(iterations = 3, time = 5)
+@Measurement(iterations = 5, time = 5)
+@Fork(1)
+public class WireFormatBenchmark {
+
+  @Param({"application/json", "application/x-ndjson", "application/cbor", "application/x-jackson-smile"})
+  String format;
+
+  @Param({"identity", "gzip"})
+  String encoding;
+
+  @Param({"100000"})
+  int rows;
+
+  private ConfigurableApplicationContext context;
+  private CaseStudyController caseStudyController;
+  private final HttpHeaders requestHeaders = new HttpHeaders();
+
+  /**
+   * Size of the last response body
+   */
+  @State(Scope.Thread)
+  @AuxCounters(AuxCounters.Type.EVENTS)
+  public static class WireSize {
+    public double wireBytes;
+  }
+
+  @Setup(Level.Trial)
+  public void setUp() throws IOException {
+    Path catalog = CatalogGenerator.generate(rows);
+    context = CatalogContext.start(catalog, "--catalog.view-cache.max-bytes=0");
+    caseStudyController = context.getBean(CaseStudyController.class);
+    requestHeaders.setAccept(MediaType.parseMediaTypes(format));
+    requestHeaders.set(HttpHeaders.ACCEPT_ENCODING, encoding);
+  }
+
+  @TearDown(Level.Trial)
+  public void tearDown() {
+    context.close();
+  }
+
+  @Benchmark
+  @BenchmarkMode(Mode.AverageTime)
+  @OutputTimeUnit(TimeUnit.MILLISECONDS)
+  public long writeView(WireSize wireSize) throws IOException {
+    ResponseEntity<StreamingResponseBody> response = caseStudyController.getProducts(null, null, null, null, null, null, null, requestHeaders);
+    CountingOutputStream outputStream = new CountingOutputStream();
+    response.getBody().writeTo(outputStream);
+    wireSize.wireBytes = outputStream.count;
+    return outputStream.count;
+  }
+
+  /**
+   * Counts bytes instead of buffering them
+   */
+  private static final class CountingOutputStream extends OutputStream {
+    private long count;
+
+    @Override
+    public void write(int b) {
+      count++;
+    }
+
+    @Override
+    public void write(byte[] bytes, int offset, int length) {
+      count += length;
+    }
+  }
+}
@@ -0,0 +1,125 @@
+package com.tiger.analytics.benchmark;
+
+import com.tiger.analytics.model.StoreProduct;
+import com.tiger.analytics.repository.ProductCatalog;
+import java.io.IOException;
+import java.util.concurrent.ThreadLocalRandom;
+import java.util.concurrent.TimeUnit;
+import java.util.concurrent.atomic.AtomicInteger;
+import org.openjdk.jmh.annotations.Benchmark;
+import org.openjdk.jmh.annotations.BenchmarkMode;
+import org.openjdk.jmh.annotations.Fork;
+import org.openjdk.jmh.annotations.Group;
+import org.openjdk.jmh.annotations.GroupThreads;
+import org.openjdk.jmh.annotations.Level;
+import org.openjdk.jmh.annotations.Measurement;
+import org.openjdk.jmh.annotations.Mode;
+import org.openjdk.jmh.annotations.OutputTimeUnit;
+import org.openjdk.jmh.annotations.Param;
+import org.openjdk.jmh.annotations.Scope;
+import org.openjdk.jmh.annotations.Setup;
+import org.openjdk.jmh.annotations.State;
+import org.openjdk.jmh.annotations.TearDown;
+import org.openjdk.jmh.annotations.Warmup;
+import org.springframework.context.ConfigurableApplicationContext;
+
+/**
+ * Throughput of concurrent writes. Updaters each own a few skus and overwrite them with
+ * increasing values, creators add products with skus of their own, and racers all try to
+ * create the same sku until one of them wins and moves on to the next. All of them share sku
+ * lock stripes and the group commit writer. WriteContentionTest runs the same writers and
+ * checks that none of their writes is lost.
+ */
+@State(Scope.Group)
+@BenchmarkMode(Mode.Throughput)
+@OutputTimeUnit(TimeUnit.MILLISECONDS)
+@Warmup(iterations = 2, time = 2)
+@Measurement(iterations = 3, time = 2)
+@Fork(1)
+public class WriteContentionBenchmark {
+
+  private static final int OWNED_SKUS = 8;
+
+  @Param({"10000"})
+  int rows;
+
+  private ConfigurableApplicationContext context;
+  private ProductCatalog productCatalog;
+  private final AtomicInteger nextWriter = new AtomicInteger();
+  private final AtomicInteger raceRound = new AtomicInteger();
+
+  /**
+   * Id and write counts of one writer thread
+   */
+  @State(Scope.Thread)
+  public static class Writer {
+    int id;
+    int sequence;
+    int created;
+
+    @Setup(Level.Trial)
+    public void register(WriteContentionBenchmark benchmark) {
+      id = benchmark.nextWriter.getAndIncrement();
+    }
+  }
+
+  @Setup(Level.Trial)
+  public void setUp() throws IOException {
+    context = CatalogContext.start(CatalogGenerator.generate(rows));
+    productCatalog = context.getBean(ProductCatalog.class);
+  }
+
+  @TearDown(Level.Trial)
+  public void tearDown() {
+    context.close();
+  }
+
+  @Benchmark
+  @Group("contention")
+  @GroupThreads(8)
+  public boolean update(Writer writer) throws Exception {
+    // owned skus are spread over the catalog, so owners share lock stripes
+    int index = 1 + (writer.id * OWNED_SKUS + ThreadLocalRandom.current().nextInt(OWNED_SKUS)) * 7 % rows;
+    String sku = CatalogGenerator.sku(index);
+    String name = "Writer " + writer.id + " update " + ++writer.sequence;
+    if (!productCatalog.update(product(sku, name))) {
+      throw new IllegalStateException("Update of existing " + sku + " failed");
+    }
+    return true;
+  }
+
+  @Benchmark
+  @Group("contention")
+  @GroupThreads(4)
+  public boolean create(Writer writer) throws Exception {
+    String sku = "NEW-" + writer.id + "-" + writer.created;
+    String name = "Writer " + writer.id + " create";
+    if (!productCatalog.insert(product(sku, name))) {
+      throw new IllegalStateException("Create of new " + sku + " failed");
+    }
+    writer.created++;
+    return true;
+  }
+
+  @Benchmark
+  @Group("contention")
+  @GroupThreads(4)
+  public boolean race() throws Exception {
+    int round = raceRound.get();
+    boolean won = productCatalog.insert(product("RACE-" + round, "Race " + round));
+    if (won) {
+      raceRound.incrementAndGet();
+    }
+    return won;
+  }
+
+  private static StoreProduct product(String sku, String name) {
+    StoreProduct storeProduct = new StoreProduct();
+    storeProduct.setStoreId("PSID-" + Math.floorMod(sku.hashCode(), 500));
+    storeProduct.setSku(sku);
+    storeProduct.setProductName(name);
+    storeProduct.setPrice(ThreadLocalRandom.current().nextInt(100000) / 100d);
+    storeProduct.setDate("08/06/22");
+    return storeProduct;
+  }
+}
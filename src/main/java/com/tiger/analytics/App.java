@@ -2,11 +2,16 @@ package com.tiger.analytics;
 
 import org.springframework.boot.SpringApplication;
 import org.springframework.boot.autoconfigure.SpringBootApplication;
+import org.springframework.context.ConfigurableApplicationContext;
 
 @SpringBootApplication
 public class App {
 
   public static void main(String args[]) {
-    SpringApplication.run(App.class, args);
+    ConfigurableApplicationContext context = SpringApplication.run(App.class, args);
+    // startup.exit=true stops once started, the training run of the class data sharing archive
+    if (context.getEnvironment().getProperty("startup.exit", Boolean.class, false)) {
+      context.close();
+    }
   }
 }
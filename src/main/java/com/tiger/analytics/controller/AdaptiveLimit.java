@@ -0,0 +1,168 @@
+package com.tiger.analytics.controller;
+
+import java.util.concurrent.TimeUnit;
+import java.util.concurrent.locks.Condition;
+import java.util.concurrent.locks.ReentrantLock;
+
+/**
+ * Concurrency limit of one request budget that adapts to the latency it observes, in the
+ * style of a gradient limiter. Two moving averages of the request latency are kept, a short
+ * one following the last few requests and a long one standing in for the latency without
+ * queueing. While the short average stays within a tolerance of the long one the limit grows
+ * by about its square root, once requests take longer the limit shrinks in proportion, so it
+ * settles near the concurrency the server can serve without building up queues inside.
+ *
+ * Requests over the limit wait in a bounded queue for a short time, so short bursts are
+ * absorbed; a full queue or a wait that times out rejects the request right away.
+ */
+final class AdaptiveLimit {
+
+  enum Admission { ADMITTED, QUEUE_FULL, TIMED_OUT }
+
+  private static final double TOLERANCE = 1.5;
+  private static final double MIN_GRADIENT = 0.5;
+  private static final double SHORT_WINDOW = 10;
+  private static final double LONG_WINDOW = 500;
+  private static final double SMOOTHING = 0.2;
+
+  private final String name;
+  private final int minLimit;
+  private final int maxLimit;
+  private final int queueCapacity;
+  private final long maxWaitNanos;
+  private final ReentrantLock lock = new ReentrantLock();
+  private final Condition available = lock.newCondition();
+  private double estimatedLimit;
+  private volatile int limit;
+  private volatile int inFlight;
+  private volatile int waiting;
+  private double shortLatency;
+  private double longLatency;
+
+  AdaptiveLimit(String name, int initialLimit, int minLimit, int maxLimit, int queueCapacity, long maxWaitMillis) {
+    this.name = name;
+    this.minLimit = Math.max(1, minLimit);
+    this.maxLimit = Math.max(this.minLimit, maxLimit);
+    this.queueCapacity = Math.max(0, queueCapacity);
+    this.maxWaitNanos = TimeUnit.MILLISECONDS.toNanos(maxWaitMillis);
+    this.estimatedLimit = Math.min(this.maxLimit, Math.max(this.minLimit, initialLimit));
+    this.limit = (int) estimatedLimit;
+  }
+
+  String getName() {
+    return name;
+  }
+
+  int getLimit() {
+    return limit;
+  }
+
+  int getInFlight() {
+    return inFlight;
+  }
+
+  /**
+   * Number of requests waiting for a permit
+   * @return queue depth
+   */
+  int getWaiting() {
+    return waiting;
+  }
+
+  /**
+   * Method used to take a permit, waiting for one in the queue when the limit is reached
+   * @return ADMITTED when the caller holds a permit and has to release it
+   * @throws InterruptedException
+   */
+  Admission acquire() throws InterruptedException {
+    lock.lock();
+    try {
+      if (inFlight < limit && waiting == 0) {
+        inFlight++;
+        return Admission.ADMITTED;
+      }
+      if (waiting >= queueCapacity) {
+        return Admission.QUEUE_FULL;
+      }
+      waiting++;
+      try {
+        long nanos = maxWaitNanos;
+        while (inFlight >= limit) {
+          if (nanos <= 0) {
+            return Admission.TIMED_OUT;
+          }
+          nanos = available.awaitNanos(nanos);
+        }
+        inFlight++;
+        return Admission.ADMITTED;
+      } finally {
+        waiting--;
+        if (inFlight < limit && waiting > 0) {
+          available.signal();
+        }
+      }
+    } finally {
+      lock.unlock();
+    }
+  }
+
+  /**
+   * Method used to return a permit and adapt the limit to the latency of its request
+   * @param latencyNanos time the request held the permit
+   */
+  void release(long latencyNanos) {
+    lock.lock();
+    try {
+      int sampleInFlight = inFlight;
+      inFlight--;
+      adapt(latencyNanos, sampleInFlight);
+      if (inFlight < limit && waiting > 0) {
+        available.signal();
+      }
+    } finally {
+      lock.unlock();
+    }
+  }
+
+  /**
+   * Method used to return a permit without a latency sample, for requests whose duration says
+   * nothing about the load of the server
+   */
+  void release() {
+    lock.lock();
+    try {
+      inFlight--;
+      if (inFlight < limit && waiting > 0) {
+        available.signal();
+      }
+    } finally {
+      lock.unlock();
+    }
+  }
+
+  private void adapt(double latency, int sampleInFlight) {
+    if (longLatency == 0) {
+      shortLatency = latency;
+      longLatency = latency;
+      return;
+    }
+    shortLatency += (latency - shortLatency) / SHORT_WINDOW;
+    longLatency += (latency - longLatency) / LONG_WINDOW;
+    // after a spike the long average would keep the limit high for a long time, let it recover
+    if (longLatency > 2 * shortLatency) {
+      longLatency = longLatency * 0.95;
+    }
+    // a limit that is not used says nothing about the latency at that concurrency
+    if (sampleInFlight < estimatedLimit / 2) {
+      return;
+    }
+    double gradient = Math.max(MIN_GRADIENT, Math.min(1, TOLERANCE * longLatency / shortLatency));
+    double newLimit = estimatedLimit * gradient + Math.sqrt(estimatedLimit);
+    estimatedLimit = Math.max(minLimit, Math.min(maxLimit, estimatedLimit * (1 - SMOOTHING) + newLimit * SMOOTHING));
+    int previousLimit = limit;
+    limit = (int) estimatedLimit;
+    if (limit > previousLimit) {
+      available.signalAll();
+    }
+  }
+}
@@ -0,0 +1,302 @@
+package com.tiger.analytics.controller;
+
+import com.fasterxml.jackson.databind.ObjectMapper;
+import com.tiger.analytics.exception.ResponseException;
+import com.tiger.analytics.repository.CatalogMetrics;
+import io.micrometer.core.instrument.Counter;
+import io.micrometer.core.instrument.Gauge;
+import io.micrometer.core.instrument.MeterRegistry;
+import java.io.IOException;
+import java.util.Date;
+import java.util.concurrent.atomic.AtomicBoolean;
+import javax.annotation.PostConstruct;
+import javax.servlet.AsyncEvent;
+import javax.servlet.AsyncListener;
+import javax.servlet.FilterChain;
+import javax.servlet.ServletException;
+import javax.servlet.http.HttpServletRequest;
+import javax.servlet.http.HttpServletResponse;
+import org.slf4j.Logger;
+import org.slf4j.LoggerFactory;
+import org.springframework.beans.factory.annotation.Autowired;
+import org.springframework.beans.factory.annotation.Value;
+import org.springframework.core.Ordered;
+import org.springframework.core.annotation.Order;
+import org.springframework.http.HttpHeaders;
+import org.springframework.http.HttpStatus;
+import org.springframework.http.MediaType;
+import org.springframework.stereotype.Component;
+import org.springframework.web.filter.OncePerRequestFilter;
+
+/**
+ * Admission control in front of the products API. Reads and writes each have their own
+ * {@link AdaptiveLimit}, so a flood of page reads cannot starve the writes waiting for a log
+ * sync and the other way round. A request over its limit waits a short time in a bounded
+ * queue; once the queue is full it is rejected with 429 and once its wait runs out with 503,
+ * both with Retry-After and before any work is done for it, which keeps the latency of the
+ * admitted requests bounded however many more clients arrive.
+ *
+ * Views and batch gets stream their body after the handler returned, for as long as the
+ * client takes to read it. Their read permit is returned when the handler returns, so the
+ * read limit adapts to the time spent serving them and not to the speed of the client. For
+ * the streaming they hold a permit of a separate stream budget, which has a fixed limit and
+ * learns nothing from how long a stream takes.
+ *
+ * Bulk imports take as long as their file is large, so they have a fixed budget of their own
+ * instead of feeding their latency to the write limit, which one import would drive down to
+ * its minimum.
+ *
+ * The change stream is not limited, its connections stay open and hold no thread while idle.
+ * Limits, requests in flight and queue depths are published as admission.* gauges.
+ */
+@Component
+@Order(Ordered.HIGHEST_PRECEDENCE + 1)
+public class AdmissionControlFilter extends OncePerRequestFilter {
+
+  private final static Logger logger = LoggerFactory.getLogger(AdmissionControlFilter.class);
+
+  private static final String PRODUCTS = "/products/";
+  private static final String STREAM = "/products/stream";
+  private static final String VIEW = "/products/view";
+  private static final String BATCH_GET = "/products/batch-get";
+
+  @Autowired
+  CatalogMetrics catalogMetrics;
+
+  @Autowired
+  MeterRegistry meterRegistry;
+
+  @Autowired
+  ObjectMapper objectMapper;
+
+  @Value("${admission.enabled:true}")
+  private boolean enabled;
+
+  @Value("${admission.retry-after-seconds:1}")
+  private int retryAfterSeconds;
+
+  @Value("${admission.read.initial-limit:32}")
+  private int readInitialLimit;
+
+  @Value("${admission.read.min-limit:4}")
+  private int readMinLimit;
+
+  @Value("${admission.read.max-limit:256}")
+  private int readMaxLimit;
+
+  @Value("${admission.read.queue:64}")
+  private int readQueue;
+
+  @Value("${admission.read.max-wait-millis:20}")
+  private long readMaxWaitMillis;
+
+  @Value("${admission.write.initial-limit:16}")
+  private int writeInitialLimit;
+
+  @Value("${admission.write.min-limit:2}")
+  private int writeMinLimit;
+
+  @Value("${admission.write.max-limit:128}")
+  private int writeMaxLimit;
+
+  @Value("${admission.write.queue:64}")
+  private int writeQueue;
+
+  @Value("${admission.write.max-wait-millis:200}")
+  private long writeMaxWaitMillis;
+
+  @Value("${admission.bulk.limit:2}")
+  private int bulkLimit;
+
+  @Value("${admission.bulk.queue:8}")
+  private int bulkQueue;
+
+  @Value("${admission.bulk.max-wait-millis:1000}")
+  private long bulkMaxWaitMillis;
+
+  @Value("${admission.stream.limit:64}")
+  private int streamLimit;
+
+  @Value("${admission.stream.queue:64}")
+  private int streamQueue;
+
+  @Value("${admission.stream.max-wait-millis:20}")
+  private long streamMaxWaitMillis;
+
+  private AdaptiveLimit reads;
+  private AdaptiveLimit writes;
+  private AdaptiveLimit bulks;
+  private AdaptiveLimit streams;
+
+  @PostConstruct
+  public void init() {
+    reads = new AdaptiveLimit("read", readInitialLimit, readMinLimit, readMaxLimit, readQueue, readMaxWaitMillis);
+    writes = new AdaptiveLimit("write", writeInitialLimit, writeMinLimit, writeMaxLimit, writeQueue, writeMaxWaitMillis);
+    // fixed limits, bulk imports and streams are only ever released without a latency sample
+    bulks = new AdaptiveLimit("bulk", bulkLimit, bulkLimit, bulkLimit, bulkQueue, bulkMaxWaitMillis);
+    streams = new AdaptiveLimit("stream", streamLimit, streamLimit, streamLimit, streamQueue, streamMaxWaitMillis);
+    register(reads);
+    register(writes);
+    register(bulks);
+    register(streams);
+    logger.info("Admission control " + (enabled ? "enabled" : "disabled") + ".");
+  }
+
+  private void register(AdaptiveLimit budget) {
+    Gauge.builder("admission.limit", budget, AdaptiveLimit::getLimit)
+        .description("Concurrent requests admitted").tag("budget", budget.getName()).register(meterRegistry);
+    Gauge.builder("admission.in.flight", budget, AdaptiveLimit::getInFlight)
+        .description("Requests holding a permit").tag("budget", budget.getName()).register(meterRegistry);
+    Gauge.builder("admission.queue.depth", budget, AdaptiveLimit::getWaiting)
+        .description("Requests waiting for a permit").tag("budget", budget.getName()).register(meterRegistry);
+  }
+
+  @Override
+  protected boolean shouldNotFilter(HttpServletRequest request) {
+    return !enabled || budget(request) == null;
+  }
+
+  /**
+   * Budget a request counts against
+   * @param request
+   * @return budget or null when the request is not limited
+   */
+  private AdaptiveLimit budget(HttpServletRequest request) {
+    String path = request.getRequestURI().substring(request.getContextPath().length());
+    if (!path.startsWith(PRODUCTS) || path.startsWith(STREAM) || "OPTIONS".equals(request.getMethod())) {
+      return null;
+    }
+    switch (path.substring(PRODUCTS.length())) {
+      case "create":
+      case "update":
+        return writes;
+      case "bulk":
+        return bulks;
+      default:
+        return reads;
+    }
+  }
+
+  /**
+   * Check whether the body of a request's response may be streamed after the handler returned
+   * @param request
+   * @return boolean
+   */
+  private static boolean streamed(HttpServletRequest request) {
+    String path = request.getRequestURI().substring(request.getContextPath().length());
+    return path.equals(VIEW) || path.equals(BATCH_GET);
+  }
+
+  @Override
+  protected void doFilterInternal(HttpServletRequest request, HttpServletResponse response, FilterChain filterChain) throws ServletException, IOException {
+    AdaptiveLimit budget = budget(request);
+    AdaptiveLimit stream = budget == reads && streamed(request) ? streams : null;
+    // the stream permit first, a request waiting for it holds no read permit meanwhile
+    AdaptiveLimit.Admission admission = stream != null ? acquire(stream) : AdaptiveLimit.Admission.ADMITTED;
+    if (admission != AdaptiveLimit.Admission.ADMITTED) {
+      reject(response, stream, admission);
+      return;
+    }
+    admission = acquire(budget);
+    if (admission != AdaptiveLimit.Admission.ADMITTED) {
+      if (stream != null) {
+        stream.release();
+      }
+      reject(response, budget, admission);
+      return;
+    }
+    long start = System.nanoTime();
+    try {
+      filterChain.doFilter(request, response);
+    } finally {
+      if (budget == bulks) {
+        budget.release();
+      } else {
+        // the latency of the handler, not of the client reading a stream
+        budget.release(System.nanoTime() - start);
+      }
+      if (stream != null) {
+        if (request.isAsyncStarted()) {
+          // the body is written after the handler returned, the stream permit is held until the last byte
+          request.getAsyncContext().addListener(new Release(stream));
+        } else {
+          stream.release();
+        }
+      }
+    }
+  }
+
+  private static AdaptiveLimit.Admission acquire(AdaptiveLimit budget) {
+    try {
+      return budget.acquire();
+    } catch (InterruptedException interruptedException) {
+      Thread.currentThread().interrupt();
+      return AdaptiveLimit.Admission.TIMED_OUT;
+    }
+  }
+
+  /**
+   * Method used to answer a request that was not admitted
+   * @param response
+   * @param budget
+   * @param admission QUEUE_FULL or TIMED_OUT
+   * @throws IOException
+   */
+  private void reject(HttpServletResponse response, AdaptiveLimit budget, AdaptiveLimit.Admission admission) throws IOException {
+    HttpStatus status = admission == AdaptiveLimit.Admission.QUEUE_FULL ? HttpStatus.TOO_MANY_REQUESTS : HttpStatus.SERVICE_UNAVAILABLE;
+    String reason = admission == AdaptiveLimit.Admission.QUEUE_FULL
+        ? "Too many " + budget.getName() + " requests queued, retry later"
+        : "No capacity for the " + budget.getName() + " request in time, retry later";
+    ResponseException responseException = new ResponseException(new Date(), status.value(), status.getReasonPhrase(), reason);
+    catalogMetrics.countError(responseException);
+    Counter.builder("admission.rejected")
+        .description("Requests rejected by admission control")
+        .tag("budget", budget.getName())
+        .tag("status", String.valueOf(status.value()))
+        .register(meterRegistry)
+        .increment();
+    response.setStatus(status.value());
+    response.setHeader(HttpHeaders.RETRY_AFTER, String.valueOf(retryAfterSeconds));
+    response.setContentType(MediaType.APPLICATION_JSON_VALUE);
+    objectMapper.writeValue(response.getOutputStream(), responseException);
+  }
+
+  /**
+   * Releases the stream permit of an asynchronous request once it completed
+   */
+  private static final class Release implements AsyncListener {
+    private final AdaptiveLimit budget;
+    private final AtomicBoolean released = new AtomicBoolean();
+
+    private Release(AdaptiveLimit budget) {
+      this.budget = budget;
+    }
+
+    private void release() {
+      if (released.compareAndSet(false, true)) {
+        budget.release();
+      }
+    }
+
+    @Override
+    public void onComplete(AsyncEvent event) {
+      release();
+    }
+
+    @Override
+    public void onTimeout(AsyncEvent event) {
+      release();
+    }
+
+    @Override
+    public void onError(AsyncEvent event) {
+      release();
+    }
+
+    @Override
+    public void onStartAsync(AsyncEvent event) {
+      // the same request keeps its permit
+      event.getAsyncContext().addListener(this);
+    }
+  }
+}
@@ -1,29 +1,56 @@
 package com.tiger.analytics.controller;
 
+import com.fasterxml.jackson.core.JsonGenerator;
+import com.fasterxml.jackson.databind.ObjectMapper;
 import com.tiger.analytics.exception.CaseStudyExceptionHandler;
 import com.tiger.analytics.exception.ResponseException;
+import com.tiger.analytics.model.BulkImportResult;
+import com.tiger.analytics.model.CatalogVersion;
+import com.tiger.analytics.model.ProductBatch;
+import com.tiger.analytics.model.ProductChange;
+import com.tiger.analytics.model.ProductChanges;
+import com.tiger.analytics.model.ProductQuery;
+import com.tiger.analytics.model.ProductSearchResult;
+import com.tiger.analytics.model.ProductStats;
 import com.tiger.analytics.model.StoreProduct;
+import com.tiger.analytics.repository.CatalogMetrics;
+import com.tiger.analytics.repository.CatalogView;
 import com.tiger.analytics.service.CaseStudyService;
 import io.swagger.v3.oas.annotations.Operation;
 import io.swagger.v3.oas.annotations.media.Content;
 import io.swagger.v3.oas.annotations.media.Schema;
 import io.swagger.v3.oas.annotations.responses.ApiResponse;
+import java.io.IOException;
+import java.io.InputStream;
+import java.io.OutputStream;
+import java.util.ArrayList;
+import java.util.Arrays;
 import java.util.Date;
 import java.util.HashMap;
 import java.util.List;
 import java.util.Map;
+import java.util.zip.GZIPOutputStream;
+import javax.servlet.http.HttpServletRequest;
+import javax.servlet.http.HttpServletResponse;
 import org.slf4j.Logger;
 import org.slf4j.LoggerFactory;
 import org.springframework.beans.factory.annotation.Autowired;
+import org.springframework.http.CacheControl;
 import org.springframework.http.HttpHeaders;
 import org.springframework.http.HttpStatus;
+import org.springframework.http.MediaType;
 import org.springframework.http.ResponseEntity;
+import org.springframework.util.CollectionUtils;
 import org.springframework.web.bind.annotation.GetMapping;
+import org.springframework.web.bind.annotation.PathVariable;
 import org.springframework.web.bind.annotation.PostMapping;
 import org.springframework.web.bind.annotation.PutMapping;
 import org.springframework.web.bind.annotation.RequestBody;
+import org.springframework.web.bind.annotation.RequestHeader;
 import org.springframework.web.bind.annotation.RequestMapping;
+import org.springframework.web.bind.annotation.RequestParam;
 import org.springframework.web.bind.annotation.RestController;
+import org.springframework.web.servlet.mvc.method.annotation.StreamingResponseBody;
 
 @RestController
 @RequestMapping("/products")
@@ -32,10 +59,49 @@ public class CaseStudyController {
   @Autowired
   CaseStudyService caseStudyService;
 
+  @Autowired
+  ObjectMapper objectMapper;
+
+  @Autowired
+  ProductViewCache productViewCache;
+
+  @Autowired
+  ProductChangeStream productChangeStream;
+
+  @Autowired
+  CatalogMetrics catalogMetrics;
+
   private final static Logger logger = LoggerFactory.getLogger(CaseStudyController.class);
 
+  public static final String NDJSON_VALUE = "application/x-ndjson";
+  public static final String CSV_VALUE = "text/csv";
+  public static final String NEXT_CURSOR_HEADER = "X-Next-Cursor";
+  public static final String CATALOG_VERSION_HEADER = "X-Catalog-Version";
+  private static final int STREAM_CHUNK_SIZE = 512;
+  private static final int GZIP_BUFFER_SIZE = 64 * 1024;
+
   /**
-   * Endpoint to get product details
+   * Endpoint to get product details. Products are streamed in chunks, as a json array, or as
+   * newline delimited json, CBOR or Smile when requested through the Accept header. With a
+   * page size the cursor of the next page is returned in the X-Next-Cursor header. Clients
+   * accepting gzip get the stream compressed as it is written.
+   *
+   * The whole response is read from the catalog view taken when the request arrived, so a
+   * streamed response is one consistent version however many writes happen meanwhile.
+   *
+   * Responses carry the catalog version as a strong ETag and Last-Modified, and a request
+   * whose If-None-Match or If-Modified-Since still matches gets 304 without reading any
+   * product. The unfiltered view is served from a serialized copy of each format, rebuilt
+   * only when the version changes. The X-Catalog-Version
+   * header is the cursor to follow later changes through /products/changes.
+   * @param storeId only products of this store
+   * @param skuPrefix only products whose sku starts with this prefix
+   * @param minPrice only products with at least this price
+   * @param maxPrice only products with at most this price
+   * @param cursor cursor returned by the previous page
+   * @param size page size
+   * @param fields comma separated fields to include
+   * @param requestHeaders Accept, Accept-Encoding and conditional request headers
    * @return products
    */
   @Operation(summary = "Get Products", responses = {
@@ -43,26 +109,417 @@ public class CaseStudyController {
           content = @Content(mediaType = "application/json",
               schema = @Schema(implementation = StoreProduct.class)))})
   @GetMapping(value = "/view")
-  public ResponseEntity<?> getProducts() {
+  public ResponseEntity<StreamingResponseBody> getProducts(
+      @RequestParam(required = false) String storeId,
+      @RequestParam(required = false) String skuPrefix,
+      @RequestParam(required = false) Double minPrice,
+      @RequestParam(required = false) Double maxPrice,
+      @RequestParam(required = false) Integer cursor,
+      @RequestParam(required = false) Integer size,
+      @RequestParam(required = false) List<String> fields,
+      @RequestHeader HttpHeaders requestHeaders
+  ) {
     HttpHeaders httpHeaders = new HttpHeaders();
     HttpStatus status;
     try {
-        List<StoreProduct> storeProducts = caseStudyService.getProductDetails();
-        status = HttpStatus.OK;
-        return new ResponseEntity<>(storeProducts, httpHeaders, status);
+      ProductQuery query = new ProductQuery();
+      query.setStoreId(storeId);
+      query.setSkuPrefix(skuPrefix);
+      query.setMinPrice(minPrice);
+      query.setMaxPrice(maxPrice);
+      query.setCursor(cursor);
+      query.setSize(size);
+      if (!CollectionUtils.isEmpty(fields)) {
+        query.setFields(fields);
+      }
+      caseStudyService.validateQuery(query);
+
+      ViewFormat viewFormat = ViewFormat.negotiate(requestHeaders.getAccept());
+      CatalogView catalogView = caseStudyService.getCatalogView();
+      CatalogVersion catalogVersion = catalogView.getVersion();
+      boolean gzip = acceptsGzip(requestHeaders);
+      setValidators(httpHeaders, catalogVersion, viewFormat, gzip);
+      if (notModified(requestHeaders, httpHeaders)) {
+        return new ResponseEntity<>(httpHeaders, HttpStatus.NOT_MODIFIED);
+      }
+      httpHeaders.setContentType(viewFormat.getMediaType());
+      if (gzip) {
+        httpHeaders.set(HttpHeaders.CONTENT_ENCODING, "gzip");
+      }
+      if (query.isUnfiltered()) {
+        byte[] body = productViewCache.get(catalogVersion, viewFormat, gzip, outputStream -> writeProducts(outputStream, viewFormat, catalogView, query, new ArrayList<>(), 0));
+        if (body != null) {
+          httpHeaders.setContentLength(body.length);
+          return new ResponseEntity<>(outputStream -> outputStream.write(body), httpHeaders, HttpStatus.OK);
+        }
+        // too large to cache, streamed instead
+      }
+      int limit = size != null ? size : STREAM_CHUNK_SIZE;
+      // First chunk is fetched before the response is committed so failures still map to a status
+      List<StoreProduct> storeProducts = new ArrayList<>(limit);
+      int next = caseStudyService.getProductDetails(catalogView, query, cursor != null ? cursor : 0, limit, storeProducts);
+      if (size != null && next >= 0) {
+        httpHeaders.set(NEXT_CURSOR_HEADER, String.valueOf(next));
+      }
+      StreamingResponseBody responseBody = outputStream -> writeProducts(gzip ? new GZIPOutputStream(outputStream, GZIP_BUFFER_SIZE) : outputStream, viewFormat, catalogView, query, storeProducts, size != null ? -1 : next);
+      status = HttpStatus.OK;
+      return new ResponseEntity<>(responseBody, httpHeaders, status);
     } catch (CaseStudyExceptionHandler caseStudyExceptionHandler) {
       logger.error("Failed to fetch product details: ", caseStudyExceptionHandler);
       status = caseStudyExceptionHandler.getExceptionCode();
       ResponseException responseException = new ResponseException(new Date(), status.value(), caseStudyExceptionHandler.getExceptionError(), caseStudyExceptionHandler.getExceptionReason());
-      return new ResponseEntity<>(responseException, httpHeaders, status);
+      catalogMetrics.countError(responseException);
+      return errorResponse(responseException, new HttpHeaders(), status);
     } catch (Exception exception) {
       logger.error("Failed to fetch product details: ", exception);
       status = HttpStatus.INTERNAL_SERVER_ERROR;
       ResponseException responseException = new ResponseException(new Date(), status.value(), status.getReasonPhrase(), "Error occurred while trying to fetch product details from CSV");
+      catalogMetrics.countError(responseException);
+      return errorResponse(responseException, new HttpHeaders(), status);
+    }
+  }
+
+  /**
+   * Set ETag and Last-Modified of a view response. Each representation of the same catalog
+   * version gets its own strong entity tag.
+   * @param httpHeaders
+   * @param catalogVersion
+   * @param viewFormat
+   * @param gzip
+   */
+  private void setValidators(HttpHeaders httpHeaders, CatalogVersion catalogVersion, ViewFormat viewFormat, boolean gzip) {
+    httpHeaders.setETag("\"" + catalogVersion.getTag() + viewFormat.getTagSuffix() + (gzip ? "-gz" : "") + "\"");
+    httpHeaders.setLastModified(catalogVersion.getLastModified());
+    httpHeaders.set(CATALOG_VERSION_HEADER, catalogVersion.getTag());
+    httpHeaders.setVary(Arrays.asList(HttpHeaders.ACCEPT, HttpHeaders.ACCEPT_ENCODING));
+    httpHeaders.setCacheControl(CacheControl.noCache());
+  }
+
+  /**
+   * Evaluate If-None-Match, or If-Modified-Since when no entity tag was sent
+   * @param requestHeaders
+   * @param httpHeaders response headers holding the current validators
+   * @return true when the client copy is still current
+   */
+  private boolean notModified(HttpHeaders requestHeaders, HttpHeaders httpHeaders) {
+    List<String> ifNoneMatch = requestHeaders.getIfNoneMatch();
+    if (!ifNoneMatch.isEmpty()) {
+      String etag = httpHeaders.getETag();
+      // weak comparison, as If-None-Match requires
+      return ifNoneMatch.stream().anyMatch(tag -> "*".equals(tag) || etag.equals(tag.startsWith("W/") ? tag.substring(2) : tag));
+    }
+    long ifModifiedSince = requestHeaders.getIfModifiedSince();
+    return ifModifiedSince >= 0 && httpHeaders.getLastModified() / 1000 <= ifModifiedSince / 1000;
+  }
+
+  private static boolean acceptsGzip(HttpHeaders requestHeaders) {
+    String acceptEncoding = requestHeaders.getFirst(HttpHeaders.ACCEPT_ENCODING);
+    return acceptEncoding != null && acceptEncoding.toLowerCase().contains("gzip");
+  }
+
+  /**
+   * Error response for endpoints that stream their body
+   * @param responseException
+   * @param httpHeaders
+   * @param status
+   * @return error
+   */
+  private ResponseEntity<StreamingResponseBody> errorResponse(ResponseException responseException, HttpHeaders httpHeaders, HttpStatus status) {
+    httpHeaders.setContentType(MediaType.APPLICATION_JSON);
+    return new ResponseEntity<>(outputStream -> objectMapper.writeValue(outputStream, responseException), httpHeaders, status);
+  }
+
+  /**
+   * Stream products chunk by chunk, so only one chunk is held in memory at a time. The
+   * generator is closed at the end, which also finishes a gzip stream.
+   * @param outputStream
+   * @param viewFormat
+   * @param catalogView view all chunks are read from
+   * @param query
+   * @param storeProducts first chunk
+   * @param next cursor of the next chunk, -1 when nothing follows
+   * @throws IOException
+   */
+  private void writeProducts(OutputStream outputStream, ViewFormat viewFormat, CatalogView catalogView, ProductQuery query, List<StoreProduct> storeProducts, int next) throws IOException {
+    boolean ndjson = viewFormat.isDelimited();
+    try (JsonGenerator generator = viewFormat.createGenerator(objectMapper, outputStream)) {
+      if (ndjson) {
+        generator.setRootValueSeparator(null);
+      } else {
+        generator.writeStartArray();
+      }
+      while (true) {
+        for (StoreProduct storeProduct : storeProducts) {
+          ProductJsonWriter.write(generator, storeProduct, query.getFields());
+          if (ndjson) {
+            generator.writeRaw('\n');
+          }
+        }
+        generator.flush();
+        if (next < 0) {
+          break;
+        }
+        storeProducts.clear();
+        next = caseStudyService.getProductDetails(catalogView, query, next, STREAM_CHUNK_SIZE, storeProducts);
+      }
+      if (!ndjson) {
+        generator.writeEndArray();
+      }
+    } catch (CaseStudyExceptionHandler caseStudyExceptionHandler) {
+      logger.error("Failed to stream product details: ", caseStudyExceptionHandler);
+      throw new IOException(caseStudyExceptionHandler.getExceptionReason(), caseStudyExceptionHandler);
+    }
+  }
+
+  /**
+   * Endpoint used to fetch the products created or updated after a cursor, so consumers can
+   * stay in sync without downloading the catalog again. Each change carries the full product.
+   * When the changes after the cursor are no longer kept, 410 asks the consumer to reload
+   * /products/view and continue from its X-Catalog-Version header.
+   * @param since cursor from the view or from the previous call
+   * @param limit maximum number of changes
+   * @return changes and the cursor for the next call
+   */
+  @Operation(summary = "Get Product Changes", responses = {
+      @ApiResponse(description = "Product changes",
+          content = @Content(mediaType = "application/json",
+              schema = @Schema(implementation = ProductChanges.class)))})
+  @GetMapping(value = "/changes")
+  public ResponseEntity<?> getProductChanges(
+      @RequestParam String since,
+      @RequestParam(defaultValue = "1000") int limit
+  ) {
+    HttpHeaders httpHeaders = new HttpHeaders();
+    HttpStatus status;
+    try {
+      ProductChanges productChanges = caseStudyService.getProductChanges(since, limit);
+      status = productChanges.isResyncRequired() ? HttpStatus.GONE : HttpStatus.OK;
+      return new ResponseEntity<>(productChanges, httpHeaders, status);
+    } catch (CaseStudyExceptionHandler caseStudyExceptionHandler) {
+      logger.error("Failed to fetch product changes: ", caseStudyExceptionHandler);
+      status = caseStudyExceptionHandler.getExceptionCode();
+      ResponseException responseException = new ResponseException(new Date(), status.value(), caseStudyExceptionHandler.getExceptionError(), caseStudyExceptionHandler.getExceptionReason());
+      catalogMetrics.countError(responseException);
+      return new ResponseEntity<>(responseException, httpHeaders, status);
+    } catch (Exception exception) {
+      logger.error("Failed to fetch product changes: ", exception);
+      status = HttpStatus.INTERNAL_SERVER_ERROR;
+      ResponseException responseException = new ResponseException(new Date(), status.value(), status.getReasonPhrase(), "Error occurred while trying to fetch product changes");
+      catalogMetrics.countError(responseException);
+      return new ResponseEntity<>(responseException, httpHeaders, status);
+    }
+  }
+
+  /**
+   * Endpoint used to search products by name and description. Every word has to match, with
+   * small typos tolerated and the last word matched as a prefix while it is being typed.
+   * Products are ranked by relevance, name matches first.
+   * @param q search text
+   * @param limit maximum number of products
+   * @return best matching products and the number of matches
+   */
+  @Operation(summary = "Search Products", responses = {
+      @ApiResponse(description = "Matching products",
+          content = @Content(mediaType = "application/json",
+              schema = @Schema(implementation = ProductSearchResult.class)))})
+  @GetMapping(value = "/search")
+  public ResponseEntity<?> searchProducts(
+      @RequestParam String q,
+      @RequestParam(defaultValue = "20") int limit
+  ) {
+    HttpHeaders httpHeaders = new HttpHeaders();
+    HttpStatus status;
+    try {
+      ProductSearchResult productSearchResult = caseStudyService.searchProducts(q, limit);
+      status = HttpStatus.OK;
+      return new ResponseEntity<>(productSearchResult, httpHeaders, status);
+    } catch (CaseStudyExceptionHandler caseStudyExceptionHandler) {
+      logger.error("Failed to search products: ", caseStudyExceptionHandler);
+      status = caseStudyExceptionHandler.getExceptionCode();
+      ResponseException responseException = new ResponseException(new Date(), status.value(), caseStudyExceptionHandler.getExceptionError(), caseStudyExceptionHandler.getExceptionReason());
+      catalogMetrics.countError(responseException);
+      return new ResponseEntity<>(responseException, httpHeaders, status);
+    } catch (Exception exception) {
+      logger.error("Failed to search products: ", exception);
+      status = HttpStatus.INTERNAL_SERVER_ERROR;
+      ResponseException responseException = new ResponseException(new Date(), status.value(), status.getReasonPhrase(), "Error occurred while trying to search products");
+      catalogMetrics.countError(responseException);
       return new ResponseEntity<>(responseException, httpHeaders, status);
     }
   }
 
+  /**
+   * Endpoint used to fetch per store product counts, price statistics (min, max, mean and
+   * percentiles) and counts per date. Statistics are kept up to date with every change, so
+   * no product is read to answer.
+   * @param storeId only this store
+   * @return statistics
+   */
+  @Operation(summary = "Get Product Statistics", responses = {
+      @ApiResponse(description = "Product statistics",
+          content = @Content(mediaType = "application/json",
+              schema = @Schema(implementation = ProductStats.class)))})
+  @GetMapping(value = "/stats")
+  public ResponseEntity<?> getProductStats(
+      @RequestParam(required = false) String storeId
+  ) {
+    HttpHeaders httpHeaders = new HttpHeaders();
+    HttpStatus status;
+    try {
+      ProductStats productStats = caseStudyService.getProductStats(storeId);
+      status = HttpStatus.OK;
+      return new ResponseEntity<>(productStats, httpHeaders, status);
+    } catch (CaseStudyExceptionHandler caseStudyExceptionHandler) {
+      logger.error("Failed to fetch product statistics: ", caseStudyExceptionHandler);
+      status = caseStudyExceptionHandler.getExceptionCode();
+      ResponseException responseException = new ResponseException(new Date(), status.value(), caseStudyExceptionHandler.getExceptionError(), caseStudyExceptionHandler.getExceptionReason());
+      catalogMetrics.countError(responseException);
+      return new ResponseEntity<>(responseException, httpHeaders, status);
+    } catch (Exception exception) {
+      logger.error("Failed to fetch product statistics: ", exception);
+      status = HttpStatus.INTERNAL_SERVER_ERROR;
+      ResponseException responseException = new ResponseException(new Date(), status.value(), status.getReasonPhrase(), "Error occurred while trying to fetch product statistics");
+      catalogMetrics.countError(responseException);
+      return new ResponseEntity<>(responseException, httpHeaders, status);
+    }
+  }
+
+  /**
+   * Endpoint used to fetch one product by sku through the sku index
+   * @param sku
+   * @return product
+   */
+  @Operation(summary = "Get Product", responses = {
+      @ApiResponse(description = "Product",
+          content = @Content(mediaType = "application/json",
+              schema = @Schema(implementation = StoreProduct.class)))})
+  @GetMapping(value = "/{sku}")
+  public ResponseEntity<?> getProduct(
+      @PathVariable String sku
+  ) {
+    HttpHeaders httpHeaders = new HttpHeaders();
+    HttpStatus status;
+    try {
+      StoreProduct storeProduct = caseStudyService.getProduct(sku);
+      status = HttpStatus.OK;
+      return new ResponseEntity<>(storeProduct, httpHeaders, status);
+    } catch (CaseStudyExceptionHandler caseStudyExceptionHandler) {
+      logger.error("Failed to fetch product: ", caseStudyExceptionHandler);
+      status = caseStudyExceptionHandler.getExceptionCode();
+      ResponseException responseException = new ResponseException(new Date(), status.value(), caseStudyExceptionHandler.getExceptionError(), caseStudyExceptionHandler.getExceptionReason());
+      catalogMetrics.countError(responseException);
+      return new ResponseEntity<>(responseException, httpHeaders, status);
+    } catch (Exception exception) {
+      logger.error("Failed to fetch product: ", exception);
+      status = HttpStatus.INTERNAL_SERVER_ERROR;
+      ResponseException responseException = new ResponseException(new Date(), status.value(), status.getReasonPhrase(), "Error occurred while trying to fetch product");
+      catalogMetrics.countError(responseException);
+      return new ResponseEntity<>(responseException, httpHeaders, status);
+    }
+  }
+
+  /**
+   * Endpoint used to fetch many products by sku in one call. All products come from the same
+   * catalog version, unknown skus are listed as missing and do not fail the batch. The
+   * response is written field by field straight to the response stream, as json, CBOR or
+   * Smile depending on the Accept header.
+   * @param skus
+   * @param requestHeaders Accept header
+   * @return products found and missing skus
+   */
+  @Operation(summary = "Get Products By Sku", responses = {
+      @ApiResponse(description = "Products and missing skus",
+          content = @Content(mediaType = "application/json",
+              schema = @Schema(implementation = ProductBatch.class)))})
+  @PostMapping(value = "/batch-get")
+  public ResponseEntity<StreamingResponseBody> getProducts(
+      @RequestBody List<String> skus,
+      @RequestHeader HttpHeaders requestHeaders
+  ) {
+    HttpHeaders httpHeaders = new HttpHeaders();
+    HttpStatus status;
+    try {
+      ProductBatch productBatch = caseStudyService.getProducts(skus);
+      // a batch is a single object, so newline delimited json is answered with json
+      ViewFormat viewFormat = ViewFormat.negotiate(requestHeaders.getAccept());
+      ViewFormat batchFormat = viewFormat.isDelimited() ? ViewFormat.JSON : viewFormat;
+      httpHeaders.setContentType(batchFormat.getMediaType());
+      status = HttpStatus.OK;
+      return new ResponseEntity<>(outputStream -> writeProductBatch(outputStream, batchFormat, productBatch), httpHeaders, status);
+    } catch (CaseStudyExceptionHandler caseStudyExceptionHandler) {
+      logger.error("Failed to fetch products: ", caseStudyExceptionHandler);
+      status = caseStudyExceptionHandler.getExceptionCode();
+      ResponseException responseException = new ResponseException(new Date(), status.value(), caseStudyExceptionHandler.getExceptionError(), caseStudyExceptionHandler.getExceptionReason());
+      catalogMetrics.countError(responseException);
+      return errorResponse(responseException, httpHeaders, status);
+    } catch (Exception exception) {
+      logger.error("Failed to fetch products: ", exception);
+      status = HttpStatus.INTERNAL_SERVER_ERROR;
+      ResponseException responseException = new ResponseException(new Date(), status.value(), status.getReasonPhrase(), "Error occurred while trying to fetch products");
+      catalogMetrics.countError(responseException);
+      return errorResponse(responseException, httpHeaders, status);
+    }
+  }
+
+  private void writeProductBatch(OutputStream outputStream, ViewFormat viewFormat, ProductBatch productBatch) throws IOException {
+    try (JsonGenerator generator = viewFormat.createGenerator(objectMapper, outputStream)) {
+      generator.writeStartObject();
+      generator.writeArrayFieldStart("products");
+      for (StoreProduct storeProduct : productBatch.getProducts()) {
+        ProductJsonWriter.write(generator, storeProduct, ProductQuery.FIELDS);
+      }
+      generator.writeEndArray();
+      generator.writeArrayFieldStart("missing");
+      for (String sku : productBatch.getMissing()) {
+        generator.writeString(sku);
+      }
+      generator.writeEndArray();
+      generator.writeEndObject();
+    }
+  }
+
+  /**
+   * Endpoint used to subscribe to product changes as Server-Sent Events. Every create and update
+   * is pushed as a "change" event once committed, with the cursor after it as event id, so a
+   * client reconnecting with Last-Event-ID first receives what it missed. A client that falls
+   * too far behind receives a "resync" event naming the cursor to catch up from through
+   * /products/changes. Idle connections receive heartbeat comments.
+   * @param lastEventId id of the last event received before reconnecting
+   * @param request
+   * @param response
+   * @throws IOException
+   */
+  @Operation(summary = "Stream Product Changes", responses = {
+      @ApiResponse(description = "Product change events",
+          content = @Content(mediaType = "text/event-stream",
+              schema = @Schema(implementation = ProductChange.class)))})
+  @GetMapping(value = "/stream", produces = MediaType.TEXT_EVENT_STREAM_VALUE)
+  public void streamProductChanges(
+      @RequestHeader(value = "Last-Event-ID", required = false) String lastEventId,
+      HttpServletRequest request,
+      HttpServletResponse response
+  ) throws IOException {
+    response.setHeader(HttpHeaders.CACHE_CONTROL, CacheControl.noStore().getHeaderValue());
+    // keeps proxies such as nginx from buffering the events
+    response.setHeader("X-Accel-Buffering", "no");
+    HttpStatus status;
+    ResponseException responseException;
+    try {
+      productChangeStream.subscribe(request, response, lastEventId);
+      return;
+    } catch (CaseStudyExceptionHandler caseStudyExceptionHandler) {
+      logger.error("Failed to subscribe to product changes: ", caseStudyExceptionHandler);
+      status = caseStudyExceptionHandler.getExceptionCode();
+      responseException = new ResponseException(new Date(), status.value(), caseStudyExceptionHandler.getExceptionError(), caseStudyExceptionHandler.getExceptionReason());
+    } catch (Exception exception) {
+      logger.error("Failed to subscribe to product changes: ", exception);
+      status = HttpStatus.INTERNAL_SERVER_ERROR;
+      responseException = new ResponseException(new Date(), status.value(), status.getReasonPhrase(), "Error occurred while trying to subscribe to product changes");
+    }
+    catalogMetrics.countError(responseException);
+    productChangeStream.reject(response, status, responseException);
+  }
+
   /**
    * Endpoint used to create products
    * @param storeProduct
@@ -89,11 +546,13 @@ public class CaseStudyController {
       logger.error("Failed to update product details: ", caseStudyExceptionHandler);
       status = caseStudyExceptionHandler.getExceptionCode();
       ResponseException responseException = new ResponseException(new Date(), status.value(), caseStudyExceptionHandler.getExceptionError(), caseStudyExceptionHandler.getExceptionReason());
+      catalogMetrics.countError(responseException);
       return new ResponseEntity<>(responseException, httpHeaders, status);
     } catch (Exception exception) {
       logger.error("Failed to update product details: ", exception);
       status = HttpStatus.INTERNAL_SERVER_ERROR;
       ResponseException responseException = new ResponseException(new Date(), status.value(), status.getReasonPhrase(), "Error occurred while trying to update product details to CSV");
+      catalogMetrics.countError(responseException);
       return new ResponseEntity<>(responseException, httpHeaders, status);
     }
   }
@@ -124,11 +583,55 @@ public class CaseStudyController {
       logger.error("Failed to update product details: ", caseStudyExceptionHandler);
       status = caseStudyExceptionHandler.getExceptionCode();
       ResponseException responseException = new ResponseException(new Date(), status.value(), caseStudyExceptionHandler.getExceptionError(), caseStudyExceptionHandler.getExceptionReason());
+      catalogMetrics.countError(responseException);
       return new ResponseEntity<>(responseException, httpHeaders, status);
     } catch (Exception exception) {
       logger.error("Failed to update product details: ", exception);
       status = HttpStatus.INTERNAL_SERVER_ERROR;
       ResponseException responseException = new ResponseException(new Date(), status.value(), status.getReasonPhrase(), "Error occurred while trying to update product details to CSV");
+      catalogMetrics.countError(responseException);
+      return new ResponseEntity<>(responseException, httpHeaders, status);
+    }
+  }
+
+  /**
+   * Endpoint used to bulk create or update products from a csv or newline delimited json body
+   * @param mode insert rejects existing skus, upsert updates them
+   * @param contentType
+   * @param inputStream
+   * @return per row result summary
+   */
+  @Operation(summary = "Bulk Import Products", responses = {
+      @ApiResponse(description = "Import summary",
+          content = @Content(mediaType = "application/json",
+              schema = @Schema(implementation = BulkImportResult.class)))})
+  @PostMapping(value = "/bulk", consumes = {CSV_VALUE, NDJSON_VALUE})
+  public ResponseEntity<?> importProducts(
+      @RequestParam(defaultValue = "upsert") String mode,
+      @RequestHeader(HttpHeaders.CONTENT_TYPE) String contentType,
+      InputStream inputStream
+  ) {
+    HttpHeaders httpHeaders = new HttpHeaders();
+    HttpStatus status;
+    try {
+      if (!"insert".equals(mode) && !"upsert".equals(mode)) {
+        throw new CaseStudyExceptionHandler(HttpStatus.BAD_REQUEST, "Invalid Request", "mode must be insert or upsert");
+      }
+      boolean csv = MediaType.parseMediaType(contentType).isCompatibleWith(MediaType.parseMediaType(CSV_VALUE));
+      BulkImportResult bulkImportResult = caseStudyService.importProducts(inputStream, csv, "upsert".equals(mode));
+      status = HttpStatus.OK;
+      return new ResponseEntity<>(bulkImportResult, httpHeaders, status);
+    } catch (CaseStudyExceptionHandler caseStudyExceptionHandler) {
+      logger.error("Failed to import product details: ", caseStudyExceptionHandler);
+      status = caseStudyExceptionHandler.getExceptionCode();
+      ResponseException responseException = new ResponseException(new Date(), status.value(), caseStudyExceptionHandler.getExceptionError(), caseStudyExceptionHandler.getExceptionReason());
+      catalogMetrics.countError(responseException);
+      return new ResponseEntity<>(responseException, httpHeaders, status);
+    } catch (Exception exception) {
+      logger.error("Failed to import product details: ", exception);
+      status = HttpStatus.INTERNAL_SERVER_ERROR;
+      ResponseException responseException = new ResponseException(new Date(), status.value(), status.getReasonPhrase(), "Error occurred while trying to import product details to CSV");
+      catalogMetrics.countError(responseException);
       return new ResponseEntity<>(responseException, httpHeaders, status);
     }
   }
@@ -0,0 +1,483 @@
+package com.tiger.analytics.controller;
+
+import com.fasterxml.jackson.core.JsonProcessingException;
+import com.fasterxml.jackson.databind.ObjectMapper;
+import com.tiger.analytics.exception.CaseStudyExceptionHandler;
+import com.tiger.analytics.exception.ResponseException;
+import com.tiger.analytics.model.CatalogVersion;
+import com.tiger.analytics.model.ProductChange;
+import com.tiger.analytics.model.ProductChanges;
+import com.tiger.analytics.service.CaseStudyService;
+import java.io.IOException;
+import java.nio.charset.StandardCharsets;
+import java.util.ArrayList;
+import java.util.Collections;
+import java.util.List;
+import java.util.Set;
+import java.util.concurrent.ArrayBlockingQueue;
+import java.util.concurrent.ConcurrentHashMap;
+import java.util.concurrent.ExecutorService;
+import java.util.concurrent.Executors;
+import java.util.concurrent.ScheduledExecutorService;
+import java.util.concurrent.TimeUnit;
+import java.util.concurrent.atomic.AtomicBoolean;
+import java.util.concurrent.atomic.AtomicInteger;
+import javax.annotation.PostConstruct;
+import javax.annotation.PreDestroy;
+import javax.servlet.AsyncContext;
+import javax.servlet.AsyncEvent;
+import javax.servlet.AsyncListener;
+import javax.servlet.ServletOutputStream;
+import javax.servlet.WriteListener;
+import javax.servlet.http.HttpServletRequest;
+import javax.servlet.http.HttpServletResponse;
+import org.slf4j.Logger;
+import org.slf4j.LoggerFactory;
+import org.springframework.beans.factory.annotation.Autowired;
+import org.springframework.beans.factory.annotation.Value;
+import org.springframework.http.HttpStatus;
+import org.springframework.http.MediaType;
+import org.springframework.stereotype.Component;
+
+/**
+ * Fans committed product changes out to Server-Sent Events subscribers. Subscribers hold no
+ * thread while idle: the commit thread only serializes each change once and offers it to
+ * every subscriber's bounded queue, and a small pool of sender threads drains the queues.
+ *
+ * Events are written through non-blocking servlet output, so a client that stops reading
+ * never holds a sender thread: its queue fills instead, and once it has accepted nothing for
+ * catalog.stream.stall-timeout-millis it is disconnected.
+ *
+ * A subscriber whose queue overflows is either disconnected, to reconnect with Last-Event-ID,
+ * or has its queue replaced by a single resync event naming the cursor to catch up from
+ * through /products/changes (catalog.stream.overflow = disconnect | drop). Heartbeat comments
+ * keep idle connections open through proxies and reveal closed ones.
+ */
+@Component
+class ProductChangeStream {
+
+  private final static Logger logger = LoggerFactory.getLogger(ProductChangeStream.class);
+
+  static final String CHANGE_EVENT = "change";
+  static final String RESYNC_EVENT = "resync";
+  static final String ERROR_EVENT = "error";
+  private static final int MAX_FRAMES_PER_DRAIN = 64;
+
+  @Autowired
+  CaseStudyService caseStudyService;
+
+  @Autowired
+  ObjectMapper objectMapper;
+
+  @Value("${catalog.stream.buffer-size:256}")
+  private int bufferSize;
+
+  @Value("${catalog.stream.overflow:drop}")
+  private String overflow;
+
+  @Value("${catalog.stream.heartbeat-millis:15000}")
+  private long heartbeatMillis;
+
+  @Value("${catalog.stream.stall-timeout-millis:10000}")
+  private long stallTimeoutMillis;
+
+  @Value("${catalog.stream.sender-threads:4}")
+  private int senderThreads;
+
+  private final Set<Subscriber> subscribers = ConcurrentHashMap.newKeySet();
+  private ExecutorService senders;
+  private ScheduledExecutorService heartbeats;
+
+  @PostConstruct
+  public void init() {
+    AtomicInteger threads = new AtomicInteger();
+    senders = Executors.newFixedThreadPool(senderThreads, runnable -> {
+      Thread thread = new Thread(runnable, "product-stream-sender-" + threads.incrementAndGet());
+      thread.setDaemon(true);
+      return thread;
+    });
+    heartbeats = Executors.newSingleThreadScheduledExecutor(runnable -> {
+      Thread thread = new Thread(runnable, "product-stream-heartbeat");
+      thread.setDaemon(true);
+      return thread;
+    });
+    heartbeats.scheduleAtFixedRate(this::heartbeat, heartbeatMillis, heartbeatMillis, TimeUnit.MILLISECONDS);
+    long stallCheckMillis = Math.max(100, stallTimeoutMillis / 4);
+    heartbeats.scheduleAtFixedRate(this::disconnectStalled, stallCheckMillis, stallCheckMillis, TimeUnit.MILLISECONDS);
+    caseStudyService.addChangeListener(this::publish);
+  }
+
+  @PreDestroy
+  public void shutdown() {
+    heartbeats.shutdownNow();
+    senders.shutdownNow();
+    for (Subscriber subscriber : subscribers) {
+      subscriber.close(null);
+    }
+  }
+
+  /**
+   * Number of connected subscribers
+   * @return count
+   */
+  int subscribers() {
+    return subscribers.size();
+  }
+
+  /**
+   * Method used to open a subscription on the request, which continues asynchronously. With a
+   * Last-Event-ID the changes after it are replayed from the change window first, so a
+   * reconnecting client misses nothing.
+   * @param request
+   * @param response
+   * @param lastEventId id of the last event the client received, or null
+   * @throws CaseStudyExceptionHandler before anything is written, e.g. for a malformed Last-Event-ID
+   */
+  void subscribe(HttpServletRequest request, HttpServletResponse response, String lastEventId) throws CaseStudyExceptionHandler {
+    CatalogVersion catalogVersion = caseStudyService.getCatalogVersion();
+    Subscriber subscriber = new Subscriber(lastEventId != null ? lastEventId : catalogVersion.getTag());
+    // registered before the replay so that nothing committed in between is missed
+    subscribers.add(subscriber);
+    ProductChanges productChanges;
+    try {
+      productChanges = lastEventId != null ? caseStudyService.getProductChanges(lastEventId, CaseStudyService.MAX_PAGE_SIZE) : null;
+    } catch (CaseStudyExceptionHandler caseStudyExceptionHandler) {
+      subscribers.remove(subscriber);
+      throw caseStudyExceptionHandler;
+    }
+    response.setContentType(MediaType.TEXT_EVENT_STREAM_VALUE + ";charset=UTF-8");
+    AsyncContext asyncContext = request.startAsync(request, response);
+    asyncContext.setTimeout(0);
+    asyncContext.addListener(subscriber);
+    try {
+      subscriber.open(asyncContext, response.getOutputStream());
+      if (productChanges != null) {
+        replay(subscriber, lastEventId, productChanges);
+      }
+      response.flushBuffer();
+    } catch (IOException | CaseStudyExceptionHandler exception) {
+      subscriber.close(exception);
+      return;
+    }
+    // switches the output to non-blocking; the container then calls onWritePossible
+    subscriber.outputStream.setWriteListener(subscriber);
+  }
+
+  /**
+   * Method used to answer a subscription that could not be opened with a single error event
+   * @param response
+   * @param status
+   * @param responseException
+   * @throws IOException
+   */
+  void reject(HttpServletResponse response, HttpStatus status, ResponseException responseException) throws IOException {
+    response.setStatus(status.value());
+    response.setContentType(MediaType.TEXT_EVENT_STREAM_VALUE + ";charset=UTF-8");
+    response.getOutputStream().write(Frame.event(ERROR_EVENT, null, objectMapper.writeValueAsString(responseException)));
+    response.flushBuffer();
+  }
+
+  /**
+   * Writes the replayed changes on the subscribing request thread, while the output still blocks
+   */
+  private void replay(Subscriber subscriber, String lastEventId, ProductChanges productChanges) throws CaseStudyExceptionHandler, IOException {
+    while (true) {
+      if (productChanges.isResyncRequired()) {
+        subscriber.write(Frame.resync(lastEventId));
+        return;
+      }
+      for (ProductChange change : productChanges.getChanges()) {
+        subscriber.write(Frame.change(change, CatalogVersion.fromTag(productChanges.getCursor()).getEpoch(), objectMapper));
+      }
+      subscriber.skipThrough = CatalogVersion.fromTag(productChanges.getCursor()).getVersion();
+      if (!productChanges.isHasMore()) {
+        return;
+      }
+      productChanges = caseStudyService.getProductChanges(productChanges.getCursor(), CaseStudyService.MAX_PAGE_SIZE);
+    }
+  }
+
+  /**
+   * Called on the commit thread. Serializes each change once, then only enqueues.
+   * @param catalogVersion
+   * @param changes
+   */
+  private void publish(CatalogVersion catalogVersion, List<ProductChange> changes) {
+    if (subscribers.isEmpty()) {
+      return;
+    }
+    if (changes.size() > bufferSize) {
+      // would overflow every queue, e.g. a bulk import
+      subscribers.forEach(Subscriber::overflow);
+      return;
+    }
+    List<Frame> frames = new ArrayList<>(changes.size());
+    try {
+      for (ProductChange change : changes) {
+        frames.add(Frame.change(change, catalogVersion.getEpoch(), objectMapper));
+      }
+    } catch (JsonProcessingException jsonProcessingException) {
+      logger.error("Unable to serialize product change." + jsonProcessingException);
+      subscribers.forEach(Subscriber::overflow);
+      return;
+    }
+    for (Subscriber subscriber : subscribers) {
+      subscriber.offer(frames);
+    }
+  }
+
+  private void heartbeat() {
+    for (Subscriber subscriber : subscribers) {
+      subscriber.offer(Collections.singletonList(Frame.HEARTBEAT));
+    }
+  }
+
+  private void disconnectStalled() {
+    long now = System.nanoTime();
+    for (Subscriber subscriber : subscribers) {
+      if (subscriber.blocked && now - subscriber.blockedSince > TimeUnit.MILLISECONDS.toNanos(stallTimeoutMillis)) {
+        logger.info("Disconnecting a subscriber that accepted no data for " + stallTimeoutMillis + "ms");
+        subscriber.disconnect();
+      }
+    }
+  }
+
+  /**
+   * One event, encoded once and shared by all subscribers
+   */
+  private static final class Frame {
+    private static final Frame HEARTBEAT = new Frame(0, null, ":heartbeat\n\n".getBytes(StandardCharsets.UTF_8));
+    // placeholder, written as a resync event naming the subscriber's last event id
+    private static final Frame RESYNC = new Frame(0, null, null);
+
+    private final long sequence;
+    private final String id;
+    private final byte[] bytes;
+
+    private Frame(long sequence, String id, byte[] bytes) {
+      this.sequence = sequence;
+      this.id = id;
+      this.bytes = bytes;
+    }
+
+    private static Frame change(ProductChange change, long epoch, ObjectMapper objectMapper) throws JsonProcessingException {
+      String id = new CatalogVersion(epoch, change.getSequence(), 0).getTag();
+      return new Frame(change.getSequence(), id, event(CHANGE_EVENT, id, objectMapper.writeValueAsString(change)));
+    }
+
+    private static Frame resync(String since) {
+      return new Frame(0, null, event(RESYNC_EVENT, null, "{\"since\":\"" + since + "\"}"));
+    }
+
+    private static byte[] event(String name, String id, String data) {
+      StringBuilder event = new StringBuilder(data.length() + 64).append("event:").append(name).append('\n');
+      if (id != null) {
+        event.append("id:").append(id).append('\n');
+      }
+      for (String line : data.split("\n", -1)) {
+        event.append("data:").append(line).append('\n');
+      }
+      return event.append('\n').toString().getBytes(StandardCharsets.UTF_8);
+    }
+  }
+
+  private final class Subscriber implements Runnable, WriteListener, AsyncListener {
+    private final ArrayBlockingQueue<Frame> queue = new ArrayBlockingQueue<>(bufferSize + 1);
+    private final AtomicBoolean scheduled = new AtomicBoolean();
+    private AsyncContext asyncContext;
+    private ServletOutputStream outputStream;
+    private volatile boolean started;
+    private volatile boolean closing;
+    private volatile boolean closed;
+    // the output accepted no more data and onWritePossible has not been called since
+    private volatile boolean blocked;
+    private volatile long blockedSince;
+    private volatile long skipThrough;
+    private String lastEventId;
+    private boolean unflushed;
+
+    private Subscriber(String lastEventId) {
+      this.lastEventId = lastEventId;
+    }
+
+    private void open(AsyncContext asyncContext, ServletOutputStream outputStream) {
+      this.asyncContext = asyncContext;
+      this.outputStream = outputStream;
+    }
+
+    private void offer(List<Frame> frames) {
+      if (closing || closed) {
+        return;
+      }
+      for (Frame frame : frames) {
+        if (frame == Frame.HEARTBEAT ? !queue.isEmpty() : queue.remainingCapacity() > 1 && queue.offer(frame)) {
+          continue;
+        }
+        if (frame != Frame.HEARTBEAT) {
+          overflow();
+          return;
+        }
+        queue.offer(frame);
+      }
+      schedule();
+    }
+
+    /**
+     * Apply the overflow policy, keeping one slot free for the resync marker
+     */
+    private void overflow() {
+      if (closing || closed) {
+        return;
+      }
+      if ("disconnect".equalsIgnoreCase(overflow)) {
+        disconnect();
+        return;
+      }
+      queue.clear();
+      queue.offer(Frame.RESYNC);
+      schedule();
+    }
+
+    /**
+     * Close from outside the sender, which completes the request so that it never races a write
+     */
+    private void disconnect() {
+      closing = true;
+      subscribers.remove(this);
+      queue.clear();
+      schedule();
+    }
+
+    private void schedule() {
+      if (started && !closed && scheduled.compareAndSet(false, true)) {
+        try {
+          senders.execute(this);
+        } catch (RuntimeException runtimeException) {
+          scheduled.set(false);
+        }
+      }
+    }
+
+    @Override
+    public void run() {
+      try {
+        if (closing) {
+          close(null);
+          return;
+        }
+        drain();
+      } catch (IOException | RuntimeException exception) {
+        close(exception);
+        return;
+      } finally {
+        scheduled.set(false);
+      }
+      if (closing || !blocked && (unflushed || !queue.isEmpty())) {
+        schedule();
+      }
+    }
+
+    /**
+     * Write queued frames while the output accepts them without blocking, then flush
+     * @throws IOException
+     */
+    private void drain() throws IOException {
+      for (int sent = 0; sent < MAX_FRAMES_PER_DRAIN && ready(); sent++) {
+        Frame frame = queue.poll();
+        if (frame == null) {
+          break;
+        }
+        unflushed |= write(frame == Frame.RESYNC ? Frame.resync(lastEventId) : frame);
+      }
+      if (unflushed && ready()) {
+        unflushed = false;
+        outputStream.flush();
+      }
+    }
+
+    /**
+     * Whether the output accepts a write. When it does not, the container calls
+     * onWritePossible once it does; blocked is raised first so that call is never missed.
+     */
+    private boolean ready() {
+      if (!blocked) {
+        blockedSince = System.nanoTime();
+        blocked = true;
+      }
+      if (outputStream.isReady()) {
+        blocked = false;
+        return true;
+      }
+      return false;
+    }
+
+    /**
+     * Write a frame. Only one sender thread, or the subscribing request thread before the
+     * subscriber is started, writes at a time.
+     * @param frame
+     * @return whether anything was written
+     * @throws IOException
+     */
+    private boolean write(Frame frame) throws IOException {
+      if (frame.id != null && frame.sequence <= skipThrough) {
+        return false;
+      }
+      if (frame.id != null) {
+        lastEventId = frame.id;
+      }
+      outputStream.write(frame.bytes);
+      return true;
+    }
+
+    @Override
+    public void onWritePossible() {
+      blocked = false;
+      started = true;
+      schedule();
+    }
+
+    @Override
+    public void onError(Throwable throwable) {
+      close(throwable);
+    }
+
+    @Override
+    public void onComplete(AsyncEvent asyncEvent) {
+      closed = true;
+      subscribers.remove(this);
+    }
+
+    @Override
+    public void onTimeout(AsyncEvent asyncEvent) {
+      close(null);
+    }
+
+    @Override
+    public void onError(AsyncEvent asyncEvent) {
+      close(asyncEvent.getThrowable());
+    }
+
+    @Override
+    public void onStartAsync(AsyncEvent asyncEvent) {
+    }
+
+    private void close(Throwable throwable) {
+      if (closed) {
+        return;
+      }
+      closed = true;
+      subscribers.remove(this);
+      queue.clear();
+      if (throwable != null) {
+        logger.debug("Subscriber disconnected." + throwable);
+      }
+      try {
+        if (asyncContext != null) {
+          asyncContext.complete();
+        }
+      } catch (RuntimeException runtimeException) {
+        logger.debug("Subscriber already closed." + runtimeException);
+      }
+    }
+  }
+}
@@ -0,0 +1,62 @@
+package com.tiger.analytics.controller;
+
+import com.fasterxml.jackson.core.JsonGenerator;
+import com.tiger.analytics.model.StoreProduct;
+import java.io.IOException;
+import java.util.List;
+
+/**
+ * Writes store products field by field so responses can be streamed row by row and
+ * projected to the requested fields without building intermediate maps.
+ */
+final class ProductJsonWriter {
+
+  private ProductJsonWriter() {
+  }
+
+  /**
+   * Write product as json object with only the given fields
+   * @param generator
+   * @param storeProduct
+   * @param fields
+   * @throws IOException
+   */
+  static void write(JsonGenerator generator, StoreProduct storeProduct, List<String> fields) throws IOException {
+    generator.writeStartObject();
+    for (String field : fields) {
+      switch (field) {
+        case "productIndex":
+          generator.writeStringField(field, storeProduct.getProductIndex());
+          break;
+        case "storeId":
+          generator.writeStringField(field, storeProduct.getStoreId());
+          break;
+        case "sku":
+          generator.writeStringField(field, storeProduct.getSku());
+          break;
+        case "productName":
+          generator.writeStringField(field, storeProduct.getProductName());
+          break;
+        case "price":
+          if (storeProduct.getPrice() != null) {
+            generator.writeNumberField(field, storeProduct.getPrice());
+          } else {
+            generator.writeNullField(field);
+          }
+          break;
+        case "date":
+          generator.writeStringField(field, storeProduct.getDate());
+          break;
+        case "description":
+          generator.writeStringField(field, storeProduct.getDescription());
+          break;
+        case "imageUrl":
+          generator.writeStringField(field, storeProduct.getImageUrl());
+          break;
+        default:
+          break;
+      }
+    }
+    generator.writeEndObject();
+  }
+}
@@ -0,0 +1,173 @@
+package com.tiger.analytics.controller;
+
+import com.tiger.analytics.model.CatalogVersion;
+import com.tiger.analytics.repository.CatalogMetrics;
+import java.io.ByteArrayOutputStream;
+import java.io.IOException;
+import java.io.OutputStream;
+import java.util.concurrent.atomic.AtomicReferenceArray;
+import java.util.concurrent.atomic.LongAdder;
+import java.util.zip.GZIPOutputStream;
+import javax.annotation.PostConstruct;
+import org.slf4j.Logger;
+import org.slf4j.LoggerFactory;
+import org.springframework.beans.factory.annotation.Autowired;
+import org.springframework.beans.factory.annotation.Value;
+import org.springframework.stereotype.Component;
+
+/**
+ * Serialized bodies of the unfiltered product view, one per format, kept for the catalog
+ * version they were built from. Polls between two changes are answered from
+ * memory, a changed version rebuilds the body once on the next request. A gzip copy is made
+ * on the first request that accepts it.
+ *
+ * Bodies larger than catalog.view-cache.max-bytes are not kept; that version is streamed.
+ *
+ * A request answered from a body that was already cached counts as a hit, one that builds
+ * the body or streams it as a miss.
+ */
+@Component
+class ProductViewCache {
+
+  private final static Logger logger = LoggerFactory.getLogger(ProductViewCache.class);
+
+  @Value("${catalog.view-cache.max-bytes:67108864}")
+  private int maxBytes;
+
+  @Autowired
+  private CatalogMetrics catalogMetrics;
+
+  private final AtomicReferenceArray<CachedView> views = new AtomicReferenceArray<>(ViewFormat.values().length);
+  private final LongAdder hits = new LongAdder();
+  private final LongAdder misses = new LongAdder();
+
+  @PostConstruct
+  public void init() {
+    catalogMetrics.gauge("catalog.view.cache.hit.ratio", "Share of product view requests answered from a cached body", this, ProductViewCache::hitRatio);
+  }
+
+  /**
+   * Writes the full view to a stream
+   */
+  interface ViewWriter {
+    void write(OutputStream outputStream) throws IOException;
+  }
+
+  /**
+   * Body of the unfiltered view for a catalog version
+   * @param catalogVersion version the body must reflect
+   * @param viewFormat
+   * @param gzip whether the gzip compressed body is wanted
+   * @param viewWriter writes the body when it is not cached
+   * @return body or null when it does not fit into the cache
+   * @throws IOException
+   */
+  byte[] get(CatalogVersion catalogVersion, ViewFormat viewFormat, boolean gzip, ViewWriter viewWriter) throws IOException {
+    int slot = viewFormat.ordinal();
+    CachedView view = views.get(slot);
+    boolean cached = view != null && view.tag.equals(catalogVersion.getTag());
+    if (!cached) {
+      view = rebuild(slot, catalogVersion, viewWriter);
+    }
+    if (view.body == null) {
+      misses.increment();
+      return null;
+    }
+    if (cached) {
+      hits.increment();
+    } else {
+      misses.increment();
+    }
+    return gzip ? view.gzipped() : view.body;
+  }
+
+  /**
+   * Hits per request since start
+   * @return ratio, NaN before the first request
+   */
+  double hitRatio() {
+    long hitCount = hits.sum();
+    long requests = hitCount + misses.sum();
+    return requests == 0 ? Double.NaN : (double) hitCount / requests;
+  }
+
+  private CachedView rebuild(int slot, CatalogVersion catalogVersion, ViewWriter viewWriter) throws IOException {
+    // concurrent polls after a change build the body once
+    synchronized (this) {
+      CachedView view = views.get(slot);
+      if (view == null || !view.tag.equals(catalogVersion.getTag())) {
+        view = new CachedView(catalogVersion.getTag(), build(viewWriter));
+        views.set(slot, view);
+      }
+      return view;
+    }
+  }
+
+  private byte[] build(ViewWriter viewWriter) throws IOException {
+    BoundedOutputStream outputStream = new BoundedOutputStream(maxBytes);
+    try {
+      viewWriter.write(outputStream);
+    } catch (IOException | RuntimeException exception) {
+      if (outputStream.overflowed) {
+        logger.info("Product view exceeds " + maxBytes + " bytes, it is streamed instead of cached");
+        return null;
+      }
+      throw exception;
+    }
+    return outputStream.toByteArray();
+  }
+
+  private static final class CachedView {
+    private final String tag;
+    private final byte[] body;
+    private byte[] gzipped;
+
+    private CachedView(String tag, byte[] body) {
+      this.tag = tag;
+      this.body = body;
+    }
+
+    private synchronized byte[] gzipped() throws IOException {
+      if (gzipped == null) {
+        ByteArrayOutputStream outputStream = new ByteArrayOutputStream(body.length / 4);
+        try (GZIPOutputStream gzipOutputStream = new GZIPOutputStream(outputStream, 64 * 1024)) {
+          gzipOutputStream.write(body);
+        }
+        gzipped = outputStream.toByteArray();
+      }
+      return gzipped;
+    }
+  }
+
+  /**
+   * Buffer that fails the write once the limit is exceeded
+   */
+  private static final class BoundedOutputStream extends ByteArrayOutputStream {
+    private final int limit;
+    private boolean overflowed;
+
+    private BoundedOutputStream(int limit) {
+      super(64 * 1024);
+      this.limit = limit;
+    }
+
+    @Override
+    public synchronized void write(int b) {
+      ensureCapacity(1);
+      super.write(b);
+    }
+
+    @Override
+    public synchronized void write(byte[] bytes, int offset, int length) {
+      ensureCapacity(length);
+      super.write(bytes, offset, length);
+    }
+
+    private void ensureCapacity(int length) {
+      if (count + length > limit) {
+        overflowed = true;
+        throw new IllegalStateException("View exceeds " + limit + " bytes");
+      }
+    }
+  }
+}
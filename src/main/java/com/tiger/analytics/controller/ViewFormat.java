@@ -0,0 +1,86 @@
+package com.tiger.analytics.controller;
+
+import com.fasterxml.jackson.core.JsonFactory;
+import com.fasterxml.jackson.core.JsonGenerator;
+import com.fasterxml.jackson.databind.ObjectMapper;
+import com.fasterxml.jackson.dataformat.cbor.CBORFactory;
+import com.fasterxml.jackson.dataformat.smile.SmileFactory;
+import com.fasterxml.jackson.dataformat.smile.SmileGenerator;
+import java.io.IOException;
+import java.io.OutputStream;
+import java.util.ArrayList;
+import java.util.List;
+import org.springframework.http.MediaType;
+
+/**
+ * Encodings of product lists, chosen through the Accept header. CBOR and Smile are binary
+ * encodings of the same objects; Smile also refers back to repeated names and short values,
+ * such as store ids and dates, instead of repeating them.
+ */
+enum ViewFormat {
+
+  JSON(MediaType.APPLICATION_JSON, "", null),
+  NDJSON(MediaType.parseMediaType(CaseStudyController.NDJSON_VALUE), "-nd", null),
+  CBOR(MediaType.parseMediaType("application/cbor"), "-cbor", new CBORFactory()),
+  SMILE(MediaType.parseMediaType("application/x-jackson-smile"), "-smile",
+      new SmileFactory().configure(SmileGenerator.Feature.CHECK_SHARED_STRING_VALUES, true));
+
+  private final MediaType mediaType;
+  private final String tagSuffix;
+  private final JsonFactory jsonFactory;
+
+  ViewFormat(MediaType mediaType, String tagSuffix, JsonFactory jsonFactory) {
+    this.mediaType = mediaType;
+    this.tagSuffix = tagSuffix;
+    this.jsonFactory = jsonFactory;
+  }
+
+  /**
+   * Most preferred format of an Accept header, json when none is accepted explicitly
+   * @param accept
+   * @return ViewFormat
+   */
+  static ViewFormat negotiate(List<MediaType> accept) {
+    List<MediaType> mediaTypes = new ArrayList<>(accept);
+    MediaType.sortBySpecificityAndQuality(mediaTypes);
+    for (MediaType mediaType : mediaTypes) {
+      for (ViewFormat viewFormat : values()) {
+        if (viewFormat.mediaType.equalsTypeAndSubtype(mediaType)) {
+          return viewFormat;
+        }
+      }
+    }
+    return JSON;
+  }
+
+  MediaType getMediaType() {
+    return mediaType;
+  }
+
+  /**
+   * Part of the entity tag that tells representations of the same version apart
+   * @return suffix
+   */
+  String getTagSuffix() {
+    return tagSuffix;
+  }
+
+  /**
+   * Products are written one after the other, each on its own line, instead of as an array
+   * @return boolean
+   */
+  boolean isDelimited() {
+    return this == NDJSON;
+  }
+
+  /**
+   * Generator writing this format
+   * @param objectMapper supplies the json factory
+   * @param outputStream
+   * @return JsonGenerator
+   * @throws IOException
+   */
+  JsonGenerator createGenerator(ObjectMapper objectMapper, OutputStream outputStream) throws IOException {
+    return (jsonFactory != null ? jsonFactory : objectMapper.getFactory()).createGenerator(outputStream);
+  }
+}
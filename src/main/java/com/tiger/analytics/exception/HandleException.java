@@ -2,7 +2,9 @@ package com.tiger.analytics.exception;
 
 import com.fasterxml.jackson.databind.JsonMappingException;
 import com.fasterxml.jackson.databind.exc.InvalidFormatException;
+import com.tiger.analytics.repository.CatalogMetrics;
 import java.util.Date;
+import org.springframework.beans.factory.annotation.Autowired;
 import org.springframework.http.HttpHeaders;
 import org.springframework.http.HttpStatus;
 import org.springframework.http.ResponseEntity;
@@ -14,6 +16,10 @@ import org.springframework.web.bind.annotation.ExceptionHandler;
 
 @ControllerAdvice
 class HandleException {
+
+  @Autowired
+  CatalogMetrics catalogMetrics;
+
   @ExceptionHandler({JsonMappingException.class, MethodArgumentNotValidException.class, InvalidFormatException.class})
   public ResponseEntity<ResponseException> checkInputFormat(Exception exception) {
     String errorReason = "Invalid input data";
@@ -40,6 +46,7 @@ class HandleException {
       }
     }
     ResponseException responseException = new ResponseException(new Date(), HttpStatus.BAD_REQUEST.value(), "Invalid Request", errorReason);
+    catalogMetrics.countError(responseException);
     return new ResponseEntity<ResponseException>(responseException, new HttpHeaders(), HttpStatus.BAD_REQUEST);
   }
 }
\ No newline at end of file
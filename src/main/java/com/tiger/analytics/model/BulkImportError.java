@@ -0,0 +1,26 @@
+package com.tiger.analytics.model;
+
+public class BulkImportError {
+
+  private long row;
+  private String sku;
+  private String reason;
+
+  public BulkImportError(long row, String sku, String reason) {
+    this.row = row;
+    this.sku = sku;
+    this.reason = reason;
+  }
+
+  public long getRow() {
+    return row;
+  }
+
+  public String getSku() {
+    return sku;
+  }
+
+  public String getReason() {
+    return reason;
+  }
+}
@@ -0,0 +1,67 @@
+package com.tiger.analytics.model;
+
+import java.util.ArrayList;
+import java.util.List;
+
+public class BulkImportResult {
+
+  public static final int MAX_REPORTED_ERRORS = 1000;
+
+  private long received;
+  private long inserted;
+  private long updated;
+  private long rejected;
+  private boolean errorsTruncated;
+  private List<BulkImportError> errors = new ArrayList<>();
+
+  /**
+   * Record a rejected row, keeping at most MAX_REPORTED_ERRORS details
+   * @param row
+   * @param sku
+   * @param reason
+   */
+  public void reject(long row, String sku, String reason) {
+    rejected++;
+    if (errors.size() < MAX_REPORTED_ERRORS) {
+      errors.add(new BulkImportError(row, sku, reason));
+    } else {
+      errorsTruncated = true;
+    }
+  }
+
+  public void received() {
+    received++;
+  }
+
+  public void inserted() {
+    inserted++;
+  }
+
+  public void updated() {
+    updated++;
+  }
+
+  public long getReceived() {
+    return received;
+  }
+
+  public long getInserted() {
+    return inserted;
+  }
+
+  public long getUpdated() {
+    return updated;
+  }
+
+  public long getRejected() {
+    return rejected;
+  }
+
+  public boolean isErrorsTruncated() {
+    return errorsTruncated;
+  }
+
+  public List<BulkImportError> getErrors() {
+    return errors;
+  }
+}
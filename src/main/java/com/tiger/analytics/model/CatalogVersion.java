@@ -0,0 +1,67 @@
+package com.tiger.analytics.model;
+
+/**
+ * Version of the catalog contents. The version counts the changes committed since the catalog
+ * was loaded, and the epoch (the load time) tells versions of different loads apart.
+ */
+public class CatalogVersion {
+
+  private final long epoch;
+  private final long version;
+  private final long lastModified;
+
+  public CatalogVersion(long epoch, long version, long lastModified) {
+    this.epoch = epoch;
+    this.version = version;
+    this.lastModified = lastModified;
+  }
+
+  /**
+   * Version after a number of further changes
+   * @param changes
+   * @param lastModified time of the changes in millis
+   * @return CatalogVersion
+   */
+  public CatalogVersion next(int changes, long lastModified) {
+    return new CatalogVersion(epoch, version + changes, Math.max(this.lastModified, lastModified));
+  }
+
+  public long getEpoch() {
+    return epoch;
+  }
+
+  public long getVersion() {
+    return version;
+  }
+
+  public long getLastModified() {
+    return lastModified;
+  }
+
+  /**
+   * Compact token that changes with every version, for use in entity tags and as change feed
+   * cursor
+   * @return tag
+   */
+  public String getTag() {
+    return Long.toString(epoch, 36) + "-" + Long.toString(version, 36);
+  }
+
+  /**
+   * Parse a tag returned by {@link #getTag()}
+   * @param tag
+   * @return CatalogVersion without modification time
+   * @throws IllegalArgumentException when the tag is malformed
+   */
+  public static CatalogVersion fromTag(String tag) {
+    int separator = tag.indexOf('-');
+    if (separator <= 0) {
+      throw new IllegalArgumentException("Malformed catalog version: " + tag);
+    }
+    long version = Long.parseLong(tag.substring(separator + 1), 36);
+    if (version < 0) {
+      throw new IllegalArgumentException("Malformed catalog version: " + tag);
+    }
+    return new CatalogVersion(Long.parseLong(tag.substring(0, separator), 36), version, 0);
+  }
+}
@@ -0,0 +1,30 @@
+package com.tiger.analytics.model;
+
+import java.util.ArrayList;
+import java.util.List;
+
+public class ProductBatch {
+
+  private List<StoreProduct> products;
+  private List<String> missing = new ArrayList<>();
+
+  public ProductBatch(int size) {
+    this.products = new ArrayList<>(size);
+  }
+
+  /**
+   * Products found, in request order
+   * @return products
+   */
+  public List<StoreProduct> getProducts() {
+    return products;
+  }
+
+  /**
+   * Requested skus without a product, in request order
+   * @return skus
+   */
+  public List<String> getMissing() {
+    return missing;
+  }
+}
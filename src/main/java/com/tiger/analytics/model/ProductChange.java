@@ -0,0 +1,37 @@
+package com.tiger.analytics.model;
+
+import java.util.Date;
+
+public class ProductChange {
+
+  public static final String CREATED = "CREATED";
+  public static final String UPDATED = "UPDATED";
+
+  private long sequence;
+  private String type;
+  private Date timestamp;
+  private StoreProduct product;
+
+  public ProductChange(long sequence, String type, Date timestamp, StoreProduct product) {
+    this.sequence = sequence;
+    this.type = type;
+    this.timestamp = timestamp;
+    this.product = product;
+  }
+
+  public long getSequence() {
+    return sequence;
+  }
+
+  public String getType() {
+    return type;
+  }
+
+  public Date getTimestamp() {
+    return timestamp;
+  }
+
+  public StoreProduct getProduct() {
+    return product;
+  }
+}
@@ -0,0 +1,46 @@
+package com.tiger.analytics.model;
+
+import java.util.ArrayList;
+import java.util.List;
+
+public class ProductChanges {
+
+  private String cursor;
+  private boolean resyncRequired;
+  private boolean hasMore;
+  private List<ProductChange> changes = new ArrayList<>();
+
+  /**
+   * Response for a cursor that is no longer covered by the change window
+   * @return ProductChanges
+   */
+  public static ProductChanges resyncRequired() {
+    ProductChanges productChanges = new ProductChanges();
+    productChanges.resyncRequired = true;
+    return productChanges;
+  }
+
+  public String getCursor() {
+    return cursor;
+  }
+
+  public void setCursor(String cursor) {
+    this.cursor = cursor;
+  }
+
+  public boolean isResyncRequired() {
+    return resyncRequired;
+  }
+
+  public boolean isHasMore() {
+    return hasMore;
+  }
+
+  public void setHasMore(boolean hasMore) {
+    this.hasMore = hasMore;
+  }
+
+  public List<ProductChange> getChanges() {
+    return changes;
+  }
+}
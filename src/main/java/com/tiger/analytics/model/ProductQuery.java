@@ -0,0 +1,105 @@
+package com.tiger.analytics.model;
+
+import java.util.Arrays;
+import java.util.Collections;
+import java.util.List;
+
+public class ProductQuery {
+
+  public static final List<String> FIELDS = Collections.unmodifiableList(Arrays.asList(
+      "productIndex", "storeId", "sku", "productName", "price", "date", "description", "imageUrl"));
+
+  private String storeId;
+  private String skuPrefix;
+  private Double minPrice;
+  private Double maxPrice;
+  private Integer cursor;
+  private Integer size;
+  private List<String> fields = FIELDS;
+
+  /**
+   * Check whether product satisfies the filters of this query
+   * @param storeProduct
+   * @return boolean
+   */
+  public boolean matches(StoreProduct storeProduct) {
+    if (storeId != null && !storeId.equals(storeProduct.getStoreId())) {
+      return false;
+    }
+    if (skuPrefix != null && (storeProduct.getSku() == null || !storeProduct.getSku().startsWith(skuPrefix))) {
+      return false;
+    }
+    if (minPrice != null || maxPrice != null) {
+      Double price = storeProduct.getPrice();
+      if (price == null || (minPrice != null && price < minPrice) || (maxPrice != null && price > maxPrice)) {
+        return false;
+      }
+    }
+    return true;
+  }
+
+  /**
+   * Check whether this query asks for the whole catalog with all fields
+   * @return boolean
+   */
+  public boolean isUnfiltered() {
+    return storeId == null && skuPrefix == null && minPrice == null && maxPrice == null
+        && cursor == null && size == null && FIELDS.equals(fields);
+  }
+
+  public String getStoreId() {
+    return storeId;
+  }
+
+  public void setStoreId(String storeId) {
+    this.storeId = storeId;
+  }
+
+  public String getSkuPrefix() {
+    return skuPrefix;
+  }
+
+  public void setSkuPrefix(String skuPrefix) {
+    this.skuPrefix = skuPrefix;
+  }
+
+  public Double getMinPrice() {
+    return minPrice;
+  }
+
+  public void setMinPrice(Double minPrice) {
+    this.minPrice = minPrice;
+  }
+
+  public Double getMaxPrice() {
+    return maxPrice;
+  }
+
+  public void setMaxPrice(Double maxPrice) {
+    this.maxPrice = maxPrice;
+  }
+
+  public Integer getCursor() {
+    return cursor;
+  }
+
+  public void setCursor(Integer cursor) {
+    this.cursor = cursor;
+  }
+
+  public Integer getSize() {
+    return size;
+  }
+
+  public void setSize(Integer size) {
+    this.size = size;
+  }
+
+  public List<String> getFields() {
+    return fields;
+  }
+
+  public void setFields(List<String> fields) {
+    this.fields = fields;
+  }
+}
@@ -0,0 +1,20 @@
+package com.tiger.analytics.model;
+
+public class ProductSearchHit {
+
+  private double score;
+  private StoreProduct product;
+
+  public ProductSearchHit(double score, StoreProduct product) {
+    this.score = score;
+    this.product = product;
+  }
+
+  public double getScore() {
+    return score;
+  }
+
+  public StoreProduct getProduct() {
+    return product;
+  }
+}
@@ -0,0 +1,39 @@
+package com.tiger.analytics.model;
+
+import java.util.ArrayList;
+import java.util.List;
+
+public class ProductSearchResult {
+
+  private String query;
+  private int total;
+  private boolean totalExact;
+  private List<ProductSearchHit> hits = new ArrayList<>();
+
+  public ProductSearchResult(String query, int total, boolean totalExact) {
+    this.query = query;
+    this.total = total;
+    this.totalExact = totalExact;
+  }
+
+  public String getQuery() {
+    return query;
+  }
+
+  public int getTotal() {
+    return total;
+  }
+
+  /**
+   * Whether total is the exact number of matches rather than a lower bound. Counting stops
+   * once a query matched many products and the best of them are known.
+   * @return boolean
+   */
+  public boolean isTotalExact() {
+    return totalExact;
+  }
+
+  public List<ProductSearchHit> getHits() {
+    return hits;
+  }
+}
@@ -0,0 +1,33 @@
+package com.tiger.analytics.model;
+
+import java.util.List;
+import java.util.Map;
+
+public class ProductStats {
+
+  private int products;
+  private Map<String, Integer> dateCounts;
+  private List<StoreStats> stores;
+
+  public ProductStats(int products, Map<String, Integer> dateCounts, List<StoreStats> stores) {
+    this.products = products;
+    this.dateCounts = dateCounts;
+    this.stores = stores;
+  }
+
+  public int getProducts() {
+    return products;
+  }
+
+  /**
+   * Number of products per date, products without a date are not counted
+   * @return counts by date
+   */
+  public Map<String, Integer> getDateCounts() {
+    return dateCounts;
+  }
+
+  public List<StoreStats> getStores() {
+    return stores;
+  }
+}
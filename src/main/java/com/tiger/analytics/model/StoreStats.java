@@ -0,0 +1,92 @@
+package com.tiger.analytics.model;
+
+import java.util.Map;
+
+public class StoreStats {
+
+  private String storeId;
+  private int count;
+  private int pricedCount;
+  private Double min;
+  private Double max;
+  private Double mean;
+  private Double p50;
+  private Double p90;
+  private Double p99;
+  private Map<String, Integer> dateCounts;
+
+  public StoreStats(String storeId, int count, int pricedCount, Map<String, Integer> dateCounts) {
+    this.storeId = storeId;
+    this.count = count;
+    this.pricedCount = pricedCount;
+    this.dateCounts = dateCounts;
+  }
+
+  public String getStoreId() {
+    return storeId;
+  }
+
+  public int getCount() {
+    return count;
+  }
+
+  /**
+   * Number of products with a price, which the price statistics are computed over
+   * @return count
+   */
+  public int getPricedCount() {
+    return pricedCount;
+  }
+
+  public Double getMin() {
+    return min;
+  }
+
+  public void setMin(Double min) {
+    this.min = min;
+  }
+
+  public Double getMax() {
+    return max;
+  }
+
+  public void setMax(Double max) {
+    this.max = max;
+  }
+
+  public Double getMean() {
+    return mean;
+  }
+
+  public void setMean(Double mean) {
+    this.mean = mean;
+  }
+
+  public Double getP50() {
+    return p50;
+  }
+
+  public void setP50(Double p50) {
+    this.p50 = p50;
+  }
+
+  public Double getP90() {
+    return p90;
+  }
+
+  public void setP90(Double p90) {
+    this.p90 = p90;
+  }
+
+  public Double getP99() {
+    return p99;
+  }
+
+  public void setP99(Double p99) {
+    this.p99 = p99;
+  }
+
+  public Map<String, Integer> getDateCounts() {
+    return dateCounts;
+  }
+}
@@ -0,0 +1,250 @@
+package com.tiger.analytics.repository;
+
+import java.io.ByteArrayOutputStream;
+import java.io.IOException;
+import java.io.InputStream;
+import java.lang.invoke.MethodHandles;
+import java.lang.invoke.VarHandle;
+import java.nio.ByteOrder;
+import java.nio.file.Files;
+import java.nio.file.NoSuchFileException;
+import java.nio.file.Path;
+import java.nio.file.attribute.BasicFileAttributes;
+import java.util.Arrays;
+
+/**
+ * 64 bit hashes of the records of a catalog csv, used to find the records an external edit
+ * of the file changed without parsing the others. Records are framed with the same RFC 4180
+ * rules as {@link StoreProductCsvReader}, on raw bytes since all delimiters are ASCII, and
+ * hashed without their line break, so only the records whose bytes changed are handed on.
+ * Both the framing and the hash read the file eight bytes at a time: a word without a quote
+ * or line break is skipped with a few bit operations.
+ *
+ * A digest keeps only the hashes in file order, 8 bytes per record, and the hash of the
+ * header; a changed header makes every record count as changed, since its columns may mean
+ * something else now. Edits mostly leave records where they were, so a record is first
+ * compared with the record at the same position of the previous version, and only looked up
+ * among all of them when that differs, which also realigns the positions after inserted or
+ * removed records.
+ */
+final class CatalogFileDigest {
+
+  private static final VarHandle LONGS = MethodHandles.byteArrayViewVarHandle(long[].class, ByteOrder.LITTLE_ENDIAN);
+  private static final long LOW_BITS = 0x7f7f7f7f7f7f7f7fL;
+  private static final long QUOTES = 0x2222222222222222L;
+  private static final long LINE_FEEDS = 0x0a0a0a0a0a0a0a0aL;
+  private static final long CARRIAGE_RETURNS = 0x0d0d0d0d0d0d0d0dL;
+  private static final long MULTIPLIER = 0x9e3779b97f4a7c15L;
+
+  private final long headerHash;
+  private final long[] hashes;
+  private final String fingerprint;
+
+  private CatalogFileDigest(long headerHash, long[] hashes, String fingerprint) {
+    this.headerHash = headerHash;
+    this.hashes = hashes;
+    this.fingerprint = fingerprint;
+  }
+
+  /**
+   * Number of data records of the file
+   * @return records
+   */
+  int records() {
+    return hashes.length;
+  }
+
+  /**
+   * Fingerprint of the file when it was read
+   * @return fingerprint
+   */
+  String fingerprint() {
+    return fingerprint;
+  }
+
+  /**
+   * Size, modification time and file key of a file, which change with every write and every
+   * replacement of the file
+   * @param file
+   * @return fingerprint or null when the file does not exist
+   * @throws IOException
+   */
+  static String fingerprint(Path file) throws IOException {
+    try {
+      BasicFileAttributes attributes = Files.readAttributes(file, BasicFileAttributes.class);
+      return attributes.size() + "/" + attributes.lastModifiedTime().toMillis() + "/" + attributes.fileKey();
+    } catch (NoSuchFileException noSuchFileException) {
+      return null;
+    }
+  }
+
+  /**
+   * Method used to hash every record of a csv file and collect the header and the records
+   * that are not in a previous digest of it
+   * @param file
+   * @param previous digest of the previous version of the file, null to collect every record
+   * @param changed receives the header and the changed records as csv, one per line
+   * @return digest of the file
+   * @throws IOException
+   */
+  static CatalogFileDigest read(Path file, CatalogFileDigest previous, ByteArrayOutputStream changed) throws IOException {
+    String fingerprint = fingerprint(file);
+    Records records = new Records(previous, changed);
+    try (InputStream inputStream = Files.newInputStream(file)) {
+      byte[] buffer = new byte[64 * 1024];
+      int limit = 0;
+      int start = 0;
+      boolean quoted = false;
+      while (true) {
+        // keep the record in progress contiguous at the front of the buffer
+        if (start > 0) {
+          System.arraycopy(buffer, start, buffer, 0, limit - start);
+          limit -= start;
+          start = 0;
+        } else if (limit == buffer.length) {
+          buffer = Arrays.copyOf(buffer, buffer.length * 2);
+        }
+        int position = limit;
+        int read = inputStream.read(buffer, limit, buffer.length - limit);
+        if (read < 0) {
+          records.add(buffer, start, limit);
+          break;
+        }
+        limit += read;
+        for (; position + Long.BYTES <= limit; position += Long.BYTES) {
+          long word = (long) LONGS.get(buffer, position);
+          long delimiters = matches(word, QUOTES) | matches(word, LINE_FEEDS) | matches(word, CARRIAGE_RETURNS);
+          for (; delimiters != 0; delimiters &= delimiters - 1) {
+            int delimiter = position + (Long.numberOfTrailingZeros(delimiters) >>> 3);
+            if (buffer[delimiter] == '"') {
+              quoted = !quoted;
+            } else if (!quoted) {
+              records.add(buffer, start, delimiter);
+              start = delimiter + 1;
+            }
+          }
+        }
+        for (; position < limit; position++) {
+          byte b = buffer[position];
+          if (b == '"') {
+            quoted = !quoted;
+          } else if (!quoted && (b == '\n' || b == '\r')) {
+            records.add(buffer, start, position);
+            start = position + 1;
+          }
+        }
+      }
+    }
+    return new CatalogFileDigest(records.headerHash, Arrays.copyOf(records.hashes, records.count), fingerprint);
+  }
+
+  /**
+   * High bit set in every byte of a word that equals the byte repeated in a pattern
+   */
+  private static long matches(long word, long pattern) {
+    long bytes = word ^ pattern;
+    return ~(((bytes & LOW_BITS) + LOW_BITS) | bytes | LOW_BITS);
+  }
+
+  /**
+   * Multiply and shift hash over the bytes of one record, a word at a time
+   */
+  private static long hash(byte[] bytes, int from, int to) {
+    long hash = to - from;
+    int i = from;
+    for (; i + Long.BYTES <= to; i += Long.BYTES) {
+      hash = (hash ^ (long) LONGS.get(bytes, i)) * MULTIPLIER;
+      hash ^= hash >>> 29;
+    }
+    long tail = 0;
+    for (int shift = 0; i < to; i++, shift += 8) {
+      tail |= (bytes[i] & 0xffL) << shift;
+    }
+    hash = (hash ^ tail) * MULTIPLIER;
+    return hash ^ (hash >>> 32);
+  }
+
+  /**
+   * Hashes of the records read so far
+   */
+  private static final class Records {
+    private CatalogFileDigest previous;
+    private final ByteArrayOutputStream changed;
+    private boolean header = true;
+    private long headerHash;
+    private long[] hashes = new long[1024];
+    private int count;
+    // next record of the previous version expected, and its records by hash once needed
+    private int previousRecord;
+    private int[] previousTable;
+
+    private Records(CatalogFileDigest previous, ByteArrayOutputStream changed) {
+      this.previous = previous;
+      this.changed = changed;
+    }
+
+    /**
+     * Hash one record, empty lines are skipped
+     */
+    private void add(byte[] buffer, int from, int to) {
+      if (to == from) {
+        return;
+      }
+      long hash = hash(buffer, from, to);
+      if (header) {
+        header = false;
+        headerHash = hash;
+        if (previous != null && previous.headerHash != hash) {
+          previous = null;
+        }
+      } else {
+        if (count == hashes.length) {
+          hashes = Arrays.copyOf(hashes, count * 2);
+        }
+        hashes[count++] = hash;
+        if (previous != null && unchanged(hash)) {
+          return;
+        }
+      }
+      if (changed != null) {
+        changed.write(buffer, from, to - from);
+        changed.write('\n');
+      }
+    }
+
+    /**
+     * Check whether the previous version has a record with this hash
+     */
+    private boolean unchanged(long hash) {
+      long[] previousHashes = previous.hashes;
+      if (previousRecord < previousHashes.length && previousHashes[previousRecord] == hash) {
+        previousRecord++;
+        return true;
+      }
+      if (previousTable == null) {
+        previousTable = new int[Integer.highestOneBit(Math.max(previousHashes.length, 1)) * 4];
+        for (int record = 0; record < previousHashes.length; record++) {
+          int slot = slot(previousHashes[record]);
+          while (previousTable[slot] != 0) {
+            slot = (slot + 1) & (previousTable.length - 1);
+          }
+          previousTable[slot] = record + 1;
+        }
+      }
+      for (int slot = slot(hash); previousTable[slot] != 0; slot = (slot + 1) & (previousTable.length - 1)) {
+        int record = previousTable[slot] - 1;
+        if (previousHashes[record] == hash) {
+          previousRecord = record + 1;
+          return true;
+        }
+      }
+      // most likely the record at this position was edited
+      previousRecord++;
+      return false;
+    }
+
+    private int slot(long hash) {
+      return (int) (hash ^ (hash >>> 32)) & (previousTable.length - 1);
+    }
+  }
+}
@@ -0,0 +1,119 @@
+package com.tiger.analytics.repository;
+
+import java.io.IOException;
+import java.nio.file.ClosedWatchServiceException;
+import java.nio.file.FileSystems;
+import java.nio.file.Path;
+import java.nio.file.StandardWatchEventKinds;
+import java.nio.file.WatchEvent;
+import java.nio.file.WatchKey;
+import java.nio.file.WatchService;
+import java.util.LinkedHashSet;
+import java.util.List;
+import java.util.Set;
+import java.util.concurrent.TimeUnit;
+import org.slf4j.Logger;
+import org.slf4j.LoggerFactory;
+
+/**
+ * Single thread watching the directory of the catalog files for files that are written or
+ * replaced from outside. Writers of large files produce a burst of events, so a file is only
+ * handed on once no event arrived for it for the settle time. Every watched file is also
+ * handed on once when the watcher starts, to catch changes made while the catalog loaded.
+ */
+class CatalogFileWatcher implements AutoCloseable {
+
+  private final static Logger logger = LoggerFactory.getLogger(CatalogFileWatcher.class);
+
+  /**
+   * Picks up a watched file that changed
+   */
+  interface ChangeHandler {
+    void changed(Path file) throws Exception;
+  }
+
+  private final List<Path> files;
+  private final long settleMillis;
+  private final ChangeHandler changeHandler;
+  private final WatchService watchService;
+  private final Thread thread;
+  private volatile boolean running = true;
+
+  /**
+   * Start watching files, which all have to be in one directory
+   * @param files
+   * @param settleMillis
+   * @param changeHandler
+   * @throws IOException
+   */
+  CatalogFileWatcher(List<Path> files, long settleMillis, ChangeHandler changeHandler) throws IOException {
+    this.files = files;
+    this.settleMillis = settleMillis;
+    this.changeHandler = changeHandler;
+    Path directory = files.get(0).toAbsolutePath().getParent();
+    this.watchService = FileSystems.getDefault().newWatchService();
+    directory.register(watchService, StandardWatchEventKinds.ENTRY_CREATE, StandardWatchEventKinds.ENTRY_MODIFY);
+    this.thread = new Thread(this::run, "catalog-file-watcher");
+    this.thread.setDaemon(true);
+    this.thread.start();
+  }
+
+  private void run() {
+    Set<Path> changed = new LinkedHashSet<>(files);
+    long lastChange = System.nanoTime();
+    try {
+      while (running) {
+        // events of the change logs next to the files do not extend the wait
+        long settled = lastChange + TimeUnit.MILLISECONDS.toNanos(settleMillis) - System.nanoTime();
+        WatchKey watchKey = changed.isEmpty() ? watchService.take()
+            : settled > 0 ? watchService.poll(settled, TimeUnit.NANOSECONDS) : null;
+        if (watchKey != null) {
+          for (WatchEvent<?> event : watchKey.pollEvents()) {
+            if (event.kind() == StandardWatchEventKinds.OVERFLOW) {
+              changed.addAll(files);
+              lastChange = System.nanoTime();
+            } else {
+              Path file = watchedFile((Path) event.context());
+              if (file != null) {
+                changed.add(file);
+                lastChange = System.nanoTime();
+              }
+            }
+          }
+          watchKey.reset();
+          continue;
+        }
+        for (Path file : changed) {
+          try {
+            changeHandler.changed(file);
+          } catch (Exception exception) {
+            logger.error("Unable to reload " + file + "." + exception);
+          }
+        }
+        changed.clear();
+      }
+    } catch (InterruptedException | ClosedWatchServiceException exception) {
+      // closed
+    }
+  }
+
+  private Path watchedFile(Path name) {
+    for (Path file : files) {
+      if (file.getFileName().equals(name)) {
+        return file;
+      }
+    }
+    return null;
+  }
+
+  @Override
+  public void close() throws InterruptedException {
+    running = false;
+    try {
+      watchService.close();
+    } catch (IOException ioException) {
+      logger.warn("Unable to close catalog file watch." + ioException);
+    }
+    thread.join(TimeUnit.SECONDS.toMillis(10));
+  }
+}
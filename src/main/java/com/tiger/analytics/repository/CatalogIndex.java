@@ -0,0 +1,218 @@
+package com.tiger.analytics.repository;
+
+import com.tiger.analytics.model.StoreProduct;
+import java.io.BufferedOutputStream;
+import java.io.DataOutputStream;
+import java.io.FileOutputStream;
+import java.io.IOException;
+import java.nio.ByteBuffer;
+import java.nio.channels.FileChannel;
+import java.nio.charset.StandardCharsets;
+import java.nio.file.Files;
+import java.nio.file.Path;
+import java.nio.file.StandardCopyOption;
+import java.nio.file.StandardOpenOption;
+import java.util.HashMap;
+import java.util.Map;
+import java.util.zip.CRC32;
+import java.util.zip.CheckedOutputStream;
+
+/**
+ * Indexes of the rows loaded from the catalog snapshots, persisted as ProductList.csv.idx so
+ * a start from the same snapshots maps them in instead of hashing every sku and tokenizing
+ * every product again. The index names the length and checksum of the snapshot of every
+ * shard it was built from; it is only used with exactly those snapshots, and ends with a
+ * checksum of its own, so a stale or damaged index is rebuilt rather than trusted.
+ *
+ * Layout, big endian:
+ * <pre>
+ * magic, version, shards, snapshot length and checksum per shard, rows, highest productIndex,
+ * sku table, stores, search index flag and {@link ProductSearchIndex} when set,
+ * crc32 of everything before it
+ * </pre>
+ * The sku table is its length and slots, of length 0 for storage without one. Stores are
+ * their count followed by the storeId, row count and ascending rows of each.
+ */
+final class CatalogIndex {
+
+  static final int MAGIC = 0x54474349;
+  static final int VERSION = 1;
+
+  private final int rows;
+  private final int maxProductIndex;
+  private final int[] skuIndex;
+  private final Map<String, RowSet> storeRows;
+  private final ProductSearchIndex searchIndex;
+
+  private CatalogIndex(int rows, int maxProductIndex, int[] skuIndex, Map<String, RowSet> storeRows, ProductSearchIndex searchIndex) {
+    this.rows = rows;
+    this.maxProductIndex = maxProductIndex;
+    this.skuIndex = skuIndex;
+    this.storeRows = storeRows;
+    this.searchIndex = searchIndex;
+  }
+
+  int getRows() {
+    return rows;
+  }
+
+  int getMaxProductIndex() {
+    return maxProductIndex;
+  }
+
+  /**
+   * Persisted sku index of the rows
+   * @return index, or null when the rows were held without one
+   */
+  int[] getSkuIndex() {
+    return skuIndex;
+  }
+
+  Map<String, RowSet> getStoreRows() {
+    return storeRows;
+  }
+
+  /**
+   * Search index of the rows
+   * @return index, or null when it was not persisted or not read
+   */
+  ProductSearchIndex getSearchIndex() {
+    return searchIndex;
+  }
+
+  /**
+   * Method used to index rows loaded from snapshots, whose skus are already indexed
+   * @param base
+   * @param search whether to build the search index
+   * @return CatalogIndex
+   */
+  static CatalogIndex build(WritableProductRows base, boolean search) {
+    int maxProductIndex = 0;
+    Map<String, RowSet> storeRows = new HashMap<>();
+    ProductSearchIndex searchIndex = search ? new ProductSearchIndex() : null;
+    for (int row = 0; row < base.size(); row++) {
+      StoreProduct product = base.get(row);
+      try {
+        maxProductIndex = Math.max(maxProductIndex, Integer.parseInt(product.getProductIndex()));
+      } catch (NumberFormatException numberFormatException) {
+        // not counted, as when products are loaded one by one
+      }
+      if (product.getStoreId() != null) {
+        storeRows.computeIfAbsent(product.getStoreId(), key -> new RowSet()).add(row);
+      }
+      if (searchIndex != null) {
+        searchIndex.index(row, null, product);
+      }
+    }
+    return new CatalogIndex(base.size(), maxProductIndex, base.skuIndex(), storeRows, searchIndex);
+  }
+
+  /**
+   * Method used to write the indexes of rows loaded from snapshots. The file is replaced
+   * atomically but not synced, losing it only costs the next start a rebuild.
+   * @param file
+   * @param snapshots snapshot of every shard, in the order their rows were loaded
+   * @throws IOException
+   */
+  void write(Path file, CatalogSnapshot[] snapshots) throws IOException {
+    Path temporary = file.resolveSibling(file.getFileName() + ".tmp");
+    CRC32 crc = new CRC32();
+    try (FileOutputStream outputStream = new FileOutputStream(temporary.toFile())) {
+      DataOutputStream output = new DataOutputStream(new BufferedOutputStream(new CheckedOutputStream(outputStream, crc), 64 * 1024));
+      output.writeInt(MAGIC);
+      output.writeInt(VERSION);
+      output.writeInt(snapshots.length);
+      for (CatalogSnapshot snapshot : snapshots) {
+        output.writeLong(snapshot.length());
+        output.writeInt(snapshot.checksum());
+      }
+      output.writeInt(rows);
+      output.writeInt(maxProductIndex);
+      writeInts(output, skuIndex != null ? skuIndex : new int[0]);
+      output.writeInt(storeRows.size());
+      for (Map.Entry<String, RowSet> entry : storeRows.entrySet()) {
+        byte[] storeId = entry.getKey().getBytes(StandardCharsets.UTF_8);
+        output.writeInt(storeId.length);
+        output.write(storeId);
+        writeInts(output, entry.getValue().toArray());
+      }
+      output.writeBoolean(searchIndex != null);
+      if (searchIndex != null) {
+        searchIndex.write(output);
+      }
+      output.flush();
+      new DataOutputStream(outputStream).writeInt((int) crc.getValue());
+    }
+    Files.move(temporary, file, StandardCopyOption.REPLACE_EXISTING, StandardCopyOption.ATOMIC_MOVE);
+  }
+
+  /**
+   * Read and verify the indexes of rows loaded from snapshots
+   * @param file
+   * @param snapshots snapshot of every shard, in the order their rows are loaded
+   * @param search whether to read the search index
+   * @return CatalogIndex, or null when the index was built from other snapshots
+   * @throws IOException when the file is not an index, has another version or is corrupt
+   */
+  static CatalogIndex read(Path file, CatalogSnapshot[] snapshots, boolean search) throws IOException {
+    ByteBuffer buffer;
+    try (FileChannel channel = FileChannel.open(file, StandardOpenOption.READ)) {
+      if (channel.size() > Integer.MAX_VALUE || channel.size() < 4) {
+        throw new IOException("Invalid index size " + channel.size());
+      }
+      buffer = channel.map(FileChannel.MapMode.READ_ONLY, 0, channel.size());
+    }
+    int checksum = buffer.getInt(buffer.limit() - 4);
+    CRC32 crc = new CRC32();
+    crc.update(buffer.duplicate().limit(buffer.limit() - 4));
+    if ((int) crc.getValue() != checksum) {
+      throw new IOException("Index checksum mismatch in " + file);
+    }
+    if (buffer.getInt() != MAGIC) {
+      throw new IOException("Not a catalog index: " + file);
+    }
+    int version = buffer.getInt();
+    if (version != VERSION) {
+      throw new IOException("Unsupported index version " + version + " in " + file);
+    }
+    if (buffer.getInt() != snapshots.length) {
+      return null;
+    }
+    int snapshotRows = 0;
+    for (CatalogSnapshot snapshot : snapshots) {
+      if (buffer.getLong() != snapshot.length() || buffer.getInt() != snapshot.checksum()) {
+        return null;
+      }
+      snapshotRows += snapshot.size();
+    }
+    int rows = buffer.getInt();
+    if (rows != snapshotRows) {
+      return null;
+    }
+    int maxProductIndex = buffer.getInt();
+    int[] skuIndex = readInts(buffer, buffer.getInt());
+    int stores = buffer.getInt();
+    Map<String, RowSet> storeRows = new HashMap<>(stores * 2);
+    for (int store = 0; store < stores; store++) {
+      byte[] storeId = new byte[buffer.getInt()];
+      buffer.get(storeId);
+      storeRows.put(new String(storeId, StandardCharsets.UTF_8), new RowSet(readInts(buffer, buffer.getInt())));
+    }
+    ProductSearchIndex searchIndex = search && buffer.get() != 0 ? ProductSearchIndex.read(buffer) : null;
+    return new CatalogIndex(rows, maxProductIndex, skuIndex.length > 0 ? skuIndex : null, storeRows, searchIndex);
+  }
+
+  private static void writeInts(DataOutputStream output, int[] values) throws IOException {
+    output.writeInt(values.length);
+    for (int value : values) {
+      output.writeInt(value);
+    }
+  }
+
+  private static int[] readInts(ByteBuffer buffer, int count) {
+    int[] values = new int[count];
+    buffer.asIntBuffer().get(values);
+    buffer.position(buffer.position() + count * Integer.BYTES);
+    return values;
+  }
+}
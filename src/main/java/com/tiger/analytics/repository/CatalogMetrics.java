@@ -0,0 +1,114 @@
+package com.tiger.analytics.repository;
+
+import com.tiger.analytics.exception.ResponseException;
+import io.micrometer.core.instrument.Counter;
+import io.micrometer.core.instrument.Gauge;
+import io.micrometer.core.instrument.MeterRegistry;
+import io.micrometer.core.instrument.Timer;
+import java.time.Duration;
+import java.util.Map;
+import java.util.concurrent.ConcurrentHashMap;
+import java.util.concurrent.TimeUnit;
+import java.util.function.ToDoubleFunction;
+import org.springframework.beans.factory.annotation.Value;
+import org.springframework.stereotype.Component;
+
+/**
+ * Meters of the catalog, exposed with all other Micrometer meters on /actuator/prometheus.
+ *
+ * Timers are registered once with fixed tags and publish histogram buckets instead of client
+ * side percentiles, so timing an operation reads the clock twice and increments counters in
+ * place without allocating. management.metrics.enable.catalog=false turns the meters into
+ * no-ops and skips the clock reads as well.
+ */
+@Component
+public class CatalogMetrics {
+
+  private static final long NOT_TIMED = Long.MIN_VALUE;
+
+  private final MeterRegistry meterRegistry;
+  private final boolean enabled;
+  private final Map<String, Counter> errors = new ConcurrentHashMap<>();
+
+  final Timer parse;
+  final Timer lookupBySku;
+  final Timer lookupByBatch;
+  final Timer lookupByScan;
+  final Timer lookupBySearch;
+  final Timer create;
+  final Timer update;
+  final Timer logFlush;
+  final Timer snapshotFlush;
+
+  public CatalogMetrics(MeterRegistry meterRegistry, @Value("${management.metrics.enable.catalog:true}") boolean enabled) {
+    this.meterRegistry = meterRegistry;
+    this.enabled = enabled;
+    parse = timer("catalog.parse", "Load of the catalog file and replay of its change log", Duration.ofMillis(1), Duration.ofMinutes(5));
+    lookupBySku = timer("catalog.lookup", "Lookup of products", "by", "sku");
+    lookupByBatch = timer("catalog.lookup", "Lookup of products", "by", "batch");
+    lookupByScan = timer("catalog.lookup", "Lookup of products", "by", "scan");
+    lookupBySearch = timer("catalog.lookup", "Lookup of products", "by", "search");
+    create = timer("catalog.create", "Creation of a product until it is durable");
+    update = timer("catalog.update", "Update of a product until it is durable");
+    logFlush = timer("catalog.flush", "Write of changes to a file", "file", "log");
+    snapshotFlush = timer("catalog.flush", "Write of changes to a file", "file", "snapshot");
+  }
+
+  /**
+   * Method used to start timing an operation
+   * @return start to pass to stop
+   */
+  long start() {
+    return enabled ? System.nanoTime() : NOT_TIMED;
+  }
+
+  /**
+   * Method used to record the duration of an operation
+   * @param timer
+   * @param start from start()
+   */
+  void stop(Timer timer, long start) {
+    if (start != NOT_TIMED) {
+      timer.record(System.nanoTime() - start, TimeUnit.NANOSECONDS);
+    }
+  }
+
+  /**
+   * Method used to register a gauge sampled on every scrape
+   * @param name
+   * @param description
+   * @param object
+   * @param value
+   */
+  public <T> void gauge(String name, String description, T object, ToDoubleFunction<T> value) {
+    Gauge.builder(name, object, value).description(description).strongReference(true).register(meterRegistry);
+  }
+
+  /**
+   * Method used to count an error response by its status and error
+   * @param responseException
+   */
+  public void countError(ResponseException responseException) {
+    errors.computeIfAbsent(responseException.getStatus() + " " + responseException.getError(), key ->
+        Counter.builder("catalog.errors")
+            .description("Error responses by status and error")
+            .tag("status", String.valueOf(responseException.getStatus()))
+            .tag("error", String.valueOf(responseException.getError()))
+            .register(meterRegistry))
+        .increment();
+  }
+
+  private Timer timer(String name, String description, String... tags) {
+    return timer(name, description, Duration.ofNanos(1000), Duration.ofSeconds(10), tags);
+  }
+
+  private Timer timer(String name, String description, Duration minimum, Duration maximum, String... tags) {
+    return Timer.builder(name)
+        .description(description)
+        .tags(tags)
+        .publishPercentileHistogram()
+        .minimumExpectedValue(minimum)
+        .maximumExpectedValue(maximum)
+        .register(meterRegistry);
+  }
+}
@@ -0,0 +1,253 @@
+package com.tiger.analytics.repository;
+
+import com.tiger.analytics.model.ProductQuery;
+import com.tiger.analytics.model.StoreProduct;
+import java.io.BufferedWriter;
+import java.io.FileInputStream;
+import java.io.FileOutputStream;
+import java.io.IOException;
+import java.io.InputStreamReader;
+import java.io.OutputStreamWriter;
+import java.io.Reader;
+import java.nio.charset.StandardCharsets;
+import java.nio.file.Files;
+import java.nio.file.Path;
+import java.nio.file.StandardCopyOption;
+import java.util.HashSet;
+import java.util.LinkedHashMap;
+import java.util.Map;
+import java.util.Objects;
+import java.util.Properties;
+import java.util.Set;
+
+/**
+ * File layout of a catalog split into shards by sku. With catalog.shards=4 and
+ * catalog.file=ProductList.csv the shards are ProductList.0.csv to ProductList.3.csv, each
+ * with its own change log and snapshot next to it; a single shard is the catalog file itself.
+ *
+ * A sku belongs to shard hashCode mod shards. String.hashCode is specified by the language,
+ * so a product stays in its shard across restarts and JDKs, and an update never moves it.
+ *
+ * The number of shards the files are in is recorded in ProductList.csv.shards, so a catalog
+ * started with another count is resharded instead of read with the wrong layout. A catalog
+ * file without a manifest is a single shard.
+ */
+final class CatalogShards {
+
+  private static final String SHARDS = "shards";
+  private static final String RESHARDING_FROM = "resharding-from";
+
+  private CatalogShards() {
+  }
+
+  /**
+   * Shard of a sku
+   * @param sku
+   * @param shards number of shards
+   * @return shard
+   */
+  static int shardOf(String sku, int shards) {
+    return shards == 1 ? 0 : Math.floorMod(Objects.hashCode(sku), shards);
+  }
+
+  /**
+   * Csv file of a shard
+   * @param catalogFile
+   * @param shard
+   * @param shards number of shards
+   * @return path
+   */
+  static Path shardFile(Path catalogFile, int shard, int shards) {
+    if (shards == 1) {
+      return catalogFile;
+    }
+    String name = catalogFile.getFileName().toString();
+    int extension = name.lastIndexOf('.');
+    return catalogFile.resolveSibling(extension > 0
+        ? name.substring(0, extension) + "." + shard + name.substring(extension)
+        : name + "." + shard);
+  }
+
+  /**
+   * Manifest recording the number of shards of a catalog
+   * @param catalogFile
+   * @return path
+   */
+  static Path manifestFile(Path catalogFile) {
+    return catalogFile.resolveSibling(catalogFile.getFileName() + ".shards");
+  }
+
+  /**
+   * Method used to find the number of shards the catalog files are in. A reshard that was
+   * interrupted after its manifest was written is completed first. Without a manifest the
+   * catalog file is a single shard, and shard files split before manifests were written are
+   * counted.
+   * @param catalogFile
+   * @return number of shards, 0 when there are no catalog files
+   * @throws IOException
+   */
+  static int layout(Path catalogFile) throws IOException {
+    Path manifest = manifestFile(catalogFile);
+    if (Files.exists(manifest)) {
+      Properties properties = new Properties();
+      try (Reader reader = Files.newBufferedReader(manifest, StandardCharsets.UTF_8)) {
+        properties.load(reader);
+      }
+      int shards = Integer.parseInt(properties.getProperty(SHARDS));
+      String from = properties.getProperty(RESHARDING_FROM);
+      if (from != null) {
+        complete(catalogFile, Integer.parseInt(from), shards);
+      }
+      return shards;
+    }
+    if (Files.exists(catalogFile)) {
+      return 1;
+    }
+    int shards = 0;
+    while (Files.exists(shardFile(catalogFile, shards, 2))) {
+      shards++;
+    }
+    return shards;
+  }
+
+  /**
+   * Method used to move the products of a catalog into another number of shards, also from
+   * or back into the single catalog file. The shard files and change logs are read, the new
+   * files are written next to them and the manifest names the new count, which commits the
+   * reshard; only then are the new files moved into place and the old ones removed. A
+   * catalog file split into shards is kept as ProductList.csv.unsharded.
+   * @param catalogFile
+   * @param from number of shards the files are in
+   * @param to number of shards to move them into
+   * @return number of products
+   * @throws IOException
+   */
+  static int reshard(Path catalogFile, int from, int to) throws IOException {
+    Map<String, StoreProduct> products = new LinkedHashMap<>();
+    String[] header = new String[0];
+    for (int shard = 0; shard < from; shard++) {
+      Path file = shardFile(catalogFile, shard, from);
+      if (Files.exists(file)) {
+        try (StoreProductCsvReader csvReader = new StoreProductCsvReader(new InputStreamReader(new FileInputStream(file.toFile()), StandardCharsets.UTF_8))) {
+          if (header.length == 0) {
+            header = csvReader.getHeader();
+          }
+          StoreProduct storeProduct;
+          while ((storeProduct = csvReader.read()) != null) {
+            products.put(storeProduct.getSku(), storeProduct);
+          }
+        }
+      }
+      try (ProductChangeLog changeLog = new ProductChangeLog(logFile(file))) {
+        changeLog.open(storeProduct -> products.put(storeProduct.getSku(), storeProduct));
+      }
+    }
+    if (header.length == 0) {
+      header = ProductQuery.FIELDS.toArray(new String[0]);
+    }
+
+    FileOutputStream[] outputStreams = new FileOutputStream[to];
+    StoreProductCsvWriter[] csvWriters = new StoreProductCsvWriter[to];
+    try {
+      for (int shard = 0; shard < to; shard++) {
+        outputStreams[shard] = new FileOutputStream(reshardedFile(shardFile(catalogFile, shard, to)).toFile());
+        csvWriters[shard] = new StoreProductCsvWriter(new BufferedWriter(new OutputStreamWriter(outputStreams[shard], StandardCharsets.UTF_8), 64 * 1024), header);
+        csvWriters[shard].writeHeader();
+      }
+      for (StoreProduct product : products.values()) {
+        csvWriters[shardOf(product.getSku(), to)].write(product);
+      }
+      for (int shard = 0; shard < to; shard++) {
+        csvWriters[shard].flush();
+        outputStreams[shard].getFD().sync();
+      }
+    } finally {
+      for (int shard = 0; shard < to; shard++) {
+        if (csvWriters[shard] != null) {
+          csvWriters[shard].close();
+        } else if (outputStreams[shard] != null) {
+          outputStreams[shard].close();
+        }
+      }
+    }
+    writeManifest(catalogFile, to, from);
+    complete(catalogFile, from, to);
+    return products.size();
+  }
+
+  /**
+   * Method used to move the files written by a committed reshard into place. Every step can
+   * be repeated, so a reshard interrupted here is completed on the next start.
+   * @param catalogFile
+   * @param from number of shards the files were in
+   * @param to number of shards of the written files
+   * @throws IOException
+   */
+  private static void complete(Path catalogFile, int from, int to) throws IOException {
+    Set<Path> files = new HashSet<>();
+    for (int shard = 0; shard < to; shard++) {
+      files.add(shardFile(catalogFile, shard, to));
+    }
+    for (int shard = 0; shard < from; shard++) {
+      Path file = shardFile(catalogFile, shard, from);
+      deleteLogAndSnapshot(file);
+      if (files.contains(file)) {
+        // replaced by its resharded file below
+        continue;
+      }
+      if (from == 1) {
+        if (Files.exists(file)) {
+          Files.move(file, file.resolveSibling(file.getFileName() + ".unsharded"), StandardCopyOption.REPLACE_EXISTING);
+        }
+      } else {
+        Files.deleteIfExists(file);
+      }
+    }
+    for (Path file : files) {
+      deleteLogAndSnapshot(file);
+      Path resharded = reshardedFile(file);
+      if (Files.exists(resharded)) {
+        Files.move(resharded, file, StandardCopyOption.REPLACE_EXISTING, StandardCopyOption.ATOMIC_MOVE);
+      }
+    }
+    Files.deleteIfExists(catalogFile.resolveSibling(catalogFile.getFileName() + ".idx"));
+    writeManifest(catalogFile, to, 0);
+  }
+
+  /**
+   * Method used to record the number of shards, atomically replacing the manifest
+   * @param catalogFile
+   * @param shards
+   * @param from number of shards being resharded from, 0 once the files are in place
+   * @throws IOException
+   */
+  private static void writeManifest(Path catalogFile, int shards, int from) throws IOException {
+    Properties properties = new Properties();
+    properties.setProperty(SHARDS, String.valueOf(shards));
+    if (from > 0) {
+      properties.setProperty(RESHARDING_FROM, String.valueOf(from));
+    }
+    Path manifest = manifestFile(catalogFile);
+    Path temporaryFile = manifest.resolveSibling(manifest.getFileName() + ".tmp");
+    try (FileOutputStream outputStream = new FileOutputStream(temporaryFile.toFile())) {
+      properties.store(new OutputStreamWriter(outputStream, StandardCharsets.UTF_8), "Number of shards of " + catalogFile.getFileName());
+      outputStream.getFD().sync();
+    }
+    Files.move(temporaryFile, manifest, StandardCopyOption.REPLACE_EXISTING, StandardCopyOption.ATOMIC_MOVE);
+  }
+
+  private static void deleteLogAndSnapshot(Path file) throws IOException {
+    Path logFile = logFile(file);
+    Files.deleteIfExists(logFile);
+    Files.deleteIfExists(logFile.resolveSibling(logFile.getFileName() + ".old"));
+    Files.deleteIfExists(file.resolveSibling(file.getFileName() + ".snap"));
+  }
+
+  private static Path logFile(Path file) {
+    return file.resolveSibling(file.getFileName() + ".log");
+  }
+
+  private static Path reshardedFile(Path file) {
+    return file.resolveSibling(file.getFileName() + ".resharded");
+  }
+}
@@ -0,0 +1,383 @@
+package com.tiger.analytics.repository;
+
+import com.tiger.analytics.model.StoreProduct;
+import java.io.BufferedOutputStream;
+import java.io.DataOutputStream;
+import java.io.FileOutputStream;
+import java.io.IOException;
+import java.nio.ByteBuffer;
+import java.nio.channels.FileChannel;
+import java.nio.charset.StandardCharsets;
+import java.nio.file.Path;
+import java.nio.file.StandardOpenOption;
+import java.util.AbstractList;
+import java.util.ArrayList;
+import java.util.HashMap;
+import java.util.List;
+import java.util.Map;
+import java.util.function.Function;
+import java.util.zip.CRC32;
+import java.util.zip.CheckedOutputStream;
+
+/**
+ * Binary, column oriented catalog snapshot. Loading it needs no text parsing: prices are
+ * stored as raw doubles, storeId and date as codes into a dictionary of distinct values, and
+ * the remaining text columns as UTF-8 string heaps addressed by an offset array.
+ *
+ * Layout, big endian:
+ * <pre>
+ * magic, version, source csv length, source csv modified time, header columns, row count
+ * productIndex heap, storeId dictionary, sku heap, productName heap, price column,
+ * date dictionary, description heap, imageUrl heap, crc32 of everything before it
+ * </pre>
+ * A heap is a null bitmap, rows + 1 offsets and the bytes. A dictionary is its values
+ * followed by one code per row, -1 for null. The price column is a null bitmap and a double
+ * per row.
+ *
+ * A read snapshot keeps these columns, so columnar rows take them over without a product
+ * being materialized; getRows materializes products on access for everything else.
+ */
+final class CatalogSnapshot {
+
+  static final int MAGIC = 0x54475343;
+  static final int VERSION = 1;
+
+  private final String[] header;
+  private final int size;
+  private final String[] productIndexes;
+  private final String[] storeIds;
+  private final int[] storeIdCodes;
+  private final String[] skus;
+  private final String[] productNames;
+  private final boolean[] nullPrices;
+  private final double[] prices;
+  private final String[] dates;
+  private final int[] dateCodes;
+  private final String[] descriptions;
+  private final String[] imageUrls;
+  private final long sourceLength;
+  private final long sourceModified;
+  private final long length;
+  private final int checksum;
+
+  /**
+   * Snapshot of the columns that follow the header in a buffer
+   */
+  private CatalogSnapshot(String[] header, long sourceLength, long sourceModified, int checksum, ByteBuffer buffer) {
+    this.header = header;
+    this.sourceLength = sourceLength;
+    this.sourceModified = sourceModified;
+    this.length = buffer.limit();
+    this.checksum = checksum;
+    this.size = buffer.getInt();
+    this.productIndexes = readHeap(buffer, size);
+    this.storeIds = readDictionary(buffer);
+    this.storeIdCodes = readCodes(buffer, size);
+    this.skus = readHeap(buffer, size);
+    this.productNames = readHeap(buffer, size);
+    this.nullPrices = readNulls(buffer, size);
+    this.prices = new double[size];
+    buffer.asDoubleBuffer().get(prices);
+    buffer.position(buffer.position() + size * Double.BYTES);
+    this.dates = readDictionary(buffer);
+    this.dateCodes = readCodes(buffer, size);
+    this.descriptions = readHeap(buffer, size);
+    this.imageUrls = readHeap(buffer, size);
+  }
+
+  String[] getHeader() {
+    return header.clone();
+  }
+
+  int size() {
+    return size;
+  }
+
+  /**
+   * Products in row order, each materialized from the columns when it is read
+   * @return list
+   */
+  List<StoreProduct> getRows() {
+    return new AbstractList<StoreProduct>() {
+      @Override
+      public StoreProduct get(int row) {
+        StoreProduct storeProduct = new StoreProduct();
+        storeProduct.setProductIndex(productIndexes[row]);
+        storeProduct.setStoreId(storeIdCodes[row] >= 0 ? storeIds[storeIdCodes[row]] : null);
+        storeProduct.setSku(skus[row]);
+        storeProduct.setProductName(productNames[row]);
+        storeProduct.setPrice(nullPrices[row] ? null : prices[row]);
+        storeProduct.setDate(dateCodes[row] >= 0 ? dates[dateCodes[row]] : null);
+        storeProduct.setDescription(descriptions[row]);
+        storeProduct.setImageUrl(imageUrls[row]);
+        return storeProduct;
+      }
+
+      @Override
+      public int size() {
+        return size;
+      }
+    };
+  }
+
+  String productIndex(int row) {
+    return productIndexes[row];
+  }
+
+  /**
+   * Distinct storeIds, indexed by the codes of storeIdCode
+   * @return values
+   */
+  String[] storeIds() {
+    return storeIds;
+  }
+
+  int storeIdCode(int row) {
+    return storeIdCodes[row];
+  }
+
+  String sku(int row) {
+    return skus[row];
+  }
+
+  String productName(int row) {
+    return productNames[row];
+  }
+
+  boolean hasPrice(int row) {
+    return !nullPrices[row];
+  }
+
+  double price(int row) {
+    return prices[row];
+  }
+
+  /**
+   * Distinct dates, indexed by the codes of dateCode
+   * @return values
+   */
+  String[] dates() {
+    return dates;
+  }
+
+  int dateCode(int row) {
+    return dateCodes[row];
+  }
+
+  String description(int row) {
+    return descriptions[row];
+  }
+
+  String imageUrl(int row) {
+    return imageUrls[row];
+  }
+
+  /**
+   * Size of the snapshot file
+   * @return bytes
+   */
+  long length() {
+    return length;
+  }
+
+  /**
+   * crc32 the snapshot file ends with, which identifies its contents together with its length
+   * @return checksum
+   */
+  int checksum() {
+    return checksum;
+  }
+
+  /**
+   * Check whether the snapshot was written from a csv file of the given size and time
+   * @param length
+   * @param modified
+   * @return boolean
+   */
+  boolean isSnapshotOf(long length, long modified) {
+    return sourceLength == length && sourceModified == modified;
+  }
+
+  /**
+   * Write products as a snapshot and sync it to disk
+   * @param file
+   * @param header
+   * @param products
+   * @param sourceLength length of the csv file holding the same products, -1 when unknown
+   * @param sourceModified modified time of that csv file in millis, -1 when unknown
+   * @throws IOException
+   */
+  static void write(Path file, String[] header, List<StoreProduct> products, long sourceLength, long sourceModified) throws IOException {
+    CRC32 crc = new CRC32();
+    try (FileOutputStream outputStream = new FileOutputStream(file.toFile())) {
+      DataOutputStream output = new DataOutputStream(new BufferedOutputStream(new CheckedOutputStream(outputStream, crc), 64 * 1024));
+      output.writeInt(MAGIC);
+      output.writeInt(VERSION);
+      output.writeLong(sourceLength);
+      output.writeLong(sourceModified);
+      output.writeInt(header.length);
+      for (String column : header) {
+        writeString(output, column);
+      }
+      int size = products.size();
+      output.writeInt(size);
+      writeHeap(output, products, StoreProduct::getProductIndex);
+      writeDictionary(output, products, StoreProduct::getStoreId);
+      writeHeap(output, products, StoreProduct::getSku);
+      writeHeap(output, products, StoreProduct::getProductName);
+      writeNulls(output, products, storeProduct -> storeProduct.getPrice());
+      for (StoreProduct storeProduct : products) {
+        output.writeDouble(storeProduct.getPrice() != null ? storeProduct.getPrice() : 0d);
+      }
+      writeDictionary(output, products, StoreProduct::getDate);
+      writeHeap(output, products, StoreProduct::getDescription);
+      writeHeap(output, products, StoreProduct::getImageUrl);
+      output.flush();
+      new DataOutputStream(outputStream).writeInt((int) crc.getValue());
+      outputStream.getFD().sync();
+    }
+  }
+
+  /**
+   * Read and verify a snapshot
+   * @param file
+   * @return CatalogSnapshot
+   * @throws IOException when the file is not a snapshot, has another version or is corrupt
+   */
+  static CatalogSnapshot read(Path file) throws IOException {
+    ByteBuffer buffer;
+    try (FileChannel channel = FileChannel.open(file, StandardOpenOption.READ)) {
+      if (channel.size() > Integer.MAX_VALUE || channel.size() < 4) {
+        throw new IOException("Invalid snapshot size " + channel.size());
+      }
+      buffer = channel.map(FileChannel.MapMode.READ_ONLY, 0, channel.size());
+    }
+    int checksum = buffer.getInt(buffer.limit() - 4);
+    CRC32 crc = new CRC32();
+    crc.update(buffer.duplicate().limit(buffer.limit() - 4));
+    if ((int) crc.getValue() != checksum) {
+      throw new IOException("Snapshot checksum mismatch in " + file);
+    }
+    if (buffer.getInt() != MAGIC) {
+      throw new IOException("Not a catalog snapshot: " + file);
+    }
+    int version = buffer.getInt();
+    if (version != VERSION) {
+      throw new IOException("Unsupported snapshot version " + version + " in " + file);
+    }
+    long sourceLength = buffer.getLong();
+    long sourceModified = buffer.getLong();
+    String[] header = new String[buffer.getInt()];
+    for (int column = 0; column < header.length; column++) {
+      header[column] = readString(buffer);
+    }
+    return new CatalogSnapshot(header, sourceLength, sourceModified, checksum, buffer);
+  }
+
+  private static void writeNulls(DataOutputStream output, List<StoreProduct> products, Function<StoreProduct, Object> column) throws IOException {
+    byte[] bitmap = new byte[(products.size() + 7) / 8];
+    for (int row = 0; row < products.size(); row++) {
+      if (column.apply(products.get(row)) == null) {
+        bitmap[row >>> 3] |= 1 << (row & 7);
+      }
+    }
+    output.write(bitmap);
+  }
+
+  private static boolean[] readNulls(ByteBuffer buffer, int size) {
+    byte[] bitmap = new byte[(size + 7) / 8];
+    buffer.get(bitmap);
+    boolean[] nulls = new boolean[size];
+    for (int row = 0; row < size; row++) {
+      nulls[row] = (bitmap[row >>> 3] & (1 << (row & 7))) != 0;
+    }
+    return nulls;
+  }
+
+  private static void writeHeap(DataOutputStream output, List<StoreProduct> products, Function<StoreProduct, String> column) throws IOException {
+    writeNulls(output, products, column::apply);
+    byte[][] values = new byte[products.size()][];
+    int offset = 0;
+    output.writeInt(offset);
+    for (int row = 0; row < values.length; row++) {
+      String value = column.apply(products.get(row));
+      values[row] = value != null ? value.getBytes(StandardCharsets.UTF_8) : new byte[0];
+      offset += values[row].length;
+      output.writeInt(offset);
+    }
+    for (byte[] value : values) {
+      output.write(value);
+    }
+  }
+
+  private static String[] readHeap(ByteBuffer buffer, int size) {
+    boolean[] nulls = readNulls(buffer, size);
+    int[] offsets = readCodes(buffer, size + 1);
+    byte[] bytes = new byte[offsets[size]];
+    buffer.get(bytes);
+    String[] values = new String[size];
+    for (int row = 0; row < size; row++) {
+      if (!nulls[row]) {
+        values[row] = new String(bytes, offsets[row], offsets[row + 1] - offsets[row], StandardCharsets.UTF_8);
+      }
+    }
+    return values;
+  }
+
+  private static void writeDictionary(DataOutputStream output, List<StoreProduct> products, Function<StoreProduct, String> column) throws IOException {
+    Map<String, Integer> codes = new HashMap<>();
+    List<String> values = new ArrayList<>();
+    int[] rowCodes = new int[products.size()];
+    for (int row = 0; row < rowCodes.length; row++) {
+      String value = column.apply(products.get(row));
+      if (value == null) {
+        rowCodes[row] = -1;
+        continue;
+      }
+      Integer code = codes.get(value);
+      if (code == null) {
+        code = values.size();
+        codes.put(value, code);
+        values.add(value);
+      }
+      rowCodes[row] = code;
+    }
+    output.writeInt(values.size());
+    for (String value : values) {
+      writeString(output, value);
+    }
+    for (int code : rowCodes) {
+      output.writeInt(code);
+    }
+  }
+
+  /**
+   * Values of a dictionary, followed by the codes read with readCodes
+   */
+  private static String[] readDictionary(ByteBuffer buffer) {
+    String[] values = new String[buffer.getInt()];
+    for (int code = 0; code < values.length; code++) {
+      values[code] = readString(buffer);
+    }
+    return values;
+  }
+
+  private static int[] readCodes(ByteBuffer buffer, int count) {
+    int[] codes = new int[count];
+    buffer.asIntBuffer().get(codes);
+    buffer.position(buffer.position() + count * Integer.BYTES);
+    return codes;
+  }
+
+  private static void writeString(DataOutputStream output, String value) throws IOException {
+    byte[] bytes = value.getBytes(StandardCharsets.UTF_8);
+    output.writeInt(bytes.length);
+    output.write(bytes);
+  }
+
+  private static String readString(ByteBuffer buffer) {
+    byte[] bytes = new byte[buffer.getInt()];
+    buffer.get(bytes);
+    return new String(bytes, StandardCharsets.UTF_8);
+  }
+}
@@ -0,0 +1,160 @@
+package com.tiger.analytics.repository;
+
+import com.tiger.analytics.model.ProductQuery;
+import com.tiger.analytics.model.StoreProduct;
+import java.io.BufferedWriter;
+import java.io.FileInputStream;
+import java.io.FileOutputStream;
+import java.io.IOException;
+import java.io.InputStreamReader;
+import java.io.OutputStreamWriter;
+import java.nio.charset.StandardCharsets;
+import java.nio.file.Files;
+import java.nio.file.Path;
+import java.nio.file.Paths;
+import java.util.ArrayList;
+import java.util.LinkedHashMap;
+import java.util.List;
+import java.util.Map;
+
+/**
+ * Command line converter between the csv catalog and its binary snapshot, and migration of
+ * a catalog into shards:
+ * <pre>
+ * import ProductList.csv ProductList.csv.snap
+ * export ProductList.csv.snap ProductList.csv
+ * reshard ProductList.csv 4
+ * index ProductList.csv 4
+ * </pre>
+ * The application prefers a snapshot next to the catalog file as long as it was imported
+ * from the csv file as it is now. reshard moves the catalog from the number of shards it is
+ * in into the shard files read with catalog.shards=4, or back into ProductList.csv with 1,
+ * which the application also does on its first start with another count; run it while the
+ * application is stopped. index builds the sku,
+ * store and search indexes of the snapshots of every shard into ProductList.csv.idx ahead of
+ * time, which the application otherwise does on its first start from the snapshots.
+ */
+public final class CatalogSnapshotTool {
+
+  private CatalogSnapshotTool() {
+  }
+
+  public static void main(String[] args) throws IOException {
+    if (args.length != 3 || !("import".equals(args[0]) || "export".equals(args[0]) || "reshard".equals(args[0]) || "index".equals(args[0]))) {
+      System.err.println("Usage: CatalogSnapshotTool import <csv> <snapshot> | export <snapshot> <csv> | reshard <csv> <shards> | index <csv> <shards>");
+      System.exit(2);
+    }
+    if ("reshard".equals(args[0])) {
+      reshard(Paths.get(args[1]), args[2]);
+      return;
+    }
+    if ("index".equals(args[0])) {
+      index(Paths.get(args[1]), args[2]);
+      return;
+    }
+    Path source = Paths.get(args[1]);
+    Path target = Paths.get(args[2]);
+    long started = System.nanoTime();
+    int rows = "import".equals(args[0]) ? importCsv(source, target) : exportCsv(source, target);
+    System.out.println(args[0] + "ed " + rows + " products from " + source + " to " + target
+        + " in " + (System.nanoTime() - started) / 1000000 + " ms");
+  }
+
+  private static void reshard(Path csv, String shardCount) throws IOException {
+    int shards;
+    try {
+      shards = Integer.parseInt(shardCount);
+    } catch (NumberFormatException numberFormatException) {
+      shards = 0;
+    }
+    if (shards < 1) {
+      System.err.println("Number of shards must be at least 1, not " + shardCount);
+      System.exit(2);
+    }
+    int recorded = CatalogShards.layout(csv);
+    if (recorded == 0) {
+      System.err.println("No catalog files found for " + csv);
+      System.exit(1);
+    }
+    if (recorded == shards) {
+      System.out.println(csv + " is already in " + shards + " shards");
+      return;
+    }
+    long started = System.nanoTime();
+    int rows = CatalogShards.reshard(csv, recorded, shards);
+    System.out.println("resharded " + rows + " products from " + csv + " in " + recorded + " shards into " + shards + " shards"
+        + " in " + (System.nanoTime() - started) / 1000000 + " ms");
+  }
+
+  private static void index(Path csv, String shardCount) throws IOException {
+    int shards;
+    try {
+      shards = Integer.parseInt(shardCount);
+    } catch (NumberFormatException numberFormatException) {
+      shards = 0;
+    }
+    if (shards < 1) {
+      System.err.println("Number of shards must be at least 1, not " + shardCount);
+      System.exit(2);
+    }
+    long started = System.nanoTime();
+    CatalogSnapshot[] snapshots = new CatalogSnapshot[shards];
+    ColumnarProductRows rows = new ColumnarProductRows();
+    for (int shard = 0; shard < shards; shard++) {
+      Path snapshot = Paths.get(CatalogShards.shardFile(csv, shard, shards) + ".snap");
+      snapshots[shard] = CatalogSnapshot.read(snapshot);
+      rows.append(snapshots[shard]);
+    }
+    rows.indexSkus(null);
+    Path index = csv.resolveSibling(csv.getFileName() + ".idx");
+    CatalogIndex.build(rows, true).write(index, snapshots);
+    System.out.println("indexed " + rows.size() + " products from " + shards + " snapshots into " + index
+        + " in " + (System.nanoTime() - started) / 1000000 + " ms");
+  }
+
+  /**
+   * Method used to convert a csv catalog into a snapshot. Duplicate skus keep their first
+   * row and the last values, as when the catalog is loaded.
+   * @param csv
+   * @param snapshot
+   * @return number of products
+   * @throws IOException
+   */
+  static int importCsv(Path csv, Path snapshot) throws IOException {
+    long length = Files.size(csv);
+    long modified = Files.getLastModifiedTime(csv).toMillis();
+    Map<String, StoreProduct> products = new LinkedHashMap<>();
+    String[] header;
+    try (StoreProductCsvReader csvReader = new StoreProductCsvReader(new InputStreamReader(new FileInputStream(csv.toFile()), StandardCharsets.UTF_8))) {
+      header = csvReader.getHeader().length > 0 ? csvReader.getHeader() : ProductQuery.FIELDS.toArray(new String[0]);
+      StoreProduct storeProduct;
+      while ((storeProduct = csvReader.read()) != null) {
+        products.put(storeProduct.getSku(), storeProduct);
+      }
+    }
+    CatalogSnapshot.write(snapshot, header, new ArrayList<>(products.values()), length, modified);
+    return products.size();
+  }
+
+  /**
+   * Method used to write a snapshot back as a csv catalog
+   * @param snapshot
+   * @param csv
+   * @return number of products
+   * @throws IOException
+   */
+  static int exportCsv(Path snapshot, Path csv) throws IOException {
+    CatalogSnapshot catalogSnapshot = CatalogSnapshot.read(snapshot);
+    List<StoreProduct> products = catalogSnapshot.getRows();
+    try (FileOutputStream outputStream = new FileOutputStream(csv.toFile());
+        StoreProductCsvWriter csvWriter = new StoreProductCsvWriter(new BufferedWriter(new OutputStreamWriter(outputStream, StandardCharsets.UTF_8), 64 * 1024), catalogSnapshot.getHeader())) {
+      csvWriter.writeHeader();
+      for (StoreProduct product : products) {
+        csvWriter.write(product);
+      }
+      csvWriter.flush();
+      outputStream.getFD().sync();
+    }
+    return products.size();
+  }
+}
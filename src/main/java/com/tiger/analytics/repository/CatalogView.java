@@ -0,0 +1,162 @@
+package com.tiger.analytics.repository;
+
+import com.tiger.analytics.model.CatalogVersion;
+import com.tiger.analytics.model.StoreProduct;
+import java.util.AbstractList;
+import java.util.List;
+import java.util.function.Consumer;
+
+/**
+ * One version of the catalog's products. A view never changes: it reads its rows from a base
+ * that is no longer modified once published and from persistent tries of the rows changed or
+ * appended since, and a commit publishes a new view that shares all untouched structure with
+ * the previous one. Readers take the current view without a lock and can keep reading it, for
+ * a whole streamed response, while writers publish newer ones; an old view and whatever only
+ * it references are garbage collected once no reader holds it.
+ *
+ * Compaction folds the changes of a view into new base rows, and so does the catalog once a
+ * view changed a good part of its rows, so the tries only hold the rows changed since.
+ */
+public final class CatalogView {
+
+  private final ProductRows base;
+  private final RowTrie<StoreProduct> changedRows;
+  private final HashTrie<String, Integer> appendedRows;
+  private final int size;
+  private final CatalogVersion version;
+
+  CatalogView(ProductRows base, CatalogVersion version) {
+    this(base, RowTrie.empty(), HashTrie.empty(), base.size(), version);
+  }
+
+  private CatalogView(ProductRows base, RowTrie<StoreProduct> changedRows, HashTrie<String, Integer> appendedRows, int size, CatalogVersion version) {
+    this.base = base;
+    this.changedRows = changedRows;
+    this.appendedRows = appendedRows;
+    this.size = size;
+    this.version = version;
+  }
+
+  /**
+   * Version of the catalog contents this view holds
+   * @return CatalogVersion
+   */
+  public CatalogVersion getVersion() {
+    return version;
+  }
+
+  /**
+   * Number of products
+   * @return size
+   */
+  public int size() {
+    return size;
+  }
+
+  /**
+   * Product stored in a row. The instance may be shared, callers must not modify it.
+   * @param row
+   * @return StoreProduct
+   */
+  StoreProduct get(int row) {
+    if (row < 0 || row >= size) {
+      throw new IndexOutOfBoundsException("Row " + row + " of " + size);
+    }
+    StoreProduct storeProduct = changedRows.get(row);
+    return storeProduct != null ? storeProduct : base.get(row);
+  }
+
+  /**
+   * Row of a sku
+   * @param sku
+   * @return row or -1 when the sku is unknown
+   */
+  int rowOf(String sku) {
+    Integer row = appendedRows.get(sku);
+    return row != null ? row : base.rowOf(sku);
+  }
+
+  /**
+   * View with a product replacing its row, or appended as a new row
+   * @param row current row of the product's sku, -1 to append
+   * @param storeProduct
+   * @return new view
+   */
+  CatalogView with(int row, StoreProduct storeProduct) {
+    if (row >= 0) {
+      return new CatalogView(base, changedRows.put(row, storeProduct), appendedRows, size, version);
+    }
+    return new CatalogView(base, changedRows.put(size, storeProduct), appendedRows.put(storeProduct.getSku(), size), size + 1, version);
+  }
+
+  /**
+   * Same products under another version
+   * @param catalogVersion
+   * @return new view
+   */
+  CatalogView withVersion(CatalogVersion catalogVersion) {
+    return new CatalogView(base, changedRows, appendedRows, size, catalogVersion);
+  }
+
+  ProductRows base() {
+    return base;
+  }
+
+  /**
+   * Number of rows read from the tries instead of the base
+   * @return changed rows
+   */
+  int changes() {
+    return changedRows.size();
+  }
+
+  /**
+   * Pass the products that differ from the base to a consumer, rows of the base first and
+   * appended rows in row order, so that putting them into a copy of the base numbers the
+   * appended rows as this view does
+   * @param consumer
+   */
+  void forEachChange(Consumer<StoreProduct> consumer) {
+    int baseSize = base.size();
+    changedRows.forEach((storeProduct, row) -> {
+      if (row < baseSize) {
+        consumer.accept(storeProduct);
+      }
+    });
+    for (int row = baseSize; row < size; row++) {
+      consumer.accept(changedRows.get(row));
+    }
+  }
+
+  /**
+   * This view on new base rows that already hold every product of an older view of the same
+   * base. Only the changes made after that older view stay in the tries.
+   * @param rows base rows holding the products of the folded view
+   * @param folded view whose changes the rows hold
+   * @return new view
+   */
+  CatalogView rebase(ProductRows rows, CatalogView folded) {
+    // changes are only ever replaced, so an instance the folded view also has is in the rows
+    RowTrie<StoreProduct> changed = changedRows.filter((row, storeProduct) -> row >= folded.size || folded.changedRows.get(row) != storeProduct);
+    HashTrie<String, Integer> appended = appendedRows.filter((sku, row) -> row >= folded.size);
+    return new CatalogView(rows, changed, appended, size, version);
+  }
+
+  /**
+   * Products in row order, read from this view
+   * @return list
+   */
+  List<StoreProduct> asList() {
+    return new AbstractList<StoreProduct>() {
+      @Override
+      public StoreProduct get(int row) {
+        return CatalogView.this.get(row);
+      }
+
+      @Override
+      public int size() {
+        return size;
+      }
+    };
+  }
+}
@@ -0,0 +1,42 @@
+package com.tiger.analytics.repository;
+
+import com.tiger.analytics.model.ProductChange;
+
+/**
+ * Bounded window of the most recent product changes, addressed by sequence number. Sequence
+ * numbers start at 1 and are consecutive, so a change lives in slot sequence % capacity until
+ * the change one capacity later overwrites it. The catalog adds changes under its commit lock,
+ * readers go without a lock and check that a slot still holds the sequence they asked for.
+ */
+final class ChangeRing {
+
+  private final ProductChange[] changes;
+  private volatile long lastSequence;
+
+  ChangeRing(int capacity) {
+    this.changes = new ProductChange[Math.max(capacity, 1)];
+  }
+
+  void add(ProductChange change) {
+    changes[(int) (change.getSequence() % changes.length)] = change;
+    lastSequence = change.getSequence();
+  }
+
+  /**
+   * Oldest sequence number still in the window
+   * @return sequence
+   */
+  long oldestSequence() {
+    return Math.max(1, lastSequence - changes.length + 1);
+  }
+
+  /**
+   * Change of a sequence number
+   * @param sequence
+   * @return change, or null when a later change has overwritten it
+   */
+  ProductChange get(long sequence) {
+    ProductChange change = changes[(int) (sequence % changes.length)];
+    return change != null && change.getSequence() == sequence ? change : null;
+  }
+}
@@ -0,0 +1,312 @@
+package com.tiger.analytics.repository;
+
+import com.tiger.analytics.model.StoreProduct;
+import java.nio.file.Path;
+import java.util.Arrays;
+import java.util.BitSet;
+import java.util.HashMap;
+import java.util.Map;
+import java.util.Objects;
+
+/**
+ * Rows held as one primitive or String array per field instead of one StoreProduct per row.
+ * productIndex is kept as an int, price as a double with a null bit, and storeId and date as
+ * codes into a dictionary of their distinct values. The sku index is an open addressing
+ * table of row numbers, so it needs no entry or boxed Integer per row. A StoreProduct is only
+ * materialized when a row is read.
+ *
+ * Snapshots are appended column by column, and the sku index of rows loaded from the same
+ * snapshots before can be taken over as it was persisted instead of hashing every sku.
+ */
+class ColumnarProductRows implements WritableProductRows {
+
+  /**
+   * Marks a productIndex that is null or not a plain int, its text is kept aside
+   */
+  private static final int IRREGULAR_INDEX = Integer.MIN_VALUE;
+  private static final int MIN_CAPACITY = 1024;
+
+  private int size;
+  private int[] productIndexes;
+  private final Map<Integer, String> irregularIndexes;
+  private int[] storeIds;
+  private String[] skus;
+  private String[] productNames;
+  private double[] prices;
+  private final BitSet nullPrices;
+  private int[] dates;
+  private String[] descriptions;
+  private String[] imageUrls;
+  private final Dictionary storeDictionary;
+  private final Dictionary dateDictionary;
+  private int[] skuTable;
+  // rows in the sku table, all but those appended from snapshots since
+  private int indexedRows;
+
+  ColumnarProductRows() {
+    int capacity = MIN_CAPACITY;
+    productIndexes = new int[capacity];
+    irregularIndexes = new HashMap<>();
+    storeIds = new int[capacity];
+    skus = new String[capacity];
+    productNames = new String[capacity];
+    prices = new double[capacity];
+    nullPrices = new BitSet();
+    dates = new int[capacity];
+    descriptions = new String[capacity];
+    imageUrls = new String[capacity];
+    storeDictionary = new Dictionary();
+    dateDictionary = new Dictionary();
+    skuTable = new int[capacity * 2];
+  }
+
+  private ColumnarProductRows(ColumnarProductRows rows) {
+    size = rows.size;
+    // room for the folded changes, an empty catalog would otherwise get columns of length 0
+    int capacity = Math.max(size, MIN_CAPACITY);
+    productIndexes = Arrays.copyOf(rows.productIndexes, capacity);
+    irregularIndexes = new HashMap<>(rows.irregularIndexes);
+    storeIds = Arrays.copyOf(rows.storeIds, capacity);
+    skus = Arrays.copyOf(rows.skus, capacity);
+    productNames = Arrays.copyOf(rows.productNames, capacity);
+    prices = Arrays.copyOf(rows.prices, capacity);
+    nullPrices = (BitSet) rows.nullPrices.clone();
+    dates = Arrays.copyOf(rows.dates, capacity);
+    descriptions = Arrays.copyOf(rows.descriptions, capacity);
+    imageUrls = Arrays.copyOf(rows.imageUrls, capacity);
+    storeDictionary = new Dictionary(rows.storeDictionary);
+    dateDictionary = new Dictionary(rows.dateDictionary);
+    skuTable = rows.skuTable.clone();
+    indexedRows = rows.indexedRows;
+  }
+
+  @Override
+  public int size() {
+    return size;
+  }
+
+  @Override
+  public StoreProduct get(int row) {
+    if (row < 0 || row >= size) {
+      throw new IndexOutOfBoundsException("Row " + row + " of " + size);
+    }
+    StoreProduct storeProduct = new StoreProduct();
+    int productIndex = productIndexes[row];
+    storeProduct.setProductIndex(productIndex != IRREGULAR_INDEX ? String.valueOf(productIndex) : irregularIndexes.get(row));
+    storeProduct.setStoreId(storeDictionary.value(storeIds[row]));
+    storeProduct.setSku(skus[row]);
+    storeProduct.setProductName(productNames[row]);
+    storeProduct.setPrice(nullPrices.get(row) ? null : prices[row]);
+    storeProduct.setDate(dateDictionary.value(dates[row]));
+    storeProduct.setDescription(descriptions[row]);
+    storeProduct.setImageUrl(imageUrls[row]);
+    return storeProduct;
+  }
+
+  @Override
+  public int rowOf(String sku) {
+    int mask = skuTable.length - 1;
+    for (int slot = hash(sku) & mask; skuTable[slot] != 0; slot = (slot + 1) & mask) {
+      int row = skuTable[slot] - 1;
+      if (Objects.equals(skus[row], sku)) {
+        return row;
+      }
+    }
+    return -1;
+  }
+
+  @Override
+  public int put(StoreProduct storeProduct) {
+    int row = rowOf(storeProduct.getSku());
+    if (row < 0) {
+      row = append(storeProduct.getSku());
+    }
+    int productIndex = productIndex(storeProduct.getProductIndex());
+    productIndexes[row] = productIndex;
+    if (productIndex == IRREGULAR_INDEX && storeProduct.getProductIndex() != null) {
+      irregularIndexes.put(row, storeProduct.getProductIndex());
+    } else {
+      irregularIndexes.remove(row);
+    }
+    storeIds[row] = storeDictionary.code(storeProduct.getStoreId());
+    productNames[row] = storeProduct.getProductName();
+    prices[row] = storeProduct.getPrice() != null ? storeProduct.getPrice() : 0d;
+    nullPrices.set(row, storeProduct.getPrice() == null);
+    dates[row] = dateDictionary.code(storeProduct.getDate());
+    descriptions[row] = storeProduct.getDescription();
+    imageUrls[row] = storeProduct.getImageUrl();
+    return row;
+  }
+
+  @Override
+  public void append(CatalogSnapshot snapshot) {
+    int rows = snapshot.size();
+    ensureCapacity(size + rows);
+    int[] storeCodes = codes(storeDictionary, snapshot.storeIds());
+    int[] dateCodes = codes(dateDictionary, snapshot.dates());
+    for (int i = 0; i < rows; i++) {
+      int row = size + i;
+      String text = snapshot.productIndex(i);
+      int productIndex = productIndex(text);
+      productIndexes[row] = productIndex;
+      if (productIndex == IRREGULAR_INDEX && text != null) {
+        irregularIndexes.put(row, text);
+      }
+      int storeCode = snapshot.storeIdCode(i);
+      storeIds[row] = storeCode >= 0 ? storeCodes[storeCode] : -1;
+      skus[row] = snapshot.sku(i);
+      productNames[row] = snapshot.productName(i);
+      prices[row] = snapshot.price(i);
+      if (!snapshot.hasPrice(i)) {
+        nullPrices.set(row);
+      }
+      int dateCode = snapshot.dateCode(i);
+      dates[row] = dateCode >= 0 ? dateCodes[dateCode] : -1;
+      descriptions[row] = snapshot.description(i);
+      imageUrls[row] = snapshot.imageUrl(i);
+    }
+    size += rows;
+  }
+
+  @Override
+  public void indexSkus(int[] persisted) {
+    if (indexedRows == size) {
+      return;
+    }
+    if (persisted != null && Integer.bitCount(persisted.length) == 1 && persisted.length >= size * 2) {
+      skuTable = persisted;
+    } else {
+      if (size * 2 > skuTable.length) {
+        skuTable = new int[Integer.highestOneBit(size * 2 - 1) * 2];
+        indexedRows = 0;
+      }
+      for (int row = indexedRows; row < size; row++) {
+        index(row);
+      }
+    }
+    indexedRows = size;
+  }
+
+  @Override
+  public int[] skuIndex() {
+    return skuTable;
+  }
+
+  /**
+   * Copies the columns, which is a handful of array copies rather than one per product
+   */
+  @Override
+  public ProductRows folded(CatalogView view, Path file) {
+    ColumnarProductRows folded = new ColumnarProductRows(this);
+    view.forEachChange(folded::put);
+    return folded;
+  }
+
+  private int append(String sku) {
+    if (size == skus.length) {
+      ensureCapacity(Math.max(MIN_CAPACITY, size * 2));
+    }
+    int row = size++;
+    skus[row] = sku;
+    if (size * 2 > skuTable.length) {
+      skuTable = new int[skuTable.length * 2];
+      for (int existing = 0; existing < size; existing++) {
+        index(existing);
+      }
+    } else {
+      index(row);
+    }
+    indexedRows = size;
+    return row;
+  }
+
+  private void ensureCapacity(int capacity) {
+    if (capacity <= skus.length) {
+      return;
+    }
+    productIndexes = Arrays.copyOf(productIndexes, capacity);
+    storeIds = Arrays.copyOf(storeIds, capacity);
+    skus = Arrays.copyOf(skus, capacity);
+    productNames = Arrays.copyOf(productNames, capacity);
+    prices = Arrays.copyOf(prices, capacity);
+    dates = Arrays.copyOf(dates, capacity);
+    descriptions = Arrays.copyOf(descriptions, capacity);
+    imageUrls = Arrays.copyOf(imageUrls, capacity);
+  }
+
+  /**
+   * Codes of this rows' dictionary for the values of a snapshot's dictionary
+   */
+  private static int[] codes(Dictionary dictionary, String[] values) {
+    int[] codes = new int[values.length];
+    for (int code = 0; code < values.length; code++) {
+      codes[code] = dictionary.code(values[code]);
+    }
+    return codes;
+  }
+
+  private void index(int row) {
+    int mask = skuTable.length - 1;
+    int slot = hash(skus[row]) & mask;
+    while (skuTable[slot] != 0) {
+      slot = (slot + 1) & mask;
+    }
+    skuTable[slot] = row + 1;
+  }
+
+  private static int hash(String sku) {
+    int hash = Objects.hashCode(sku);
+    return hash ^ (hash >>> 16);
+  }
+
+  private static int productIndex(String productIndex) {
+    if (productIndex == null || productIndex.isEmpty() || productIndex.length() > 11) {
+      return IRREGULAR_INDEX;
+    }
+    try {
+      int value = Integer.parseInt(productIndex);
+      // keep text such as "007" as written
+      return String.valueOf(value).equals(productIndex) ? value : IRREGULAR_INDEX;
+    } catch (NumberFormatException numberFormatException) {
+      return IRREGULAR_INDEX;
+    }
+  }
+
+  /**
+   * Distinct values of a low cardinality column, each stored once and referenced by code
+   */
+  private static final class Dictionary {
+    private final Map<String, Integer> codes;
+    private String[] values;
+
+    private Dictionary() {
+      codes = new HashMap<>();
+      values = new String[16];
+    }
+
+    private Dictionary(Dictionary dictionary) {
+      codes = new HashMap<>(dictionary.codes);
+      values = dictionary.values.clone();
+    }
+
+    private int code(String value) {
+      if (value == null) {
+        return -1;
+      }
+      Integer code = codes.get(value);
+      if (code == null) {
+        code = codes.size();
+        if (code == values.length) {
+          values = Arrays.copyOf(values, code * 2);
+        }
+        values[code] = value;
+        codes.put(value, code);
+      }
+      return code;
+    }
+
+    private String value(int code) {
+      return code < 0 ? null : values[code];
+    }
+  }
+}
@@ -0,0 +1,122 @@
+package com.tiger.analytics.repository;
+
+import com.tiger.analytics.model.StoreProduct;
+import java.io.IOException;
+import java.util.ArrayList;
+import java.util.List;
+import java.util.concurrent.CompletableFuture;
+import java.util.concurrent.LinkedBlockingQueue;
+import java.util.concurrent.TimeUnit;
+import org.slf4j.Logger;
+import org.slf4j.LoggerFactory;
+
+/**
+ * Single writer thread for durable commits. Mutations submitted concurrently are drained
+ * from a queue and handed to the batch handler together, so many writers share one log
+ * write and one sync.
+ */
+class GroupCommitWriter implements AutoCloseable {
+
+  private final static Logger logger = LoggerFactory.getLogger(GroupCommitWriter.class);
+
+  private static final int MAX_BATCH = 4096;
+
+  /**
+   * Writes and applies a batch of mutations
+   */
+  interface BatchHandler {
+    void commit(List<StoreProduct> batch) throws IOException;
+  }
+
+  private final BatchHandler batchHandler;
+  private final LinkedBlockingQueue<PendingCommit> queue = new LinkedBlockingQueue<>();
+  private final Thread thread;
+  private volatile boolean running = true;
+
+  GroupCommitWriter(String name, BatchHandler batchHandler) {
+    this.batchHandler = batchHandler;
+    this.thread = new Thread(this::run, name);
+    this.thread.setDaemon(true);
+    this.thread.start();
+  }
+
+  /**
+   * Queue mutations that have to be committed together
+   * @param storeProducts
+   * @return future completed once the mutations are durable and applied
+   */
+  CompletableFuture<Void> submitAll(List<StoreProduct> storeProducts) {
+    PendingCommit pendingCommit = new PendingCommit(storeProducts);
+    if (!running) {
+      pendingCommit.future.completeExceptionally(new IllegalStateException("Commit writer is closed"));
+      return pendingCommit.future;
+    }
+    queue.add(pendingCommit);
+    return pendingCommit.future;
+  }
+
+  /**
+   * Number of mutations waiting for the writer
+   * @return pending mutations
+   */
+  int pending() {
+    return queue.size();
+  }
+
+  private void run() {
+    List<PendingCommit> drained = new ArrayList<>();
+    List<StoreProduct> batch = new ArrayList<>();
+    while (running || !queue.isEmpty()) {
+      try {
+        PendingCommit first = queue.poll(100, TimeUnit.MILLISECONDS);
+        if (first == null) {
+          continue;
+        }
+        drained.add(first);
+        batch.addAll(first.storeProducts);
+        while (batch.size() < MAX_BATCH) {
+          PendingCommit next = queue.poll();
+          if (next == null) {
+            break;
+          }
+          drained.add(next);
+          batch.addAll(next.storeProducts);
+        }
+        try {
+          batchHandler.commit(batch);
+          drained.forEach(pendingCommit -> pendingCommit.future.complete(null));
+        } catch (Exception exception) {
+          logger.error("Unable to commit " + batch.size() + " products." + exception);
+          drained.forEach(pendingCommit -> pendingCommit.future.completeExceptionally(exception));
+        }
+      } catch (InterruptedException interruptedException) {
+        running = false;
+      } finally {
+        drained.clear();
+        batch.clear();
+      }
+    }
+  }
+
+  /**
+   * Stop accepting mutations and wait for queued ones to be committed
+   */
+  @Override
+  public void close() throws InterruptedException {
+    running = false;
+    thread.join(TimeUnit.MINUTES.toMillis(1));
+    PendingCommit pendingCommit;
+    while ((pendingCommit = queue.poll()) != null) {
+      pendingCommit.future.completeExceptionally(new IllegalStateException("Commit writer is closed"));
+    }
+  }
+
+  private static final class PendingCommit {
+    private final List<StoreProduct> storeProducts;
+    private final CompletableFuture<Void> future = new CompletableFuture<>();
+
+    private PendingCommit(List<StoreProduct> storeProducts) {
+      this.storeProducts = storeProducts;
+    }
+  }
+}
@@ -0,0 +1,265 @@
+package com.tiger.analytics.repository;
+
+import java.util.Arrays;
+import java.util.Objects;
+import java.util.function.BiConsumer;
+import java.util.function.BiPredicate;
+
+/**
+ * Persistent hash array mapped trie. A put returns a new trie that shares every node off the
+ * path to the changed entry with the old one, which stays valid and unchanged, so readers can
+ * hold on to a trie while writers keep producing new ones. Each level consumes five bits of
+ * the key's hash and holds only the branches in use, addressed through a 32 bit bitmap; keys
+ * whose hashes are equal share a collision node.
+ *
+ * Null keys are supported, null values are not.
+ */
+final class HashTrie<K, V> {
+
+  private static final HashTrie<?, ?> EMPTY = new HashTrie<>(new BitmapNode(0, new Object[0]), 0);
+  private static final Object NULL_KEY = new Object();
+  private static final int BITS = 5;
+  private static final int MASK = (1 << BITS) - 1;
+
+  private final Object root;
+  private final int size;
+
+  private HashTrie(Object root, int size) {
+    this.root = root;
+    this.size = size;
+  }
+
+  @SuppressWarnings("unchecked")
+  static <K, V> HashTrie<K, V> empty() {
+    return (HashTrie<K, V>) EMPTY;
+  }
+
+  int size() {
+    return size;
+  }
+
+  /**
+   * Value of a key
+   * @param key
+   * @return value or null when the key is absent
+   */
+  @SuppressWarnings("unchecked")
+  V get(K key) {
+    if (size == 0) {
+      return null;
+    }
+    Object maskedKey = mask(key);
+    int hash = hash(maskedKey);
+    Object node = root;
+    for (int shift = 0; ; shift += BITS) {
+      if (node instanceof CollisionNode) {
+        return (V) ((CollisionNode) node).get(hash, maskedKey);
+      }
+      BitmapNode bitmapNode = (BitmapNode) node;
+      int bit = bit(hash, shift);
+      if ((bitmapNode.bitmap & bit) == 0) {
+        return null;
+      }
+      int index = bitmapNode.index(bit);
+      Object entryKey = bitmapNode.array[index];
+      Object entryValue = bitmapNode.array[index + 1];
+      if (entryKey == null) {
+        node = entryValue;
+      } else {
+        return maskedKey.equals(entryKey) ? (V) entryValue : null;
+      }
+    }
+  }
+
+  /**
+   * Trie with a key set to a value
+   * @param key
+   * @param value
+   * @return new trie, or this one when the key already maps to the same instance
+   */
+  HashTrie<K, V> put(K key, V value) {
+    Objects.requireNonNull(value, "value");
+    Object maskedKey = mask(key);
+    boolean[] added = new boolean[1];
+    Object newRoot = put(root, 0, hash(maskedKey), maskedKey, value, added);
+    return newRoot == root ? this : new HashTrie<>(newRoot, added[0] ? size + 1 : size);
+  }
+
+  /**
+   * Visit every entry, in no particular order
+   * @param action
+   */
+  @SuppressWarnings("unchecked")
+  void forEach(BiConsumer<? super K, ? super V> action) {
+    forEach(root, (BiConsumer<Object, Object>) (key, value) -> action.accept(key == NULL_KEY ? null : (K) key, (V) value));
+  }
+
+  /**
+   * Trie of the entries a predicate accepts
+   * @param predicate
+   * @return new trie
+   */
+  HashTrie<K, V> filter(BiPredicate<? super K, ? super V> predicate) {
+    return filter(root, predicate, empty());
+  }
+
+  @SuppressWarnings("unchecked")
+  private HashTrie<K, V> filter(Object node, BiPredicate<? super K, ? super V> predicate, HashTrie<K, V> into) {
+    Object[] array = node instanceof BitmapNode ? ((BitmapNode) node).array : ((CollisionNode) node).array;
+    for (int i = 0; i < array.length; i += 2) {
+      if (array[i] == null) {
+        into = filter(array[i + 1], predicate, into);
+      } else {
+        K key = array[i] == NULL_KEY ? null : (K) array[i];
+        if (predicate.test(key, (V) array[i + 1])) {
+          into = into.put(key, (V) array[i + 1]);
+        }
+      }
+    }
+    return into;
+  }
+
+  private static void forEach(Object node, BiConsumer<Object, Object> action) {
+    Object[] array = node instanceof BitmapNode ? ((BitmapNode) node).array : ((CollisionNode) node).array;
+    for (int i = 0; i < array.length; i += 2) {
+      if (array[i] == null) {
+        forEach(array[i + 1], action);
+      } else {
+        action.accept(array[i], array[i + 1]);
+      }
+    }
+  }
+
+  private static Object put(Object node, int shift, int hash, Object key, Object value, boolean[] added) {
+    if (node instanceof CollisionNode) {
+      CollisionNode collisionNode = (CollisionNode) node;
+      if (collisionNode.hash == hash) {
+        return collisionNode.put(key, value, added);
+      }
+      // a different hash reached the collision node, branch above it
+      node = new BitmapNode(bit(collisionNode.hash, shift), new Object[] {null, collisionNode});
+    }
+    BitmapNode bitmapNode = (BitmapNode) node;
+    int bit = bit(hash, shift);
+    int index = bitmapNode.index(bit);
+    if ((bitmapNode.bitmap & bit) == 0) {
+      Object[] array = new Object[bitmapNode.array.length + 2];
+      System.arraycopy(bitmapNode.array, 0, array, 0, index);
+      array[index] = key;
+      array[index + 1] = value;
+      System.arraycopy(bitmapNode.array, index, array, index + 2, bitmapNode.array.length - index);
+      added[0] = true;
+      return new BitmapNode(bitmapNode.bitmap | bit, array);
+    }
+    Object entryKey = bitmapNode.array[index];
+    Object entryValue = bitmapNode.array[index + 1];
+    if (entryKey == null) {
+      Object child = put(entryValue, shift + BITS, hash, key, value, added);
+      return child == entryValue ? bitmapNode : bitmapNode.with(index, null, child);
+    }
+    if (key.equals(entryKey)) {
+      return entryValue == value ? bitmapNode : bitmapNode.with(index, entryKey, value);
+    }
+    added[0] = true;
+    return bitmapNode.with(index, null, branch(shift + BITS, entryKey, entryValue, hash, key, value));
+  }
+
+  /**
+   * Node holding two entries whose hashes agree up to the given shift
+   */
+  private static Object branch(int shift, Object key1, Object value1, int hash2, Object key2, Object value2) {
+    int hash1 = hash(key1);
+    if (hash1 == hash2) {
+      return new CollisionNode(hash1, new Object[] {key1, value1, key2, value2});
+    }
+    int bit1 = bit(hash1, shift);
+    int bit2 = bit(hash2, shift);
+    if (bit1 == bit2) {
+      return new BitmapNode(bit1, new Object[] {null, branch(shift + BITS, key1, value1, hash2, key2, value2)});
+    }
+    return new BitmapNode(bit1 | bit2, Integer.compareUnsigned(bit1, bit2) < 0
+        ? new Object[] {key1, value1, key2, value2}
+        : new Object[] {key2, value2, key1, value1});
+  }
+
+  private static Object mask(Object key) {
+    return key != null ? key : NULL_KEY;
+  }
+
+  private static int hash(Object key) {
+    int hash = key.hashCode();
+    return hash ^ (hash >>> 16);
+  }
+
+  private static int bit(int hash, int shift) {
+    return 1 << ((hash >>> shift) & MASK);
+  }
+
+  /**
+   * Branches in use at one level, as key and value pairs in bit order. A null key marks a
+   * value that is the child node of that branch.
+   */
+  private static final class BitmapNode {
+    private final int bitmap;
+    private final Object[] array;
+
+    private BitmapNode(int bitmap, Object[] array) {
+      this.bitmap = bitmap;
+      this.array = array;
+    }
+
+    private int index(int bit) {
+      return 2 * Integer.bitCount(bitmap & (bit - 1));
+    }
+
+    private BitmapNode with(int index, Object key, Object value) {
+      Object[] copy = array.clone();
+      copy[index] = key;
+      copy[index + 1] = value;
+      return new BitmapNode(bitmap, copy);
+    }
+  }
+
+  /**
+   * Entries whose keys have the same hash, as key and value pairs
+   */
+  private static final class CollisionNode {
+    private final int hash;
+    private final Object[] array;
+
+    private CollisionNode(int hash, Object[] array) {
+      this.hash = hash;
+      this.array = array;
+    }
+
+    private Object get(int hash, Object key) {
+      if (hash != this.hash) {
+        return null;
+      }
+      for (int i = 0; i < array.length; i += 2) {
+        if (key.equals(array[i])) {
+          return array[i + 1];
+        }
+      }
+      return null;
+    }
+
+    private CollisionNode put(Object key, Object value, boolean[] added) {
+      for (int i = 0; i < array.length; i += 2) {
+        if (key.equals(array[i])) {
+          if (array[i + 1] == value) {
+            return this;
+          }
+          Object[] copy = array.clone();
+          copy[i + 1] = value;
+          return new CollisionNode(hash, copy);
+        }
+      }
+      Object[] copy = Arrays.copyOf(array, array.length + 2);
+      copy[array.length] = key;
+      copy[array.length + 1] = value;
+      added[0] = true;
+      return new CollisionNode(hash, copy);
+    }
+  }
+}
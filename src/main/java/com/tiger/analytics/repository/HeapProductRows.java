@@ -0,0 +1,64 @@
+package com.tiger.analytics.repository;
+
+import com.tiger.analytics.model.StoreProduct;
+import java.nio.file.Path;
+import java.util.ArrayList;
+import java.util.HashMap;
+import java.util.List;
+import java.util.Map;
+
+/**
+ * Rows held as StoreProduct objects with a hash index by sku
+ */
+class HeapProductRows implements WritableProductRows {
+
+  private final List<StoreProduct> rows;
+  private final Map<String, Integer> rowsBySku;
+
+  HeapProductRows() {
+    rows = new ArrayList<>();
+    rowsBySku = new HashMap<>();
+  }
+
+  private HeapProductRows(HeapProductRows heapProductRows) {
+    rows = new ArrayList<>(heapProductRows.rows);
+    rowsBySku = new HashMap<>(heapProductRows.rowsBySku);
+  }
+
+  @Override
+  public int size() {
+    return rows.size();
+  }
+
+  @Override
+  public StoreProduct get(int row) {
+    return rows.get(row);
+  }
+
+  @Override
+  public int rowOf(String sku) {
+    Integer row = rowsBySku.get(sku);
+    return row != null ? row : -1;
+  }
+
+  @Override
+  public int put(StoreProduct storeProduct) {
+    Integer row = rowsBySku.get(storeProduct.getSku());
+    if (row == null) {
+      row = rows.size();
+      rows.add(storeProduct);
+      rowsBySku.put(storeProduct.getSku(), row);
+    } else {
+      rows.set(row, storeProduct);
+    }
+    return row;
+  }
+
+  @Override
+  public ProductRows folded(CatalogView view, Path file) {
+    // rows are replaced, never modified, so copying the references is enough
+    HeapProductRows folded = new HeapProductRows(this);
+    view.forEachChange(folded::put);
+    return folded;
+  }
+}
@@ -0,0 +1,330 @@
+package com.tiger.analytics.repository;
+
+import com.tiger.analytics.model.StoreProduct;
+import java.io.IOException;
+import java.nio.MappedByteBuffer;
+import java.nio.channels.FileChannel;
+import java.nio.charset.StandardCharsets;
+import java.nio.file.Path;
+import java.nio.file.StandardOpenOption;
+import java.util.Arrays;
+
+/**
+ * Read-only, memory-mapped catalog csv. Loading only builds a compact offset index
+ * (row to byte offset, sku hash to row) of about 20 bytes per row; a row is decoded into a
+ * StoreProduct only when it is requested. Files larger than 2GB are mapped in 1GB segments.
+ *
+ * Record framing follows the same RFC 4180 rules as {@link StoreProductCsvReader}. All
+ * delimiters are ASCII, so records are parsed on UTF-8 bytes and only decoded field values
+ * become Strings. When a sku occurs more than once the last record wins, as on a heap load.
+ */
+final class MappedCatalogFile {
+
+  private static final int SEGMENT_BITS = 30;
+  private static final long SEGMENT_MASK = (1L << SEGMENT_BITS) - 1;
+
+  private final MappedByteBuffer[] segments;
+  private final long length;
+  private final String[] header;
+  private final int[] fieldIds;
+  private final int skuColumn;
+  private long[] offsets = new long[1024];
+  private int[] skuHashes = new int[1024];
+  private int size;
+  private int[] table;
+  private int maxProductIndex;
+
+  private MappedCatalogFile(MappedByteBuffer[] segments, long length) {
+    this.segments = segments;
+    this.length = length;
+    FieldCursor cursor = new FieldCursor(skipEmptyLines(0));
+    String[] columns = new String[0];
+    if (cursor.position < length) {
+      do {
+        cursor.next();
+        columns = Arrays.copyOf(columns, columns.length + 1);
+        columns[columns.length - 1] = cursor.string();
+      } while (!cursor.lastInRecord);
+    }
+    this.header = columns;
+    this.fieldIds = StoreProductCsvReader.fieldIds(columns);
+    this.skuColumn = column(StoreProductCsvReader.SKU);
+    buildIndex(cursor.position);
+  }
+
+  /**
+   * Map a catalog file and index its rows
+   * @param file
+   * @return MappedCatalogFile
+   * @throws IOException
+   */
+  static MappedCatalogFile open(Path file) throws IOException {
+    try (FileChannel channel = FileChannel.open(file, StandardOpenOption.READ)) {
+      long length = channel.size();
+      MappedByteBuffer[] segments = new MappedByteBuffer[(int) ((length + SEGMENT_MASK) >>> SEGMENT_BITS)];
+      for (int i = 0; i < segments.length; i++) {
+        long start = (long) i << SEGMENT_BITS;
+        segments[i] = channel.map(FileChannel.MapMode.READ_ONLY, start, Math.min(1L << SEGMENT_BITS, length - start));
+      }
+      return new MappedCatalogFile(segments, length);
+    }
+  }
+
+  String[] getHeader() {
+    return header.clone();
+  }
+
+  int size() {
+    return size;
+  }
+
+  int maxProductIndex() {
+    return maxProductIndex;
+  }
+
+  /**
+   * Row of a sku, comparing the raw sku bytes of candidate rows
+   * @param sku
+   * @return row or -1
+   */
+  int rowOf(String sku) {
+    if (sku == null || skuColumn < 0) {
+      return -1;
+    }
+    byte[] bytes = sku.getBytes(StandardCharsets.UTF_8);
+    int hash = hash(bytes, bytes.length);
+    int mask = table.length - 1;
+    for (int slot = hash & mask; table[slot] != 0; slot = (slot + 1) & mask) {
+      int row = table[slot] - 1;
+      if (skuHashes[row] == hash && skuEquals(row, bytes, bytes.length)) {
+        return row;
+      }
+    }
+    return -1;
+  }
+
+  /**
+   * Decode a row into a new StoreProduct
+   * @param row
+   * @return StoreProduct
+   */
+  StoreProduct decode(int row) {
+    StoreProduct storeProduct = new StoreProduct();
+    FieldCursor cursor = new FieldCursor(offsets[row]);
+    int column = 0;
+    do {
+      cursor.next();
+      int fieldId = column < fieldIds.length ? fieldIds[column] : StoreProductCsvReader.UNMAPPED;
+      column++;
+      if (fieldId == StoreProductCsvReader.UNMAPPED) {
+        continue;
+      }
+      String value = cursor.length == 0 && !cursor.quoted ? null : cursor.string();
+      switch (fieldId) {
+        case StoreProductCsvReader.PRODUCT_INDEX:
+          storeProduct.setProductIndex(value);
+          break;
+        case StoreProductCsvReader.STORE_ID:
+          storeProduct.setStoreId(value);
+          break;
+        case StoreProductCsvReader.SKU:
+          storeProduct.setSku(value);
+          break;
+        case StoreProductCsvReader.PRODUCT_NAME:
+          storeProduct.setProductName(value);
+          break;
+        case StoreProductCsvReader.PRICE:
+          storeProduct.setPrice(value != null && !value.isEmpty() && !"null".equals(value) ? Double.valueOf(value) : null);
+          break;
+        case StoreProductCsvReader.DATE:
+          storeProduct.setDate(value);
+          break;
+        case StoreProductCsvReader.DESCRIPTION:
+          storeProduct.setDescription(value);
+          break;
+        case StoreProductCsvReader.IMAGE_URL:
+          storeProduct.setImageUrl(value);
+          break;
+        default:
+          break;
+      }
+    } while (!cursor.lastInRecord);
+    return storeProduct;
+  }
+
+  private void buildIndex(long position) {
+    int indexColumn = column(StoreProductCsvReader.PRODUCT_INDEX);
+    table = new int[1024];
+    FieldCursor cursor = new FieldCursor(position);
+    byte[] sku = new byte[64];
+    while ((cursor.position = skipEmptyLines(cursor.position)) < length) {
+      long start = cursor.position;
+      int skuLength = 0;
+      int column = 0;
+      do {
+        cursor.next();
+        if (column == skuColumn) {
+          if (sku.length < cursor.length) {
+            sku = new byte[cursor.length];
+          }
+          System.arraycopy(cursor.value, 0, sku, 0, cursor.length);
+          skuLength = cursor.length;
+        } else if (column == indexColumn) {
+          maxProductIndex = Math.max(maxProductIndex, cursor.intValue());
+        }
+        column++;
+      } while (!cursor.lastInRecord);
+      index(start, sku, skuLength);
+    }
+  }
+
+  private void index(long offset, byte[] sku, int skuLength) {
+    int hash = hash(sku, skuLength);
+    int mask = table.length - 1;
+    int slot = hash & mask;
+    for (; table[slot] != 0; slot = (slot + 1) & mask) {
+      int row = table[slot] - 1;
+      if (skuHashes[row] == hash && skuEquals(row, sku, skuLength)) {
+        offsets[row] = offset;
+        return;
+      }
+    }
+    if (size == offsets.length) {
+      offsets = Arrays.copyOf(offsets, size * 2);
+      skuHashes = Arrays.copyOf(skuHashes, size * 2);
+    }
+    offsets[size] = offset;
+    skuHashes[size] = hash;
+    table[slot] = ++size;
+    if (size * 2 > table.length) {
+      rehash();
+    }
+  }
+
+  private void rehash() {
+    int[] rehashed = new int[table.length * 2];
+    int mask = rehashed.length - 1;
+    for (int row = 0; row < size; row++) {
+      int slot = skuHashes[row] & mask;
+      while (rehashed[slot] != 0) {
+        slot = (slot + 1) & mask;
+      }
+      rehashed[slot] = row + 1;
+    }
+    table = rehashed;
+  }
+
+  private boolean skuEquals(int row, byte[] sku, int skuLength) {
+    FieldCursor cursor = new FieldCursor(offsets[row]);
+    for (int column = 0; column <= skuColumn; column++) {
+      cursor.next();
+      if (cursor.lastInRecord && column < skuColumn) {
+        return false;
+      }
+    }
+    return cursor.length == skuLength && Arrays.equals(cursor.value, 0, skuLength, sku, 0, skuLength);
+  }
+
+  private int column(int fieldId) {
+    for (int column = 0; column < fieldIds.length; column++) {
+      if (fieldIds[column] == fieldId) {
+        return column;
+      }
+    }
+    return -1;
+  }
+
+  private long skipEmptyLines(long position) {
+    int c;
+    while ((c = byteAt(position)) == '\n' || c == '\r') {
+      position++;
+    }
+    return position;
+  }
+
+  private int byteAt(long position) {
+    if (position >= length) {
+      return -1;
+    }
+    return segments[(int) (position >>> SEGMENT_BITS)].get((int) (position & SEGMENT_MASK)) & 0xff;
+  }
+
+  private static int hash(byte[] bytes, int length) {
+    int hash = 0;
+    for (int i = 0; i < length; i++) {
+      hash = 31 * hash + bytes[i];
+    }
+    return hash ^ (hash >>> 16);
+  }
+
+  /**
+   * Reads consecutive fields of a record into a reusable byte buffer
+   */
+  private final class FieldCursor {
+    private long position;
+    private byte[] value = new byte[128];
+    private int length;
+    private boolean quoted;
+    private boolean lastInRecord;
+
+    private FieldCursor(long position) {
+      this.position = position;
+    }
+
+    private void next() {
+      length = 0;
+      quoted = false;
+      int c = byteAt(position++);
+      if (c == '"') {
+        quoted = true;
+        while (true) {
+          c = byteAt(position++);
+          if (c == '"') {
+            c = byteAt(position++);
+            if (c != '"') {
+              break;
+            }
+          } else if (c == -1) {
+            break;
+          }
+          append(c);
+        }
+      }
+      while (c != ',' && c != '\n' && c != '\r' && c != -1) {
+        append(c);
+        c = byteAt(position++);
+      }
+      if (c == '\r' && byteAt(position) == '\n') {
+        position++;
+      }
+      position = Math.min(position, length());
+      lastInRecord = c != ',';
+    }
+
+    private long length() {
+      return MappedCatalogFile.this.length;
+    }
+
+    private void append(int c) {
+      if (length == value.length) {
+        value = Arrays.copyOf(value, length * 2);
+      }
+      value[length++] = (byte) c;
+    }
+
+    private String string() {
+      return new String(value, 0, length, StandardCharsets.UTF_8);
+    }
+
+    private int intValue() {
+      int result = 0;
+      for (int i = 0; i < length; i++) {
+        if (value[i] < '0' || value[i] > '9') {
+          return 0;
+        }
+        result = result * 10 + (value[i] - '0');
+      }
+      return result;
+    }
+  }
+}
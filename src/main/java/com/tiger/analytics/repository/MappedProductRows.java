@@ -0,0 +1,44 @@
+package com.tiger.analytics.repository;
+
+import com.tiger.analytics.model.StoreProduct;
+import java.io.IOException;
+import java.nio.file.Path;
+
+/**
+ * Rows served from a memory-mapped catalog file and decoded on access. They are read only,
+ * rows written since the file was mapped are kept by the catalog views until compaction has
+ * written them into a new file that is mapped in turn. Mapped files are never modified, only replaced, so views
+ * still reading a replaced file keep decoding the same rows; the mapping is released once
+ * they are garbage collected.
+ */
+class MappedProductRows implements ProductRows {
+
+  private final MappedCatalogFile file;
+
+  MappedProductRows(MappedCatalogFile file) {
+    this.file = file;
+  }
+
+  @Override
+  public int size() {
+    return file.size();
+  }
+
+  @Override
+  public StoreProduct get(int row) {
+    return file.decode(row);
+  }
+
+  @Override
+  public int rowOf(String sku) {
+    return file.rowOf(sku);
+  }
+
+  /**
+   * Map the file the view was written to, it holds the rows of the view in the same order
+   */
+  @Override
+  public ProductRows folded(CatalogView view, Path file) throws IOException {
+    return file != null ? new MappedProductRows(MappedCatalogFile.open(file)) : null;
+  }
+}
@@ -0,0 +1,1387 @@
+package com.tiger.analytics.repository;
+
+import com.tiger.analytics.exception.CaseStudyExceptionHandler;
+import com.tiger.analytics.model.CatalogVersion;
+import com.tiger.analytics.model.ProductBatch;
+import com.tiger.analytics.model.ProductChange;
+import com.tiger.analytics.model.ProductChanges;
+import com.tiger.analytics.model.ProductQuery;
+import com.tiger.analytics.model.ProductSearchHit;
+import com.tiger.analytics.model.ProductSearchResult;
+import com.tiger.analytics.model.ProductStats;
+import com.tiger.analytics.model.StoreProduct;
+import java.io.BufferedWriter;
+import java.io.ByteArrayInputStream;
+import java.io.ByteArrayOutputStream;
+import java.io.FileInputStream;
+import java.io.FileNotFoundException;
+import java.io.FileOutputStream;
+import java.io.IOException;
+import java.io.InputStreamReader;
+import java.io.OutputStreamWriter;
+import java.nio.charset.StandardCharsets;
+import java.nio.file.Files;
+import java.nio.file.NoSuchFileException;
+import java.nio.file.Path;
+import java.nio.file.Paths;
+import java.nio.file.StandardCopyOption;
+import java.util.ArrayList;
+import java.util.Collections;
+import java.util.Date;
+import java.util.HashSet;
+import java.util.LinkedHashMap;
+import java.util.List;
+import java.util.Map;
+import java.util.Objects;
+import java.util.PrimitiveIterator;
+import java.util.Set;
+import java.util.concurrent.CompletableFuture;
+import java.util.concurrent.ConcurrentHashMap;
+import java.util.concurrent.CopyOnWriteArrayList;
+import java.util.concurrent.ExecutionException;
+import java.util.concurrent.ExecutorService;
+import java.util.concurrent.Executors;
+import java.util.concurrent.ForkJoinPool;
+import java.util.concurrent.TimeUnit;
+import java.util.concurrent.atomic.AtomicBoolean;
+import java.util.concurrent.atomic.AtomicInteger;
+import java.util.concurrent.locks.ReentrantLock;
+import java.util.stream.IntStream;
+import javax.annotation.PostConstruct;
+import javax.annotation.PreDestroy;
+import org.slf4j.Logger;
+import org.slf4j.LoggerFactory;
+import org.springframework.beans.factory.annotation.Autowired;
+import org.springframework.beans.factory.annotation.Value;
+import org.springframework.http.HttpStatus;
+import org.springframework.stereotype.Component;
+
+/**
+ * Resident product catalog. The CSV is parsed once and all reads are served from memory.
+ * Products are kept as rows in file order, with a hash index from sku to row and a
+ * secondary index from storeId to its rows. Row numbers never change, so they double as a
+ * resumable scan cursor. Mutations are appended to a
+ * change log and folded back into the CSV snapshot by background compaction.
+ *
+ * Products are read through immutable {@link CatalogView}s. Every commit publishes a new
+ * view, so lookups and scans never take a lock, never see part of a commit and never wait
+ * for a writer; a streamed response reads all its chunks from the view it started with. The
+ * store index only ever gains rows, so it holds every row a store had in any view and scans
+ * check the store of each row against their view. Search, statistics and the change feed
+ * read what each commit publishes after its view, so no read takes a lock.
+ *
+ * catalog.storage selects how rows are held. columnar (the default) keeps one primitive or
+ * dictionary encoded array per field and materializes a StoreProduct only when a row is
+ * read, heap keeps one StoreProduct per row. Both load from a binary snapshot (see
+ * {@link CatalogSnapshot}) of the CSV when one sits next to it, and compaction keeps it
+ * current. When every shard has a current snapshot its columns are appended in bulk, and the
+ * sku, store and search indexes are read from the {@link CatalogIndex} persisted for exactly
+ * those snapshots, or built and persisted once when there is none.
+ *
+ * With catalog.storage=mapped the CSV is memory-mapped instead and rows are decoded on
+ * access, so only an offset index and changed rows live on the heap. That mode keeps no
+ * store index; store filters scan the catalog.
+ *
+ * Product names and descriptions are indexed for full text search by
+ * {@link ProductSearchIndex}, maintained with every change like the store index. Mapped
+ * storage decodes every row once at load to build it; catalog.search.enabled=false skips
+ * the index in any mode.
+ *
+ * Per store price and date statistics are kept as {@link StoreRollups}, built in parallel
+ * once the catalog is loaded and updated with every change after that. With
+ * catalog.rollups.build-on-start=false, as in the fast-start profile, they are built by the
+ * first statistics request instead, which keeps the build off the way to the first view.
+ *
+ * Writers are serialized per sku through striped locks and hand their mutation to a single
+ * group commit writer, so writers on different skus proceed in parallel and share log syncs.
+ *
+ * catalog.shards splits the files by sku (see {@link CatalogShards}). Every shard has its own
+ * csv, snapshot, change log, commit writer and compaction, so writes to different shards
+ * sync in parallel and compaction rewrites only the shard whose log grew. Rows, indexes and
+ * the change feed stay shared, so reads and cursors do not depend on the shard count. An
+ * catalog whose files are in another number of shards, as recorded next to it, is resharded
+ * on start, including an unsharded catalog file on the first start with shards. Mapped
+ * storage needs a single shard.
+ *
+ * Edits of the catalog files made from outside, by an upstream job dropping a new file, are
+ * picked up by a {@link CatalogFileWatcher}: the records that changed since the previous
+ * version of the file are found by their {@link CatalogFileDigest} hashes and saved as one
+ * upsert batch, so nothing is re-indexed and readers see the edit in a single view.
+ * catalog.watch.enabled=false turns this off. A mapped file is never watched: rows are
+ * decoded from the mapping on every read, and a file rewritten in place under it would
+ * crash the JVM with SIGBUS as soon as a reader touched a page past its new end.
+ *
+ * Load, lookups, writes and file flushes are timed through {@link CatalogMetrics}.
+ */
+@Component
+public class ProductCatalog {
+
+  private final static Logger logger = LoggerFactory.getLogger(ProductCatalog.class);
+
+  @Value("${catalog.file:ProductList.csv}")
+  private String catalogFile;
+
+  @Value("${catalog.compaction-threshold-bytes:4194304}")
+  private long compactionThreshold;
+
+  @Value("${catalog.storage:columnar}")
+  private String storage;
+
+  @Value("${catalog.change-feed.capacity:10000}")
+  private int changeFeedCapacity;
+
+  @Value("${catalog.search.enabled:true}")
+  private boolean searchEnabled;
+
+  @Value("${catalog.shards:1}")
+  private int shardCount;
+
+  @Value("${catalog.watch.enabled:true}")
+  private boolean watchEnabled;
+
+  @Value("${catalog.watch.settle-millis:500}")
+  private long watchSettleMillis;
+
+  @Value("${catalog.rollups.build-on-start:true}")
+  private boolean buildRollupsOnStart;
+
+  @Autowired
+  private CatalogMetrics catalogMetrics;
+
+  private static final int SKU_LOCK_STRIPES = 256;
+  // views are folded once they changed a sixteenth of their rows, and at least this many
+  private static final int FOLD_RATIO = 16;
+  private static final int MIN_FOLD_CHANGES = 4096;
+
+  /**
+   * Notified on the commit thread, in commit order, after a batch of changes became visible.
+   * Listeners must return quickly and must not modify the products.
+   */
+  public interface ChangeListener {
+    void committed(CatalogVersion catalogVersion, List<ProductChange> changes);
+  }
+
+  /**
+   * Result of saving one product of a batch
+   */
+  public enum SaveOutcome {
+    INSERTED, UPDATED, DUPLICATE
+  }
+
+  private final ReentrantLock lock = new ReentrantLock();
+  private final ReentrantLock listenerLock = new ReentrantLock();
+  private final ReentrantLock[] skuLocks = new ReentrantLock[SKU_LOCK_STRIPES];
+  private final AtomicInteger lastProductIndex = new AtomicInteger();
+  private volatile CatalogView rows;
+  private boolean storeIndexed;
+  private final Map<String, RowSet> rowsByStore = new ConcurrentHashMap<>();
+  private ProductSearchIndex searchIndex;
+  private volatile StoreRollups storeRollups;
+  private String[] header;
+  private volatile boolean loaded;
+  private ChangeRing changeRing;
+  private final List<ChangeListener> changeListeners = new CopyOnWriteArrayList<>();
+  private Shard[] shards = new Shard[0];
+  private CatalogFileWatcher fileWatcher;
+  private final AtomicBoolean folding = new AtomicBoolean();
+  private final ExecutorService compactor = Executors.newSingleThreadExecutor(runnable -> {
+    Thread thread = new Thread(runnable, "catalog-compactor");
+    thread.setDaemon(true);
+    return thread;
+  });
+
+  public ProductCatalog() {
+    for (int i = 0; i < skuLocks.length; i++) {
+      skuLocks[i] = new ReentrantLock();
+    }
+  }
+
+  /**
+   * Load catalog on startup. A missing or unreadable file is reported on first access
+   * rather than failing the application start.
+   */
+  @PostConstruct
+  public void init() {
+    catalogMetrics.gauge("catalog.size", "Number of products", this, catalog -> catalog.loaded ? catalog.rows.size() : Double.NaN);
+    catalogMetrics.gauge("catalog.pending.writes", "Mutations waiting for the group commit writers", this, ProductCatalog::pendingWrites);
+    try {
+      ensureLoaded();
+    } catch (CaseStudyExceptionHandler caseStudyExceptionHandler) {
+      logger.error("Unable to load product catalog on startup: " + caseStudyExceptionHandler.getExceptionReason());
+    }
+  }
+
+  /**
+   * Fold the change logs into the snapshots on shutdown so the next start replays nothing
+   */
+  @PreDestroy
+  public void shutdown() {
+    compactor.shutdown();
+    try {
+      if (fileWatcher != null) {
+        fileWatcher.close();
+      }
+      for (Shard shard : shards) {
+        if (shard.commitWriter != null) {
+          shard.commitWriter.close();
+        }
+      }
+      compactor.awaitTermination(1, TimeUnit.MINUTES);
+    } catch (InterruptedException interruptedException) {
+      Thread.currentThread().interrupt();
+      return;
+    }
+    for (Shard shard : shards) {
+      try {
+        if (loaded && shard.changeLog.size() > 0) {
+          compact(shard);
+        }
+        if (shard.changeLog != null) {
+          shard.changeLog.close();
+        }
+      } catch (Exception exception) {
+        logger.error("Unable to compact change log on shutdown." + exception);
+      }
+    }
+  }
+
+  /**
+   * Method used to fetch all products in file order
+   * @return List<StoreProduct>
+   * @throws CaseStudyExceptionHandler
+   */
+  public List<StoreProduct> findAll() throws CaseStudyExceptionHandler {
+    ensureLoaded();
+    CatalogView view = rows;
+    List<StoreProduct> storeProducts = new ArrayList<>(view.size());
+    for (int row = 0; row < view.size(); row++) {
+      storeProducts.add(copyOf(view.get(row)));
+    }
+    return storeProducts;
+  }
+
+  /**
+   * Method used to fetch product by sku
+   * @param sku
+   * @return StoreProduct or null when sku is unknown
+   * @throws CaseStudyExceptionHandler
+   */
+  public StoreProduct findBySku(String sku) throws CaseStudyExceptionHandler {
+    ensureLoaded();
+    long start = catalogMetrics.start();
+    try {
+      CatalogView view = rows;
+      int row = view.rowOf(sku);
+      return row >= 0 ? copyOf(view.get(row)) : null;
+    } finally {
+      catalogMetrics.stop(catalogMetrics.lookupBySku, start);
+    }
+  }
+
+  /**
+   * Method used to fetch products by sku from a single view, so all products of the batch
+   * come from the same catalog version. Repeated skus are answered once.
+   * @param skus
+   * @return products found and skus without a product
+   * @throws CaseStudyExceptionHandler
+   */
+  public ProductBatch findBySkus(List<String> skus) throws CaseStudyExceptionHandler {
+    ensureLoaded();
+    long start = catalogMetrics.start();
+    ProductBatch productBatch = new ProductBatch(skus.size());
+    Set<String> seen = new HashSet<>();
+    CatalogView view = rows;
+    try {
+      for (String sku : skus) {
+        if (!seen.add(sku)) {
+          continue;
+        }
+        int row = sku != null ? view.rowOf(sku) : -1;
+        if (row >= 0) {
+          productBatch.getProducts().add(copyOf(view.get(row)));
+        } else {
+          productBatch.getMissing().add(sku);
+        }
+      }
+      return productBatch;
+    } finally {
+      catalogMetrics.stop(catalogMetrics.lookupByBatch, start);
+    }
+  }
+
+  /**
+   * Method used to fetch products of a store
+   * @param storeId
+   * @return List<StoreProduct>
+   * @throws CaseStudyExceptionHandler
+   */
+  public List<StoreProduct> findByStore(String storeId) throws CaseStudyExceptionHandler {
+    ensureLoaded();
+    if (!storeIndexed) {
+      ProductQuery query = new ProductQuery();
+      query.setStoreId(storeId);
+      List<StoreProduct> storeProducts = new ArrayList<>();
+      scan(query, 0, Integer.MAX_VALUE, storeProducts);
+      return storeProducts;
+    }
+    CatalogView view = rows;
+    RowSet storeRows = storeId != null ? rowsByStore.getOrDefault(storeId, new RowSet()) : new RowSet();
+    List<StoreProduct> storeProducts = new ArrayList<>(storeRows.size());
+    storeRows.from(0).forEachRemaining((int row) -> {
+      StoreProduct storeProduct = row < view.size() ? view.get(row) : null;
+      if (storeProduct != null && storeId.equals(storeProduct.getStoreId())) {
+        storeProducts.add(copyOf(storeProduct));
+      }
+    });
+    return storeProducts;
+  }
+
+  /**
+   * Method used to check whether sku already exists
+   * @param sku
+   * @return boolean
+   * @throws CaseStudyExceptionHandler
+   */
+  public boolean contains(String sku) throws CaseStudyExceptionHandler {
+    ensureLoaded();
+    return rows.rowOf(sku) >= 0;
+  }
+
+  /**
+   * Method used to get the version of the catalog contents without reading any product
+   * @return CatalogVersion
+   * @throws CaseStudyExceptionHandler
+   */
+  public CatalogVersion getVersion() throws CaseStudyExceptionHandler {
+    ensureLoaded();
+    return rows.getVersion();
+  }
+
+  /**
+   * Method used to take the current view of the catalog. The view keeps its products and
+   * version for as long as the caller holds it.
+   * @return CatalogView
+   * @throws CaseStudyExceptionHandler
+   */
+  public CatalogView view() throws CaseStudyExceptionHandler {
+    ensureLoaded();
+    return rows;
+  }
+
+  /**
+   * Method used to fetch the changes committed after a catalog version, oldest first. The
+   * cursor of the result is the version after its last change.
+   * @param since version the caller is in sync with
+   * @param limit maximum number of changes
+   * @return changes, or a resync marker when changes after that version are no longer kept
+   * @throws CaseStudyExceptionHandler
+   */
+  public ProductChanges changesSince(CatalogVersion since, int limit) throws CaseStudyExceptionHandler {
+    ensureLoaded();
+    // every change up to the version of the current view is in the ring before the view is
+    CatalogVersion current = rows.getVersion();
+    // versions of an earlier load, or of changes that were dropped from the window
+    if (since.getEpoch() != current.getEpoch() || since.getVersion() > current.getVersion()
+        || since.getVersion() + 1 < changeRing.oldestSequence()) {
+      return ProductChanges.resyncRequired();
+    }
+    ProductChanges productChanges = new ProductChanges();
+    long last = Math.min(current.getVersion(), since.getVersion() + limit);
+    for (long sequence = since.getVersion() + 1; sequence <= last; sequence++) {
+      ProductChange change = changeRing.get(sequence);
+      if (change == null) {
+        // overwritten by commits made while reading
+        return ProductChanges.resyncRequired();
+      }
+      productChanges.getChanges().add(new ProductChange(change.getSequence(), change.getType(), change.getTimestamp(), copyOf(change.getProduct())));
+    }
+    productChanges.setCursor(new CatalogVersion(current.getEpoch(), last, 0).getTag());
+    productChanges.setHasMore(last < current.getVersion());
+    return productChanges;
+  }
+
+  /**
+   * Method used to register a listener for committed changes
+   * @param changeListener
+   */
+  public void addChangeListener(ChangeListener changeListener) {
+    changeListeners.add(changeListener);
+  }
+
+  /**
+   * Method used to get number of products in catalog
+   * @return size
+   * @throws CaseStudyExceptionHandler
+   */
+  public int size() throws CaseStudyExceptionHandler {
+    ensureLoaded();
+    return rows.size();
+  }
+
+  /**
+   * Method used to scan one chunk of products matching a query in file order, in the current
+   * view of the catalog
+   * @param query
+   * @param fromRow first row to look at
+   * @param limit maximum number of products to collect
+   * @param into receives copies of the matching products
+   * @return row to continue the scan from, or -1 when the catalog is exhausted
+   * @throws CaseStudyExceptionHandler
+   */
+  public int scan(ProductQuery query, int fromRow, int limit, List<StoreProduct> into) throws CaseStudyExceptionHandler {
+    return scan(view(), query, fromRow, limit, into);
+  }
+
+  /**
+   * Method used to scan one chunk of products matching a query in file order. Passing the
+   * same view for every chunk streams a large result from one catalog version while writers
+   * carry on.
+   * @param view view taken by {@link #view()}
+   * @param query
+   * @param fromRow first row to look at
+   * @param limit maximum number of products to collect
+   * @param into receives copies of the matching products
+   * @return row to continue the scan from, or -1 when the view is exhausted
+   * @throws CaseStudyExceptionHandler
+   */
+  public int scan(CatalogView view, ProductQuery query, int fromRow, int limit, List<StoreProduct> into) throws CaseStudyExceptionHandler {
+    ensureLoaded();
+    long start = catalogMetrics.start();
+    try {
+      PrimitiveIterator.OfInt candidates;
+      if (query.getStoreId() != null && storeIndexed) {
+        candidates = rowsByStore.getOrDefault(query.getStoreId(), new RowSet()).from(fromRow);
+      } else {
+        candidates = IntStream.range(Math.max(fromRow, 0), view.size()).iterator();
+      }
+      int collected = 0;
+      while (candidates.hasNext()) {
+        int row = candidates.nextInt();
+        if (row >= view.size()) {
+          // appended after the view was taken
+          break;
+        }
+        if (collected == limit) {
+          return row;
+        }
+        StoreProduct storeProduct = view.get(row);
+        if (query.matches(storeProduct)) {
+          into.add(copyOf(storeProduct));
+          collected++;
+        }
+      }
+      return -1;
+    } finally {
+      catalogMetrics.stop(catalogMetrics.lookupByScan, start);
+    }
+  }
+
+  /**
+   * Method used to search product names and descriptions
+   * @param text free text, the last word may be incomplete
+   * @param limit maximum number of products
+   * @return best matching products, best first, and the number of matches
+   * @throws CaseStudyExceptionHandler
+   */
+  public ProductSearchResult search(String text, int limit) throws CaseStudyExceptionHandler {
+    ensureLoaded();
+    if (searchIndex == null) {
+      throw new CaseStudyExceptionHandler(HttpStatus.NOT_IMPLEMENTED, "Search disabled", "Full text search is disabled by catalog.search.enabled.");
+    }
+    long start = catalogMetrics.start();
+    try {
+      ProductSearchIndex.Matches matches = searchIndex.search(text, limit);
+      // views are published before the index, so this one holds every row the search found
+      CatalogView view = rows;
+      ProductSearchResult productSearchResult = new ProductSearchResult(text, matches.total(), matches.isTotalExact());
+      for (int match = 0; match < matches.size(); match++) {
+        productSearchResult.getHits().add(new ProductSearchHit(matches.score(match), copyOf(view.get(matches.row(match)))));
+      }
+      return productSearchResult;
+    } finally {
+      catalogMetrics.stop(catalogMetrics.lookupBySearch, start);
+    }
+  }
+
+  /**
+   * Method used to get price and date statistics per store
+   * @param storeId only this store, or null for every store
+   * @return ProductStats
+   * @throws CaseStudyExceptionHandler
+   */
+  public ProductStats stats(String storeId) throws CaseStudyExceptionHandler {
+    ensureLoaded();
+    StoreRollups current = storeRollups;
+    return (current != null ? current : buildRollups()).stats(storeId);
+  }
+
+  /**
+   * Method used to build the store rollups from the current view, unless they were built
+   * already. Under the commit lock no commit is missed: commits skip the rollups until they
+   * exist and update them from then on.
+   * @return rollups
+   */
+  private StoreRollups buildRollups() {
+    lock.lock();
+    try {
+      if (storeRollups == null) {
+        long rollupStart = System.nanoTime();
+        storeRollups = StoreRollups.build(rows, ForkJoinPool.commonPool());
+        logger.info("Built store rollups in " + TimeUnit.NANOSECONDS.toMillis(System.nanoTime() - rollupStart) + " ms");
+      }
+      return storeRollups;
+    } finally {
+      lock.unlock();
+    }
+  }
+
+  /**
+   * Method used to add a product with the next product index
+   * @param storeProduct
+   * @return false when the sku already exists
+   * @throws CaseStudyExceptionHandler
+   */
+  public boolean insert(StoreProduct storeProduct) throws CaseStudyExceptionHandler {
+    ensureLoaded();
+    long start = catalogMetrics.start();
+    ReentrantLock skuLock = skuLock(storeProduct.getSku());
+    skuLock.lock();
+    try {
+      if (contains(storeProduct.getSku())) {
+        return false;
+      }
+      StoreProduct product = copyOf(storeProduct);
+      product.setProductIndex(String.valueOf(lastProductIndex.incrementAndGet()));
+      commit(product);
+      return true;
+    } finally {
+      skuLock.unlock();
+      catalogMetrics.stop(catalogMetrics.create, start);
+    }
+  }
+
+  /**
+   * Method used to replace an existing product, keeping its product index
+   * @param storeProduct
+   * @return false when the sku is unknown
+   * @throws CaseStudyExceptionHandler
+   */
+  public boolean update(StoreProduct storeProduct) throws CaseStudyExceptionHandler {
+    ensureLoaded();
+    long start = catalogMetrics.start();
+    ReentrantLock skuLock = skuLock(storeProduct.getSku());
+    skuLock.lock();
+    try {
+      StoreProduct existing = findBySku(storeProduct.getSku());
+      if (existing == null) {
+        return false;
+      }
+      StoreProduct product = copyOf(storeProduct);
+      product.setProductIndex(existing.getProductIndex());
+      commit(product);
+      return true;
+    } finally {
+      skuLock.unlock();
+      catalogMetrics.stop(catalogMetrics.update, start);
+    }
+  }
+
+  /**
+   * Method used to insert or update a chunk of products with a single group commit. All sku
+   * stripes are held for the chunk, so single product writers cannot interleave between
+   * the duplicate check and the commit.
+   * @param storeProducts
+   * @param upsert when false existing skus are rejected instead of updated
+   * @return outcome per product, in input order
+   * @throws CaseStudyExceptionHandler
+   */
+  public List<SaveOutcome> saveAll(List<StoreProduct> storeProducts, boolean upsert) throws CaseStudyExceptionHandler {
+    ensureLoaded();
+    List<SaveOutcome> outcomes = new ArrayList<>(storeProducts.size());
+    List<StoreProduct> batch = new ArrayList<>(storeProducts.size());
+    Set<String> skusInBatch = new HashSet<>();
+    for (ReentrantLock skuLock : skuLocks) {
+      skuLock.lock();
+    }
+    try {
+      CatalogView view = rows;
+      for (StoreProduct storeProduct : storeProducts) {
+        String sku = storeProduct.getSku();
+        int row = view.rowOf(sku);
+        if (skusInBatch.contains(sku) || (row >= 0 && !upsert)) {
+          outcomes.add(SaveOutcome.DUPLICATE);
+          continue;
+        }
+        StoreProduct product = copyOf(storeProduct);
+        if (row >= 0) {
+          product.setProductIndex(view.get(row).getProductIndex());
+          outcomes.add(SaveOutcome.UPDATED);
+        } else {
+          product.setProductIndex(String.valueOf(lastProductIndex.incrementAndGet()));
+          outcomes.add(SaveOutcome.INSERTED);
+        }
+        skusInBatch.add(sku);
+        batch.add(product);
+      }
+      if (!batch.isEmpty()) {
+        commit(batch);
+      }
+      return outcomes;
+    } finally {
+      for (ReentrantLock skuLock : skuLocks) {
+        skuLock.unlock();
+      }
+    }
+  }
+
+  /**
+   * Method used to wait for a mutation to be durable and visible. The caller holds the sku
+   * lock, so the next writer of the same sku sees the result.
+   * @param product
+   * @throws CaseStudyExceptionHandler
+   */
+  private void commit(StoreProduct product) throws CaseStudyExceptionHandler {
+    commit(Collections.singletonList(product));
+  }
+
+  private void commit(List<StoreProduct> products) throws CaseStudyExceptionHandler {
+    try {
+      if (shards.length == 1 || products.size() == 1) {
+        shards[shardOf(products.get(0))].commitWriter.submitAll(products).get();
+        return;
+      }
+      // a batch spanning shards commits on every shard it touches, in parallel
+      List<List<StoreProduct>> shardBatches = new ArrayList<>(shards.length);
+      for (int shard = 0; shard < shards.length; shard++) {
+        shardBatches.add(new ArrayList<>());
+      }
+      for (StoreProduct product : products) {
+        shardBatches.get(shardOf(product)).add(product);
+      }
+      List<CompletableFuture<Void>> commits = new ArrayList<>(shards.length);
+      for (int shard = 0; shard < shards.length; shard++) {
+        if (!shardBatches.get(shard).isEmpty()) {
+          commits.add(shards[shard].commitWriter.submitAll(shardBatches.get(shard)));
+        }
+      }
+      CompletableFuture.allOf(commits.toArray(new CompletableFuture[0])).get();
+    } catch (InterruptedException interruptedException) {
+      Thread.currentThread().interrupt();
+      throw new CaseStudyExceptionHandler(HttpStatus.SERVICE_UNAVAILABLE, "Failed to save data", "Interrupted while writing product to change log.");
+    } catch (ExecutionException executionException) {
+      logger.error("Unable to append product to change log." + executionException.getCause());
+      throw new CaseStudyExceptionHandler(HttpStatus.INTERNAL_SERVER_ERROR, "Failed to save data", "Unable to write product to change log.");
+    }
+  }
+
+  /**
+   * Method used by the commit writer of a shard to append a batch to the shard's change log
+   * with one sync and then publish it to readers as one new view
+   * @param shard
+   * @param batch
+   * @throws IOException
+   */
+  private void commitBatch(Shard shard, List<StoreProduct> batch) throws IOException {
+    long logSize;
+    List<ProductChange> changes = new ArrayList<>(batch.size());
+    CatalogVersion committed;
+    shard.commitLock.lock();
+    try {
+      long flushStart = catalogMetrics.start();
+      shard.changeLog.append(batch);
+      catalogMetrics.stop(catalogMetrics.logFlush, flushStart);
+      logSize = shard.changeLog.size();
+      // only writers take the lock, readers go by the published views, index and rollups
+      lock.lock();
+      try {
+        Date timestamp = new Date();
+        CatalogView view = rows;
+        long sequence = view.getVersion().getVersion();
+        for (StoreProduct product : batch) {
+          String type = view.rowOf(product.getSku()) >= 0 ? ProductChange.UPDATED : ProductChange.CREATED;
+          view = apply(view, product);
+          ProductChange change = new ProductChange(++sequence, type, timestamp, product);
+          changeRing.add(change);
+          changes.add(change);
+        }
+        committed = view.getVersion().next(batch.size(), timestamp.getTime());
+        rows = view.withVersion(committed);
+        if (searchIndex != null) {
+          searchIndex.publish();
+        }
+        if (storeRollups != null) {
+          storeRollups.publish();
+        }
+        // shards commit on their own threads; taken before the lock is released so
+        // that listeners see commits in version order
+        listenerLock.lock();
+      } finally {
+        lock.unlock();
+      }
+    } finally {
+      shard.commitLock.unlock();
+    }
+    try {
+      for (ChangeListener changeListener : changeListeners) {
+        try {
+          changeListener.committed(committed, changes);
+        } catch (RuntimeException runtimeException) {
+          logger.error("Change listener failed." + runtimeException);
+        }
+      }
+    } finally {
+      listenerLock.unlock();
+    }
+    if (logSize >= compactionThreshold && shard.compacting.compareAndSet(false, true)) {
+      compactor.execute(() -> {
+        try {
+          compact(shard);
+        } catch (Exception exception) {
+          logger.error("Unable to compact change log." + exception);
+        } finally {
+          shard.compacting.set(false);
+        }
+      });
+    }
+    if (needsFold(rows) && folding.compareAndSet(false, true)) {
+      compactor.execute(() -> {
+        try {
+          CatalogView view = rows;
+          if (needsFold(view)) {
+            fold(view, null);
+          }
+        } catch (Exception exception) {
+          logger.error("Unable to fold catalog changes." + exception);
+        } finally {
+          folding.set(false);
+        }
+      });
+    }
+  }
+
+  /**
+   * Check whether a view changed enough rows to fold them without waiting for compaction.
+   * Every row a scan reads is looked up in the trie of changed rows first, which costs more
+   * the more rows it holds; a fold copies the base rows once instead. Mapped rows can only be
+   * folded by compaction.
+   * @param view
+   * @return boolean
+   */
+  private boolean needsFold(CatalogView view) {
+    return !"mapped".equalsIgnoreCase(storage) && view.changes() >= Math.max(MIN_FOLD_CHANGES, view.size() / FOLD_RATIO);
+  }
+
+  /**
+   * Method used to write the current products of a shard as its new snapshot. The shard's
+   * change log is rotated between two of its group commits, the snapshot is written outside
+   * of any lock and atomically renamed over the shard file, after which the rotated log is
+   * dropped. The changes of the written view are then folded into new base rows, leaving
+   * views only the changes committed since.
+   * @param shard
+   * @throws IOException
+   */
+  private void compact(Shard shard) throws IOException {
+    if (watchEnabled && !Objects.equals(CatalogFileDigest.fingerprint(shard.file), shard.fingerprint)) {
+      // writing the file now would drop an external edit that is not reloaded yet
+      logger.info("Postponing compaction of " + shard.file + " until its external edit is reloaded");
+      return;
+    }
+    CatalogView view;
+    shard.commitLock.lock();
+    try {
+      view = rows;
+      shard.changeLog.rotate();
+    } finally {
+      shard.commitLock.unlock();
+    }
+    List<StoreProduct> snapshot;
+    if (shards.length > 1) {
+      // only the shard's own rows, rows added after the view was taken are past its end
+      snapshot = new ArrayList<>(shard.rows.size());
+      for (PrimitiveIterator.OfInt shardRows = shard.rows.from(0); shardRows.hasNext(); ) {
+        int row = shardRows.nextInt();
+        if (row >= view.size()) {
+          break;
+        }
+        snapshot.add(view.get(row));
+      }
+    } else {
+      snapshot = view.asList();
+    }
+    Path target = shard.file;
+    Path temporary = target.resolveSibling(target.getFileName() + ".tmp");
+    long flushStart = catalogMetrics.start();
+    writeFile(temporary, snapshot);
+    catalogMetrics.stop(catalogMetrics.snapshotFlush, flushStart);
+    Files.move(temporary, target, StandardCopyOption.ATOMIC_MOVE);
+    shard.fingerprint = CatalogFileDigest.fingerprint(target);
+    Path binarySnapshot = shard.snapshotFile();
+    if (Files.exists(binarySnapshot)) {
+      // a stale snapshot is detected on load, so failing here only costs the next start a csv parse
+      try {
+        Path temporarySnapshot = binarySnapshot.resolveSibling(binarySnapshot.getFileName() + ".tmp");
+        CatalogSnapshot.write(temporarySnapshot, header, snapshot, Files.size(target), Files.getLastModifiedTime(target).toMillis());
+        Files.move(temporarySnapshot, binarySnapshot, StandardCopyOption.ATOMIC_MOVE);
+      } catch (IOException ioException) {
+        logger.error("Unable to write catalog snapshot." + ioException);
+      }
+    }
+    if (view.changes() > 0) {
+      fold(view, target);
+    }
+    shard.changeLog.discardRotated();
+    logger.info("Compacted " + snapshot.size() + " products into " + target);
+  }
+
+  /**
+   * Method used to replace the base rows of the current view with rows holding an older view
+   * of the same base. Folds run one at a time on the compactor, so the base is unchanged
+   * since that view was taken.
+   * @param view view to fold
+   * @param file catalog file compaction wrote it to, or null to fold in memory
+   * @throws IOException
+   */
+  private void fold(CatalogView view, Path file) throws IOException {
+    ProductRows folded = view.base().folded(view, file);
+    if (folded == null) {
+      return;
+    }
+    lock.lock();
+    try {
+      rows = rows.rebase(folded, view);
+    } finally {
+      lock.unlock();
+    }
+  }
+
+  /**
+   * Check whether the shard files are watched for external edits
+   * @return boolean
+   */
+  private boolean watching() {
+    return watchEnabled && !"mapped".equalsIgnoreCase(storage);
+  }
+
+  /**
+   * Method used to start watching the shard files for external edits. A catalog that cannot
+   * be watched still serves, it only misses edits until the next start.
+   */
+  private void watchFiles() {
+    List<Path> files = new ArrayList<>(shards.length);
+    for (Shard shard : shards) {
+      files.add(shard.file);
+    }
+    try {
+      fileWatcher = new CatalogFileWatcher(files, watchSettleMillis, file -> {
+        for (Shard shard : shards) {
+          if (shard.file.equals(file)) {
+            reload(shard);
+          }
+        }
+      });
+    } catch (IOException ioException) {
+      logger.warn("Unable to watch " + catalogFile + " for external edits." + ioException);
+    }
+  }
+
+  /**
+   * Method used to apply an external edit of a shard file. Only the records that differ from
+   * the previous version of the file are parsed, and of those only the products that differ
+   * from the catalog are saved, as upserts committed like any other batch: readers move to
+   * the edited products in one view and indexes, rollups, caches and the change feed are
+   * updated row by row. Products the edit did not touch keep the changes made since through
+   * the API. Products removed from the file stay in the catalog, which has no delete.
+   * @param shard
+   * @throws IOException
+   * @throws CaseStudyExceptionHandler
+   */
+  private void reload(Shard shard) throws IOException, CaseStudyExceptionHandler {
+    String fingerprint = CatalogFileDigest.fingerprint(shard.file);
+    if (fingerprint == null || shard.digest != null && fingerprint.equals(shard.digest.fingerprint())) {
+      return;
+    }
+    if (fingerprint.equals(shard.fingerprint)) {
+      // loaded or compacted by this catalog, only remember its records
+      shard.digest = CatalogFileDigest.read(shard.file, null, null);
+      return;
+    }
+    long start = System.nanoTime();
+    ByteArrayOutputStream changedRecords = new ByteArrayOutputStream();
+    CatalogFileDigest digest = CatalogFileDigest.read(shard.file, shard.digest, changedRecords);
+    Map<String, StoreProduct> changed = new LinkedHashMap<>();
+    CatalogView view = rows;
+    long parsed;
+    try (StoreProductCsvReader csvReader = new StoreProductCsvReader(new InputStreamReader(new ByteArrayInputStream(changedRecords.toByteArray()), StandardCharsets.UTF_8))) {
+      StoreProduct storeProduct;
+      while ((storeProduct = csvReader.read()) != null) {
+        String sku = storeProduct.getSku();
+        if (sku == null) {
+          continue;
+        }
+        int row = view.rowOf(sku);
+        // when a sku occurs more than once the last record wins, as on load
+        changed.remove(sku);
+        if (row < 0 || !sameProduct(view.get(row), storeProduct)) {
+          changed.put(sku, storeProduct);
+        }
+      }
+      parsed = csvReader.getRecordNumber();
+    }
+    if (!changed.isEmpty()) {
+      saveAll(new ArrayList<>(changed.values()), true);
+    }
+    shard.digest = digest;
+    shard.fingerprint = digest.fingerprint();
+    logger.info("Reloaded " + shard.file + ", " + changed.size() + " of " + digest.records() + " products changed, " + parsed
+        + " records parsed in " + TimeUnit.NANOSECONDS.toMillis(System.nanoTime() - start) + " ms");
+  }
+
+  /**
+   * Check whether two products hold the same values, the product index is kept by the catalog
+   * @param storeProduct
+   * @param other
+   * @return boolean
+   */
+  private static boolean sameProduct(StoreProduct storeProduct, StoreProduct other) {
+    return Objects.equals(storeProduct.getStoreId(), other.getStoreId())
+        && Objects.equals(storeProduct.getProductName(), other.getProductName())
+        && Objects.equals(storeProduct.getPrice(), other.getPrice())
+        && Objects.equals(storeProduct.getDate(), other.getDate())
+        && Objects.equals(storeProduct.getDescription(), other.getDescription())
+        && Objects.equals(storeProduct.getImageUrl(), other.getImageUrl());
+  }
+
+  private void ensureLoaded() throws CaseStudyExceptionHandler {
+    if (loaded) {
+      return;
+    }
+    lock.lock();
+    try {
+      if (!loaded) {
+        load();
+        loaded = true;
+      }
+    } finally {
+      lock.unlock();
+    }
+  }
+
+  /**
+   * Method used to load the catalog file and replay the change log
+   * @throws CaseStudyExceptionHandler
+   */
+  private void load() throws CaseStudyExceptionHandler {
+    long start = catalogMetrics.start();
+    try {
+      rowsByStore.clear();
+      searchIndex = searchEnabled ? new ProductSearchIndex() : null;
+      storeRollups = null;
+      shards = openShards();
+      ProductRows base;
+      if ("mapped".equalsIgnoreCase(storage)) {
+        base = mapFile();
+      } else {
+        WritableProductRows loaded = newRows();
+        base = loaded;
+        storeIndexed = true;
+        lastProductIndex.set(0);
+        header = new String[0];
+        CatalogSnapshot[] snapshots = new CatalogSnapshot[shards.length];
+        boolean snapshotted = true;
+        for (int shard = 0; shard < shards.length; shard++) {
+          snapshots[shard] = readSnapshot(shards[shard]);
+          snapshotted &= snapshots[shard] != null;
+        }
+        if (snapshotted) {
+          loadSnapshots(snapshots, loaded);
+        } else {
+          for (int shard = 0; shard < shards.length; shard++) {
+            int from = loaded.size();
+            readFile(shards[shard], snapshots[shard], loaded);
+            addShardRows(shards[shard], from, loaded.size());
+          }
+        }
+      }
+      if (header.length == 0) {
+        header = ProductQuery.FIELDS.toArray(new String[0]);
+      }
+      // not visible to readers before the load completes
+      rows = new CatalogView(base, null);
+      int replayed = 0;
+      for (Shard shard : shards) {
+        shard.changeLog = new ProductChangeLog(shard.logFile());
+        replayed += shard.changeLog.open(product -> rows = apply(rows, product));
+      }
+      if (searchIndex != null) {
+        searchIndex.publish();
+      }
+      if (buildRollupsOnStart) {
+        buildRollups();
+      }
+      rows = rows.withVersion(new CatalogVersion(System.currentTimeMillis(), 0, lastModified()));
+      changeRing = new ChangeRing(changeFeedCapacity);
+      for (Shard shard : shards) {
+        shard.commitWriter = new GroupCommitWriter(shards.length == 1 ? "catalog-commit-writer" : "catalog-commit-writer-" + shard.id,
+            batch -> commitBatch(shard, batch));
+      }
+      logger.info("Loaded " + rows.size() + " products from " + catalogFile + (shards.length > 1 ? " in " + shards.length + " shards" : "")
+          + ", replayed " + replayed + " change log records");
+      if (watching()) {
+        watchFiles();
+      } else if (watchEnabled) {
+        logger.info("Not watching " + catalogFile + " for external edits, a mapped file is only replaced on restart");
+      }
+      catalogMetrics.stop(catalogMetrics.parse, start);
+    } catch (FileNotFoundException | NoSuchFileException fileNotFoundException) {
+      logger.error("Unable to find source file." + fileNotFoundException);
+      throw new CaseStudyExceptionHandler(HttpStatus.NOT_FOUND, "Source not found", "Failed to fetch source file from given path.");
+    } catch (Exception exception) {
+      logger.error("Unable to retrieve data from csv." + exception);
+      throw new CaseStudyExceptionHandler(HttpStatus.INTERNAL_SERVER_ERROR, "Failed to get data", "Unable to retrieve data from csv.");
+    }
+  }
+
+  /**
+   * Method used to set up the files of every shard, resharding the catalog when its files are
+   * in another number of shards
+   * @return shards
+   * @throws IOException
+   */
+  private Shard[] openShards() throws IOException {
+    if (shardCount < 1) {
+      throw new IllegalStateException("catalog.shards must be at least 1, not " + shardCount);
+    }
+    if (shardCount > 1 && "mapped".equalsIgnoreCase(storage)) {
+      throw new IllegalStateException("catalog.storage=mapped needs catalog.shards=1");
+    }
+    Path file = Paths.get(catalogFile);
+    int recorded = CatalogShards.layout(file);
+    if (recorded > 0 && recorded != shardCount) {
+      long reshardStart = System.nanoTime();
+      int products = CatalogShards.reshard(file, recorded, shardCount);
+      logger.info("Resharded " + products + " products of " + catalogFile + " from " + recorded + " into " + shardCount + " shards in "
+          + TimeUnit.NANOSECONDS.toMillis(System.nanoTime() - reshardStart) + " ms");
+    }
+    Shard[] opened = new Shard[shardCount];
+    for (int shard = 0; shard < shardCount; shard++) {
+      opened[shard] = new Shard(shard, CatalogShards.shardFile(file, shard, shardCount));
+      // taken before the file is read, so an edit made while loading is reloaded
+      opened[shard].fingerprint = CatalogFileDigest.fingerprint(opened[shard].file);
+    }
+    return opened;
+  }
+
+  /**
+   * Method used to parse every row of a shard file into memory, from its binary snapshot
+   * when there is a current one
+   * @param shard
+   * @param snapshot current snapshot of the shard, or null
+   * @param base rows being loaded
+   * @throws IOException
+   */
+  private void readFile(Shard shard, CatalogSnapshot snapshot, WritableProductRows base) throws IOException {
+    if (snapshot != null) {
+      if (header.length == 0) {
+        header = snapshot.getHeader();
+      }
+      snapshot.getRows().forEach(storeProduct -> load(base, storeProduct));
+      logger.info("Read " + snapshot.size() + " products from snapshot " + shard.snapshotFile());
+      return;
+    }
+    try (StoreProductCsvReader csvReader = new StoreProductCsvReader(new InputStreamReader(new FileInputStream(shard.file.toFile()), StandardCharsets.UTF_8))) {
+      if (header.length == 0) {
+        header = csvReader.getHeader();
+      }
+      StoreProduct storeProduct;
+      while ((storeProduct = csvReader.read()) != null) {
+        load(base, storeProduct);
+      }
+    }
+  }
+
+  /**
+   * Method used to read the binary snapshot of a shard. A snapshot that is unreadable or was
+   * not written from the current shard file is ignored in favour of the csv.
+   * @param shard
+   * @return snapshot, or null when the csv has to be parsed
+   */
+  private CatalogSnapshot readSnapshot(Shard shard) {
+    Path binarySnapshot = shard.snapshotFile();
+    if (!Files.exists(binarySnapshot)) {
+      return null;
+    }
+    try {
+      CatalogSnapshot catalogSnapshot = CatalogSnapshot.read(binarySnapshot);
+      Path csv = shard.file;
+      if (Files.exists(csv) && !catalogSnapshot.isSnapshotOf(Files.size(csv), Files.getLastModifiedTime(csv).toMillis())) {
+        logger.warn("Ignoring snapshot " + binarySnapshot + ", it was not written from the current " + csv);
+        return null;
+      }
+      return catalogSnapshot;
+    } catch (IOException | RuntimeException exception) {
+      logger.warn("Ignoring unreadable snapshot " + binarySnapshot + ": " + exception);
+      return null;
+    }
+  }
+
+  /**
+   * Method used to load every shard from its snapshot. The indexes of the rows are read from
+   * the index file persisted for exactly these snapshots when there is one, otherwise they
+   * are built and persisted for the next start.
+   * @param snapshots snapshot of every shard
+   * @param base rows being loaded
+   */
+  private void loadSnapshots(CatalogSnapshot[] snapshots, WritableProductRows base) {
+    Path indexFile = indexFile();
+    CatalogIndex catalogIndex = readIndex(indexFile, snapshots);
+    for (int shard = 0; shard < snapshots.length; shard++) {
+      if (header.length == 0) {
+        header = snapshots[shard].getHeader();
+      }
+      int from = base.size();
+      base.append(snapshots[shard]);
+      addShardRows(shards[shard], from, base.size());
+    }
+    base.indexSkus(catalogIndex != null ? catalogIndex.getSkuIndex() : null);
+    if (catalogIndex != null) {
+      logger.info("Read " + base.size() + " products from snapshots and their indexes from " + indexFile);
+    } else {
+      long indexStart = System.nanoTime();
+      catalogIndex = CatalogIndex.build(base, searchEnabled);
+      try {
+        catalogIndex.write(indexFile, snapshots);
+      } catch (IOException ioException) {
+        logger.warn("Unable to write catalog index " + indexFile + "." + ioException);
+      }
+      logger.info("Read " + base.size() + " products from snapshots, indexed them into " + indexFile + " in "
+          + TimeUnit.NANOSECONDS.toMillis(System.nanoTime() - indexStart) + " ms");
+    }
+    lastProductIndex.set(catalogIndex.getMaxProductIndex());
+    rowsByStore.putAll(catalogIndex.getStoreRows());
+    searchIndex = catalogIndex.getSearchIndex();
+  }
+
+  /**
+   * Method used to read the persisted indexes of the rows of snapshots
+   * @param indexFile
+   * @param snapshots snapshot of every shard
+   * @return CatalogIndex, or null when there is none that is current and complete
+   */
+  private CatalogIndex readIndex(Path indexFile, CatalogSnapshot[] snapshots) {
+    if (!Files.exists(indexFile)) {
+      return null;
+    }
+    try {
+      CatalogIndex catalogIndex = CatalogIndex.read(indexFile, snapshots, searchEnabled);
+      if (catalogIndex == null) {
+        logger.info("Rebuilding index " + indexFile + ", it was not built from the current snapshots");
+      } else if (searchEnabled && catalogIndex.getSearchIndex() == null) {
+        logger.info("Rebuilding index " + indexFile + ", it holds no search index");
+        return null;
+      }
+      return catalogIndex;
+    } catch (IOException | RuntimeException exception) {
+      logger.warn("Ignoring unreadable index " + indexFile + ": " + exception);
+      return null;
+    }
+  }
+
+  private Path indexFile() {
+    Path file = Paths.get(catalogFile);
+    return file.resolveSibling(file.getFileName() + ".idx");
+  }
+
+  /**
+   * Time of the last change before this load, the newest of the shard files and their logs
+   * @return millis
+   * @throws IOException
+   */
+  private long lastModified() throws IOException {
+    long lastModified = 0;
+    for (Shard shard : shards) {
+      for (Path file : new Path[] {shard.file, shard.logFile(), shard.snapshotFile()}) {
+        if (Files.exists(file)) {
+          lastModified = Math.max(lastModified, Files.getLastModifiedTime(file).toMillis());
+        }
+      }
+    }
+    return lastModified;
+  }
+
+  private long pendingWrites() {
+    long pending = 0;
+    for (Shard shard : shards) {
+      if (shard.commitWriter != null) {
+        pending += shard.commitWriter.pending();
+      }
+    }
+    return pending;
+  }
+
+  private WritableProductRows newRows() {
+    return "heap".equalsIgnoreCase(storage) ? new HeapProductRows() : new ColumnarProductRows();
+  }
+
+  /**
+   * Method used to map the catalog file and index row offsets without decoding rows
+   * @return rows of the mapped file
+   * @throws IOException
+   */
+  private ProductRows mapFile() throws IOException {
+    MappedCatalogFile mappedFile = MappedCatalogFile.open(shards[0].file);
+    header = mappedFile.getHeader();
+    ProductRows base = new MappedProductRows(mappedFile);
+    storeIndexed = false;
+    lastProductIndex.set(mappedFile.maxProductIndex());
+    if (searchIndex != null) {
+      for (int row = 0; row < base.size(); row++) {
+        searchIndex.index(row, null, base.get(row));
+      }
+    }
+    return base;
+  }
+
+  /**
+   * Method used to write products to a csv file and sync it to disk
+   * @param file
+   * @param products
+   * @throws IOException
+   */
+  private void writeFile(Path file, Iterable<StoreProduct> products) throws IOException {
+    try (FileOutputStream outputStream = new FileOutputStream(file.toFile());
+        StoreProductCsvWriter csvWriter = new StoreProductCsvWriter(new BufferedWriter(new OutputStreamWriter(outputStream, StandardCharsets.UTF_8), 64 * 1024), header)) {
+      csvWriter.writeHeader();
+      for (StoreProduct product : products) {
+        csvWriter.write(product);
+      }
+      csvWriter.flush();
+      outputStream.getFD().sync();
+    }
+  }
+
+  /**
+   * Method used to put a product read from a catalog file into the rows being loaded
+   * @param base
+   * @param product
+   */
+  private void load(WritableProductRows base, StoreProduct product) {
+    lastProductIndex.accumulateAndGet(productIndex(product), Math::max);
+    if (!storeIndexed && searchIndex == null) {
+      base.put(product);
+      return;
+    }
+    int existing = base.rowOf(product.getSku());
+    StoreProduct previous = existing >= 0 ? base.get(existing) : null;
+    index(base.put(product), previous, product);
+  }
+
+  /**
+   * Method used to apply a change to a view
+   * @param view
+   * @param product
+   * @return view with the change
+   */
+  private CatalogView apply(CatalogView view, StoreProduct product) {
+    lastProductIndex.accumulateAndGet(productIndex(product), Math::max);
+    int existing = view.rowOf(product.getSku());
+    if (existing < 0 && shards.length > 1) {
+      shards[shardOf(product)].rows.add(view.size());
+    }
+    if (!storeIndexed && searchIndex == null && storeRollups == null) {
+      return view.with(existing, product);
+    }
+    StoreProduct previous = existing >= 0 ? view.get(existing) : null;
+    index(existing >= 0 ? existing : view.size(), previous, product);
+    return view.with(existing, product);
+  }
+
+  private void index(int row, StoreProduct previous, StoreProduct product) {
+    if (searchIndex != null) {
+      searchIndex.index(row, previous, product);
+    }
+    if (storeRollups != null) {
+      if (previous != null) {
+        storeRollups.remove(previous);
+      }
+      storeRollups.add(product);
+    }
+    // rows are not removed from their previous store, views that are still read may need them
+    if (storeIndexed && product.getStoreId() != null) {
+      rowsByStore.computeIfAbsent(product.getStoreId(), key -> new RowSet()).add(row);
+    }
+  }
+
+  /**
+   * Method used to record the rows a shard file was loaded into, one after the other
+   * @param shard
+   * @param from first row of the shard
+   * @param to row after its last
+   */
+  private void addShardRows(Shard shard, int from, int to) {
+    if (shards.length > 1) {
+      shard.rows = new RowSet(IntStream.range(from, to).toArray());
+    }
+  }
+
+  private int shardOf(StoreProduct storeProduct) {
+    return CatalogShards.shardOf(storeProduct.getSku(), shards.length);
+  }
+
+  private ReentrantLock skuLock(String sku) {
+    return skuLocks[Math.floorMod(Objects.hashCode(sku), skuLocks.length)];
+  }
+
+  private static int productIndex(StoreProduct storeProduct) {
+    try {
+      return Integer.parseInt(storeProduct.getProductIndex());
+    } catch (NumberFormatException numberFormatException) {
+      return 0;
+    }
+  }
+
+  private static StoreProduct copyOf(StoreProduct storeProduct) {
+    StoreProduct copy = new StoreProduct();
+    copy.setProductIndex(storeProduct.getProductIndex());
+    copy.setStoreId(storeProduct.getStoreId());
+    copy.setSku(storeProduct.getSku());
+    copy.setProductName(storeProduct.getProductName());
+    copy.setPrice(storeProduct.getPrice());
+    copy.setDate(storeProduct.getDate());
+    copy.setDescription(storeProduct.getDescription());
+    copy.setImageUrl(storeProduct.getImageUrl());
+    return copy;
+  }
+
+  /**
+   * Files and commit writer of one shard. The commit lock keeps the order of the shard's log
+   * and the order its changes are applied in the same, and lets compaction rotate the log
+   * between two commits.
+   */
+  private static final class Shard {
+    private final int id;
+    private final Path file;
+    private final ReentrantLock commitLock = new ReentrantLock();
+    private final AtomicBoolean compacting = new AtomicBoolean();
+    // fingerprint of the file as this catalog last read or wrote it
+    private volatile String fingerprint;
+    // records of the file as last seen by the file watcher
+    private CatalogFileDigest digest;
+    private ProductChangeLog changeLog;
+    private GroupCommitWriter commitWriter;
+    // rows holding the shard's products when there are several shards, a sku keeps its row
+    private RowSet rows = new RowSet();
+
+    private Shard(int id, Path file) {
+      this.id = id;
+      this.file = file;
+    }
+
+    private Path logFile() {
+      return file.resolveSibling(file.getFileName() + ".log");
+    }
+
+    private Path snapshotFile() {
+      return file.resolveSibling(file.getFileName() + ".snap");
+    }
+  }
+}
@@ -0,0 +1,255 @@
+package com.tiger.analytics.repository;
+
+import com.tiger.analytics.model.StoreProduct;
+import java.io.IOException;
+import java.nio.ByteBuffer;
+import java.nio.channels.FileChannel;
+import java.nio.charset.StandardCharsets;
+import java.nio.file.Files;
+import java.nio.file.Path;
+import java.nio.file.StandardCopyOption;
+import java.nio.file.StandardOpenOption;
+import java.util.List;
+import java.util.function.Consumer;
+import java.util.zip.CRC32;
+import org.slf4j.Logger;
+import org.slf4j.LoggerFactory;
+
+/**
+ * Append-only log of catalog mutations. Every record is a full product row, framed as
+ * [length][crc32][payload], so replaying the log over the last snapshot is idempotent and a
+ * torn record at the tail is detected and dropped.
+ *
+ * A failed append is cut off again before the next one, so the records of a batch that was
+ * reported as failed never come back on replay and never sit in front of later commits. When
+ * that is not possible either the log refuses further appends.
+ */
+class ProductChangeLog implements AutoCloseable {
+
+  private final static Logger logger = LoggerFactory.getLogger(ProductChangeLog.class);
+
+  private static final int FRAME_HEADER = 8;
+
+  private final Path logFile;
+  private final Path rotatedFile;
+  private FileChannel channel;
+  private IOException failure;
+
+  ProductChangeLog(Path logFile) {
+    this.logFile = logFile;
+    this.rotatedFile = logFile.resolveSibling(logFile.getFileName() + ".old");
+  }
+
+  /**
+   * Replay rotated and active log over the loaded snapshot and open the log for appends
+   * @param consumer applied to every record in commit order
+   * @return number of replayed records
+   * @throws IOException
+   */
+  synchronized int open(Consumer<StoreProduct> consumer) throws IOException {
+    int replayed = 0;
+    if (Files.exists(rotatedFile)) {
+      replayed += replay(rotatedFile, consumer);
+    }
+    if (Files.exists(logFile)) {
+      replayed += replay(logFile, consumer);
+    }
+    channel = FileChannel.open(logFile, StandardOpenOption.CREATE, StandardOpenOption.WRITE, StandardOpenOption.APPEND);
+    return replayed;
+  }
+
+  /**
+   * Append a batch of records and force them to disk with a single sync
+   * @param storeProducts
+   * @throws IOException
+   */
+  synchronized void append(List<StoreProduct> storeProducts) throws IOException {
+    if (failure != null) {
+      throw new IOException("Change log " + logFile + " is unusable since a failed append could not be undone", failure);
+    }
+    ByteBuffer[] frames = new ByteBuffer[storeProducts.size()];
+    long remaining = 0;
+    for (int i = 0; i < frames.length; i++) {
+      frames[i] = encode(storeProducts.get(i));
+      remaining += frames[i].remaining();
+    }
+    long start = channel.position();
+    try {
+      while (remaining > 0) {
+        remaining -= channel.write(frames);
+      }
+      channel.force(false);
+    } catch (IOException ioException) {
+      undo(start, ioException);
+      throw ioException;
+    }
+  }
+
+  /**
+   * Method used to cut a failed append off the log, so neither its records nor a torn frame
+   * remain in front of the next append
+   * @param start size of the log before the append
+   * @param cause failure of the append
+   */
+  private void undo(long start, IOException cause) {
+    try {
+      channel.truncate(start);
+      channel.position(start);
+      channel.force(false);
+    } catch (IOException undoException) {
+      cause.addSuppressed(undoException);
+      failure = cause;
+      logger.error("Unable to truncate change log " + logFile + " after a failed append, refusing further appends." + undoException);
+    }
+  }
+
+  /**
+   * Current size of the active log
+   * @return bytes
+   * @throws IOException
+   */
+  synchronized long size() throws IOException {
+    return channel.size();
+  }
+
+  /**
+   * Move the active log aside so a snapshot can be written while new appends go to an empty
+   * log. Must be called while no append is in flight for the snapshot being taken.
+   * @throws IOException
+   */
+  synchronized void rotate() throws IOException {
+    channel.close();
+    if (Files.exists(rotatedFile)) {
+      // previous compaction did not finish, keep its records ahead of the current ones
+      try (FileChannel rotated = FileChannel.open(rotatedFile, StandardOpenOption.WRITE, StandardOpenOption.APPEND);
+          FileChannel active = FileChannel.open(logFile, StandardOpenOption.READ)) {
+        active.transferTo(0, active.size(), rotated);
+        rotated.force(false);
+      }
+      Files.delete(logFile);
+    } else {
+      Files.move(logFile, rotatedFile, StandardCopyOption.ATOMIC_MOVE);
+    }
+    channel = FileChannel.open(logFile, StandardOpenOption.CREATE, StandardOpenOption.WRITE, StandardOpenOption.APPEND);
+  }
+
+  /**
+   * Drop the rotated log once its records are part of a durable snapshot
+   * @throws IOException
+   */
+  synchronized void discardRotated() throws IOException {
+    Files.deleteIfExists(rotatedFile);
+  }
+
+  @Override
+  public synchronized void close() throws IOException {
+    if (channel != null) {
+      channel.close();
+    }
+  }
+
+  private int replay(Path file, Consumer<StoreProduct> consumer) throws IOException {
+    int replayed = 0;
+    try (FileChannel readChannel = FileChannel.open(file, StandardOpenOption.READ, StandardOpenOption.WRITE)) {
+      long size = readChannel.size();
+      long position = 0;
+      ByteBuffer header = ByteBuffer.allocate(FRAME_HEADER);
+      while (position + FRAME_HEADER <= size) {
+        header.clear();
+        readChannel.read(header, position);
+        header.flip();
+        int length = header.getInt();
+        int crc = header.getInt();
+        if (length < 0 || position + FRAME_HEADER + length > size) {
+          break;
+        }
+        ByteBuffer payload = ByteBuffer.allocate(length);
+        readChannel.read(payload, position + FRAME_HEADER);
+        if (checksum(payload.array(), length) != crc) {
+          break;
+        }
+        payload.flip();
+        consumer.accept(decode(payload));
+        position += FRAME_HEADER + length;
+        replayed++;
+      }
+      if (position < size) {
+        logger.error("Truncating torn change log record in " + file + " at offset " + position);
+        readChannel.truncate(position);
+        readChannel.force(true);
+      }
+    }
+    return replayed;
+  }
+
+  private static ByteBuffer encode(StoreProduct storeProduct) {
+    byte[][] fields = {
+        bytes(storeProduct.getProductIndex()),
+        bytes(storeProduct.getStoreId()),
+        bytes(storeProduct.getSku()),
+        bytes(storeProduct.getProductName()),
+        bytes(storeProduct.getDate()),
+        bytes(storeProduct.getDescription()),
+        bytes(storeProduct.getImageUrl())
+    };
+    int length = 1 + Double.BYTES;
+    for (byte[] field : fields) {
+      length += Integer.BYTES + (field != null ? field.length : 0);
+    }
+    ByteBuffer frame = ByteBuffer.allocate(FRAME_HEADER + length);
+    frame.putInt(length);
+    frame.putInt(0);
+    frame.put((byte) (storeProduct.getPrice() != null ? 1 : 0));
+    frame.putDouble(storeProduct.getPrice() != null ? storeProduct.getPrice() : 0d);
+    for (byte[] field : fields) {
+      if (field == null) {
+        frame.putInt(-1);
+      } else {
+        frame.putInt(field.length);
+        frame.put(field);
+      }
+    }
+    frame.putInt(Integer.BYTES, checksum(frame.array(), FRAME_HEADER, length));
+    frame.flip();
+    return frame;
+  }
+
+  private static StoreProduct decode(ByteBuffer payload) {
+    StoreProduct storeProduct = new StoreProduct();
+    boolean hasPrice = payload.get() == 1;
+    double price = payload.getDouble();
+    storeProduct.setPrice(hasPrice ? price : null);
+    storeProduct.setProductIndex(string(payload));
+    storeProduct.setStoreId(string(payload));
+    storeProduct.setSku(string(payload));
+    storeProduct.setProductName(string(payload));
+    storeProduct.setDate(string(payload));
+    storeProduct.setDescription(string(payload));
+    storeProduct.setImageUrl(string(payload));
+    return storeProduct;
+  }
+
+  private static byte[] bytes(String value) {
+    return value != null ? value.getBytes(StandardCharsets.UTF_8) : null;
+  }
+
+  private static String string(ByteBuffer payload) {
+    int length = payload.getInt();
+    if (length < 0) {
+      return null;
+    }
+    String value = new String(payload.array(), payload.position(), length, StandardCharsets.UTF_8);
+    payload.position(payload.position() + length);
+    return value;
+  }
+
+  private static int checksum(byte[] bytes, int length) {
+    return checksum(bytes, 0, length);
+  }
+
+  private static int checksum(byte[] bytes, int offset, int length) {
+    CRC32 crc32 = new CRC32();
+    crc32.update(bytes, offset, length);
+    return (int) crc32.getValue();
+  }
+}
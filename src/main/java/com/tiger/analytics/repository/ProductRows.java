@@ -0,0 +1,45 @@
+package com.tiger.analytics.repository;
+
+import com.tiger.analytics.model.StoreProduct;
+import java.io.IOException;
+import java.nio.file.Path;
+
+/**
+ * Row storage behind the product catalog. Rows are numbered in file order and a row keeps its
+ * number for the lifetime of the catalog. Rows are read without locks once they are the base
+ * of a published {@link CatalogView}, and never change after that. Changes live in the views
+ * until compaction folds them into new rows. Storage that is filled row by row while the
+ * catalog is loaded is a {@link WritableProductRows}.
+ */
+interface ProductRows {
+
+  /**
+   * Number of rows
+   * @return size
+   */
+  int size();
+
+  /**
+   * Product stored in a row. The instance may be shared, callers must not modify it.
+   * @param row
+   * @return StoreProduct
+   */
+  StoreProduct get(int row);
+
+  /**
+   * Row of a sku
+   * @param sku
+   * @return row or -1 when the sku is unknown
+   */
+  int rowOf(String sku);
+
+  /**
+   * Rows holding every product of a view of these rows. These rows stay unchanged for readers
+   * of older views.
+   * @param view view whose base these rows are
+   * @param file catalog file compaction wrote the view to, or null when folding in memory
+   * @return new rows, or null when these rows can only be rebuilt from a written file
+   * @throws IOException
+   */
+  ProductRows folded(CatalogView view, Path file) throws IOException;
+}
@@ -0,0 +1,1077 @@
+package com.tiger.analytics.repository;
+
+import com.tiger.analytics.model.StoreProduct;
+import java.io.DataOutputStream;
+import java.io.IOException;
+import java.nio.ByteBuffer;
+import java.nio.charset.StandardCharsets;
+import java.text.Normalizer;
+import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.Collections;
+import java.util.Comparator;
+import java.util.HashMap;
+import java.util.HashSet;
+import java.util.LinkedHashSet;
+import java.util.List;
+import java.util.Map;
+import java.util.PriorityQueue;
+import java.util.Set;
+import java.util.regex.Pattern;
+
+/**
+ * Inverted index over productName and description. Text is split into lower case, accent
+ * folded letter and digit runs, with html tags removed and entities decoded. Each term keeps
+ * the rows containing it in ascending order, with the term frequency in the name and in the
+ * description of every row packed into one byte, so a posting costs five bytes. A term found
+ * in a single row keeps that row inline instead of in an array.
+ *
+ * A query matches rows that contain every query term. A term also matches terms within one
+ * edit, two from eight characters, that start with the same letter, and the last term, while
+ * it is still being typed, matches terms it is a prefix of. Rows are ranked by a BM25 style
+ * score in which name matches weigh more than description matches and prefix or typo matches
+ * weigh less than exact ones.
+ *
+ * Every term keeps the highest frequencies it was indexed with, which bound the score of its
+ * rows. Once the exact count reaches a threshold and no later row can beat the current best
+ * ones, matching stops and the total is reported as a lower bound, so a query matching
+ * most of the catalog costs about as much as one matching a few thousand products.
+ *
+ * Searches take no lock. The catalog indexes under its commit lock and publishes once a commit
+ * is applied, and a search reads the index as of one publish. Postings are kept per chunk of
+ * terms; the first change to a published chunk or postings in a commit copies it, and later
+ * changes in that commit go to the copy. Postings that are only appended to share their
+ * arrays with the published ones, which never read past their own count, so adding products
+ * copies no rows.
+ */
+final class ProductSearchIndex {
+
+  private static final int NAME_WEIGHT = 3;
+  private static final int MAX_FREQUENCY = 15;
+  private static final int MAX_TOKEN_LENGTH = 64;
+  private static final int MAX_EXPANSIONS = 64;
+  private static final int MIN_PREFIX_LENGTH = 2;
+  private static final int MIN_TYPO_LENGTH = 4;
+  private static final float PREFIX_FACTOR = 0.8f;
+  private static final float[] TYPO_FACTORS = {1f, 0.6f, 0.4f};
+  private static final float K1 = 1.2f;
+  private static final int EXACT_TOTAL_THRESHOLD = 10000;
+  private static final int MAX_UNSORTED_TERMS = 4096;
+  private static final float[] SATURATION = new float[MAX_FREQUENCY + 1];
+  private static final Pattern COMBINING_MARKS = Pattern.compile("\\p{M}+");
+  private static final Set<String> STOP_WORDS = new HashSet<>(Arrays.asList(
+      "a", "an", "and", "are", "as", "at", "be", "by", "for", "from", "in", "is", "it", "of", "on", "or", "the", "to", "with"));
+  private static final Map<String, Character> ENTITIES = new HashMap<>();
+
+  static {
+    ENTITIES.put("amp", '&');
+    ENTITIES.put("lt", '<');
+    ENTITIES.put("gt", '>');
+    ENTITIES.put("quot", '"');
+    ENTITIES.put("apos", '\'');
+    ENTITIES.put("nbsp", ' ');
+    for (int frequency = 0; frequency <= MAX_FREQUENCY; frequency++) {
+      SATURATION[frequency] = frequency * (K1 + 1) / (frequency + K1);
+    }
+  }
+
+  private static final int CHUNK_BITS = 10;
+  private static final int CHUNK_SIZE = 1 << CHUNK_BITS;
+  private static final int CHUNK_MASK = CHUNK_SIZE - 1;
+
+  private String[] terms = new String[1024];
+  private int termCount;
+  private int[] termTable = new int[2048];
+  private TermChunk[] chunks = new TermChunk[0];
+  private int documents;
+
+  /**
+   * Term ids in term order. Ids are handed out in sequence, so the terms added since the last
+   * sort are the ids from sortedTerms.length up, scanned linearly until there are enough of
+   * them to merge. Searches sort them, and a publish carries their order over.
+   */
+  private int[] sortedTerms = new int[0];
+
+  /**
+   * Number of publishes so far. Chunks and postings created since the last one are changed in
+   * place, older ones are published and copied first.
+   */
+  private int edit;
+  private int chunksEdit;
+  private volatile Snapshot published = new Snapshot(new String[0], 0, new int[1], new TermChunk[0], 0, new int[0]);
+
+  /**
+   * Rows and scores of the best matches, best first
+   */
+  static final class Matches {
+    private final int total;
+    private final boolean totalExact;
+    private final int[] rows;
+    private final float[] scores;
+
+    private Matches(int total, boolean totalExact, int[] rows, float[] scores) {
+      this.total = total;
+      this.totalExact = totalExact;
+      this.rows = rows;
+      this.scores = scores;
+    }
+
+    /**
+     * Number of matching rows, or a lower bound of it when not exact
+     */
+    int total() {
+      return total;
+    }
+
+    boolean isTotalExact() {
+      return totalExact;
+    }
+
+    int size() {
+      return rows.length;
+    }
+
+    int row(int match) {
+      return rows[match];
+    }
+
+    float score(int match) {
+      return scores[match];
+    }
+  }
+
+  /**
+   * Index a product stored at a row, replacing what the row held before
+   * @param row
+   * @param previous product previously at the row, or null for a new row
+   * @param product
+   */
+  void index(int row, StoreProduct previous, StoreProduct product) {
+    Map<String, Integer> next = frequencies(product);
+    Map<String, Integer> before = previous != null ? frequencies(previous) : Collections.emptyMap();
+    if (previous == null) {
+      documents++;
+    }
+    for (Map.Entry<String, Integer> entry : before.entrySet()) {
+      if (!next.containsKey(entry.getKey())) {
+        remove(termId(entry.getKey()), row);
+      }
+    }
+    for (Map.Entry<String, Integer> entry : next.entrySet()) {
+      if (!entry.getValue().equals(before.get(entry.getKey()))) {
+        put(addTerm(entry.getKey()), row, entry.getValue().byteValue());
+      }
+    }
+  }
+
+  /**
+   * Method used to write the index, in the layout read by read:
+   * <pre>
+   * documents, terms, term heap, counts, single rows, single frequencies, max frequencies,
+   * bitmap of terms with posting arrays, their postings, term table, sorted term ids
+   * </pre>
+   * The term heap is terms + 1 offsets and the UTF-8 bytes, postings are count rows and count
+   * frequencies per term in id order.
+   * @param output
+   * @throws IOException
+   */
+  void write(DataOutputStream output) throws IOException {
+    output.writeInt(documents);
+    output.writeInt(termCount);
+    byte[][] termBytes = new byte[termCount][];
+    int offset = 0;
+    output.writeInt(offset);
+    for (int id = 0; id < termCount; id++) {
+      termBytes[id] = terms[id].getBytes(StandardCharsets.UTF_8);
+      offset += termBytes[id].length;
+      output.writeInt(offset);
+    }
+    for (byte[] bytes : termBytes) {
+      output.write(bytes);
+    }
+    for (int id = 0; id < termCount; id++) {
+      output.writeInt(chunks[id >>> CHUNK_BITS].count(id & CHUNK_MASK));
+    }
+    for (int id = 0; id < termCount; id++) {
+      output.writeInt(chunks[id >>> CHUNK_BITS].singleRows[id & CHUNK_MASK]);
+    }
+    for (int id = 0; id < termCount; id++) {
+      output.writeByte(chunks[id >>> CHUNK_BITS].singleFrequencies[id & CHUNK_MASK]);
+    }
+    byte[] arrays = new byte[(termCount + 7) / 8];
+    for (int id = 0; id < termCount; id++) {
+      TermChunk chunk = chunks[id >>> CHUNK_BITS];
+      Postings postings = chunk.postings[id & CHUNK_MASK];
+      output.writeByte(postings != null ? postings.maxFrequency : chunk.singleFrequencies[id & CHUNK_MASK]);
+      if (postings != null) {
+        arrays[id >>> 3] |= 1 << (id & 7);
+      }
+    }
+    output.write(arrays);
+    for (int id = 0; id < termCount; id++) {
+      Postings postings = chunks[id >>> CHUNK_BITS].postings[id & CHUNK_MASK];
+      if (postings != null) {
+        writeInts(output, postings.rows, postings.count);
+        output.write(postings.frequencies, 0, postings.count);
+      }
+    }
+    output.writeInt(termTable.length);
+    writeInts(output, termTable, termTable.length);
+    int[] sorted = sortedTerms();
+    output.writeInt(sorted.length);
+    writeInts(output, sorted, sorted.length);
+  }
+
+  /**
+   * Method used to read an index written by write
+   * @param buffer positioned at the index, left after it
+   * @return index
+   */
+  static ProductSearchIndex read(ByteBuffer buffer) {
+    ProductSearchIndex index = new ProductSearchIndex();
+    index.documents = buffer.getInt();
+    int termCount = buffer.getInt();
+    int capacity = Math.max(1024, termCount);
+    int[] offsets = readInts(buffer, termCount + 1);
+    byte[] bytes = new byte[offsets[termCount]];
+    buffer.get(bytes);
+    index.terms = new String[capacity];
+    for (int id = 0; id < termCount; id++) {
+      index.terms[id] = new String(bytes, offsets[id], offsets[id + 1] - offsets[id], StandardCharsets.UTF_8);
+    }
+    int[] counts = readInts(buffer, termCount);
+    int[] singleRows = readInts(buffer, termCount);
+    byte[] singleFrequencies = new byte[termCount];
+    buffer.get(singleFrequencies);
+    byte[] maxFrequencies = new byte[termCount];
+    buffer.get(maxFrequencies);
+    byte[] arrays = new byte[(termCount + 7) / 8];
+    buffer.get(arrays);
+    index.chunks = new TermChunk[(termCount + CHUNK_SIZE - 1) >>> CHUNK_BITS];
+    for (int chunk = 0; chunk < index.chunks.length; chunk++) {
+      index.chunks[chunk] = new TermChunk(0);
+    }
+    for (int id = 0; id < termCount; id++) {
+      TermChunk chunk = index.chunks[id >>> CHUNK_BITS];
+      int count = counts[id];
+      if ((arrays[id >>> 3] & (1 << (id & 7))) != 0) {
+        // room for the next row, puts grow the arrays by copying
+        int[] rows = Arrays.copyOf(readInts(buffer, count), Math.max(4, count + 1));
+        byte[] frequencies = new byte[rows.length];
+        buffer.get(frequencies, 0, count);
+        chunk.postings[id & CHUNK_MASK] = new Postings(0, rows, frequencies, count, maxFrequencies[id]);
+      } else if (count == 1) {
+        chunk.singleRows[id & CHUNK_MASK] = singleRows[id];
+        chunk.singleFrequencies[id & CHUNK_MASK] = singleFrequencies[id];
+      }
+    }
+    index.termCount = termCount;
+    index.termTable = readInts(buffer, buffer.getInt());
+    index.sortedTerms = readInts(buffer, buffer.getInt());
+    return index;
+  }
+
+  private static void writeInts(DataOutputStream output, int[] values, int count) throws IOException {
+    for (int i = 0; i < count; i++) {
+      output.writeInt(values[i]);
+    }
+  }
+
+  private static int[] readInts(ByteBuffer buffer, int count) {
+    int[] values = new int[count];
+    buffer.asIntBuffer().get(values);
+    buffer.position(buffer.position() + count * Integer.BYTES);
+    return values;
+  }
+
+  /**
+   * Find the best matching rows
+   * @param query free text
+   * @param limit maximum number of rows
+   * @return matches
+   */
+  Matches search(String query, int limit) {
+    Snapshot snapshot = published;
+    List<String> tokens = new ArrayList<>(new LinkedHashSet<>(tokenize(query)));
+    boolean typing = !query.isEmpty() && Character.isLetterOrDigit(query.charAt(query.length() - 1));
+    List<TermGroup> groups = new ArrayList<>(tokens.size());
+    for (int token = 0; token < tokens.size(); token++) {
+      TermGroup group = expand(snapshot, tokens.get(token), typing && token == tokens.size() - 1);
+      if (group.cursors.length == 0) {
+        return new Matches(0, true, new int[0], new float[0]);
+      }
+      groups.add(group);
+    }
+    if (groups.isEmpty()) {
+      return new Matches(0, true, new int[0], new float[0]);
+    }
+    // the rarest term drives, the others are probed by skipping ahead in their postings
+    groups.sort(Comparator.comparingLong(group -> group.postings));
+    TermGroup driver = groups.get(0);
+    float maxScore = 0;
+    for (TermGroup group : groups) {
+      maxScore += group.maxScore;
+    }
+    TopMatches topMatches = new TopMatches(limit);
+    int total = 0;
+    for (int row = driver.next(); row >= 0; row = driver.next()) {
+      // rows come in ascending order and ties go to the lower row, so a later row has to
+      // score strictly higher than the worst kept one
+      if (total >= EXACT_TOTAL_THRESHOLD && topMatches.isFull() && topMatches.worstScore() >= maxScore) {
+        return topMatches.matches(total, false);
+      }
+      float score = driver.score;
+      for (int group = 1; group < groups.size() && score >= 0; group++) {
+        float groupScore = groups.get(group).scoreAt(row);
+        score = groupScore < 0 ? -1 : score + groupScore;
+      }
+      if (score >= 0) {
+        total++;
+        topMatches.offer(row, score);
+      }
+    }
+    return topMatches.matches(total, true);
+  }
+
+  /**
+   * Split text into index terms
+   * @param text
+   * @return terms in text order
+   */
+  static List<String> tokenize(String text) {
+    List<String> tokens = new ArrayList<>();
+    if (text == null) {
+      return tokens;
+    }
+    StringBuilder token = new StringBuilder();
+    int length = text.length();
+    for (int i = 0; i < length; i++) {
+      char c = text.charAt(i);
+      if (c == '<') {
+        int end = text.indexOf('>', i);
+        if (end > 0) {
+          flush(token, tokens);
+          i = end;
+          continue;
+        }
+      } else if (c == '&') {
+        int end = text.indexOf(';', i);
+        if (end > i + 1 && end - i <= 10) {
+          Character decoded = entity(text.substring(i + 1, end));
+          if (decoded != null) {
+            c = decoded;
+            i = end;
+          }
+        }
+      }
+      if (Character.isLetterOrDigit(c)) {
+        token.append(Character.toLowerCase(c));
+      } else {
+        flush(token, tokens);
+      }
+    }
+    flush(token, tokens);
+    return tokens;
+  }
+
+  private static void flush(StringBuilder token, List<String> tokens) {
+    if (token.length() == 0) {
+      return;
+    }
+    String term = fold(token);
+    token.setLength(0);
+    if (term.length() <= MAX_TOKEN_LENGTH && !term.isEmpty() && !STOP_WORDS.contains(term)) {
+      tokens.add(term);
+    }
+  }
+
+  private static String fold(StringBuilder token) {
+    for (int i = 0; i < token.length(); i++) {
+      if (token.charAt(i) > 0x7f) {
+        return COMBINING_MARKS.matcher(Normalizer.normalize(token, Normalizer.Form.NFD)).replaceAll("");
+      }
+    }
+    return token.toString();
+  }
+
+  private static Character entity(String name) {
+    if (name.startsWith("#")) {
+      try {
+        int code = name.startsWith("#x") || name.startsWith("#X") ? Integer.parseInt(name.substring(2), 16) : Integer.parseInt(name.substring(1));
+        return code > 0 && code < Character.MIN_SUPPLEMENTARY_CODE_POINT ? (char) code : null;
+      } catch (NumberFormatException numberFormatException) {
+        return null;
+      }
+    }
+    return ENTITIES.get(name);
+  }
+
+  /**
+   * Term frequencies of a product, the name count in the high and the description count in
+   * the low four bits
+   */
+  private static Map<String, Integer> frequencies(StoreProduct product) {
+    Map<String, Integer> frequencies = new HashMap<>();
+    for (String term : tokenize(product.getProductName())) {
+      frequencies.merge(term, 1 << 4, (a, b) -> (a >>> 4) < MAX_FREQUENCY ? a + b : a);
+    }
+    for (String term : tokenize(product.getDescription())) {
+      frequencies.merge(term, 1, (a, b) -> (a & MAX_FREQUENCY) < MAX_FREQUENCY ? a + b : a);
+    }
+    return frequencies;
+  }
+
+  /**
+   * Method used to make everything indexed since the last publish searchable at once
+   */
+  void publish() {
+    sortedTerms = sortedTerms();
+    published = new Snapshot(terms, termCount, termTable, chunks, documents, sortedTerms);
+    edit++;
+  }
+
+  /**
+   * Sorted term ids, as read or as sorted by the searches of the last publish
+   */
+  private int[] sortedTerms() {
+    int[] searched = published.sortedTerms;
+    return searched.length > sortedTerms.length ? searched : sortedTerms;
+  }
+
+  private int termId(String term) {
+    return termId(terms, termCount, termTable, term);
+  }
+
+  /**
+   * Id of a term among the first termCount terms. Terms added later may already be in the
+   * table, they are skipped.
+   */
+  private static int termId(String[] terms, int termCount, int[] termTable, String term) {
+    int mask = termTable.length - 1;
+    for (int slot = hash(term) & mask; termTable[slot] != 0; slot = (slot + 1) & mask) {
+      int id = termTable[slot] - 1;
+      if (id < termCount && terms[id].equals(term)) {
+        return id;
+      }
+    }
+    return -1;
+  }
+
+  private int addTerm(String term) {
+    int id = termId(term);
+    if (id >= 0) {
+      return id;
+    }
+    if (termCount == terms.length) {
+      terms = Arrays.copyOf(terms, termCount * 2);
+    }
+    id = termCount++;
+    terms[id] = term;
+    if ((id & CHUNK_MASK) == 0) {
+      chunks = Arrays.copyOf(chunks, chunks.length + 1);
+      chunks[chunks.length - 1] = new TermChunk(edit);
+      chunksEdit = edit;
+    }
+    if (termCount * 2 > termTable.length) {
+      termTable = new int[termTable.length * 2];
+      for (int existing = 0; existing < termCount; existing++) {
+        slot(existing);
+      }
+    } else {
+      slot(id);
+    }
+    return id;
+  }
+
+  private void slot(int id) {
+    int mask = termTable.length - 1;
+    int slot = hash(terms[id]) & mask;
+    while (termTable[slot] != 0) {
+      slot = (slot + 1) & mask;
+    }
+    termTable[slot] = id + 1;
+  }
+
+  private static int hash(String term) {
+    int hash = term.hashCode();
+    return hash ^ (hash >>> 16);
+  }
+
+  /**
+   * Chunk of a term to change, copied first when it is published
+   */
+  private TermChunk editableChunk(int id) {
+    if (chunksEdit != edit) {
+      chunks = chunks.clone();
+      chunksEdit = edit;
+    }
+    TermChunk chunk = chunks[id >>> CHUNK_BITS];
+    if (chunk.edit != edit) {
+      chunk = chunks[id >>> CHUNK_BITS] = new TermChunk(edit, chunk);
+    }
+    return chunk;
+  }
+
+  /**
+   * Postings of a term to change, in a chunk to change
+   */
+  private Postings editablePostings(TermChunk chunk, int slot) {
+    Postings postings = chunk.postings[slot];
+    if (postings.edit != edit) {
+      postings = chunk.postings[slot] = new Postings(edit, postings);
+    }
+    return postings;
+  }
+
+  /**
+   * Add a row to the postings of a term, or change its frequencies
+   */
+  private void put(int id, int row, byte frequency) {
+    TermChunk chunk = editableChunk(id);
+    int slot = id & CHUNK_MASK;
+    if (chunk.postings[slot] == null) {
+      if (chunk.singleFrequencies[slot] == 0 || chunk.singleRows[slot] == row) {
+        chunk.singleRows[slot] = row;
+        chunk.singleFrequencies[slot] = frequency;
+        return;
+      }
+      chunk.postings[slot] = new Postings(edit, chunk.singleRows[slot], chunk.singleFrequencies[slot]);
+    }
+    editablePostings(chunk, slot).put(row, frequency);
+  }
+
+  private void remove(int id, int row) {
+    TermChunk chunk = chunks[id >>> CHUNK_BITS];
+    int slot = id & CHUNK_MASK;
+    Postings postings = chunk.postings[slot];
+    if (postings == null) {
+      if (chunk.singleFrequencies[slot] != 0 && chunk.singleRows[slot] == row) {
+        editableChunk(id).singleFrequencies[slot] = 0;
+      }
+      return;
+    }
+    int position = Arrays.binarySearch(postings.rows, 0, postings.count, row);
+    if (position >= 0) {
+      editablePostings(editableChunk(id), slot).remove(position);
+    }
+  }
+
+  /**
+   * Terms a query token matches: itself, terms it is a prefix of while typing, and terms
+   * within the allowed edits
+   */
+  private static TermGroup expand(Snapshot snapshot, String token, boolean typing) {
+    String[] terms = snapshot.terms;
+    int termCount = snapshot.termCount;
+    List<Cursor> cursors = new ArrayList<>();
+    int exact = snapshot.termId(token);
+    if (exact >= 0 && snapshot.count(exact) > 0) {
+      cursors.add(snapshot.cursor(exact, 1f));
+    }
+    int[] sorted = snapshot.sortedTerms();
+    if (typing && token.length() >= MIN_PREFIX_LENGTH) {
+      int expansions = 0;
+      for (int index = lowerBound(terms, sorted, token); index < sorted.length && expansions < MAX_EXPANSIONS; index++) {
+        int id = sorted[index];
+        if (!terms[id].startsWith(token)) {
+          break;
+        }
+        if (id != exact && snapshot.count(id) > 0) {
+          cursors.add(snapshot.cursor(id, PREFIX_FACTOR));
+          expansions++;
+        }
+      }
+      for (int id = sorted.length; id < termCount && expansions < MAX_EXPANSIONS; id++) {
+        if (id != exact && snapshot.count(id) > 0 && terms[id].startsWith(token)) {
+          cursors.add(snapshot.cursor(id, PREFIX_FACTOR));
+          expansions++;
+        }
+      }
+    }
+    if (token.length() >= MIN_TYPO_LENGTH && !hasDigit(token)) {
+      int maxEdits = token.length() >= 8 ? 2 : 1;
+      int expansions = 0;
+      String first = token.substring(0, 1);
+      for (int index = lowerBound(terms, sorted, first); index < sorted.length && expansions < MAX_EXPANSIONS; index++) {
+        int id = sorted[index];
+        if (!terms[id].startsWith(first)) {
+          break;
+        }
+        expansions += addTypo(snapshot, cursors, token, id, exact, maxEdits, typing);
+      }
+      for (int id = sorted.length; id < termCount && expansions < MAX_EXPANSIONS; id++) {
+        if (terms[id].startsWith(first)) {
+          expansions += addTypo(snapshot, cursors, token, id, exact, maxEdits, typing);
+        }
+      }
+    }
+    return new TermGroup(cursors.toArray(new Cursor[0]));
+  }
+
+  private static int addTypo(Snapshot snapshot, List<Cursor> cursors, String token, int id, int exact, int maxEdits, boolean typing) {
+    String term = snapshot.terms[id];
+    if (id == exact || snapshot.count(id) == 0 || (typing && term.startsWith(token))) {
+      return 0;
+    }
+    int edits = distance(token, term, maxEdits);
+    if (edits > maxEdits) {
+      return 0;
+    }
+    cursors.add(snapshot.cursor(id, TYPO_FACTORS[edits]));
+    return 1;
+  }
+
+  private static boolean hasDigit(String token) {
+    for (int i = 0; i < token.length(); i++) {
+      if (Character.isDigit(token.charAt(i))) {
+        return true;
+      }
+    }
+    return false;
+  }
+
+  /**
+   * Optimal string alignment distance, given up once it exceeds max
+   * @return distance, or max + 1 when it exceeds max
+   */
+  static int distance(String a, String b, int max) {
+    int n = a.length();
+    int m = b.length();
+    if (Math.abs(n - m) > max) {
+      return max + 1;
+    }
+    int[] beforePrevious = new int[m + 1];
+    int[] previous = new int[m + 1];
+    int[] current = new int[m + 1];
+    for (int j = 0; j <= m; j++) {
+      previous[j] = j;
+    }
+    for (int i = 1; i <= n; i++) {
+      current[0] = i;
+      int rowMinimum = i;
+      for (int j = 1; j <= m; j++) {
+        int cost = a.charAt(i - 1) == b.charAt(j - 1) ? 0 : 1;
+        int value = Math.min(Math.min(previous[j] + 1, current[j - 1] + 1), previous[j - 1] + cost);
+        if (i > 1 && j > 1 && a.charAt(i - 1) == b.charAt(j - 2) && a.charAt(i - 2) == b.charAt(j - 1)) {
+          value = Math.min(value, beforePrevious[j - 2] + 1);
+        }
+        current[j] = value;
+        rowMinimum = Math.min(rowMinimum, value);
+      }
+      if (rowMinimum > max) {
+        return max + 1;
+      }
+      int[] recycled = beforePrevious;
+      beforePrevious = previous;
+      previous = current;
+      current = recycled;
+    }
+    return Math.min(previous[m], max + 1);
+  }
+
+  private static int lowerBound(String[] terms, int[] sorted, String key) {
+    int low = 0;
+    int high = sorted.length;
+    while (low < high) {
+      int middle = (low + high) >>> 1;
+      if (terms[sorted[middle]].compareTo(key) < 0) {
+        low = middle + 1;
+      } else {
+        high = middle;
+      }
+    }
+    return low;
+  }
+
+  private static float weightedScore(float weight, int frequency) {
+    return weight * (NAME_WEIGHT * SATURATION[(frequency >>> 4) & MAX_FREQUENCY] + SATURATION[frequency & MAX_FREQUENCY]);
+  }
+
+  /**
+   * The index as of one publish, which is all a search reads. Chunks and postings it refers to
+   * are not changed any more, terms and table slots added later are ignored.
+   */
+  private static final class Snapshot {
+    private final String[] terms;
+    private final int termCount;
+    private final int[] termTable;
+    private final TermChunk[] chunks;
+    private final int documents;
+    private volatile int[] sortedTerms;
+
+    private Snapshot(String[] terms, int termCount, int[] termTable, TermChunk[] chunks, int documents, int[] sortedTerms) {
+      this.terms = terms;
+      this.termCount = termCount;
+      this.termTable = termTable;
+      this.chunks = chunks;
+      this.documents = documents;
+      this.sortedTerms = sortedTerms;
+    }
+
+    private int termId(String term) {
+      return ProductSearchIndex.termId(terms, termCount, termTable, term);
+    }
+
+    private int count(int id) {
+      return chunks[id >>> CHUNK_BITS].count(id & CHUNK_MASK);
+    }
+
+    /**
+     * Sorted term ids, merging the terms added since the last sort once they are too many to
+     * scan. Concurrent searches may both merge, either result is the same.
+     */
+    private int[] sortedTerms() {
+      int[] sorted = sortedTerms;
+      int unsorted = termCount - sorted.length;
+      if (unsorted <= MAX_UNSORTED_TERMS) {
+        return sorted;
+      }
+      Integer[] added = new Integer[unsorted];
+      for (int i = 0; i < unsorted; i++) {
+        added[i] = sorted.length + i;
+      }
+      Arrays.sort(added, Comparator.comparing(id -> terms[id]));
+      int[] merged = new int[termCount];
+      int left = 0;
+      int right = 0;
+      for (int i = 0; i < merged.length; i++) {
+        if (right == added.length || (left < sorted.length && terms[sorted[left]].compareTo(terms[added[right]]) < 0)) {
+          merged[i] = sorted[left++];
+        } else {
+          merged[i] = added[right++];
+        }
+      }
+      sortedTerms = merged;
+      return merged;
+    }
+
+    private Cursor cursor(int id, float factor) {
+      TermChunk chunk = chunks[id >>> CHUNK_BITS];
+      Postings postings = chunk.postings[id & CHUNK_MASK];
+      int count = chunk.count(id & CHUNK_MASK);
+      float idf = (float) Math.log(1 + (documents - count + 0.5) / (count + 0.5));
+      if (postings == null) {
+        byte frequency = chunk.singleFrequencies[id & CHUNK_MASK];
+        return new Cursor(new int[] {chunk.singleRows[id & CHUNK_MASK]}, new byte[] {frequency}, count, idf * factor, frequency);
+      }
+      return new Cursor(postings.rows, postings.frequencies, count, idf * factor, postings.maxFrequency);
+    }
+  }
+
+  /**
+   * Postings of CHUNK_SIZE consecutive term ids. A term with a single row keeps it inline, a
+   * frequency of 0 marks a term without rows; a term that had more rows keeps postings.
+   */
+  private static final class TermChunk {
+    private final int edit;
+    private final Postings[] postings;
+    private final int[] singleRows;
+    private final byte[] singleFrequencies;
+
+    private TermChunk(int edit) {
+      this(edit, new Postings[CHUNK_SIZE], new int[CHUNK_SIZE], new byte[CHUNK_SIZE]);
+    }
+
+    private TermChunk(int edit, TermChunk chunk) {
+      this(edit, chunk.postings.clone(), chunk.singleRows.clone(), chunk.singleFrequencies.clone());
+    }
+
+    private TermChunk(int edit, Postings[] postings, int[] singleRows, byte[] singleFrequencies) {
+      this.edit = edit;
+      this.postings = postings;
+      this.singleRows = singleRows;
+      this.singleFrequencies = singleFrequencies;
+    }
+
+    private int count(int slot) {
+      Postings termPostings = postings[slot];
+      return termPostings != null ? termPostings.count : singleFrequencies[slot] != 0 ? 1 : 0;
+    }
+  }
+
+  /**
+   * Rows of a term in ascending order with their frequencies, and the highest frequencies
+   * they were indexed with
+   */
+  private static final class Postings {
+    private final int edit;
+    private int[] rows;
+    private byte[] frequencies;
+    private int count;
+    private byte maxFrequency;
+    // arrays of published postings, which read up to their own count; only appends may write
+    private boolean shared;
+
+    private Postings(int edit, int row, byte frequency) {
+      this(edit, new int[4], new byte[4], 1, frequency);
+      rows[0] = row;
+      frequencies[0] = frequency;
+    }
+
+    private Postings(int edit, int[] rows, byte[] frequencies, int count, byte maxFrequency) {
+      this.edit = edit;
+      this.rows = rows;
+      this.frequencies = frequencies;
+      this.count = count;
+      this.maxFrequency = maxFrequency;
+    }
+
+    private Postings(int edit, Postings published) {
+      this(edit, published.rows, published.frequencies, published.count, published.maxFrequency);
+      shared = true;
+    }
+
+    private void put(int row, byte frequency) {
+      int max = maxFrequency & 0xff;
+      maxFrequency = (byte) (Math.max(max & 0xf0, frequency & 0xf0) | Math.max(max & MAX_FREQUENCY, frequency & MAX_FREQUENCY));
+      // new products get the highest row, so this is almost always an append
+      int position = count == 0 || rows[count - 1] < row ? -count - 1 : Arrays.binarySearch(rows, 0, count, row);
+      if (position >= 0) {
+        own(count);
+        frequencies[position] = frequency;
+        return;
+      }
+      position = -position - 1;
+      if (position < count || count == rows.length) {
+        own(count + 1);
+      }
+      System.arraycopy(rows, position, rows, position + 1, count - position);
+      System.arraycopy(frequencies, position, frequencies, position + 1, count - position);
+      rows[position] = row;
+      frequencies[position] = frequency;
+      count++;
+    }
+
+    private void remove(int position) {
+      own(count);
+      System.arraycopy(rows, position + 1, rows, position, count - position - 1);
+      System.arraycopy(frequencies, position + 1, frequencies, position, count - position - 1);
+      count--;
+    }
+
+    /**
+     * Copy the arrays when published postings read them too, growing them to hold capacity
+     * rows when they are too short
+     */
+    private void own(int capacity) {
+      if (!shared && capacity <= rows.length) {
+        return;
+      }
+      int length = capacity <= rows.length ? rows.length : Math.max(capacity, rows.length * 2);
+      rows = Arrays.copyOf(rows, length);
+      frequencies = Arrays.copyOf(frequencies, length);
+      shared = false;
+    }
+  }
+
+  /**
+   * Position in the postings of one term
+   */
+  private static final class Cursor {
+    private final int[] rows;
+    private final byte[] frequencies;
+    private final int count;
+    private final float weight;
+    private final float maxScore;
+    private int position;
+
+    private Cursor(int[] rows, byte[] frequencies, int count, float weight, byte maxFrequency) {
+      this.rows = rows;
+      this.frequencies = frequencies;
+      this.count = count;
+      this.weight = weight;
+      // the score grows with both frequencies
+      this.maxScore = weightedScore(weight, maxFrequency & 0xff);
+    }
+
+    private int row() {
+      return position < count ? rows[position] : Integer.MAX_VALUE;
+    }
+
+    private float score() {
+      return weightedScore(weight, frequencies[position] & 0xff);
+    }
+
+    /**
+     * Skip to the first row not below the target, galloping so that probing a long
+     * postings list for a few rows stays logarithmic
+     */
+    private void advance(int target) {
+      if (position >= count || rows[position] >= target) {
+        return;
+      }
+      int step = 1;
+      int low = position;
+      while (low + step < count && rows[low + step] < target) {
+        low += step;
+        step <<= 1;
+      }
+      int high = Math.min(low + step, count);
+      int found = Arrays.binarySearch(rows, low + 1, high, target);
+      position = found >= 0 ? found : -found - 1;
+    }
+  }
+
+  /**
+   * Terms one query token matches. A row matches the token when any of them contains it and
+   * scores the best of them.
+   */
+  private static final class TermGroup {
+    private final Cursor[] cursors;
+    private final long postings;
+    private final float maxScore;
+    private PriorityQueue<Cursor> queue;
+    private float score;
+
+    private TermGroup(Cursor[] cursors) {
+      this.cursors = cursors;
+      long postings = 0;
+      float maxScore = 0;
+      for (Cursor cursor : cursors) {
+        postings += cursor.count;
+        maxScore = Math.max(maxScore, cursor.maxScore);
+      }
+      this.postings = postings;
+      this.maxScore = maxScore;
+    }
+
+    /**
+     * Next row of the union of the postings, its score in score
+     * @return row, or -1 when exhausted
+     */
+    private int next() {
+      if (cursors.length == 1) {
+        Cursor cursor = cursors[0];
+        if (cursor.position >= cursor.count) {
+          return -1;
+        }
+        score = cursor.score();
+        return cursor.rows[cursor.position++];
+      }
+      if (queue == null) {
+        queue = new PriorityQueue<>(cursors.length, Comparator.comparingInt(Cursor::row));
+        Collections.addAll(queue, cursors);
+      }
+      Cursor cursor = queue.poll();
+      int row = cursor.row();
+      if (row == Integer.MAX_VALUE) {
+        return -1;
+      }
+      score = 0;
+      while (cursor != null && cursor.row() == row) {
+        score = Math.max(score, cursor.score());
+        cursor.position++;
+        queue.add(cursor);
+        cursor = queue.peek().row() == row ? queue.poll() : null;
+      }
+      return row;
+    }
+
+    /**
+     * Score of a row, rows are probed in ascending order
+     * @return score, or -1 when no term of the group contains the row
+     */
+    private float scoreAt(int row) {
+      float best = -1;
+      for (Cursor cursor : cursors) {
+        cursor.advance(row);
+        if (cursor.row() == row) {
+          best = Math.max(best, cursor.score());
+        }
+      }
+      return best;
+    }
+  }
+
+  /**
+   * Bounded min heap keeping the best rows, ties going to the lower row
+   */
+  private static final class TopMatches {
+    private final int[] rows;
+    private final float[] scores;
+    private int size;
+
+    private TopMatches(int limit) {
+      rows = new int[limit];
+      scores = new float[limit];
+    }
+
+    private void offer(int row, float score) {
+      if (size < rows.length) {
+        rows[size] = row;
+        scores[size] = score;
+        up(size++);
+      } else if (rows.length > 0 && worse(rows[0], scores[0], row, score)) {
+        rows[0] = row;
+        scores[0] = score;
+        down(0);
+      }
+    }
+
+    private boolean isFull() {
+      return size == rows.length;
+    }
+
+    private float worstScore() {
+      return scores[0];
+    }
+
+    private Matches matches(int total, boolean totalExact) {
+      int[] bestRows = new int[size];
+      float[] bestScores = new float[size];
+      for (int i = size - 1; i >= 0; i--) {
+        bestRows[i] = rows[0];
+        bestScores[i] = scores[0];
+        size--;
+        rows[0] = rows[size];
+        scores[0] = scores[size];
+        down(0);
+      }
+      return new Matches(total, totalExact, bestRows, bestScores);
+    }
+
+    /**
+     * Whether the first match ranks below the second
+     */
+    private static boolean worse(int row, float score, int otherRow, float otherScore) {
+      return score < otherScore || (score == otherScore && row > otherRow);
+    }
+
+    private void up(int index) {
+      while (index > 0) {
+        int parent = (index - 1) >>> 1;
+        if (!worse(rows[index], scores[index], rows[parent], scores[parent])) {
+          return;
+        }
+        swap(index, parent);
+        index = parent;
+      }
+    }
+
+    private void down(int index) {
+      while (true) {
+        int child = 2 * index + 1;
+        if (child >= size) {
+          return;
+        }
+        if (child + 1 < size && worse(rows[child + 1], scores[child + 1], rows[child], scores[child])) {
+          child++;
+        }
+        if (!worse(rows[child], scores[child], rows[index], scores[index])) {
+          return;
+        }
+        swap(index, child);
+        index = child;
+      }
+    }
+
+    private void swap(int a, int b) {
+      int row = rows[a];
+      rows[a] = rows[b];
+      rows[b] = row;
+      float score = scores[a];
+      scores[a] = scores[b];
+      scores[b] = score;
+    }
+  }
+}
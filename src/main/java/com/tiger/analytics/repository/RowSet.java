@@ -0,0 +1,100 @@
+package com.tiger.analytics.repository;
+
+import java.util.Arrays;
+import java.util.NoSuchElementException;
+import java.util.PrimitiveIterator;
+
+/**
+ * Sorted set of row numbers in a growable int array. New products get the highest row, so
+ * adds are almost always appends; iteration starts at a row found by binary search.
+ *
+ * One thread adds while others iterate without a lock. Rows are published as an immutable
+ * slice of the array: an append writes past the end of every published slice, any other add
+ * copies the array, so an iteration keeps seeing the rows of the slice it started from.
+ */
+final class RowSet {
+
+  private volatile Slice slice;
+
+  RowSet() {
+    slice = new Slice(new int[4], 0);
+  }
+
+  /**
+   * Set of rows that are already sorted and distinct
+   * @param rows
+   */
+  RowSet(int[] rows) {
+    slice = rows.length > 0 ? new Slice(rows, rows.length) : new Slice(new int[4], 0);
+  }
+
+  int size() {
+    return slice.size;
+  }
+
+  void add(int row) {
+    Slice current = slice;
+    int[] rows = current.rows;
+    int size = current.size;
+    int position = size == 0 || rows[size - 1] < row ? -size - 1 : Arrays.binarySearch(rows, 0, size, row);
+    if (position >= 0) {
+      return;
+    }
+    position = -position - 1;
+    if (position == size && size < rows.length) {
+      rows[size] = row;
+      slice = new Slice(rows, size + 1);
+      return;
+    }
+    int[] grown = new int[size == rows.length ? size * 2 : rows.length];
+    System.arraycopy(rows, 0, grown, 0, position);
+    grown[position] = row;
+    System.arraycopy(rows, position, grown, position + 1, size - position);
+    slice = new Slice(grown, size + 1);
+  }
+
+  /**
+   * Rows in ascending order
+   * @return copy of the rows
+   */
+  int[] toArray() {
+    Slice current = slice;
+    return Arrays.copyOf(current.rows, current.size);
+  }
+
+  /**
+   * Iterate rows in ascending order, starting at the first row not below the given one
+   * @param fromRow
+   * @return iterator
+   */
+  PrimitiveIterator.OfInt from(int fromRow) {
+    Slice current = slice;
+    int start = Arrays.binarySearch(current.rows, 0, current.size, fromRow);
+    return new PrimitiveIterator.OfInt() {
+      private int position = start >= 0 ? start : -start - 1;
+
+      @Override
+      public boolean hasNext() {
+        return position < current.size;
+      }
+
+      @Override
+      public int nextInt() {
+        if (position >= current.size) {
+          throw new NoSuchElementException();
+        }
+        return current.rows[position++];
+      }
+    };
+  }
+
+  private static final class Slice {
+    private final int[] rows;
+    private final int size;
+
+    private Slice(int[] rows, int size) {
+      this.rows = rows;
+      this.size = size;
+    }
+  }
+}
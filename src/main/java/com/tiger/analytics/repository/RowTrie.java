@@ -0,0 +1,191 @@
+package com.tiger.analytics.repository;
+
+import java.util.Objects;
+import java.util.function.BiPredicate;
+import java.util.function.ObjIntConsumer;
+
+/**
+ * Persistent trie from row numbers to values, the int keyed counterpart of {@link HashTrie}.
+ * Each level consumes the next five bits of the row, lowest first, and holds only the
+ * branches in use; an entry stays as high up as no other row shares its bits, so a lookup of
+ * a row that was not put usually ends after one or two levels. Rows are never boxed.
+ *
+ * Rows must not be negative, null values are not supported.
+ */
+final class RowTrie<V> {
+
+  private static final RowTrie<?> EMPTY = new RowTrie<>(new Node(0, new int[0], new Object[0]), 0);
+  private static final int BITS = 5;
+  private static final int MASK = (1 << BITS) - 1;
+  private static final int BRANCH = -1;
+
+  private final Node root;
+  private final int size;
+
+  private RowTrie(Node root, int size) {
+    this.root = root;
+    this.size = size;
+  }
+
+  @SuppressWarnings("unchecked")
+  static <V> RowTrie<V> empty() {
+    return (RowTrie<V>) EMPTY;
+  }
+
+  int size() {
+    return size;
+  }
+
+  /**
+   * Value of a row
+   * @param row
+   * @return value or null when the row is absent
+   */
+  @SuppressWarnings("unchecked")
+  V get(int row) {
+    Node node = root;
+    for (int shift = 0; ; shift += BITS) {
+      int bit = bit(row, shift);
+      if ((node.bitmap & bit) == 0) {
+        return null;
+      }
+      int index = node.index(bit);
+      int entryRow = node.rows[index];
+      if (entryRow != BRANCH) {
+        return entryRow == row ? (V) node.values[index] : null;
+      }
+      node = (Node) node.values[index];
+    }
+  }
+
+  /**
+   * Trie with a row set to a value
+   * @param row
+   * @param value
+   * @return new trie, or this one when the row already maps to the same instance
+   */
+  RowTrie<V> put(int row, V value) {
+    Objects.requireNonNull(value, "value");
+    if (row < 0) {
+      throw new IllegalArgumentException("Negative row " + row);
+    }
+    boolean[] added = new boolean[1];
+    Node newRoot = put(root, 0, row, value, added);
+    return newRoot == root ? this : new RowTrie<>(newRoot, added[0] ? size + 1 : size);
+  }
+
+  /**
+   * Visit every entry, in no particular order
+   * @param action
+   */
+  @SuppressWarnings("unchecked")
+  void forEach(ObjIntConsumer<? super V> action) {
+    forEach(root, (ObjIntConsumer<Object>) action);
+  }
+
+  /**
+   * Trie of the entries a predicate accepts
+   * @param predicate
+   * @return new trie
+   */
+  RowTrie<V> filter(BiPredicate<Integer, ? super V> predicate) {
+    return filter(root, predicate, empty());
+  }
+
+  @SuppressWarnings("unchecked")
+  private RowTrie<V> filter(Node node, BiPredicate<Integer, ? super V> predicate, RowTrie<V> into) {
+    for (int i = 0; i < node.rows.length; i++) {
+      if (node.rows[i] == BRANCH) {
+        into = filter((Node) node.values[i], predicate, into);
+      } else if (predicate.test(node.rows[i], (V) node.values[i])) {
+        into = into.put(node.rows[i], (V) node.values[i]);
+      }
+    }
+    return into;
+  }
+
+  private static void forEach(Node node, ObjIntConsumer<Object> action) {
+    for (int i = 0; i < node.rows.length; i++) {
+      if (node.rows[i] == BRANCH) {
+        forEach((Node) node.values[i], action);
+      } else {
+        action.accept(node.values[i], node.rows[i]);
+      }
+    }
+  }
+
+  private static Node put(Node node, int shift, int row, Object value, boolean[] added) {
+    int bit = bit(row, shift);
+    int index = node.index(bit);
+    if ((node.bitmap & bit) == 0) {
+      int length = node.rows.length;
+      int[] rows = new int[length + 1];
+      Object[] values = new Object[length + 1];
+      System.arraycopy(node.rows, 0, rows, 0, index);
+      System.arraycopy(node.values, 0, values, 0, index);
+      rows[index] = row;
+      values[index] = value;
+      System.arraycopy(node.rows, index, rows, index + 1, length - index);
+      System.arraycopy(node.values, index, values, index + 1, length - index);
+      added[0] = true;
+      return new Node(node.bitmap | bit, rows, values);
+    }
+    int entryRow = node.rows[index];
+    Object entryValue = node.values[index];
+    if (entryRow == BRANCH) {
+      Node child = put((Node) entryValue, shift + BITS, row, value, added);
+      return child == entryValue ? node : node.with(index, BRANCH, child);
+    }
+    if (entryRow == row) {
+      return entryValue == value ? node : node.with(index, row, value);
+    }
+    added[0] = true;
+    return node.with(index, BRANCH, branch(shift + BITS, entryRow, entryValue, row, value));
+  }
+
+  /**
+   * Node holding two rows whose bits agree up to the given shift
+   */
+  private static Node branch(int shift, int row1, Object value1, int row2, Object value2) {
+    int bit1 = bit(row1, shift);
+    int bit2 = bit(row2, shift);
+    if (bit1 == bit2) {
+      return new Node(bit1, new int[] {BRANCH}, new Object[] {branch(shift + BITS, row1, value1, row2, value2)});
+    }
+    return Integer.compareUnsigned(bit1, bit2) < 0
+        ? new Node(bit1 | bit2, new int[] {row1, row2}, new Object[] {value1, value2})
+        : new Node(bit1 | bit2, new int[] {row2, row1}, new Object[] {value2, value1});
+  }
+
+  private static int bit(int row, int shift) {
+    return 1 << ((row >>> shift) & MASK);
+  }
+
+  /**
+   * Branches in use at one level in bit order. A branch holds either one row and its value, or
+   * marks its row as BRANCH and holds the node of the next level.
+   */
+  private static final class Node {
+    private final int bitmap;
+    private final int[] rows;
+    private final Object[] values;
+
+    private Node(int bitmap, int[] rows, Object[] values) {
+      this.bitmap = bitmap;
+      this.rows = rows;
+      this.values = values;
+    }
+
+    private int index(int bit) {
+      return Integer.bitCount(bitmap & (bit - 1));
+    }
+
+    private Node with(int index, int row, Object value) {
+      int[] rows = this.rows.clone();
+      Object[] values = this.values.clone();
+      rows[index] = row;
+      values[index] = value;
+      return new Node(bitmap, rows, values);
+    }
+  }
+}
@@ -0,0 +1,248 @@
+package com.tiger.analytics.repository;
+
+import com.tiger.analytics.model.ProductQuery;
+import com.tiger.analytics.model.StoreProduct;
+import java.io.Closeable;
+import java.io.EOFException;
+import java.io.IOException;
+import java.io.Reader;
+import java.util.Arrays;
+
+/**
+ * Streaming csv reader for store products. Header columns are resolved to product fields
+ * once, and each record is parsed from a reusable char buffer straight into a StoreProduct
+ * without intermediate String[] rows or reflection.
+ *
+ * Fields follow RFC 4180: quoted fields may contain commas, doubled quotes and line breaks.
+ * An unquoted empty field reads as null and a quoted empty field as an empty string, which
+ * mirrors how {@link StoreProductCsvWriter} writes them.
+ */
+public class StoreProductCsvReader implements Closeable {
+
+  static final int UNMAPPED = -1;
+  static final int PRODUCT_INDEX = 0;
+  static final int STORE_ID = 1;
+  static final int SKU = 2;
+  static final int PRODUCT_NAME = 3;
+  static final int PRICE = 4;
+  static final int DATE = 5;
+  static final int DESCRIPTION = 6;
+  static final int IMAGE_URL = 7;
+
+  private final Reader reader;
+  private final char[] buffer = new char[64 * 1024];
+  private int position;
+  private int limit;
+  private char[] field = new char[256];
+  private int fieldLength;
+  private boolean fieldQuoted;
+  private final String[] header;
+  private final int[] fieldIds;
+  private long recordNumber;
+
+  /**
+   * Read the header row and resolve its columns
+   * @param reader
+   * @throws IOException
+   */
+  public StoreProductCsvReader(Reader reader) throws IOException {
+    this.reader = reader;
+    this.header = readHeader();
+    this.fieldIds = fieldIds(header);
+  }
+
+  /**
+   * Resolve header names to product field ids, ignoring case. Unknown columns are unmapped.
+   * @param header
+   * @return field id per column
+   */
+  static int[] fieldIds(String[] header) {
+    int[] fieldIds = new int[header.length];
+    Arrays.fill(fieldIds, UNMAPPED);
+    for (int column = 0; column < header.length; column++) {
+      for (int fieldId = 0; fieldId < ProductQuery.FIELDS.size(); fieldId++) {
+        if (ProductQuery.FIELDS.get(fieldId).equalsIgnoreCase(header[column].trim())) {
+          fieldIds[column] = fieldId;
+        }
+      }
+    }
+    return fieldIds;
+  }
+
+  public String[] getHeader() {
+    return header.clone();
+  }
+
+  /**
+   * Check whether the header maps a column to the given product field
+   * @param name
+   * @return boolean
+   */
+  public boolean hasColumn(String name) {
+    int fieldId = ProductQuery.FIELDS.indexOf(name);
+    return Arrays.stream(fieldIds).anyMatch(id -> id == fieldId);
+  }
+
+  /**
+   * Number of data records read so far, including the current one
+   * @return record number
+   */
+  public long getRecordNumber() {
+    return recordNumber;
+  }
+
+  /**
+   * Read the next record. Empty lines are skipped. A price that is not a number fails with
+   * NumberFormatException after the record has been consumed, so callers may skip it.
+   * @return StoreProduct or null at end of input
+   * @throws IOException
+   */
+  public StoreProduct read() throws IOException {
+    if (!skipEmptyLines()) {
+      return null;
+    }
+    recordNumber++;
+    StoreProduct storeProduct = new StoreProduct();
+    String price = null;
+    int column = 0;
+    boolean more;
+    do {
+      more = readField();
+      int fieldId = column < fieldIds.length ? fieldIds[column] : UNMAPPED;
+      column++;
+      if (fieldId == UNMAPPED) {
+        continue;
+      }
+      String value = fieldLength == 0 && !fieldQuoted ? null : new String(field, 0, fieldLength);
+      switch (fieldId) {
+        case PRODUCT_INDEX:
+          storeProduct.setProductIndex(value);
+          break;
+        case STORE_ID:
+          storeProduct.setStoreId(value);
+          break;
+        case SKU:
+          storeProduct.setSku(value);
+          break;
+        case PRODUCT_NAME:
+          storeProduct.setProductName(value);
+          break;
+        case PRICE:
+          price = value;
+          break;
+        case DATE:
+          storeProduct.setDate(value);
+          break;
+        case DESCRIPTION:
+          storeProduct.setDescription(value);
+          break;
+        case IMAGE_URL:
+          storeProduct.setImageUrl(value);
+          break;
+        default:
+          break;
+      }
+    } while (more);
+    if (price != null && !price.isEmpty() && !"null".equals(price)) {
+      storeProduct.setPrice(Double.valueOf(price));
+    }
+    return storeProduct;
+  }
+
+  @Override
+  public void close() throws IOException {
+    reader.close();
+  }
+
+  private String[] readHeader() throws IOException {
+    if (!skipEmptyLines()) {
+      return new String[0];
+    }
+    String[] columns = new String[8];
+    int count = 0;
+    boolean more;
+    do {
+      more = readField();
+      if (count == columns.length) {
+        columns = Arrays.copyOf(columns, count * 2);
+      }
+      columns[count++] = new String(field, 0, fieldLength);
+    } while (more);
+    return Arrays.copyOf(columns, count);
+  }
+
+  /**
+   * Skip blank lines before the next record
+   * @return false at end of input
+   * @throws IOException
+   */
+  private boolean skipEmptyLines() throws IOException {
+    while (true) {
+      int c = nextChar();
+      if (c == -1) {
+        return false;
+      }
+      if (c != '\n' && c != '\r') {
+        position--;
+        return true;
+      }
+    }
+  }
+
+  /**
+   * Read one field into the field buffer
+   * @return true when another field of the same record follows
+   * @throws IOException
+   */
+  private boolean readField() throws IOException {
+    fieldLength = 0;
+    fieldQuoted = false;
+    int c = nextChar();
+    if (c == '"') {
+      fieldQuoted = true;
+      while (true) {
+        c = nextChar();
+        if (c == -1) {
+          throw new EOFException("Unterminated quoted field in record " + (recordNumber + 1));
+        }
+        if (c == '"') {
+          c = nextChar();
+          if (c != '"') {
+            break;
+          }
+        }
+        append((char) c);
+      }
+    }
+    while (c != ',' && c != '\n' && c != '\r' && c != -1) {
+      append((char) c);
+      c = nextChar();
+    }
+    if (c == '\r') {
+      int next = nextChar();
+      if (next != '\n' && next != -1) {
+        position--;
+      }
+    }
+    return c == ',';
+  }
+
+  private void append(char c) {
+    if (fieldLength == field.length) {
+      field = Arrays.copyOf(field, field.length * 2);
+    }
+    field[fieldLength++] = c;
+  }
+
+  private int nextChar() throws IOException {
+    if (position == limit) {
+      limit = reader.read(buffer, 0, buffer.length);
+      position = 0;
+      if (limit <= 0) {
+        limit = 0;
+        return -1;
+      }
+    }
+    return buffer[position++];
+  }
+}
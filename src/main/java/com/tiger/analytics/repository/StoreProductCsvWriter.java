@@ -0,0 +1,104 @@
+package com.tiger.analytics.repository;
+
+import com.tiger.analytics.model.StoreProduct;
+import java.io.Closeable;
+import java.io.Flushable;
+import java.io.IOException;
+import java.io.Writer;
+
+/**
+ * Streaming csv writer for store products. Columns are written in the order of the given
+ * header, every value quoted and nulls left empty, field by field without building String[]
+ * rows.
+ */
+public class StoreProductCsvWriter implements Closeable, Flushable {
+
+  private final Writer writer;
+  private final String[] header;
+  private final int[] fieldIds;
+
+  public StoreProductCsvWriter(Writer writer, String[] header) {
+    this.writer = writer;
+    this.header = header.clone();
+    this.fieldIds = StoreProductCsvReader.fieldIds(header);
+  }
+
+  /**
+   * Write the header row
+   * @throws IOException
+   */
+  public void writeHeader() throws IOException {
+    for (int column = 0; column < header.length; column++) {
+      if (column > 0) {
+        writer.write(',');
+      }
+      writeValue(header[column]);
+    }
+    writer.write('\n');
+  }
+
+  /**
+   * Write one product as a record
+   * @param storeProduct
+   * @throws IOException
+   */
+  public void write(StoreProduct storeProduct) throws IOException {
+    for (int column = 0; column < fieldIds.length; column++) {
+      if (column > 0) {
+        writer.write(',');
+      }
+      switch (fieldIds[column]) {
+        case StoreProductCsvReader.PRODUCT_INDEX:
+          writeValue(storeProduct.getProductIndex());
+          break;
+        case StoreProductCsvReader.STORE_ID:
+          writeValue(storeProduct.getStoreId());
+          break;
+        case StoreProductCsvReader.SKU:
+          writeValue(storeProduct.getSku());
+          break;
+        case StoreProductCsvReader.PRODUCT_NAME:
+          writeValue(storeProduct.getProductName());
+          break;
+        case StoreProductCsvReader.PRICE:
+          writeValue(storeProduct.getPrice() != null ? storeProduct.getPrice().toString() : null);
+          break;
+        case StoreProductCsvReader.DATE:
+          writeValue(storeProduct.getDate());
+          break;
+        case StoreProductCsvReader.DESCRIPTION:
+          writeValue(storeProduct.getDescription());
+          break;
+        case StoreProductCsvReader.IMAGE_URL:
+          writeValue(storeProduct.getImageUrl());
+          break;
+        default:
+          break;
+      }
+    }
+    writer.write('\n');
+  }
+
+  @Override
+  public void flush() throws IOException {
+    writer.flush();
+  }
+
+  @Override
+  public void close() throws IOException {
+    writer.close();
+  }
+
+  private void writeValue(String value) throws IOException {
+    if (value == null) {
+      return;
+    }
+    writer.write('"');
+    if (value.indexOf('"') < 0) {
+      writer.write(value);
+    } else {
+      writer.write(value.replace("\"", "\"\""));
+    }
+    writer.write('"');
+  }
+}
@@ -0,0 +1,432 @@
+package com.tiger.analytics.repository;
+
+import com.tiger.analytics.model.ProductStats;
+import com.tiger.analytics.model.StoreProduct;
+import com.tiger.analytics.model.StoreStats;
+import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.Comparator;
+import java.util.HashMap;
+import java.util.HashSet;
+import java.util.List;
+import java.util.Map;
+import java.util.Set;
+import java.util.TreeMap;
+import java.util.concurrent.ForkJoinPool;
+import java.util.concurrent.RecursiveTask;
+
+/**
+ * Per store product counts, price statistics and counts per date, maintained with every
+ * change so that statistics are read without looking at any product. An update retracts the
+ * old product before adding the new one.
+ *
+ * Each store keeps its prices sorted in blocks of at most a thousand, about 11 bytes per priced
+ * product, so min, max and percentiles are exact and an update moves part of one block
+ * however large the store is. Rollups of disjoint rows merge by merging their prices, which
+ * lets a cold start build them over row ranges in parallel.
+ *
+ * The catalog mutates them under its commit lock and publishes the statistics of the stores a
+ * commit changed once it is applied. Readers take the published statistics without a lock,
+ * so a read never waits for a commit and sees every store as of one commit or another.
+ */
+final class StoreRollups {
+
+  private static final int ROWS_PER_TASK = 16 * 1024;
+
+  private final Map<String, StoreRollup> stores = new HashMap<>();
+  // stores changed since the last publish
+  private final Set<String> changed = new HashSet<>();
+  private volatile HashTrie<String, StoreStats> published = HashTrie.empty();
+
+  /**
+   * Build the rollups of all rows on a fork/join pool and publish their statistics
+   * @param rows
+   * @param pool
+   * @return rollups
+   */
+  static StoreRollups build(CatalogView rows, ForkJoinPool pool) {
+    StoreRollups storeRollups = pool.invoke(new BuildTask(rows, 0, rows.size()));
+    storeRollups.changed.addAll(storeRollups.stores.keySet());
+    storeRollups.publish();
+    return storeRollups;
+  }
+
+  void add(StoreProduct product) {
+    stores.computeIfAbsent(product.getStoreId(), key -> new StoreRollup()).add(product, true);
+    changed.add(product.getStoreId());
+  }
+
+  void remove(StoreProduct product) {
+    StoreRollup storeRollup = stores.get(product.getStoreId());
+    if (storeRollup != null && storeRollup.remove(product) && storeRollup.count == 0) {
+      stores.remove(product.getStoreId());
+    }
+    changed.add(product.getStoreId());
+  }
+
+  /**
+   * Publish the statistics of the stores changed since the last publish. Only those stores
+   * are summarized again, however many there are.
+   */
+  void publish() {
+    if (changed.isEmpty()) {
+      return;
+    }
+    HashTrie<String, StoreStats> storeStats = published;
+    Set<String> emptied = new HashSet<>();
+    for (String storeId : changed) {
+      StoreRollup storeRollup = stores.get(storeId);
+      if (storeRollup != null) {
+        storeStats = storeStats.put(storeId, storeRollup.stats(storeId));
+      } else if (storeStats.get(storeId) != null) {
+        emptied.add(storeId);
+      }
+    }
+    if (!emptied.isEmpty()) {
+      storeStats = storeStats.filter((storeId, stats) -> !emptied.contains(storeId));
+    }
+    changed.clear();
+    published = storeStats;
+  }
+
+  /**
+   * Published statistics of one store, or of all stores when storeId is null
+   * @param storeId
+   * @return ProductStats
+   */
+  ProductStats stats(String storeId) {
+    HashTrie<String, StoreStats> current = published;
+    List<StoreStats> storeStats = new ArrayList<>();
+    if (storeId == null) {
+      current.forEach((id, stats) -> storeStats.add(stats));
+    } else if (current.get(storeId) != null) {
+      storeStats.add(current.get(storeId));
+    }
+    Map<String, Integer> dateCounts = new TreeMap<>();
+    int products = 0;
+    for (StoreStats stats : storeStats) {
+      products += stats.getCount();
+      stats.getDateCounts().forEach((date, count) -> dateCounts.merge(date, count, Integer::sum));
+    }
+    storeStats.sort(Comparator.comparing(StoreStats::getStoreId, Comparator.nullsFirst(Comparator.naturalOrder())));
+    return new ProductStats(products, dateCounts, storeStats);
+  }
+
+  private void merge(StoreRollups other) {
+    other.stores.forEach((storeId, storeRollup) -> stores.merge(storeId, storeRollup, StoreRollup::merge));
+  }
+
+  /**
+   * Rollup of one store
+   */
+  private static final class StoreRollup {
+    private int count;
+    private Prices prices = new Prices();
+    // prices of a rollup being built, sorted into prices once its range is scanned
+    private double[] unsorted;
+    private int unsortedCount;
+    // Neumaier compensated sum, so that retracting prices does not drift the mean
+    private double sum;
+    private double compensation;
+    private final Map<String, Integer> dates = new HashMap<>();
+
+    private void add(StoreProduct product, boolean sorted) {
+      count++;
+      if (product.getDate() != null) {
+        dates.merge(product.getDate(), 1, Integer::sum);
+      }
+      Double price = product.getPrice();
+      if (price == null || price.isNaN()) {
+        return;
+      }
+      if (sorted) {
+        prices.add(price);
+      } else {
+        if (unsorted == null) {
+          unsorted = new double[64];
+        } else if (unsortedCount == unsorted.length) {
+          unsorted = Arrays.copyOf(unsorted, unsortedCount * 2);
+        }
+        unsorted[unsortedCount++] = price;
+      }
+      accumulate(price);
+    }
+
+    /**
+     * Sort the prices added unsorted into the rollup
+     */
+    private void sort() {
+      if (unsorted != null) {
+        Arrays.sort(unsorted, 0, unsortedCount);
+        prices = Prices.of(unsorted, unsortedCount);
+        unsorted = null;
+        unsortedCount = 0;
+      }
+    }
+
+    private boolean remove(StoreProduct product) {
+      if (count == 0) {
+        return false;
+      }
+      count--;
+      if (product.getDate() != null) {
+        dates.computeIfPresent(product.getDate(), (date, dateCount) -> dateCount > 1 ? dateCount - 1 : null);
+      }
+      Double price = product.getPrice();
+      if (price == null || price.isNaN()) {
+        return true;
+      }
+      if (prices.remove(price)) {
+        accumulate(-price);
+      }
+      return true;
+    }
+
+    private void accumulate(double value) {
+      double total = sum + value;
+      compensation += Math.abs(sum) >= Math.abs(value) ? (sum - total) + value : (value - total) + sum;
+      sum = total;
+    }
+
+    private StoreRollup merge(StoreRollup other) {
+      prices = prices.merge(other.prices);
+      count += other.count;
+      accumulate(other.sum);
+      compensation += other.compensation;
+      other.dates.forEach((date, dateCount) -> dates.merge(date, dateCount, Integer::sum));
+      return this;
+    }
+
+    private StoreStats stats(String storeId) {
+      int pricedCount = prices.size();
+      StoreStats storeStats = new StoreStats(storeId, count, pricedCount, new TreeMap<>(dates));
+      if (pricedCount > 0) {
+        storeStats.setMin(prices.get(0));
+        storeStats.setMax(prices.get(pricedCount - 1));
+        storeStats.setMean((sum + compensation) / pricedCount);
+        double[] percentiles = prices.percentiles(0.50, 0.90, 0.99);
+        storeStats.setP50(percentiles[0]);
+        storeStats.setP90(percentiles[1]);
+        storeStats.setP99(percentiles[2]);
+      }
+      return storeStats;
+    }
+  }
+
+  /**
+   * Sorted prices of one store, kept in sorted blocks of at most BLOCK_CAPACITY prices so
+   * they form an order statistic multiset. Adding or removing a price moves part of one
+   * block, and splitting or dropping a block moves only the block references, so an update
+   * costs the same whether the store has a thousand products or a million. The price of a
+   * rank is found by skipping whole blocks.
+   */
+  private static final class Prices {
+    private static final int BLOCK_CAPACITY = 1024;
+    // blocks built from sorted prices are left a quarter empty for later adds
+    private static final int BLOCK_FILL = BLOCK_CAPACITY * 3 / 4;
+
+    private double[][] blocks = new double[4][];
+    private int[] sizes = new int[4];
+    private int blockCount;
+    private int size;
+
+    /**
+     * Prices of a sorted array
+     */
+    private static Prices of(double[] sorted, int count) {
+      Prices prices = new Prices();
+      for (int from = 0; from < count; from += BLOCK_FILL) {
+        int length = Math.min(BLOCK_FILL, count - from);
+        double[] block = new double[BLOCK_CAPACITY];
+        System.arraycopy(sorted, from, block, 0, length);
+        prices.insertBlock(prices.blockCount, block, length);
+      }
+      prices.size = count;
+      return prices;
+    }
+
+    private int size() {
+      return size;
+    }
+
+    private void add(double price) {
+      if (blockCount == 0) {
+        insertBlock(0, new double[BLOCK_CAPACITY], 0);
+      }
+      int index = blockOf(price);
+      if (sizes[index] == BLOCK_CAPACITY) {
+        split(index);
+        if (Double.compare(price, last(index)) > 0) {
+          index++;
+        }
+      }
+      double[] block = blocks[index];
+      int blockSize = sizes[index];
+      int position;
+      // new prices tend to be appended or to repeat a price, both end the search early
+      if (blockSize == 0 || Double.compare(block[blockSize - 1], price) <= 0) {
+        position = blockSize;
+      } else {
+        position = Arrays.binarySearch(block, 0, blockSize, price);
+        position = position >= 0 ? position : -position - 1;
+      }
+      System.arraycopy(block, position, block, position + 1, blockSize - position);
+      block[position] = price;
+      sizes[index] = blockSize + 1;
+      size++;
+    }
+
+    private boolean remove(double price) {
+      if (size == 0) {
+        return false;
+      }
+      int index = blockOf(price);
+      double[] block = blocks[index];
+      int blockSize = sizes[index];
+      int position = Arrays.binarySearch(block, 0, blockSize, price);
+      if (position < 0) {
+        return false;
+      }
+      System.arraycopy(block, position + 1, block, position, blockSize - position - 1);
+      sizes[index] = blockSize - 1;
+      size--;
+      if (sizes[index] == 0) {
+        System.arraycopy(blocks, index + 1, blocks, index, blockCount - index - 1);
+        System.arraycopy(sizes, index + 1, sizes, index, blockCount - index - 1);
+        blocks[--blockCount] = null;
+      }
+      return true;
+    }
+
+    /**
+     * Price of a rank, 0 is the lowest
+     */
+    private double get(int rank) {
+      int index = 0;
+      while (rank >= sizes[index]) {
+        rank -= sizes[index++];
+      }
+      return blocks[index][rank];
+    }
+
+    /**
+     * Nearest rank percentiles, in one pass over the blocks
+     * @param fractions ascending
+     */
+    private double[] percentiles(double... fractions) {
+      double[] percentiles = new double[fractions.length];
+      int index = 0;
+      int skipped = 0;
+      for (int i = 0; i < fractions.length; i++) {
+        int rank = Math.max((int) Math.ceil(fractions[i] * size), 1) - 1;
+        while (rank - skipped >= sizes[index]) {
+          skipped += sizes[index++];
+        }
+        percentiles[i] = blocks[index][rank - skipped];
+      }
+      return percentiles;
+    }
+
+    /**
+     * Prices of both rollups, merged in one pass
+     */
+    private Prices merge(Prices other) {
+      double[] these = toArray();
+      double[] others = other.toArray();
+      double[] merged = new double[size + other.size];
+      int left = 0;
+      int right = 0;
+      for (int i = 0; i < merged.length; i++) {
+        merged[i] = right == others.length || (left < these.length && Double.compare(these[left], others[right]) <= 0) ? these[left++] : others[right++];
+      }
+      return of(merged, merged.length);
+    }
+
+    private double[] toArray() {
+      double[] prices = new double[size];
+      int offset = 0;
+      for (int index = 0; index < blockCount; index++) {
+        System.arraycopy(blocks[index], 0, prices, offset, sizes[index]);
+        offset += sizes[index];
+      }
+      return prices;
+    }
+
+    /**
+     * First block whose highest price is not below the price, or the last block
+     */
+    private int blockOf(double price) {
+      int low = 0;
+      int high = blockCount - 1;
+      while (low < high) {
+        int middle = (low + high) >>> 1;
+        if (Double.compare(last(middle), price) < 0) {
+          low = middle + 1;
+        } else {
+          high = middle;
+        }
+      }
+      return low;
+    }
+
+    private double last(int index) {
+      return blocks[index][sizes[index] - 1];
+    }
+
+    private void split(int index) {
+      double[] upper = new double[BLOCK_CAPACITY];
+      int half = sizes[index] / 2;
+      System.arraycopy(blocks[index], half, upper, 0, sizes[index] - half);
+      insertBlock(index + 1, upper, sizes[index] - half);
+      sizes[index] = half;
+    }
+
+    private void insertBlock(int index, double[] block, int blockSize) {
+      if (blockCount == blocks.length) {
+        blocks = Arrays.copyOf(blocks, blockCount * 2);
+        sizes = Arrays.copyOf(sizes, blockCount * 2);
+      }
+      System.arraycopy(blocks, index, blocks, index + 1, blockCount - index);
+      System.arraycopy(sizes, index, sizes, index + 1, blockCount - index);
+      blocks[index] = block;
+      sizes[index] = blockSize;
+      blockCount++;
+    }
+  }
+
+  /**
+   * Rolls up a range of rows, splitting it until a range is small enough to scan
+   */
+  private static final class BuildTask extends RecursiveTask<StoreRollups> {
+    private final CatalogView rows;
+    private final int from;
+    private final int to;
+
+    private BuildTask(CatalogView rows, int from, int to) {
+      this.rows = rows;
+      this.from = from;
+      this.to = to;
+    }
+
+    @Override
+    protected StoreRollups compute() {
+      if (to - from <= ROWS_PER_TASK) {
+        StoreRollups storeRollups = new StoreRollups();
+        for (int row = from; row < to; row++) {
+          StoreProduct product = rows.get(row);
+          storeRollups.stores.computeIfAbsent(product.getStoreId(), key -> new StoreRollup()).add(product, false);
+        }
+        for (StoreRollup storeRollup : storeRollups.stores.values()) {
+          storeRollup.sort();
+        }
+        return storeRollups;
+      }
+      int middle = (from + to) >>> 1;
+      BuildTask upper = new BuildTask(rows, middle, to);
+      upper.fork();
+      StoreRollups storeRollups = new BuildTask(rows, from, middle).compute();
+      storeRollups.merge(upper.join());
+      return storeRollups;
+    }
+  }
+}
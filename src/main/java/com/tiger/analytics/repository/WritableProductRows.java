@@ -0,0 +1,44 @@
+package com.tiger.analytics.repository;
+
+import com.tiger.analytics.model.StoreProduct;
+
+/**
+ * Rows that are built in memory, by the catalog load and by folding the changes of a view.
+ * Implementations are not thread safe: rows are only put before they become the base of a
+ * published {@link CatalogView}.
+ */
+interface WritableProductRows extends ProductRows {
+
+  /**
+   * Replace the row of the product's sku, or append a new row
+   * @param storeProduct
+   * @return row
+   */
+  int put(StoreProduct storeProduct);
+
+  /**
+   * Append every product of a snapshot whose skus are not in these rows. The rows may leave
+   * the new skus out of their sku index until indexSkus is called, appending snapshots has to
+   * end with that call before rows are looked up or put.
+   * @param snapshot
+   */
+  default void append(CatalogSnapshot snapshot) {
+    snapshot.getRows().forEach(this::put);
+  }
+
+  /**
+   * Complete the sku index after snapshots were appended
+   * @param persisted sku index of rows appended from the same snapshots as returned by
+   * skuIndex, or null to build it
+   */
+  default void indexSkus(int[] persisted) {
+  }
+
+  /**
+   * Sku index of these rows in a form that can be persisted and handed to indexSkus
+   * @return index, or null when the rows keep none that can be persisted
+   */
+  default int[] skuIndex() {
+    return null;
+  }
+}
@@ -0,0 +1,107 @@
+package com.tiger.analytics.security;
+
+import java.lang.reflect.InvocationTargetException;
+import java.util.concurrent.ExecutorService;
+import java.util.concurrent.Executors;
+import javax.annotation.PreDestroy;
+import org.slf4j.Logger;
+import org.slf4j.LoggerFactory;
+import org.springframework.beans.factory.annotation.Value;
+import org.springframework.boot.web.embedded.tomcat.TomcatProtocolHandlerCustomizer;
+import org.springframework.context.annotation.Bean;
+import org.springframework.context.annotation.Configuration;
+import org.springframework.core.task.support.TaskExecutorAdapter;
+import org.springframework.web.servlet.config.annotation.AsyncSupportConfigurer;
+import org.springframework.web.servlet.config.annotation.WebMvcConfigurer;
+
+/**
+ * Selects how requests are executed through execution.mode.
+ *
+ * platform (the default) keeps Tomcat's pool of server.tomcat.threads.max threads, so at most
+ * that many requests are in progress and a request waiting for a log sync holds one of them.
+ *
+ * virtual runs every request, and the streamed bodies of the products view, on its own virtual
+ * thread, so requests waiting for storage no longer hold a platform thread and concurrency is
+ * bounded by server.tomcat.max-connections instead. The catalog waits on java.util.concurrent
+ * locks and futures, which unmount a virtual thread rather than pin it. Virtual threads need
+ * JDK 21; the build targets Java 11, so they are looked up at runtime and an older JDK keeps
+ * the platform pool with a warning.
+ */
+@Configuration
+public class ExecutionConfiguration implements WebMvcConfigurer {
+
+    private final static Logger logger = LoggerFactory.getLogger(ExecutionConfiguration.class);
+
+    public static final String PLATFORM = "platform";
+    public static final String VIRTUAL = "virtual";
+
+    private final ExecutorService virtualThreadExecutor;
+
+    public ExecutionConfiguration(@Value("${execution.mode:platform}") String mode) {
+        if (VIRTUAL.equalsIgnoreCase(mode)) {
+            virtualThreadExecutor = newVirtualThreadPerTaskExecutor();
+            if (virtualThreadExecutor != null) {
+                logger.info("Executing requests on virtual threads");
+            }
+        } else if (PLATFORM.equalsIgnoreCase(mode)) {
+            virtualThreadExecutor = null;
+        } else {
+            throw new IllegalArgumentException("execution.mode must be " + PLATFORM + " or " + VIRTUAL + ", not " + mode);
+        }
+    }
+
+    /**
+     * Bean to run Tomcat request processing on virtual threads
+     * @return TomcatProtocolHandlerCustomizer
+     */
+    @Bean
+    public TomcatProtocolHandlerCustomizer<?> virtualThreadProtocolHandlerCustomizer() {
+        return protocolHandler -> {
+            if (virtualThreadExecutor != null) {
+                protocolHandler.setExecutor(virtualThreadExecutor);
+            }
+        };
+    }
+
+    /**
+     * Run asynchronous request processing, such as streamed response bodies, on virtual threads
+     * @param configurer
+     */
+    @Override
+    public void configureAsyncSupport(AsyncSupportConfigurer configurer) {
+        if (virtualThreadExecutor != null) {
+            configurer.setTaskExecutor(new TaskExecutorAdapter(virtualThreadExecutor));
+        }
+    }
+
+    @PreDestroy
+    public void shutdown() {
+        if (virtualThreadExecutor != null) {
+            virtualThreadExecutor.shutdown();
+        }
+    }
+
+    /**
+     * Method used to check whether requests run on virtual threads
+     * @return boolean
+     */
+    public boolean isVirtual() {
+        return virtualThreadExecutor != null;
+    }
+
+    /**
+     * Executors.newVirtualThreadPerTaskExecutor() of JDK 21
+     * @return executor, or null when the running JDK has no virtual threads
+     */
+    private static ExecutorService newVirtualThreadPerTaskExecutor() {
+        try {
+            return (ExecutorService) Executors.class.getMethod("newVirtualThreadPerTaskExecutor").invoke(null);
+        } catch (NoSuchMethodException | IllegalAccessException exception) {
+            logger.warn("execution.mode=virtual needs JDK 21 or later, running on Java " + System.getProperty("java.version") + " with platform threads");
+        } catch (InvocationTargetException invocationTargetException) {
+            // JDK 19 and 20 only have them as a preview feature
+            logger.warn("Virtual threads are not available, running with platform threads: " + invocationTargetException.getCause());
+        }
+        return null;
+    }
+}
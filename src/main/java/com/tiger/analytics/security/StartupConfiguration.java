@@ -0,0 +1,27 @@
+package com.tiger.analytics.security;
+
+import com.tiger.analytics.repository.ProductCatalog;
+import org.springframework.boot.LazyInitializationExcludeFilter;
+import org.springframework.context.annotation.Bean;
+import org.springframework.context.annotation.Configuration;
+
+/**
+ * Startup of the fast-start profile, which sets spring.main.lazy-initialization so Tomcat
+ * listens once the catalog is loaded, and controllers, Swagger and the rest of the beans are
+ * only created by the first request that needs them.
+ *
+ * The catalog itself stays eager: loaded lazily the first request would wait for the whole
+ * catalog, and a catalog file that cannot be read would only show up then.
+ */
+@Configuration
+public class StartupConfiguration {
+
+    /**
+     * Bean to create the catalog at startup even when beans are initialized lazily
+     * @return LazyInitializationExcludeFilter
+     */
+    @Bean
+    public static LazyInitializationExcludeFilter eagerProductCatalog() {
+        return LazyInitializationExcludeFilter.forBeanTypes(ProductCatalog.class);
+    }
+}
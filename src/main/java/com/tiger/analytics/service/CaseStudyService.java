@@ -1,27 +1,34 @@
 package com.tiger.analytics.service;
 
-import com.opencsv.CSVReader;
-import com.opencsv.CSVWriter;
-import com.opencsv.bean.CsvToBean;
-import com.opencsv.bean.HeaderColumnNameTranslateMappingStrategy;
-import com.opencsv.exceptions.CsvException;
+import com.fasterxml.jackson.core.JsonProcessingException;
+import com.fasterxml.jackson.databind.ObjectMapper;
+import com.fasterxml.jackson.databind.ObjectReader;
 import com.tiger.analytics.exception.CaseStudyExceptionHandler;
+import com.tiger.analytics.model.BulkImportResult;
+import com.tiger.analytics.model.CatalogVersion;
+import com.tiger.analytics.model.ProductBatch;
+import com.tiger.analytics.model.ProductChanges;
+import com.tiger.analytics.model.ProductQuery;
+import com.tiger.analytics.model.ProductSearchResult;
+import com.tiger.analytics.model.ProductStats;
 import com.tiger.analytics.model.StoreProduct;
-import java.io.FileNotFoundException;
-import java.io.FileReader;
-import java.io.FileWriter;
+import com.tiger.analytics.repository.CatalogView;
+import com.tiger.analytics.repository.ProductCatalog;
+import com.tiger.analytics.repository.ProductCatalog.SaveOutcome;
+import com.tiger.analytics.repository.StoreProductCsvReader;
+import java.io.BufferedReader;
+import java.io.EOFException;
+import java.io.IOException;
+import java.io.InputStream;
+import java.io.InputStreamReader;
+import java.nio.charset.StandardCharsets;
 import java.util.ArrayList;
-import java.util.Arrays;
-import java.util.Collections;
-import java.util.HashMap;
-import java.util.Iterator;
 import java.util.List;
-import java.util.Map;
 import org.slf4j.Logger;
 import org.slf4j.LoggerFactory;
+import org.springframework.beans.factory.annotation.Autowired;
 import org.springframework.http.HttpStatus;
 import org.springframework.stereotype.Service;
-import org.springframework.util.CollectionUtils;
 import org.springframework.util.StringUtils;
 
 @Service
@@ -29,24 +36,69 @@ public class CaseStudyService {
 
   private final static Logger logger = LoggerFactory.getLogger(CaseStudyService.class);
 
+  public static final int MAX_PAGE_SIZE = 10000;
+  public static final int MAX_SEARCH_RESULTS = 100;
+  public static final int MAX_BATCH_SIZE = 1000;
+  private static final int MAX_QUERY_LENGTH = 256;
+  private static final int BULK_CHUNK_SIZE = 10000;
+
+  @Autowired
+  ProductCatalog productCatalog;
+
+  @Autowired
+  ObjectMapper objectMapper;
+
   /**
-   * Method used to fetch data from CSV
+   * Method used to fetch data from the resident catalog
    * @return List<StoreProduct>
    * @throws CaseStudyExceptionHandler
    */
   public List<StoreProduct> getProductDetails() throws CaseStudyExceptionHandler {
-    try (CSVReader csvReader = new CSVReader(new FileReader("ProductList.csv"))) {
-      CsvToBean product = new CsvToBean();
-      product.setMappingStrategy(setColumnMapping());
-      product.setCsvReader(csvReader);
-      product.setIgnoreEmptyLines(true);
-      product.setOrderedResults(true);
-
-      List<StoreProduct> storeProducts = product.parse();
-      return (!CollectionUtils.isEmpty(storeProducts) ? storeProducts : new ArrayList<>());
-    } catch (FileNotFoundException fileNotFoundException) {
-      logger.error("Unable to find source file." + fileNotFoundException);
-      throw new CaseStudyExceptionHandler(HttpStatus.NOT_FOUND, "Source not found", "Failed to fetch source file from given path.");
+    try {
+      return productCatalog.findAll();
+    } catch (CaseStudyExceptionHandler caseStudyExceptionHandler) {
+      logger.error("Unable to retrieve data from csv." + caseStudyExceptionHandler);
+      throw new CaseStudyExceptionHandler(caseStudyExceptionHandler.getExceptionCode(), caseStudyExceptionHandler.getExceptionError(), caseStudyExceptionHandler.getExceptionReason());
+    } catch (Exception exception) {
+      logger.error("Unable to retrieve data from csv." + exception);
+      throw new CaseStudyExceptionHandler(HttpStatus.INTERNAL_SERVER_ERROR, "Failed to get data", "Unable to retrieve data from csv.");
+    }
+  }
+
+  /**
+   * Method used to validate view filters, page size and projected fields
+   * @param query
+   * @throws CaseStudyExceptionHandler
+   */
+  public void validateQuery(ProductQuery query) throws CaseStudyExceptionHandler {
+    if (query.getCursor() != null && query.getCursor() < 0) {
+      throw new CaseStudyExceptionHandler(HttpStatus.BAD_REQUEST, "Invalid Request", "cursor must not be negative");
+    }
+    if (query.getSize() != null && (query.getSize() < 1 || query.getSize() > MAX_PAGE_SIZE)) {
+      throw new CaseStudyExceptionHandler(HttpStatus.BAD_REQUEST, "Invalid Request", "size must be between 1 and " + MAX_PAGE_SIZE);
+    }
+    if (query.getMinPrice() != null && query.getMaxPrice() != null && query.getMinPrice() > query.getMaxPrice()) {
+      throw new CaseStudyExceptionHandler(HttpStatus.BAD_REQUEST, "Invalid Request", "minPrice must not be greater than maxPrice");
+    }
+    for (String field : query.getFields()) {
+      if (!ProductQuery.FIELDS.contains(field)) {
+        throw new CaseStudyExceptionHandler(HttpStatus.BAD_REQUEST, "Invalid Request", "Unknown field: " + field + ". Supported fields are " + ProductQuery.FIELDS);
+      }
+    }
+  }
+
+  /**
+   * Method used to fetch one chunk of products matching the query
+   * @param query
+   * @param fromRow cursor to continue from
+   * @param limit maximum number of products
+   * @param storeProducts receives matching products
+   * @return cursor of the next chunk, or -1 when there are no more products
+   * @throws CaseStudyExceptionHandler
+   */
+  public int getProductDetails(ProductQuery query, int fromRow, int limit, List<StoreProduct> storeProducts) throws CaseStudyExceptionHandler {
+    try {
+      return productCatalog.scan(query, fromRow, limit, storeProducts);
     } catch (CaseStudyExceptionHandler caseStudyExceptionHandler) {
       logger.error("Unable to retrieve data from csv." + caseStudyExceptionHandler);
       throw new CaseStudyExceptionHandler(caseStudyExceptionHandler.getExceptionCode(), caseStudyExceptionHandler.getExceptionError(), caseStudyExceptionHandler.getExceptionReason());
@@ -57,26 +109,186 @@ public class CaseStudyService {
   }
 
   /**
-   * Method used to map header value to store product
-   * @return HeaderStrategy
+   * Method used to fetch one chunk of products matching the query from a view of the catalog,
+   * so that all chunks of a response come from the same version
+   * @param catalogView view taken by getCatalogView()
+   * @param query
+   * @param fromRow cursor to continue from
+   * @param limit maximum number of products
+   * @param storeProducts receives matching products
+   * @return cursor of the next chunk, or -1 when there are no more products
+   * @throws CaseStudyExceptionHandler
+   */
+  public int getProductDetails(CatalogView catalogView, ProductQuery query, int fromRow, int limit, List<StoreProduct> storeProducts) throws CaseStudyExceptionHandler {
+    try {
+      return productCatalog.scan(catalogView, query, fromRow, limit, storeProducts);
+    } catch (CaseStudyExceptionHandler caseStudyExceptionHandler) {
+      logger.error("Unable to retrieve data from csv." + caseStudyExceptionHandler);
+      throw new CaseStudyExceptionHandler(caseStudyExceptionHandler.getExceptionCode(), caseStudyExceptionHandler.getExceptionError(), caseStudyExceptionHandler.getExceptionReason());
+    } catch (Exception exception) {
+      logger.error("Unable to retrieve data from csv." + exception);
+      throw new CaseStudyExceptionHandler(HttpStatus.INTERNAL_SERVER_ERROR, "Failed to get data", "Unable to retrieve data from csv.");
+    }
+  }
+
+  /**
+   * Method used to take the current view of the catalog, which keeps its products and version
+   * for as long as it is held
+   * @return CatalogView
+   * @throws CaseStudyExceptionHandler
+   */
+  public CatalogView getCatalogView() throws CaseStudyExceptionHandler {
+    try {
+      return productCatalog.view();
+    } catch (CaseStudyExceptionHandler caseStudyExceptionHandler) {
+      logger.error("Unable to retrieve catalog view." + caseStudyExceptionHandler);
+      throw new CaseStudyExceptionHandler(caseStudyExceptionHandler.getExceptionCode(), caseStudyExceptionHandler.getExceptionError(), caseStudyExceptionHandler.getExceptionReason());
+    } catch (Exception exception) {
+      logger.error("Unable to retrieve catalog view." + exception);
+      throw new CaseStudyExceptionHandler(HttpStatus.INTERNAL_SERVER_ERROR, "Failed to get data", "Unable to retrieve data from csv.");
+    }
+  }
+
+  /**
+   * Method used to get the current catalog version, which changes with every create or update
+   * @return CatalogVersion
+   * @throws CaseStudyExceptionHandler
+   */
+  public CatalogVersion getCatalogVersion() throws CaseStudyExceptionHandler {
+    try {
+      return productCatalog.getVersion();
+    } catch (CaseStudyExceptionHandler caseStudyExceptionHandler) {
+      logger.error("Unable to retrieve catalog version." + caseStudyExceptionHandler);
+      throw new CaseStudyExceptionHandler(caseStudyExceptionHandler.getExceptionCode(), caseStudyExceptionHandler.getExceptionError(), caseStudyExceptionHandler.getExceptionReason());
+    } catch (Exception exception) {
+      logger.error("Unable to retrieve catalog version." + exception);
+      throw new CaseStudyExceptionHandler(HttpStatus.INTERNAL_SERVER_ERROR, "Failed to get data", "Unable to retrieve data from csv.");
+    }
+  }
+
+  /**
+   * Method used to fetch the changes made after a change feed cursor
+   * @param cursor catalog version returned by the view or by the previous call
+   * @param limit maximum number of changes
+   * @return ProductChanges
+   * @throws CaseStudyExceptionHandler
+   */
+  public ProductChanges getProductChanges(String cursor, int limit) throws CaseStudyExceptionHandler {
+    if (limit < 1 || limit > MAX_PAGE_SIZE) {
+      throw new CaseStudyExceptionHandler(HttpStatus.BAD_REQUEST, "Invalid Request", "limit must be between 1 and " + MAX_PAGE_SIZE);
+    }
+    CatalogVersion since;
+    try {
+      since = CatalogVersion.fromTag(cursor);
+    } catch (IllegalArgumentException illegalArgumentException) {
+      throw new CaseStudyExceptionHandler(HttpStatus.BAD_REQUEST, "Invalid Request", "since must be a cursor returned by /products/changes or the X-Catalog-Version header of /products/view");
+    }
+    try {
+      return productCatalog.changesSince(since, limit);
+    } catch (CaseStudyExceptionHandler caseStudyExceptionHandler) {
+      logger.error("Unable to retrieve product changes." + caseStudyExceptionHandler);
+      throw new CaseStudyExceptionHandler(caseStudyExceptionHandler.getExceptionCode(), caseStudyExceptionHandler.getExceptionError(), caseStudyExceptionHandler.getExceptionReason());
+    } catch (Exception exception) {
+      logger.error("Unable to retrieve product changes." + exception);
+      throw new CaseStudyExceptionHandler(HttpStatus.INTERNAL_SERVER_ERROR, "Failed to get data", "Unable to retrieve product changes.");
+    }
+  }
+
+  /**
+   * Method used to fetch one product by sku
+   * @param sku
+   * @return StoreProduct
+   * @throws CaseStudyExceptionHandler when the sku is unknown
+   */
+  public StoreProduct getProduct(String sku) throws CaseStudyExceptionHandler {
+    try {
+      StoreProduct storeProduct = productCatalog.findBySku(sku);
+      if (storeProduct == null) {
+        throw new CaseStudyExceptionHandler(HttpStatus.NOT_FOUND, "Product not found", "Product with sku id: " + sku + " does not exist.");
+      }
+      return storeProduct;
+    } catch (CaseStudyExceptionHandler caseStudyExceptionHandler) {
+      logger.error("Unable to retrieve product." + caseStudyExceptionHandler);
+      throw new CaseStudyExceptionHandler(caseStudyExceptionHandler.getExceptionCode(), caseStudyExceptionHandler.getExceptionError(), caseStudyExceptionHandler.getExceptionReason());
+    } catch (Exception exception) {
+      logger.error("Unable to retrieve product." + exception);
+      throw new CaseStudyExceptionHandler(HttpStatus.INTERNAL_SERVER_ERROR, "Failed to get data", "Unable to retrieve product.");
+    }
+  }
+
+  /**
+   * Method used to fetch a batch of products by sku. Unknown skus are reported as missing
+   * instead of failing the batch.
+   * @param skus
+   * @return ProductBatch
+   * @throws CaseStudyExceptionHandler
+   */
+  public ProductBatch getProducts(List<String> skus) throws CaseStudyExceptionHandler {
+    if (skus == null || skus.isEmpty() || skus.size() > MAX_BATCH_SIZE) {
+      throw new CaseStudyExceptionHandler(HttpStatus.BAD_REQUEST, "Invalid Request", "Between 1 and " + MAX_BATCH_SIZE + " skus must be requested");
+    }
+    try {
+      return productCatalog.findBySkus(skus);
+    } catch (CaseStudyExceptionHandler caseStudyExceptionHandler) {
+      logger.error("Unable to retrieve products." + caseStudyExceptionHandler);
+      throw new CaseStudyExceptionHandler(caseStudyExceptionHandler.getExceptionCode(), caseStudyExceptionHandler.getExceptionError(), caseStudyExceptionHandler.getExceptionReason());
+    } catch (Exception exception) {
+      logger.error("Unable to retrieve products." + exception);
+      throw new CaseStudyExceptionHandler(HttpStatus.INTERNAL_SERVER_ERROR, "Failed to get data", "Unable to retrieve products.");
+    }
+  }
+
+  /**
+   * Method used to search products by name and description
+   * @param text search text
+   * @param limit maximum number of products
+   * @return ProductSearchResult
    * @throws CaseStudyExceptionHandler
    */
-  private static HeaderColumnNameTranslateMappingStrategy setColumnMapping() throws CaseStudyExceptionHandler {
+  public ProductSearchResult searchProducts(String text, int limit) throws CaseStudyExceptionHandler {
+    if (!StringUtils.hasText(text) || text.length() > MAX_QUERY_LENGTH) {
+      throw new CaseStudyExceptionHandler(HttpStatus.BAD_REQUEST, "Invalid Request", "q must contain between 1 and " + MAX_QUERY_LENGTH + " characters");
+    }
+    if (limit < 1 || limit > MAX_SEARCH_RESULTS) {
+      throw new CaseStudyExceptionHandler(HttpStatus.BAD_REQUEST, "Invalid Request", "limit must be between 1 and " + MAX_SEARCH_RESULTS);
+    }
     try {
-      HeaderColumnNameTranslateMappingStrategy<StoreProduct> strategy = new HeaderColumnNameTranslateMappingStrategy<>();
-      strategy.setType(StoreProduct.class);
-      Map<String, String> mapRows = new HashMap<>();
-      Arrays.stream(StoreProduct.class.getDeclaredFields()).forEach(field -> {
-        mapRows.put(field.getName(), field.getName());
-      });
-      strategy.setColumnMapping(mapRows);
-      return strategy;
+      return productCatalog.search(text, limit);
+    } catch (CaseStudyExceptionHandler caseStudyExceptionHandler) {
+      logger.error("Unable to search products." + caseStudyExceptionHandler);
+      throw new CaseStudyExceptionHandler(caseStudyExceptionHandler.getExceptionCode(), caseStudyExceptionHandler.getExceptionError(), caseStudyExceptionHandler.getExceptionReason());
     } catch (Exception exception) {
-      logger.error("Fail to map header value." + exception);
-      throw new CaseStudyExceptionHandler(HttpStatus.INTERNAL_SERVER_ERROR, "Failed to map header", "Unable to map header to store product");
+      logger.error("Unable to search products." + exception);
+      throw new CaseStudyExceptionHandler(HttpStatus.INTERNAL_SERVER_ERROR, "Failed to get data", "Unable to search products.");
     }
   }
 
+  /**
+   * Method used to get price and date statistics per store
+   * @param storeId only this store, or null for every store
+   * @return ProductStats
+   * @throws CaseStudyExceptionHandler
+   */
+  public ProductStats getProductStats(String storeId) throws CaseStudyExceptionHandler {
+    try {
+      return productCatalog.stats(storeId);
+    } catch (CaseStudyExceptionHandler caseStudyExceptionHandler) {
+      logger.error("Unable to retrieve product statistics." + caseStudyExceptionHandler);
+      throw new CaseStudyExceptionHandler(caseStudyExceptionHandler.getExceptionCode(), caseStudyExceptionHandler.getExceptionError(), caseStudyExceptionHandler.getExceptionReason());
+    } catch (Exception exception) {
+      logger.error("Unable to retrieve product statistics." + exception);
+      throw new CaseStudyExceptionHandler(HttpStatus.INTERNAL_SERVER_ERROR, "Failed to get data", "Unable to retrieve product statistics.");
+    }
+  }
+
+  /**
+   * Method used to get notified of every committed create and update
+   * @param changeListener
+   */
+  public void addChangeListener(ProductCatalog.ChangeListener changeListener) {
+    productCatalog.addChangeListener(changeListener);
+  }
+
   /**
    * Method used to update records in csv
    * @param storeProduct
@@ -85,34 +297,7 @@ public class CaseStudyService {
   public void updateProduct(StoreProduct storeProduct) throws CaseStudyExceptionHandler {
 
     try {
-      boolean isUpdated = false;
-      CSVReader csvReader = new CSVReader(new FileReader("ProductList.csv"));
-      String[] header = csvReader.readNext();
-      int skuIndex = Arrays.asList(header).indexOf("sku");
-      List<String[]> allProducts = csvReader.readAll();
-      Iterator<String[]> products = allProducts.iterator();
-      while (!isUpdated && products.hasNext()) {
-        String[] product = products.next();
-        if (product[skuIndex].equals(storeProduct.getSku())) {
-          int productIndex = Integer.parseInt(product[0]) - 1;
-          String[] updateRecord = newRecord(storeProduct, header, product[0]);
-          allProducts.set(productIndex, updateRecord);
-          isUpdated = true;
-        }
-      }
-
-      csvReader.close();
-      // Update modified records to CSV
-      CSVWriter csvWriter = new CSVWriter(new FileWriter("ProductList.csv"));
-      csvWriter.writeAll(Collections.singleton(header));
-      csvWriter.writeAll(allProducts);
-      csvWriter.close();
-    } catch (FileNotFoundException fileNotFoundException) {
-      logger.error("Unable to find source file." + fileNotFoundException);
-      throw new CaseStudyExceptionHandler(HttpStatus.NOT_FOUND, "Source not found", "Failed to fetch source file from given path.");
-    } catch (CsvException csvException) {
-      logger.error("Trying to update invalid product details" + csvException);
-      throw new CaseStudyExceptionHandler(HttpStatus.BAD_REQUEST, "Invalid Data", "Failed to update invalid product details.");
+      productCatalog.update(storeProduct);
     } catch (CaseStudyExceptionHandler caseStudyExceptionHandler) {
       logger.error("Trying to update invalid product details." + caseStudyExceptionHandler);
       throw new CaseStudyExceptionHandler(caseStudyExceptionHandler.getExceptionCode(), caseStudyExceptionHandler.getExceptionError(), caseStudyExceptionHandler.getExceptionReason());
@@ -130,27 +315,10 @@ public class CaseStudyService {
   public void createProduct(StoreProduct storeProduct) throws CaseStudyExceptionHandler {
 
     try {
-      CSVReader csvReader = new CSVReader(new FileReader("ProductList.csv"));
-      String[] header = csvReader.readNext();
-      List<String[]> products = csvReader.readAll();
-      int nextIndex = products.size() + 1;
-      if (!StringUtils.hasText(storeProduct.getSku()) || products.stream().anyMatch(product -> Arrays.stream(product).anyMatch(item -> item.equals(storeProduct.getSku())))) {
+      // Duplicate check and index assignment happen atomically inside the catalog
+      if (!StringUtils.hasText(storeProduct.getSku()) || !productCatalog.insert(storeProduct)) {
         throw new CaseStudyExceptionHandler(HttpStatus.BAD_REQUEST, "Duplicate Product", "Product with sku id: " + storeProduct.getSku() + " already exists. Please add product with different SKU");
       }
-      csvReader.close();
-      // Add new product to CSV
-      String[] newProduct = newRecord(storeProduct, header, String.valueOf(nextIndex));
-      products.add(newProduct);
-      CSVWriter csvWriter = new CSVWriter(new FileWriter("ProductList.csv"));
-      csvWriter.writeNext(header);
-      csvWriter.writeAll(products);
-      csvWriter.close();
-    } catch (FileNotFoundException fileNotFoundException) {
-      logger.error("Unable to fetch source file." + fileNotFoundException);
-      throw new CaseStudyExceptionHandler(HttpStatus.NOT_FOUND, "Source not found", "Failed to fetch source file from given path.");
-    } catch (CsvException csvException) {
-      logger.error("Trying to add invalid product details" + csvException);
-      throw new CaseStudyExceptionHandler(HttpStatus.BAD_REQUEST, "Invalid Data", "Failed to create invalid product details.");
     } catch (CaseStudyExceptionHandler caseStudyExceptionHandler) {
       logger.error("Trying to add invalid product details." + caseStudyExceptionHandler);
       throw new CaseStudyExceptionHandler(caseStudyExceptionHandler.getExceptionCode(), caseStudyExceptionHandler.getExceptionError(), caseStudyExceptionHandler.getExceptionReason());
@@ -161,28 +329,124 @@ public class CaseStudyService {
   }
 
   /**
-   * Map updated product with csv header column
-   * @param storeProduct
-   * @param header
-   * @param index
-   * @return product[]
+   * Method used to bulk insert or upsert products streamed as csv or newline delimited json.
+   * Rows are validated while parsing and committed in chunks, each chunk as one group
+   * commit, so memory stays bounded by the chunk size.
+   * @param inputStream request body
+   * @param csv true for csv with header row, false for newline delimited json
+   * @param upsert when false existing skus are rejected
+   * @return BulkImportResult
    * @throws CaseStudyExceptionHandler
    */
-  private String[] newRecord(StoreProduct storeProduct, String[] header, String index) throws CaseStudyExceptionHandler {
-    try {
-      String[] newRecord = new String[header.length];
-      newRecord[Arrays.asList(header).indexOf("productIndex")] = index;
-      newRecord[Arrays.asList(header).indexOf("storeId")] = storeProduct.getStoreId();
-      newRecord[Arrays.asList(header).indexOf("sku")] = storeProduct.getSku();
-      newRecord[Arrays.asList(header).indexOf("productName")] = storeProduct.getProductName();
-      newRecord[Arrays.asList(header).indexOf("price")] = String.valueOf(storeProduct.getPrice());
-      newRecord[Arrays.asList(header).indexOf("date")] = storeProduct.getDate();
-      newRecord[Arrays.asList(header).indexOf("description")] = storeProduct.getDescription();
-      newRecord[Arrays.asList(header).indexOf("imageUrl")] = storeProduct.getImageUrl();
-      return newRecord;
+  public BulkImportResult importProducts(InputStream inputStream, boolean csv, boolean upsert) throws CaseStudyExceptionHandler {
+    BulkImport bulkImport = new BulkImport(upsert);
+    try (BufferedReader reader = new BufferedReader(new InputStreamReader(inputStream, StandardCharsets.UTF_8))) {
+      if (csv) {
+        readCsv(reader, bulkImport);
+      } else {
+        readNdjson(reader, bulkImport);
+      }
+      bulkImport.flush();
+      return bulkImport.result;
+    } catch (CaseStudyExceptionHandler caseStudyExceptionHandler) {
+      logger.error("Trying to import invalid product details." + caseStudyExceptionHandler);
+      throw new CaseStudyExceptionHandler(caseStudyExceptionHandler.getExceptionCode(), caseStudyExceptionHandler.getExceptionError(), caseStudyExceptionHandler.getExceptionReason());
     } catch (Exception exception) {
-      logger.error("Fail to updated product with csv header column ." + exception);
-      throw new CaseStudyExceptionHandler(HttpStatus.INTERNAL_SERVER_ERROR, "Failed to map data with header", "Failed to map updated product with csv header column");
+      logger.error("Trying to import invalid product details." + exception);
+      throw new CaseStudyExceptionHandler(HttpStatus.INTERNAL_SERVER_ERROR, "Failed to import data", "Unable to import products to csv.");
+    }
+  }
+
+  private void readCsv(BufferedReader reader, BulkImport bulkImport) throws IOException, CaseStudyExceptionHandler {
+    StoreProductCsvReader csvReader = new StoreProductCsvReader(reader);
+    if (!csvReader.hasColumn("sku")) {
+      throw new CaseStudyExceptionHandler(HttpStatus.BAD_REQUEST, "Invalid Data", "CSV header must contain a sku column.");
+    }
+    while (true) {
+      StoreProduct storeProduct;
+      try {
+        storeProduct = csvReader.read();
+      } catch (NumberFormatException numberFormatException) {
+        bulkImport.reject(csvReader.getRecordNumber(), null, "price need to adhere to specific format. Provide valid price");
+        continue;
+      } catch (EOFException eofException) {
+        bulkImport.reject(csvReader.getRecordNumber() + 1, null, "Malformed csv row: " + eofException.getMessage());
+        break;
+      }
+      if (storeProduct == null) {
+        break;
+      }
+      bulkImport.add(csvReader.getRecordNumber(), storeProduct);
+    }
+  }
+
+  private void readNdjson(BufferedReader reader, BulkImport bulkImport) throws IOException, CaseStudyExceptionHandler {
+    ObjectReader productReader = objectMapper.readerFor(StoreProduct.class);
+    String line;
+    long row = 0;
+    while ((line = reader.readLine()) != null) {
+      if (!StringUtils.hasText(line)) {
+        continue;
+      }
+      row++;
+      try {
+        bulkImport.add(row, productReader.readValue(line));
+      } catch (JsonProcessingException jsonProcessingException) {
+        bulkImport.reject(row, null, "Invalid json: " + jsonProcessingException.getOriginalMessage());
+      }
+    }
+  }
+
+  /**
+   * Collects parsed rows of a bulk import and commits them chunk by chunk
+   */
+  private class BulkImport {
+    private final boolean upsert;
+    private final BulkImportResult result = new BulkImportResult();
+    private final List<StoreProduct> chunk = new ArrayList<>(BULK_CHUNK_SIZE);
+    private final long[] chunkRows = new long[BULK_CHUNK_SIZE];
+
+    private BulkImport(boolean upsert) {
+      this.upsert = upsert;
+    }
+
+    private void add(long row, StoreProduct storeProduct) throws CaseStudyExceptionHandler {
+      result.received();
+      if (!StringUtils.hasText(storeProduct.getSku())) {
+        result.reject(row, storeProduct.getSku(), "sku is required");
+        return;
+      }
+      chunkRows[chunk.size()] = row;
+      chunk.add(storeProduct);
+      if (chunk.size() == BULK_CHUNK_SIZE) {
+        flush();
+      }
+    }
+
+    private void reject(long row, String sku, String reason) {
+      result.received();
+      result.reject(row, sku, reason);
+    }
+
+    private void flush() throws CaseStudyExceptionHandler {
+      if (chunk.isEmpty()) {
+        return;
+      }
+      List<SaveOutcome> outcomes = productCatalog.saveAll(chunk, upsert);
+      for (int i = 0; i < outcomes.size(); i++) {
+        switch (outcomes.get(i)) {
+          case INSERTED:
+            result.inserted();
+            break;
+          case UPDATED:
+            result.updated();
+            break;
+          default:
+            result.reject(chunkRows[i], chunk.get(i).getSku(), "Product with sku id: " + chunk.get(i).getSku() + " already exists");
+            break;
+        }
+      }
+      chunk.clear();
     }
   }
 }
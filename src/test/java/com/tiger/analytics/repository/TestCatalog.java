@@ -0,0 +1,70 @@
+package com.tiger.analytics.repository;
+
+import com.tiger.analytics.App;
+import java.io.BufferedWriter;
+import java.io.IOException;
+import java.nio.charset.StandardCharsets;
+import java.nio.file.Files;
+import java.nio.file.Path;
+import java.util.Random;
+import org.springframework.boot.builder.SpringApplicationBuilder;
+import org.springframework.context.ConfigurableApplicationContext;
+
+/**
+ * Generated catalogs for tests, shaped like the real catalog, and the application booted on
+ * a random port against one of them.
+ */
+final class TestCatalog {
+
+  private static final int STORES = 500;
+  private static final String[] DATES = {"08/06/22", "09/06/22", "10/06/2022", "11/06/22"};
+
+  private TestCatalog() {
+  }
+
+  /**
+   * Write a catalog with the given number of products into a directory
+   * @param directory
+   * @param rows
+   * @return path of the generated csv
+   * @throws IOException
+   */
+  static Path generate(Path directory, int rows) throws IOException {
+    Path catalog = directory.resolve("ProductList.csv");
+    Random random = new Random(rows);
+    try (BufferedWriter writer = Files.newBufferedWriter(catalog, StandardCharsets.UTF_8)) {
+      writer.write("\"productIndex\",\"storeId\",\"sku\",\"productName\",\"price\",\"date\",\"description\",\"imageUrl\"\n");
+      for (int i = 1; i <= rows; i++) {
+        writer.write('"' + String.valueOf(i) + "\",\"PSID-" + random.nextInt(STORES) + "\",\"" + sku(i)
+            + "\",\"Product " + i + "\",\"" + (random.nextInt(100000) / 100d) + "\",\"" + DATES[random.nextInt(DATES.length)]
+            + "\",\"<p>Synthetic description for product " + i + " with some filler text</p>\",\"https://burst.shopifycdn.com/photos/product-"
+            + i + "_925x.jpg\"\n");
+      }
+    }
+    return catalog;
+  }
+
+  /**
+   * Sku of the generated product with the given index
+   * @param index
+   * @return sku
+   */
+  static String sku(int index) {
+    return "PR" + (1000000 + index);
+  }
+
+  static ConfigurableApplicationContext start(Path catalog, String... args) {
+    String[] arguments = new String[args.length + 5];
+    arguments[0] = "--catalog.file=" + catalog;
+    arguments[1] = "--server.port=0";
+    arguments[2] = "--logging.level.root=WARN";
+    // the global registry and the logback metrics outlive the context, their registries would keep
+    // every closed catalog reachable through its gauges
+    arguments[3] = "--management.metrics.use-global-registry=false";
+    arguments[4] = "--spring.autoconfigure.exclude=org.springframework.boot.actuate.autoconfigure.metrics.LogbackMetricsAutoConfiguration";
+    System.arraycopy(args, 0, arguments, 5, args.length);
+    return new SpringApplicationBuilder(App.class)
+        .logStartupInfo(false)
+        .run(arguments);
+  }
+}
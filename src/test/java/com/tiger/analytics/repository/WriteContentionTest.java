@@ -0,0 +1,195 @@
+package com.tiger.analytics.repository;
+
+import static org.junit.jupiter.api.Assertions.assertEquals;
+import static org.junit.jupiter.api.Assertions.assertNotNull;
+import static org.junit.jupiter.api.Assertions.assertTrue;
+
+import com.tiger.analytics.model.StoreProduct;
+import java.nio.file.Path;
+import java.util.ArrayList;
+import java.util.HashMap;
+import java.util.HashSet;
+import java.util.List;
+import java.util.Map;
+import java.util.Objects;
+import java.util.Set;
+import java.util.concurrent.Callable;
+import java.util.concurrent.CountDownLatch;
+import java.util.concurrent.ExecutorService;
+import java.util.concurrent.Executors;
+import java.util.concurrent.Future;
+import java.util.concurrent.ThreadLocalRandom;
+import java.util.concurrent.TimeUnit;
+import java.util.concurrent.atomic.AtomicInteger;
+import java.util.concurrent.atomic.LongAdder;
+import org.junit.jupiter.api.Test;
+import org.junit.jupiter.api.io.TempDir;
+import org.springframework.context.ConfigurableApplicationContext;
+
+/**
+ * Stress test of concurrent writes. Eight updaters each own a few skus and overwrite them
+ * with increasing values, four creators add products with skus of their own, and four racers
+ * all try to create the same sku until one of them wins and moves on to the next. All of
+ * them share sku lock stripes and the group commit writer.
+ *
+ * Afterwards the catalog has to hold the last acknowledged value of every owned sku, every
+ * created product, exactly one product per raced sku and no product index twice, and the
+ * same after a restart from the change log.
+ */
+class WriteContentionTest {
+
+  private static final int ROWS = 10000;
+  private static final int OWNED_SKUS = 8;
+  private static final int UPDATERS = 8;
+  private static final int CREATORS = 4;
+  private static final int RACERS = 4;
+  private static final int WRITES = 250;
+  private static final int RACED_SKUS = 250;
+
+  @TempDir
+  Path directory;
+
+  private final AtomicInteger raceRound = new AtomicInteger();
+  private final LongAdder raceWins = new LongAdder();
+
+  @Test
+  void concurrentWritesAreKeptBeforeAndAfterRestart() throws Exception {
+    Path catalog = TestCatalog.generate(directory, ROWS);
+    ConfigurableApplicationContext context = TestCatalog.start(catalog);
+    ProductCatalog productCatalog = context.getBean(ProductCatalog.class);
+    List<Map<String, String>> acknowledged = write(productCatalog);
+
+    int expected = ROWS + raceRound.get() + CREATORS * WRITES;
+    assertEquals(raceRound.get(), raceWins.sum(), "racing creates that won");
+    Map<String, StoreProduct> before = check(productCatalog, expected, acknowledged);
+    context.close();
+
+    context = TestCatalog.start(catalog);
+    try {
+      Map<String, StoreProduct> after = check(context.getBean(ProductCatalog.class), expected, acknowledged);
+      for (StoreProduct product : before.values()) {
+        assertTrue(same(product, after.get(product.getSku())), "Product " + product.getSku() + " changed on restart");
+      }
+    } finally {
+      context.close();
+    }
+  }
+
+  /**
+   * Run all writers at once
+   * @param productCatalog
+   * @return skus and last acknowledged names of every writer
+   * @throws Exception
+   */
+  private List<Map<String, String>> write(ProductCatalog productCatalog) throws Exception {
+    ExecutorService executor = Executors.newFixedThreadPool(UPDATERS + CREATORS + RACERS);
+    CountDownLatch start = new CountDownLatch(1);
+    List<Future<Map<String, String>>> writers = new ArrayList<>();
+    for (int writer = 0; writer < UPDATERS; writer++) {
+      writers.add(executor.submit(started(start, updater(productCatalog, writer))));
+    }
+    for (int writer = UPDATERS; writer < UPDATERS + CREATORS; writer++) {
+      writers.add(executor.submit(started(start, creator(productCatalog, writer))));
+    }
+    for (int writer = 0; writer < RACERS; writer++) {
+      writers.add(executor.submit(started(start, racer(productCatalog))));
+    }
+    start.countDown();
+    List<Map<String, String>> acknowledged = new ArrayList<>();
+    try {
+      for (Future<Map<String, String>> writer : writers) {
+        acknowledged.add(writer.get(2, TimeUnit.MINUTES));
+      }
+    } finally {
+      executor.shutdownNow();
+    }
+    return acknowledged;
+  }
+
+  private static Callable<Map<String, String>> started(CountDownLatch start, Callable<Map<String, String>> writer) {
+    return () -> {
+      start.await();
+      return writer.call();
+    };
+  }
+
+  private static Callable<Map<String, String>> updater(ProductCatalog productCatalog, int id) {
+    return () -> {
+      Map<String, String> acknowledged = new HashMap<>();
+      for (int sequence = 1; sequence <= WRITES; sequence++) {
+        // owned skus are spread over the catalog, so owners share lock stripes
+        int index = 1 + (id * OWNED_SKUS + ThreadLocalRandom.current().nextInt(OWNED_SKUS)) * 7 % ROWS;
+        String sku = TestCatalog.sku(index);
+        String name = "Writer " + id + " update " + sequence;
+        assertTrue(productCatalog.update(product(sku, name)), "update of existing " + sku);
+        acknowledged.put(sku, name);
+      }
+      return acknowledged;
+    };
+  }
+
+  private static Callable<Map<String, String>> creator(ProductCatalog productCatalog, int id) {
+    return () -> {
+      Map<String, String> acknowledged = new HashMap<>();
+      for (int created = 0; created < WRITES; created++) {
+        String sku = "NEW-" + id + "-" + created;
+        String name = "Writer " + id + " create";
+        assertTrue(productCatalog.insert(product(sku, name)), "create of new " + sku);
+        acknowledged.put(sku, name);
+      }
+      return acknowledged;
+    };
+  }
+
+  private Callable<Map<String, String>> racer(ProductCatalog productCatalog) {
+    return () -> {
+      while (raceRound.get() < RACED_SKUS) {
+        int round = raceRound.get();
+        if (productCatalog.insert(product("RACE-" + round, "Race " + round))) {
+          raceWins.increment();
+          raceRound.incrementAndGet();
+        }
+      }
+      return new HashMap<>();
+    };
+  }
+
+  private static Map<String, StoreProduct> check(ProductCatalog productCatalog, int expected, List<Map<String, String>> acknowledged) throws Exception {
+    List<StoreProduct> products = productCatalog.findAll();
+    Map<String, StoreProduct> bySku = new HashMap<>();
+    Set<String> productIndexes = new HashSet<>();
+    for (StoreProduct product : products) {
+      assertTrue(productIndexes.add(product.getProductIndex()), "Product index " + product.getProductIndex() + " assigned twice");
+      bySku.put(product.getSku(), product);
+    }
+    assertEquals(expected, products.size(), "products");
+    assertEquals(expected, bySku.size(), "distinct skus");
+    for (Map<String, String> writer : acknowledged) {
+      for (Map.Entry<String, String> entry : writer.entrySet()) {
+        StoreProduct product = bySku.get(entry.getKey());
+        assertNotNull(product, "Lost product " + entry.getKey());
+        assertEquals(entry.getValue(), product.getProductName(), "Lost update of " + entry.getKey());
+      }
+    }
+    return bySku;
+  }
+
+  private static StoreProduct product(String sku, String name) {
+    StoreProduct storeProduct = new StoreProduct();
+    storeProduct.setStoreId("PSID-" + Math.floorMod(sku.hashCode(), 500));
+    storeProduct.setSku(sku);
+    storeProduct.setProductName(name);
+    storeProduct.setPrice(ThreadLocalRandom.current().nextInt(100000) / 100d);
+    storeProduct.setDate("08/06/22");
+    return storeProduct;
+  }
+
+  private static boolean same(StoreProduct product, StoreProduct other) {
+    return other != null
+        && Objects.equals(product.getProductIndex(), other.getProductIndex())
+        && Objects.equals(product.getStoreId(), other.getStoreId())
+        && Objects.equals(product.getProductName(), other.getProductName())
+        && Objects.equals(product.getPrice(), other.getPrice())
+        && Objects.equals(product.getDate(), other.getDate());
+  }
+}